@@ -13,11 +13,6 @@ import spice.basic.CSPICE;
  */
 public class MxvhatWorkerJava extends BenchWorker<double[]> {
 
-    @Override
-    public int getBytes() {
-        return 3*Double.BYTES;
-    }
-
     @NotNull
     @Override
     public String getDescription() {
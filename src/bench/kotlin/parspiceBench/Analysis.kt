@@ -1,6 +1,7 @@
 package parspiceBench
 
 import org.apache.commons.math3.stat.regression.OLSMultipleLinearRegression
+import parspice.Calibration
 import java.io.File
 
 /**
@@ -13,6 +14,9 @@ import java.io.File
  * and accuracy. True accuracy and realism aren't the goal;
  * its meant to be a simple heuristic model for determining whether
  * to use ParSPICE or not.
+ *
+ * The fitted coefficients are saved as this machine's Calibration, which
+ * jobs run with Job.AUTO workers use to pick their number of workers.
  */
 fun main() {
     val csv = File("benchmark_log.csv").readLines()
@@ -81,6 +85,11 @@ fun main() {
                 w = number of workers
                 t = average single-threaded time per task, in ns
         """.trimIndent())
+
+    val calibration = Calibration(beta[0], beta[1], beta[2])
+    val file = Calibration.defaultFile()
+    calibration.save(file)
+    println("\nSaved the model as this machine's calibration, in $file")
 }
 
 /*
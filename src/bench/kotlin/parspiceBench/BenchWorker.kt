@@ -5,16 +5,15 @@ import parspice.worker.OWorker
 
 /**
  * Simple wrapper class for OWorkers, that provides additional information
- * about how many times it should be run, and how many bytes are sent per iteration.
+ * about how many times it should be run. The bytes sent per iteration are
+ * measured by ParSPICE during each run (see JobStats).
  *
- * @property bytes Number of bytes sent per iteration.
  * @property numSingleThreadedTasks how many tasks should be run during the
  *                                  single threaded case
  * @property numParallelTasks a map from the number of workers, to a list of task counts
  *                            to run with that many workers.
  */
 abstract class BenchWorker<O>(sender: Sender<O>): OWorker<O>(sender) {
-    abstract val bytes: Int
     open val numSingleThreadedTasks
         get() = 1000000
     open val numParallelTasks
@@ -47,14 +47,14 @@ fun <T> run(job: BenchWorker<T>): MutableList<Run> {
     for ((numWorkers, numTasksList) in job.numParallelTasks) {
         for (numTasks in numTasksList) {
             tick()
-            job.init(numWorkers, numTasks).run(par)
+            val stats = job.init(numWorkers, numTasks).run(par).jobStats
             val time = tock()
             runs.add(
                 Run (
                     job.description,
                     numTasks,
                     numWorkers,
-                    job.bytes,
+                    (stats.inputBytes + stats.outputBytes).toDouble() / numTasks,
                     taskTime,
                     time,
                     job.java
@@ -7,7 +7,8 @@ package parspiceBench
  *                           a bodgy identifier
  * @property numTasks the number of tasks of the task
  * @property numWorkers the number of workers used
- * @property messageSize the number of bytes sent per iteration
+ * @property messageSize the number of bytes of inputs and outputs sent per iteration,
+ *                        as measured during the run
  * @property taskTime the average time to run the task once on one process, in ms
  * @property totalTime the total time it took to run multiprocessed, in ms
  */
@@ -15,7 +16,7 @@ data class Run(
     val caseDescription: String,
     val numTasks: Int,
     val numWorkers: Int,
-    val messageSize: Int,
+    val messageSize: Double,
     val taskTime: Double,
     val totalTime: Long,
     val java: Boolean
@@ -35,7 +36,7 @@ data class Run(
                 parts[0],
                 parts[1].toInt(),
                 parts[2].toInt(),
-                parts[3].toInt(),
+                parts[3].toDouble(),
                 parts[4].toDouble(),
                 parts[5].toLong(),
                 parts[6].toBoolean()
@@ -0,0 +1,59 @@
+package parspiceBench.affinity
+
+import parspice.Affinity
+import parspiceBench.BenchWorker
+import parspiceBench.par
+import parspiceBench.tick
+import parspiceBench.tock
+import parspiceBench.workers.MxvhatWorker
+import parspiceBench.workers.SincptWorker
+
+/**
+ * How many times each case is run with each affinity.
+ */
+const val REPEATS = 5
+
+/**
+ * Main function of the `gradle affinityBenchmark` task.
+ *
+ * Runs the same jobs with unpinned workers, and with workers pinned to their
+ * NUMA node or to cores of their own, leaving one core to the main process.
+ * Every job has a worker per remaining core. The runs of each case alternate
+ * between the affinities, so drift in the machine's load affects them alike.
+ *
+ * Prints a csv with header:
+ * caseDescription, numTasks, numWorkers, affinity, bestTime, medianTime
+ */
+fun main() {
+    val numWorkers = maxOf(1, Runtime.getRuntime().availableProcessors() - 1)
+    val affinities = listOf(
+        Affinity.NONE,
+        Affinity(Affinity.Placement.NODE, 1),
+        Affinity(Affinity.Placement.CORE, 1)
+    )
+    val cases: List<Pair<BenchWorker<*>, Int>> = listOf(
+        MxvhatWorker() to 10000000,
+        SincptWorker() to 1000000
+    )
+
+    println("NUMA nodes (CPUs of each): ${Affinity.topology()}")
+    println("Running ${cases.size} cases with ${affinities.size} affinities, $REPEATS times each. This can take a few minutes.\n")
+    println("caseDescription, numTasks, numWorkers, affinity, bestTime, medianTime")
+
+    for ((worker, numTasks) in cases) {
+        val times = affinities.map { mutableListOf<Long>() }
+        for (repeat in 0 until REPEATS) {
+            for (i in affinities.indices) {
+                par.affinity = affinities[i]
+                tick()
+                worker.init(numWorkers, numTasks).run(par)
+                times[i].add(tock())
+            }
+        }
+        for (i in affinities.indices) {
+            val sorted = times[i].sorted()
+            println("${worker.description}, $numTasks, $numWorkers, ${affinities[i]}, ${sorted.first()}, ${sorted[sorted.size / 2]}")
+        }
+    }
+    par.affinity = Affinity.NONE
+}
@@ -19,9 +19,6 @@ import spice.basic.CSPICE.*
  */
 class GfposcWorker: BenchWorker<DoubleArray>(DoubleArraySender()) {
 
-    override val bytes: Int
-        // this is an approximation (the size varies with the number of workers
-        get() = Int.SIZE_BYTES + 3*Double.SIZE_BYTES
     override val numParallelTasks
         get() = mapOf(
             2 to intArrayOf(2),
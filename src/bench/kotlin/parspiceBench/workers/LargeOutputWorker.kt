@@ -10,8 +10,6 @@ const val LENGTH = 500
  * by running a cheap task that returns many integers.
  */
 class LargeOutputWorker: BenchWorker<IntArray>(IntArraySender(LENGTH)) {
-    override val bytes: Int
-        get() = LENGTH*Int.SIZE_BYTES
     override val numParallelTasks
         get() = mapOf(
             1 to intArrayOf(1000000),
@@ -9,9 +9,6 @@ import spice.basic.CSPICE.*
  */
 class MxvhatWorker : BenchWorker<DoubleArray>(DoubleArraySender(3)) {
 
-    override val bytes: Int
-        get() = 3*Double.SIZE_BYTES
-
     override val description: String
         get() = "vhat(mxv( ... ))"
 
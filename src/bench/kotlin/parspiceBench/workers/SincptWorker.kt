@@ -8,8 +8,6 @@ import spice.basic.CSPICE.*
  * A more expensive CSPICE task, with several calls including sincpt.
  */
 class SincptWorker: BenchWorker<DoubleArray>(DoubleArraySender(3)) {
-    override val bytes
-        get() = 3 * Double.SIZE_BYTES
     override val numParallelTasks
         get() = mapOf(
             1 to intArrayOf(1000000),
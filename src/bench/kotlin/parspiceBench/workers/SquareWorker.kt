@@ -8,8 +8,6 @@ import kotlin.math.pow
  * The most basic, cheapest case.
  */
 class SquareWorker : BenchWorker<Double>(DoubleSender()) {
-    override val bytes
-        get() = Double.SIZE_BYTES
     override val numParallelTasks
         get() = mapOf(
             2 to intArrayOf(1000, 100000),
@@ -0,0 +1,288 @@
+package parspice;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Where worker processes are allowed to run: which CPUs each one is pinned to,
+ * with taskset, when it is started (see ParSPICE.setAffinity).
+ *
+ * Left alone, the kernel can migrate a worker's JVM between the sockets of a
+ * multi-socket machine, away from the memory it allocated, and run workers on
+ * the cores the main process needs for its IO. Pinning spreads the workers
+ * across the machine's NUMA nodes round-robin, so worker w runs on node
+ * w % (number of nodes), and keeps them off the first reservedCores CPUs,
+ * which are left to the main process. Since memory is allocated on the node
+ * that first touches it, a pinned worker's memory stays local.
+ *
+ * Pinning only works on Linux, with taskset on the PATH. Elsewhere, workers
+ * are started unpinned, with a warning. Jobs run in the main process (see
+ * ExecutionMode) aren't pinned either.
+ */
+public final class Affinity {
+
+    /**
+     * How tightly each worker is pinned.
+     */
+    public enum Placement {
+
+        /**
+         * Workers aren't pinned.
+         */
+        NONE,
+
+        /**
+         * Each worker is pinned to every usable CPU of its NUMA node, and the
+         * kernel balances the workers within each node.
+         */
+        NODE,
+
+        /**
+         * Each worker is pinned to CPUs of its own on its NUMA node, one per task
+         * thread (see Worker.getThreadsPerWorker). Workers only share CPUs if
+         * there are more task threads than usable CPUs on a node.
+         */
+        CORE
+    }
+
+    /**
+     * Workers aren't pinned. The default.
+     */
+    public static final Affinity NONE = new Affinity(Placement.NONE, 0);
+
+    /**
+     * The CPUs of each NUMA node this process may use, read once.
+     */
+    private static volatile List<List<Integer>> topology;
+
+    /**
+     * Whether the warning that pinning isn't available has been printed.
+     */
+    private static volatile boolean warned = false;
+
+    private final Placement placement;
+    private final int reservedCores;
+
+    /**
+     * @param placement how tightly each worker is pinned
+     * @param reservedCores how many CPUs to keep the workers off, for the main process;
+     *                      ignored if it would leave the workers none
+     * @throws IllegalArgumentException if placement is null or reservedCores is negative
+     */
+    public Affinity(Placement placement, int reservedCores) {
+        if (placement == null) {
+            throw new IllegalArgumentException("Placement cannot be null");
+        }
+        if (reservedCores < 0) {
+            throw new IllegalArgumentException("Reserved cores cannot be negative, was " + reservedCores);
+        }
+        this.placement = placement;
+        this.reservedCores = reservedCores;
+    }
+
+    public Placement getPlacement() {
+        return placement;
+    }
+
+    public int getReservedCores() {
+        return reservedCores;
+    }
+
+    /**
+     * Picks the CPUs to pin a worker to.
+     *
+     * The reserved CPUs are the lowest-numbered ones, starting on the first node.
+     * A replacement worker has the same worker ID as the worker it replaces, so
+     * it is pinned to the same CPUs.
+     *
+     * @param workerID the ID of the worker
+     * @param threads the number of task threads the worker runs
+     * @param nodes the CPUs of each NUMA node, as from topology
+     * @return the CPUs to pin the worker to, in ascending order, or an empty list to leave it unpinned
+     */
+    public List<Integer> place(int workerID, int threads, List<List<Integer>> nodes) {
+        if (placement == Placement.NONE) {
+            return Collections.emptyList();
+        }
+        List<List<Integer>> usable = reserve(nodes, reservedCores);
+        if (usable.isEmpty()) {
+            usable = reserve(nodes, 0);
+        }
+        if (usable.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Integer> node = usable.get(workerID % usable.size());
+        if (placement == Placement.NODE || threads >= node.size()) {
+            return new ArrayList<>(node);
+        }
+        // Workers on the same node take consecutive CPUs, wrapping around if there are too few.
+        int first = workerID / usable.size() * threads;
+        List<Integer> cpus = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            cpus.add(node.get((first + i) % node.size()));
+        }
+        Collections.sort(cpus);
+        return cpus;
+    }
+
+    /**
+     * @return the nodes, without their first reservedCores CPUs, or nodes left empty
+     */
+    private static List<List<Integer>> reserve(List<List<Integer>> nodes, int reservedCores) {
+        List<List<Integer>> usable = new ArrayList<>(nodes.size());
+        int toReserve = reservedCores;
+        for (List<Integer> node : nodes) {
+            int skip = Math.min(toReserve, node.size());
+            toReserve -= skip;
+            if (skip < node.size()) {
+                usable.add(node.subList(skip, node.size()));
+            }
+        }
+        return usable;
+    }
+
+    /**
+     * The command to start a worker process with before the java command,
+     * to pin it to its CPUs.
+     *
+     * @param workerID the ID of the worker
+     * @param threads the number of task threads the worker runs
+     * @return the taskset command and its arguments, or an empty list if the worker isn't pinned
+     */
+    public List<String> launchPrefix(int workerID, int threads) {
+        if (placement == Placement.NONE) {
+            return Collections.emptyList();
+        }
+        if (!isSupported()) {
+            if (!warned) {
+                warned = true;
+                System.err.println("ParSPICE: pinning workers needs Linux and taskset, so they are not pinned");
+            }
+            return Collections.emptyList();
+        }
+        List<Integer> cpus = place(workerID, threads, topology());
+        if (cpus.isEmpty()) {
+            return Collections.emptyList();
+        }
+        StringBuilder list = new StringBuilder();
+        for (int cpu : cpus) {
+            if (list.length() > 0) {
+                list.append(',');
+            }
+            list.append(cpu);
+        }
+        return Arrays.asList("taskset", "-c", list.toString());
+    }
+
+    /**
+     * @return true if this is Linux and taskset is on the PATH
+     */
+    private static boolean isSupported() {
+        if (!System.getProperty("os.name", "").toLowerCase().startsWith("linux")) {
+            return false;
+        }
+        String path = System.getenv("PATH");
+        if (path == null) {
+            return false;
+        }
+        for (String directory : path.split(File.pathSeparator)) {
+            if (new File(directory, "taskset").canExecute()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the CPUs of each NUMA node from /sys/devices/system/node, leaving
+     * out the CPUs this process isn't allowed to run on (as in a container
+     * limited to some CPUs), and nodes left without any. Without that
+     * information, all the CPUs are taken to be on one node.
+     *
+     * @return the CPUs of each NUMA node, in ascending order
+     */
+    public static List<List<Integer>> topology() {
+        List<List<Integer>> nodes = topology;
+        if (nodes == null) {
+            nodes = Collections.unmodifiableList(readTopology());
+            topology = nodes;
+        }
+        return nodes;
+    }
+
+    private static List<List<Integer>> readTopology() {
+        List<Integer> allowed = null;
+        try {
+            for (String line : Files.readAllLines(new File("/proc/self/status").toPath(), StandardCharsets.UTF_8)) {
+                if (line.startsWith("Cpus_allowed_list:")) {
+                    allowed = parseCpuList(line.substring(line.indexOf(':') + 1));
+                }
+            }
+        } catch (IOException | RuntimeException ignored) {}
+
+        List<List<Integer>> nodes = new ArrayList<>();
+        for (int n = 0; ; n++) {
+            File file = new File("/sys/devices/system/node/node" + n + "/cpulist");
+            if (!file.isFile()) {
+                break;
+            }
+            try {
+                List<Integer> cpus = parseCpuList(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+                if (allowed != null) {
+                    cpus.retainAll(allowed);
+                }
+                if (!cpus.isEmpty()) {
+                    nodes.add(Collections.unmodifiableList(cpus));
+                }
+            } catch (IOException | RuntimeException e) {
+                nodes.clear();
+                break;
+            }
+        }
+        if (nodes.isEmpty()) {
+            List<Integer> cpus = allowed;
+            if (cpus == null) {
+                cpus = new ArrayList<>();
+                for (int i = 0; i < Runtime.getRuntime().availableProcessors(); i++) {
+                    cpus.add(i);
+                }
+            }
+            nodes.add(Collections.unmodifiableList(cpus));
+        }
+        return nodes;
+    }
+
+    /**
+     * Parses a list of CPUs in the kernel's format, such as "0-3,8,10-11".
+     *
+     * @param list the list
+     * @return the CPUs, in the order given
+     * @throws NumberFormatException if the list is malformed
+     */
+    private static List<Integer> parseCpuList(String list) {
+        List<Integer> cpus = new ArrayList<>();
+        for (String range : list.trim().split(",")) {
+            if (range.isEmpty()) {
+                continue;
+            }
+            int dash = range.indexOf('-');
+            int first = Integer.parseInt(dash < 0 ? range : range.substring(0, dash));
+            int last = dash < 0 ? first : Integer.parseInt(range.substring(dash + 1));
+            for (int cpu = first; cpu <= last; cpu++) {
+                cpus.add(cpu);
+            }
+        }
+        return cpus;
+    }
+
+    @Override
+    public String toString() {
+        return placement + (reservedCores > 0 ? " (" + reservedCores + " cores reserved)" : "");
+    }
+}
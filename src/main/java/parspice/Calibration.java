@@ -0,0 +1,190 @@
+package parspice;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * The coefficients of the runtime model fitted by the benchmark (see the
+ * README), for the machine it ran on:
+ *
+ * <pre>
+ *      / B_1       \
+ * T = |  --- + B_3  | T_0 + B_2 D
+ *      \  W        /
+ * </pre>
+ *
+ * where T is the time a job takes through ParSPICE, T_0 the time its tasks
+ * take run directly in one thread, W the number of workers, and D the data
+ * sent between the processes, in MB.
+ *
+ * The benchmark's analysis saves its fit to defaultFile, and every ParSPICE
+ * object loads it from there when it is created (see ParSPICE.getCalibration).
+ * Jobs run with Job.AUTO workers use it to pick their number of workers.
+ * Machines that haven't been benchmarked use DEFAULT.
+ */
+public final class Calibration {
+
+    /**
+     * Coefficients in the middle of the ranges the benchmark usually finds
+     * on consumer machines, for when no calibration has been saved.
+     */
+    public static final Calibration DEFAULT = new Calibration(1.5, 0.0, 5.0);
+
+    private final double parallel;
+    private final double serial;
+    private final double millisPerMegabyte;
+
+    /**
+     * @param parallel B_1, the factor on the single-threaded time that is split between the workers
+     * @param serial B_3, the factor on the single-threaded time that isn't
+     * @param millisPerMegabyte B_2, the time to send a MB between the processes, in ms
+     */
+    public Calibration(double parallel, double serial, double millisPerMegabyte) {
+        this.parallel = parallel;
+        this.serial = serial;
+        this.millisPerMegabyte = millisPerMegabyte;
+    }
+
+    /**
+     * @return B_1, the factor on the single-threaded time that is split between the workers
+     */
+    public double getParallel() {
+        return parallel;
+    }
+
+    /**
+     * @return B_3, the factor on the single-threaded time that isn't
+     */
+    public double getSerial() {
+        return serial;
+    }
+
+    /**
+     * @return B_2, the time to send a MB between the processes, in ms
+     */
+    public double getMillisPerMegabyte() {
+        return millisPerMegabyte;
+    }
+
+    /**
+     * Predicts how long a job takes through ParSPICE, once its workers have
+     * started, according to the model.
+     *
+     * @param numWorkers the number of workers
+     * @param singleThreadedMillis the time the tasks take run directly in one thread, in ms
+     * @param megabytes the data sent between the processes, in MB
+     * @return the predicted time, in ms
+     */
+    public double predictMillis(int numWorkers, double singleThreadedMillis, double megabytes) {
+        return (parallel / numWorkers + serial) * singleThreadedMillis + millisPerMegabyte * megabytes;
+    }
+
+    /**
+     * Picks the number of workers predicted to run a job fastest, or none if
+     * running its tasks directly in one thread is predicted to be faster.
+     *
+     * @param numTasks the number of tasks in the job
+     * @param taskNanos the time a task takes, in ns
+     * @param bytesPerTask the inputs and outputs sent per task, in bytes
+     * @param startNanos the time it takes to start a worker, in ns
+     * @param maxWorkers the most workers to use, usually the number of cores
+     * @return the number of workers, from 1 to maxWorkers (and no more than numTasks),
+     *         or 0 to run the tasks in one thread
+     */
+    public int bestWorkers(int numTasks, double taskNanos, double bytesPerTask, double startNanos, int maxWorkers) {
+        double singleThreadedMillis = numTasks * taskNanos / 1e6;
+        double megabytes = numTasks * bytesPerTask / 1e6;
+        double startMillis = startNanos / 1e6;
+        int best = 0;
+        double bestMillis = singleThreadedMillis;
+        for (int w = 1; w <= Math.min(maxWorkers, numTasks); w++) {
+            double millis = startMillis + predictMillis(w, singleThreadedMillis, megabytes);
+            if (millis < bestMillis) {
+                best = w;
+                bestMillis = millis;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return where the calibration of this machine is saved: .parspice/calibration.properties
+     *         in the user's home directory
+     */
+    public static File defaultFile() {
+        return new File(new File(System.getProperty("user.home"), ".parspice"), "calibration.properties");
+    }
+
+    /**
+     * Loads the calibration of this machine from defaultFile, if the benchmark has saved one.
+     *
+     * @return the saved calibration, or DEFAULT if there isn't one or it can't be read
+     */
+    public static Calibration forThisMachine() {
+        File file = defaultFile();
+        if (!file.isFile()) {
+            return DEFAULT;
+        }
+        try {
+            return load(file);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("ParSPICE: could not load the calibration in " + file + ": " + e);
+            return DEFAULT;
+        }
+    }
+
+    /**
+     * Loads a calibration saved with save.
+     *
+     * @param file the file to read
+     * @return the calibration
+     * @throws IOException if the file can't be read
+     * @throws IllegalArgumentException if a coefficient is missing or isn't a number
+     */
+    public static Calibration load(File file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        }
+        return new Calibration(coefficient(properties, "parallel"), coefficient(properties, "serial"),
+                coefficient(properties, "millisPerMegabyte"));
+    }
+
+    private static double coefficient(Properties properties, String key) {
+        String value = properties.getProperty(key);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing coefficient " + key);
+        }
+        return Double.parseDouble(value);
+    }
+
+    /**
+     * Saves the calibration, creating the file's directory if need be.
+     *
+     * @param file the file to write
+     * @throws IOException if the file can't be written
+     */
+    public void save(File file) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+        Properties properties = new Properties();
+        properties.setProperty("parallel", Double.toString(parallel));
+        properties.setProperty("serial", Double.toString(serial));
+        properties.setProperty("millisPerMegabyte", Double.toString(millisPerMegabyte));
+        try (OutputStream out = new FileOutputStream(file)) {
+            properties.store(out, "ParSPICE runtime model, fitted by the benchmark");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("T = (%.3f / W + %.3f) T0 + %.3f[ms/MB] D", parallel, serial, millisPerMegabyte);
+    }
+}
@@ -0,0 +1,42 @@
+package parspice;
+
+/**
+ * Where jobs run their tasks: on worker processes, or on a thread inside
+ * the main process (see ParSPICE.setExecutionMode).
+ *
+ * Running in the main process saves starting a JVM and sending the inputs and
+ * outputs over a socket, which is most of the cost of a small job. The tasks
+ * are run one at a time on a single thread, by a new instance of the Worker,
+ * and the inputs and outputs are passed to and from it directly, without their
+ * Senders. Everything else works as it does with worker processes (outputs,
+ * captured errors, checkpoints, caching, progress and stats), except:
+ *
+ * - a worker that fails isn't retried, since it would fail the same way again;
+ * - task timeouts and crash isolation don't apply, since a thread can't be
+ *   killed safely, and a crash takes down the main process;
+ * - every task runs on the same Worker instance, with worker ID 0, and the
+ *   setup input of the first worker.
+ *
+ * So jobs whose workers have different setup inputs always run on worker
+ * processes, whatever the execution mode, since their tasks would give
+ * different outputs after a single setup.
+ */
+public enum ExecutionMode {
+
+    /**
+     * Jobs run on worker processes. Jobs with Job.AUTO workers may still run
+     * in the main process, when that is predicted to be faster. The default.
+     */
+    PROCESSES,
+
+    /**
+     * Jobs with a single worker run in the main process; the rest run on
+     * worker processes, as with PROCESSES.
+     */
+    SINGLE_WORKER_IN_PROCESS,
+
+    /**
+     * Every job runs in the main process, whatever its number of workers.
+     */
+    IN_PROCESS
+}
@@ -0,0 +1,317 @@
+package parspice;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Live counts of what ParSPICE is doing in this JVM, for running it inside a
+ * long-lived service: the jobs and worker processes running now, and totals of
+ * tasks, bytes, worker starts and restarts, and how long workers take to connect.
+ *
+ * There is one Metrics for the whole JVM (see get), shared by every ParSPICE
+ * object. It is registered as a JMX MBean named "parspice:type=Metrics" in the
+ * background when first used, and can also be read in the Prometheus text format, either with
+ * toPrometheusText or from a small HTTP endpoint started with serve.
+ *
+ * The counts are updated by the main process as jobs run, with LongAdders, so
+ * the IO thread never waits on a lock to update them. Reading them is not
+ * atomic across counts, so a reading taken while jobs run may be a little
+ * inconsistent. The rates are averaged between readings, so they only mean
+ * something when read at a steady interval, as JMX consoles and Prometheus do.
+ */
+public final class Metrics implements MetricsMBean {
+
+    /**
+     * The name the Metrics are registered under in the platform MBean server.
+     */
+    public static final String OBJECT_NAME = "parspice:type=Metrics";
+
+    private static final Metrics INSTANCE = new Metrics();
+
+    static {
+        // Starting the platform MBean server can take a few hundred ms, which shouldn't hold up the first job.
+        Thread thread = new Thread(Metrics::register, "parspice metrics registration");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+        } catch (JMException | RuntimeException e) {
+            // Another copy of ParSPICE, in another class loader, may have registered first.
+            System.err.println("ParSPICE: could not register the metrics with JMX: " + e);
+        }
+    }
+
+    private final LongAdder activeJobs = new LongAdder();
+    private final LongAdder activeWorkers = new LongAdder();
+    private final LongAdder jobsStarted = new LongAdder();
+    private final LongAdder jobsSucceeded = new LongAdder();
+    private final LongAdder jobsFailed = new LongAdder();
+    private final LongAdder tasksCompleted = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder workersSpawned = new LongAdder();
+    private final LongAdder workerRestarts = new LongAdder();
+    private final LongAdder spawnLatencyCount = new LongAdder();
+    private final LongAdder spawnLatencyNanos = new LongAdder();
+    private final LongAccumulator maxSpawnLatencyNanos = new LongAccumulator(Math::max, 0);
+
+    private final Rate taskRate = new Rate();
+    private final Rate byteRate = new Rate();
+
+    private Metrics() {}
+
+    /**
+     * @return the Metrics of this JVM
+     */
+    public static Metrics get() {
+        return INSTANCE;
+    }
+
+    /*
+     * Updates, made by ParSPICE as jobs run; user code has no reason to call these.
+     */
+
+    /**
+     * A job run has started.
+     */
+    public void jobStarted() {
+        jobsStarted.increment();
+        activeJobs.increment();
+    }
+
+    /**
+     * A job run has ended.
+     *
+     * @param succeeded whether it ended with its results, rather than by throwing
+     */
+    public void jobEnded(boolean succeeded) {
+        activeJobs.decrement();
+        (succeeded ? jobsSucceeded : jobsFailed).increment();
+    }
+
+    /**
+     * A worker process has been started.
+     *
+     * @param restart whether it replaces one that failed or hung
+     */
+    public void workerSpawned(boolean restart) {
+        workersSpawned.increment();
+        activeWorkers.increment();
+        if (restart) {
+            workerRestarts.increment();
+        }
+    }
+
+    /**
+     * A worker process has connected to the main process.
+     *
+     * @param nanos the time since it was started, in nanoseconds
+     */
+    public void workerConnected(long nanos) {
+        spawnLatencyCount.increment();
+        spawnLatencyNanos.add(nanos);
+        maxSpawnLatencyNanos.accumulate(nanos);
+    }
+
+    /**
+     * A worker process has been killed, or its run has ended. Called once per worker process.
+     */
+    public void workerEnded() {
+        activeWorkers.decrement();
+    }
+
+    /**
+     * @param count the number of tasks workers have just completed
+     */
+    public void tasksCompleted(int count) {
+        tasksCompleted.add(count);
+    }
+
+    /**
+     * @param bytes the number of bytes just sent to a worker
+     */
+    public void bytesSent(long bytes) {
+        bytesSent.add(bytes);
+    }
+
+    /**
+     * @param bytes the number of bytes just received from a worker
+     */
+    public void bytesReceived(long bytes) {
+        bytesReceived.add(bytes);
+    }
+
+    /*
+     * Readings.
+     */
+
+    @Override
+    public long getActiveJobs() {
+        return activeJobs.sum();
+    }
+
+    @Override
+    public long getActiveWorkers() {
+        return activeWorkers.sum();
+    }
+
+    @Override
+    public long getJobsStarted() {
+        return jobsStarted.sum();
+    }
+
+    @Override
+    public long getJobsSucceeded() {
+        return jobsSucceeded.sum();
+    }
+
+    @Override
+    public long getJobsFailed() {
+        return jobsFailed.sum();
+    }
+
+    @Override
+    public long getTasksCompleted() {
+        return tasksCompleted.sum();
+    }
+
+    @Override
+    public double getTasksPerSecond() {
+        return taskRate.read(getTasksCompleted());
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    @Override
+    public double getBytesPerSecond() {
+        return byteRate.read(getBytesSent() + getBytesReceived());
+    }
+
+    @Override
+    public long getWorkersSpawned() {
+        return workersSpawned.sum();
+    }
+
+    @Override
+    public long getWorkerRestarts() {
+        return workerRestarts.sum();
+    }
+
+    @Override
+    public double getMeanSpawnLatencyMillis() {
+        long count = spawnLatencyCount.sum();
+        return count == 0 ? 0 : spawnLatencyNanos.sum() / 1e6 / count;
+    }
+
+    @Override
+    public double getMaxSpawnLatencyMillis() {
+        return maxSpawnLatencyNanos.get() / 1e6;
+    }
+
+    /**
+     * Writes the metrics in the Prometheus text exposition format. Rates are
+     * left to Prometheus, which computes them from the totals.
+     *
+     * @return the metrics, one sample per line
+     */
+    public String toPrometheusText() {
+        StringBuilder text = new StringBuilder();
+        sample(text, "parspice_active_jobs", "gauge", "Job runs executing now.", getActiveJobs());
+        sample(text, "parspice_active_workers", "gauge",
+                "Worker processes of job runs executing now, not yet killed.", getActiveWorkers());
+        text.append("# HELP parspice_jobs_total Job runs that have ended, by how they ended.\n")
+                .append("# TYPE parspice_jobs_total counter\n")
+                .append("parspice_jobs_total{result=\"succeeded\"} ").append(getJobsSucceeded()).append('\n')
+                .append("parspice_jobs_total{result=\"failed\"} ").append(getJobsFailed()).append('\n');
+        sample(text, "parspice_tasks_completed_total", "counter", "Tasks completed by workers.",
+                getTasksCompleted());
+        sample(text, "parspice_sent_bytes_total", "counter", "Bytes sent to workers.", getBytesSent());
+        sample(text, "parspice_received_bytes_total", "counter", "Bytes received from workers.",
+                getBytesReceived());
+        sample(text, "parspice_workers_spawned_total", "counter", "Worker processes started.",
+                getWorkersSpawned());
+        sample(text, "parspice_worker_restarts_total", "counter",
+                "Worker processes started to replace ones that failed or hung.", getWorkerRestarts());
+        text.append("# HELP parspice_spawn_latency_seconds Time from starting a worker process until it connected.\n")
+                .append("# TYPE parspice_spawn_latency_seconds summary\n")
+                .append("parspice_spawn_latency_seconds_sum ")
+                .append(String.format(Locale.ROOT, "%.6f", spawnLatencyNanos.sum() / 1e9)).append('\n')
+                .append("parspice_spawn_latency_seconds_count ").append(spawnLatencyCount.sum()).append('\n');
+        text.append("# HELP parspice_spawn_latency_max_seconds Longest time from starting a worker process until it connected.\n")
+                .append("# TYPE parspice_spawn_latency_max_seconds gauge\n")
+                .append("parspice_spawn_latency_max_seconds ")
+                .append(String.format(Locale.ROOT, "%.6f", maxSpawnLatencyNanos.get() / 1e9)).append('\n');
+        return text.toString();
+    }
+
+    private static void sample(StringBuilder text, String name, String type, String help, long value) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(' ').append(type).append('\n')
+                .append(name).append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Serves the metrics in the Prometheus text format over HTTP, at /metrics
+     * on the loopback interface, for a Prometheus server or agent on the same
+     * machine to scrape. The server's thread keeps the JVM from exiting until
+     * the server is stopped.
+     *
+     * @param port the port to listen on, or 0 for one chosen by the operating system
+     * @return the server; getAddress gives the port, and stop(0) stops it
+     * @throws IOException if the port cannot be bound
+     */
+    public HttpServer serve(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = toPrometheusText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    /**
+     * The rate of change of a total, averaged between readings at least a second apart.
+     */
+    private static final class Rate {
+        private long lastTime = System.nanoTime();
+        private long lastValue = 0;
+        private double rate = 0;
+
+        synchronized double read(long value) {
+            long now = System.nanoTime();
+            if (now - lastTime >= 1_000_000_000L) {
+                rate = (value - lastValue) * 1e9 / (now - lastTime);
+                lastTime = now;
+                lastValue = value;
+            }
+            return rate;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package parspice;
+
+/**
+ * The attributes of the ParSPICE Metrics, as seen through JMX (for example
+ * in JConsole or VisualVM, under "parspice:type=Metrics").
+ */
+public interface MetricsMBean {
+
+    /**
+     * @return the number of job runs executing now
+     */
+    long getActiveJobs();
+
+    /**
+     * @return the number of worker processes started by runs that are executing now,
+     *         and not yet killed
+     */
+    long getActiveWorkers();
+
+    /**
+     * @return the number of job runs that have started
+     */
+    long getJobsStarted();
+
+    /**
+     * @return the number of job runs that ended with their results
+     */
+    long getJobsSucceeded();
+
+    /**
+     * @return the number of job runs that ended by throwing, including cancelled ones
+     */
+    long getJobsFailed();
+
+    /**
+     * @return the number of tasks completed by workers
+     */
+    long getTasksCompleted();
+
+    /**
+     * @return tasks completed per second, averaged since the previous reading
+     *         that was at least a second before
+     */
+    double getTasksPerSecond();
+
+    /**
+     * @return bytes sent to workers
+     */
+    long getBytesSent();
+
+    /**
+     * @return bytes received from workers
+     */
+    long getBytesReceived();
+
+    /**
+     * @return bytes sent to and received from workers per second, averaged
+     *         since the previous reading that was at least a second before
+     */
+    double getBytesPerSecond();
+
+    /**
+     * @return the number of worker processes started, including replacements
+     */
+    long getWorkersSpawned();
+
+    /**
+     * @return the number of worker processes started to replace ones that failed or hung
+     */
+    long getWorkerRestarts();
+
+    /**
+     * @return the mean time from starting a worker process until it connected, in ms
+     */
+    double getMeanSpawnLatencyMillis();
+
+    /**
+     * @return the longest time from starting a worker process until it connected, in ms
+     */
+    double getMaxSpawnLatencyMillis();
+}
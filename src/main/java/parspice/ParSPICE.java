@@ -3,39 +3,262 @@ package parspice;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
 /**
  * Holds the configuration info for ParSPICE, such as the path
- * to the worker jar and the minimum port to use for networking.
+ * to the worker jar and the ports to use for networking.
+ *
+ * A single instance can be shared by any number of threads running
+ * jobs at the same time. Each job binds its own ports, so jobs don't
+ * interfere with each other.
  */
 public class ParSPICE {
 
     private final String workerJar;
     private final int minPort;
 
+    /**
+     * How long a worker has to connect to the main process before
+     * the job is aborted, in milliseconds.
+     */
+    private volatile int connectTimeout = 60000;
+
+    /**
+     * Whether the unfinished tasks of a worker that falls behind are
+     * re-run on workers that have finished their own.
+     */
+    private volatile boolean speculative = false;
+
+    /**
+     * Directory each worker writes a flight recording to, or null for none.
+     */
+    private volatile File flightRecordingDirectory = null;
+
+    /**
+     * Where jobs run their tasks.
+     */
+    private volatile ExecutionMode executionMode = ExecutionMode.PROCESSES;
+
+    /**
+     * Which CPUs worker processes are pinned to.
+     */
+    private volatile Affinity affinity = Affinity.NONE;
+
+    /**
+     * The runtime model of this machine, used to pick the number of workers
+     * for jobs run with Job.AUTO.
+     */
+    private volatile Calibration calibration;
+
+    /**
+     * Names of all classes in the worker jar, read once on construction.
+     */
+    private final Set<String> jarClasses;
+
+    /**
+     * Counts the jobs run on this instance, to give each one a unique run ID.
+     */
+    private final AtomicInteger runCounter = new AtomicInteger();
+
     public int getMinPort() {
         return minPort;
     }
     public String getWorkerJar() {
         return workerJar;
     }
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * Sets how long a worker has to connect to the main process before
+     * the job is aborted. This includes JVM startup time for the worker,
+     * but not the time taken by setup.
+     *
+     * @param connectTimeout the timeout in milliseconds
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        if (connectTimeout < 1) {
+            throw new IllegalArgumentException("Connect timeout must be positive, was " + connectTimeout);
+        }
+        this.connectTimeout = connectTimeout;
+    }
+
+    public boolean isSpeculative() {
+        return speculative;
+    }
+
+    /**
+     * Sets whether jobs re-run the unfinished tasks of a straggling worker
+     * on a worker that has finished its own tasks. Whichever worker finishes
+     * the tasks first wins, and the other is killed. Tasks are only re-run on
+     * a worker with the same setup input as the straggler.
+     *
+     * With speculation on, some tasks may run more than once, so tasks should
+     * not have side effects that can't be repeated.
+     *
+     * @param speculative true to enable speculative re-execution; false by default
+     */
+    public void setSpeculative(boolean speculative) {
+        this.speculative = speculative;
+    }
+
+    public File getFlightRecordingDirectory() {
+        return flightRecordingDirectory;
+    }
+
+    /**
+     * Sets whether every worker JVM makes a Java Flight Recording of its run.
+     *
+     * Each worker is started with -XX:StartFlightRecording, and writes its
+     * recording to the directory when it exits, in a file named after the job
+     * run and the worker ID (see WorkerStats.getFlightRecording). The recordings
+     * hold the JVM's usual events, and ParSPICE's own events for setup, each
+     * range of tasks, and sending outputs (see parspice.io.FlightEvents). Workers
+     * that are killed don't write one.
+     *
+     * This needs a JVM with JFR built in: JDK 11 or later, or 8u262 or later.
+     *
+     * @param directory the directory to write recordings to, created if need be;
+     *                  null to turn recordings off (the default)
+     */
+    public void setFlightRecordingDirectory(String directory) {
+        this.flightRecordingDirectory = directory == null ? null : new File(directory).getAbsoluteFile();
+    }
+
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    /**
+     * Sets whether jobs run on worker processes, or on a thread inside the
+     * main process, which saves the cost of starting the workers and sending
+     * the inputs and outputs. See ExecutionMode for the differences.
+     *
+     * @param executionMode where jobs run; PROCESSES by default
+     */
+    public void setExecutionMode(ExecutionMode executionMode) {
+        if (executionMode == null) {
+            throw new IllegalArgumentException("Execution mode cannot be null");
+        }
+        this.executionMode = executionMode;
+    }
+
+    public Affinity getAffinity() {
+        return affinity;
+    }
+
+    /**
+     * Sets whether worker processes are pinned to CPUs, spread across the
+     * machine's NUMA nodes, and kept off CPUs reserved for the main process.
+     * Only takes effect on Linux; see Affinity.
+     *
+     * @param affinity where workers are allowed to run; Affinity.NONE by default
+     */
+    public void setAffinity(Affinity affinity) {
+        if (affinity == null) {
+            throw new IllegalArgumentException("Affinity cannot be null");
+        }
+        this.affinity = affinity;
+    }
+
+    public Calibration getCalibration() {
+        return calibration;
+    }
+
+    /**
+     * Sets the runtime model jobs run with Job.AUTO workers use to pick their
+     * number of workers. By default it is the one the benchmark saved for this
+     * machine, if any (see Calibration.forThisMachine).
+     *
+     * @param calibration the coefficients of the model
+     */
+    public void setCalibration(Calibration calibration) {
+        if (calibration == null) {
+            throw new IllegalArgumentException("Calibration cannot be null");
+        }
+        this.calibration = calibration;
+    }
+
+    /**
+     * Creates a new ParSPICE object for a given jar file, using ephemeral
+     * ports chosen by the operating system.
+     *
+     * @param workerJar the jar for all tasks on this instance to be
+     *                  run from.
+     */
+    public ParSPICE(String workerJar) throws IOException, ClassNotFoundException {
+        this(workerJar, 0);
+    }
 
     /**
      * Creates a new ParSPICE object for a given jar file.
      *
      * @param workerJar the jar for all tasks on this instance to be
      *                  run from.
-     * @param minPort the lowest port number that ParSPICE can use, counting
-     *                up sequentially from minPort for each port.
+     * @param minPort the lowest port number that ParSPICE can use. Each server
+     *                binds the first free port at or above minPort. If 0,
+     *                ephemeral ports are used instead.
      */
     public ParSPICE(String workerJar, int minPort) throws IOException, ClassNotFoundException {
+        if (minPort < 0 || minPort > 65535) {
+            throw new IllegalArgumentException("minPort must be in the range [0, 65535], was " + minPort);
+        }
         this.workerJar = workerJar;
         this.minPort = minPort;
+        this.calibration = Calibration.forThisMachine();
 
         checkJar();
+        jarClasses = Collections.unmodifiableSet(readClasses());
+        checkClass("parspice.worker.Worker");
+    }
+
+    /**
+     * Opens a server channel for workers to connect to.
+     *
+     * If minPort is 0, the OS picks a free ephemeral port. Otherwise the first
+     * free port at or above minPort is used; ports taken by other jobs or
+     * other programs are skipped.
+     *
+     * @return a bound server channel
+     * @throws IOException if no port could be bound
+     */
+    public ServerSocketChannel openServer() throws IOException {
+        for (int port = minPort; port <= 65535; port++) {
+            ServerSocketChannel channel = ServerSocketChannel.open();
+            try {
+                channel.bind(new InetSocketAddress(port));
+                return channel;
+            } catch (BindException e) {
+                channel.close();
+                if (minPort == 0) {
+                    throw e;
+                }
+            }
+        }
+        throw new BindException("No free ports at or above " + minPort);
+    }
+
+    /**
+     * Creates an ID that is unique to one run of one job, across all instances
+     * of ParSPICE running in the same directory.
+     *
+     * @return the run ID
+     */
+    public String newRunID() {
+        String pid = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+        return pid + "-" + runCounter.getAndIncrement();
     }
 
     /**
@@ -43,7 +266,7 @@ public class ParSPICE {
      *
      * @throws IOException
      */
-    private void checkJar() throws ClassNotFoundException, IOException {
+    private void checkJar() throws IOException {
         String extension = workerJar.substring(workerJar.length()-4);
         if (!extension.equals(".jar")) {
             throw new IOException("workerJar must be a .jar file, not: " + extension);
@@ -52,7 +275,28 @@ public class ParSPICE {
         if (!file.exists()) {
             throw new FileNotFoundException(workerJar);
         }
-        checkClass("parspice.worker.Worker");
+    }
+
+    /**
+     * Reads the names of all classes in the jar file.
+     *
+     * @return class names in package notation
+     * @throws IOException if the jar cannot be read
+     */
+    private Set<String> readClasses() throws IOException {
+        Set<String> classes = new HashSet<>();
+        try (JarFile jarFile = new JarFile(workerJar)) {
+            Enumeration<JarEntry> e = jarFile.entries();
+            while (e.hasMoreElements()) {
+                JarEntry jarEntry = e.nextElement();
+                if (jarEntry.getName().endsWith(".class")) {
+                    classes.add(jarEntry.getName()
+                            .replace("/", ".")
+                            .replace(".class", ""));
+                }
+            }
+        }
+        return classes;
     }
 
     /**
@@ -60,22 +304,10 @@ public class ParSPICE {
      *
      * @param cls class to look for, in package notation as given as a jvm argument.
      * @throws ClassNotFoundException
-     * @throws IOException
      */
-    public void checkClass(String cls) throws ClassNotFoundException, IOException {
-        JarFile jarFile = new JarFile(workerJar);
-        Enumeration<JarEntry> e = jarFile.entries();
-        while (e.hasMoreElements()) {
-            JarEntry jarEntry = e.nextElement();
-            if (jarEntry.getName().endsWith(".class")) {
-                String className = jarEntry.getName()
-                        .replace("/", ".")
-                        .replace(".class", "");
-                if (className.equals(cls)) {
-                    return;
-                }
-            }
+    public void checkClass(String cls) throws ClassNotFoundException {
+        if (!jarClasses.contains(cls)) {
+            throw new ClassNotFoundException(cls);
         }
-        throw new ClassNotFoundException(cls);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,89 @@
+package parspice.io;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * An in-memory output stream that hands its contents off in chunks.
+ *
+ * Used to encode data with a Sender without blocking on a socket. Each call to
+ * take returns the bytes written since the last call, and starts a new buffer,
+ * so the returned chunk is never overwritten.
+ *
+ * A fixed number of bytes can be reserved at the start of each chunk, so a header
+ * can be filled in later and the whole chunk written with a single call.
+ */
+class ChunkOutputStream extends OutputStream {
+
+    private final int reserved;
+    private final int capacity;
+
+    private byte[] buf;
+    private int count;
+
+    /**
+     * @param reserved number of bytes to leave empty at the start of each chunk
+     * @param capacity initial capacity of each chunk, not including the reserved bytes
+     */
+    ChunkOutputStream(int reserved, int capacity) {
+        this.reserved = reserved;
+        this.capacity = capacity;
+        this.buf = new byte[reserved + capacity];
+        this.count = reserved;
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(count + 1);
+        buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureCapacity(count + len);
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+    }
+
+    /**
+     * @return number of bytes written since the last take, not including the reserved bytes
+     */
+    int size() {
+        return count - reserved;
+    }
+
+    /**
+     * The current chunk, including the reserved bytes. Valid until the next take.
+     *
+     * @return the backing array of the current chunk
+     */
+    byte[] array() {
+        return buf;
+    }
+
+    /**
+     * Returns the current chunk, including the reserved bytes, and starts a new one.
+     *
+     * @return a buffer positioned at the start of the chunk
+     */
+    ByteBuffer take() {
+        ByteBuffer chunk = ByteBuffer.wrap(buf, 0, count);
+        buf = new byte[reserved + capacity];
+        count = reserved;
+        return chunk;
+    }
+
+    /**
+     * Discards the current chunk's contents, reusing its buffer.
+     */
+    void clear() {
+        count = reserved;
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        if (minCapacity > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, minCapacity));
+        }
+    }
+}
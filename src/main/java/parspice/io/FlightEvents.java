@@ -0,0 +1,319 @@
+package parspice.io;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Java Flight Recorder events for the phases of a ParSPICE job, in both
+ * the main process and the workers, so a recording shows where the time
+ * went alongside the JVM's own events.
+ *
+ * ParSPICE is built for Java 8, which has no JFR API to compile against, so
+ * the event types are defined when this class loads, with jdk.jfr.EventFactory
+ * through reflection. On a JVM without it (before 8u262, or without JFR at
+ * all) every event is a no-op. Defining the types is slow, so it waits until
+ * the flight recorder has been started, by a command line flag, jcmd, or the
+ * JFR API; until then, and whenever a recording doesn't have them enabled,
+ * events cost almost nothing. They are all in the "ParSPICE" category, with
+ * no stack traces.
+ *
+ * An event is started with begin, which returns null if it isn't being
+ * recorded, and finished with commit, which takes the values of its fields in
+ * the order they were declared.
+ */
+public final class FlightEvents {
+
+    private FlightEvents() {}
+
+    /**
+     * jdk.jfr.FlightRecorder.isInitialized, or null if this JVM doesn't have JFR.
+     */
+    private static final Method IS_INITIALIZED;
+
+    static {
+        Method isInitialized;
+        try {
+            isInitialized = Class.forName("jdk.jfr.FlightRecorder").getMethod("isInitialized");
+        } catch (ReflectiveOperationException | LinkageError e) {
+            isInitialized = null;
+        }
+        IS_INITIALIZED = isInitialized;
+    }
+
+    /**
+     * The rest of the JFR API, looked up the first time an event type is
+     * defined, since loading it takes a while.
+     */
+    private static final class Api {
+        static final Method NEW_EVENT;
+        static final Method BEGIN;
+        static final Method COMMIT;
+        static final Method SET;
+        static final Method IS_ENABLED;
+        static final Method CREATE;
+        static final Constructor<?> ANNOTATION;
+        static final Constructor<?> FIELD;
+
+        static {
+            Method newEvent = null, begin = null, commit = null, set = null, isEnabled = null, create = null;
+            Constructor<?> annotation = null, field = null;
+            try {
+                Class<?> factory = Class.forName("jdk.jfr.EventFactory");
+                Class<?> event = Class.forName("jdk.jfr.Event");
+                Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement");
+                Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor");
+                create = factory.getMethod("create", List.class, List.class);
+                newEvent = factory.getMethod("newEvent");
+                begin = event.getMethod("begin");
+                commit = event.getMethod("commit");
+                set = event.getMethod("set", int.class, Object.class);
+                isEnabled = event.getMethod("isEnabled");
+                annotation = annotationElement.getConstructor(Class.class, Object.class);
+                field = valueDescriptor.getConstructor(Class.class, String.class, List.class);
+            } catch (ReflectiveOperationException | LinkageError e) {
+                create = null;
+            }
+            NEW_EVENT = newEvent;
+            BEGIN = begin;
+            COMMIT = commit;
+            SET = set;
+            IS_ENABLED = isEnabled;
+            CREATE = create;
+            ANNOTATION = annotation;
+            FIELD = field;
+        }
+    }
+
+    /**
+     * [main process] Starting a worker's JVM. Fields: worker ID, attempt.
+     */
+    public static final Type SPAWN = new Type("Spawn", "Worker Spawn",
+            "Starting a worker process",
+            field(int.class, "workerID", "Worker ID", null),
+            field(int.class, "attempt", "Attempt", null));
+
+    /**
+     * [main process] From starting a worker until it connects. Fields: worker ID, attempt.
+     */
+    public static final Type CONNECT = new Type("Connect", "Worker Connect",
+            "From starting a worker process until it connects to the main process",
+            field(int.class, "workerID", "Worker ID", null),
+            field(int.class, "attempt", "Attempt", null));
+
+    /**
+     * [main process] Encoding a chunk of a worker's inputs. Fields: connection ID, bytes.
+     */
+    public static final Type ENCODE = new Type("Encode", "Encode Inputs",
+            "Encoding a chunk of a worker's setup input, commands and inputs",
+            field(int.class, "connectionID", "Connection ID", null),
+            field(long.class, "bytes", "Bytes", "BYTES"));
+
+    /**
+     * [main process] Decoding a frame of a worker's outputs.
+     * Fields: connection ID, first task index, number of outputs, bytes.
+     */
+    public static final Type DECODE = new Type("Decode", "Decode Outputs",
+            "Decoding a frame of a worker's outputs",
+            field(int.class, "connectionID", "Connection ID", null),
+            field(int.class, "firstIndex", "First Task", null),
+            field(int.class, "count", "Outputs", null),
+            field(long.class, "bytes", "Bytes", "BYTES"));
+
+    /**
+     * [worker process] The worker's setup function. Fields: worker ID.
+     */
+    public static final Type SETUP = new Type("Setup", "Worker Setup",
+            "Reading the setup input and running setup",
+            field(int.class, "workerID", "Worker ID", null));
+
+    /**
+     * [worker process] Running a range of tasks. Fields: worker ID, first task
+     * index, number of tasks, time decoding inputs, time encoding outputs.
+     */
+    public static final Type TASK_BATCH = new Type("TaskBatch", "Task Batch",
+            "Running a range of tasks sent by the main process",
+            field(int.class, "workerID", "Worker ID", null),
+            field(int.class, "firstIndex", "First Task", null),
+            field(int.class, "count", "Tasks", null),
+            field(long.class, "decode", "Decoding", "NANOSECONDS"),
+            field(long.class, "encode", "Encoding", "NANOSECONDS"));
+
+    /**
+     * [worker process] Sending the outputs still buffered at the end of a range.
+     * Fields: worker ID.
+     */
+    public static final Type DRAIN = new Type("OutputDrain", "Output Drain",
+            "Sending the outputs still buffered at the end of a range",
+            field(int.class, "workerID", "Worker ID", null));
+
+    /**
+     * @return true if this JVM supports the events
+     */
+    public static boolean isSupported() {
+        return IS_INITIALIZED != null;
+    }
+
+    /**
+     * A type of event.
+     */
+    public static final class Type {
+
+        private final String name;
+        private final String label;
+        private final String description;
+        private final Field[] fields;
+
+        /**
+         * The event factory, once the type has been defined.
+         */
+        private volatile Object factory = null;
+
+        /**
+         * An event of this type, used to check whether it is enabled.
+         */
+        private volatile Object probe = null;
+
+        /**
+         * Whether defining the type failed, so it shouldn't be tried again.
+         */
+        private volatile boolean failed = !isSupported();
+
+        private Type(String name, String label, String description, Field... fields) {
+            this.name = name;
+            this.label = label;
+            this.description = description;
+            this.fields = fields;
+        }
+
+        /**
+         * Starts an event, if it is being recorded.
+         *
+         * @return the event, or null if it isn't being recorded
+         */
+        public Object begin() {
+            if (failed) {
+                return null;
+            }
+            try {
+                if (factory == null && !define()) {
+                    return null;
+                }
+                if (!(Boolean) Api.IS_ENABLED.invoke(probe)) {
+                    return null;
+                }
+                Object event = Api.NEW_EVENT.invoke(factory);
+                Api.BEGIN.invoke(event);
+                return event;
+            } catch (ReflectiveOperationException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Finishes an event started with begin. Does nothing if it is null.
+         *
+         * @param event the event, from begin
+         * @param values the values of the event's fields, in order
+         */
+        public void commit(Object event, Object... values) {
+            if (event == null) {
+                return;
+            }
+            try {
+                for (int i = 0; i < values.length; i++) {
+                    Api.SET.invoke(event, i, values[i]);
+                }
+                Api.COMMIT.invoke(event);
+            } catch (ReflectiveOperationException ignored) {}
+        }
+
+        /**
+         * Defines the event type, if the flight recorder has been started.
+         *
+         * @return true if the type is defined
+         */
+        private synchronized boolean define() {
+            if (factory != null) {
+                return true;
+            }
+            try {
+                if (!(Boolean) IS_INITIALIZED.invoke(null)) {
+                    return false;
+                }
+                if (Api.CREATE == null) {
+                    failed = true;
+                    return false;
+                }
+                List<Object> annotations = Arrays.asList(
+                        annotation("jdk.jfr.Name", "parspice." + name),
+                        annotation("jdk.jfr.Label", label),
+                        annotation("jdk.jfr.Description", description),
+                        annotation("jdk.jfr.Category", new String[]{"ParSPICE"}),
+                        annotation("jdk.jfr.StackTrace", false));
+                List<Object> descriptors = new ArrayList<>(fields.length);
+                for (Field field : fields) {
+                    descriptors.add(field.descriptor());
+                }
+                Object factory = Api.CREATE.invoke(null, annotations, descriptors);
+                probe = Api.NEW_EVENT.invoke(factory);
+                this.factory = factory;
+                return true;
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                failed = true;
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Describes a field of an event.
+     */
+    private static final class Field {
+        private final Class<?> type;
+        private final String name;
+        private final String label;
+        private final String unit;
+
+        private Field(Class<?> type, String name, String label, String unit) {
+            this.type = type;
+            this.name = name;
+            this.label = label;
+            this.unit = unit;
+        }
+
+        /**
+         * @return the field's jdk.jfr.ValueDescriptor
+         */
+        private Object descriptor() throws ReflectiveOperationException {
+            List<Object> annotations = new ArrayList<>(2);
+            annotations.add(annotation("jdk.jfr.Label", label));
+            if ("BYTES".equals(unit)) {
+                annotations.add(annotation("jdk.jfr.DataAmount", unit));
+            } else if (unit != null) {
+                annotations.add(annotation("jdk.jfr.Timespan", unit));
+            }
+            return Api.FIELD.newInstance(type, name, Collections.unmodifiableList(annotations));
+        }
+    }
+
+    /**
+     * Describes a field of an event.
+     *
+     * @param type the field's type, a primitive or String
+     * @param name the field's name
+     * @param label the field's label in JDK Mission Control
+     * @param unit "BYTES" for a data amount, a time unit for a timespan, or null
+     * @return the field
+     */
+    private static Field field(Class<?> type, String name, String label, String unit) {
+        return new Field(type, name, label, unit);
+    }
+
+    private static Object annotation(String annotationClass, Object value) throws ReflectiveOperationException {
+        return Api.ANNOTATION.newInstance(Class.forName(annotationClass), value);
+    }
+}
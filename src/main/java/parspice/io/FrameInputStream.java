@@ -0,0 +1,56 @@
+package parspice.io;
+
+import java.io.InputStream;
+
+/**
+ * [main process] An input stream over the payload of a single frame.
+ *
+ * Reading past the end of the frame returns -1 (so the ObjectInputStream
+ * throws an EOFException) rather than blocking, which can only happen if
+ * a Sender reads more than it wrote.
+ */
+class FrameInputStream extends InputStream {
+
+    private byte[] buf = new byte[0];
+    private int pos;
+    private int limit;
+
+    /**
+     * Points the stream at a new frame payload.
+     *
+     * @param buf array holding the payload
+     * @param length length of the payload
+     */
+    void reset(byte[] buf, int length) {
+        this.buf = buf;
+        this.pos = 0;
+        this.limit = length;
+    }
+
+    @Override
+    public int read() {
+        if (pos >= limit) {
+            return -1;
+        }
+        return buf[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (pos >= limit) {
+            return -1;
+        }
+        int n = Math.min(len, limit - pos);
+        System.arraycopy(buf, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return limit - pos;
+    }
+}
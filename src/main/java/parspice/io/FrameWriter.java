@@ -0,0 +1,328 @@
+package parspice.io;
+
+import parspice.sender.Sender;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * [worker process] Writes task outputs and progress reports to the main process in frames.
+ *
+ * Outputs are encoded with the Sender into memory, and sent once enough have
+ * accumulated. Each frame starts with a header of four ints: the frame type,
+ * the payload length in bytes, and two type-specific fields. Output frames
+ * hold the index of their first output and the number of outputs, followed
+ * by the payload; frames only contain whole outputs, so the main process can
+ * decode a frame as soon as it has arrived, without ever blocking on the socket.
+ *
+ * Failure frames hold the index of a task that threw, and a payload with the
+ * exception's class name and message, written with DataOutputStream.
+ *
+ * Progress and done frames have no payload. Progress frames may be written
+ * from a heartbeat thread while the task thread is writing outputs; the
+ * socket writes are synchronized so frames never interleave.
+ *
+ * Stats frames hold the worker's measurements so far, as a payload of longs.
+ * Timeline frames hold the spans of the worker's Timeline since the last one,
+ * also as longs, after the time they were sent.
+ *
+ * The time the task thread spends encoding outputs, and writing frames to the
+ * socket, is added up so the worker can report it. Long waits to write are
+ * also added to the worker's Timeline, if it has one.
+ *
+ * @param <O> the type of outputs
+ */
+public class FrameWriter<O> {
+
+    /**
+     * Size of the frame header: the type, the payload length, and two fields.
+     */
+    static final int HEADER_SIZE = 16;
+
+    /**
+     * Frame of outputs. Fields: index of the first output, number of outputs.
+     */
+    static final int OUTPUTS = 0;
+
+    /**
+     * Heartbeat. Fields: sequence number of the current range, index of the task being run.
+     */
+    static final int PROGRESS = 1;
+
+    /**
+     * A range has been finished. Fields: sequence number of the range, number of tasks run.
+     */
+    static final int DONE = 2;
+
+    /**
+     * A task threw an exception that was captured. Fields: index of the task, unused.
+     */
+    static final int FAILURE = 3;
+
+    /**
+     * The worker's measurements so far. Fields: number of values, unused.
+     */
+    static final int STATS = 4;
+
+    /**
+     * Spans of the worker's Timeline. Fields: number of values, unused.
+     */
+    static final int TIMELINE = 5;
+
+    /**
+     * Exception messages are cut off at this many characters, to stay within
+     * the limits of DataOutputStream.writeUTF.
+     */
+    private static final int MAX_MESSAGE_LENGTH = 8192;
+
+    /**
+     * A frame is sent once its payload reaches this many bytes.
+     */
+    private static final int FRAME_SIZE = 1 << 15;
+
+    private final Sender<O> sender;
+    private final OutputStream out;
+    private final ChunkOutputStream chunk;
+    private ObjectOutputStream oos;
+
+    private int firstIndex = 0;
+    private int count = 0;
+
+    private volatile boolean flushRequested = false;
+
+    private Timeline timeline = null;
+
+    private long encodeNanos = 0;
+    private long sendNanos = 0;
+
+    /**
+     * Creates a new FrameWriter. The stream header is written with the first output frame.
+     *
+     * @param sender the sender used to encode outputs, or null if the worker has no outputs
+     * @param out the socket stream to write frames to
+     */
+    public FrameWriter(Sender<O> sender, OutputStream out) {
+        this.sender = sender;
+        this.out = out;
+        this.chunk = new ChunkOutputStream(HEADER_SIZE, sender == null ? 0 : FRAME_SIZE + 1024);
+    }
+
+    /**
+     * Sets the timeline that long waits to write frames are added to.
+     * Must be called from the task thread, before any frames are written.
+     *
+     * @param timeline the worker's timeline
+     */
+    public void setTimeline(Timeline timeline) {
+        this.timeline = timeline;
+    }
+
+    /**
+     * Encodes an output, and sends a frame if enough have accumulated.
+     *
+     * Outputs with consecutive indices share a frame; an output that doesn't follow
+     * the previous one starts a new frame.
+     *
+     * @param index the index of the task the output is from
+     * @param output the output to send
+     * @throws IOException if the frame cannot be sent
+     */
+    public void write(int index, O output) throws IOException {
+        if (count > 0 && index != firstIndex + count) {
+            flush();
+        }
+        if (oos == null) {
+            oos = new ObjectOutputStream(chunk);
+        }
+        if (count == 0) {
+            firstIndex = index;
+        }
+        long start = System.nanoTime();
+        sender.write(output, oos);
+        encodeNanos += System.nanoTime() - start;
+        count++;
+        if (chunk.size() >= FRAME_SIZE || flushRequested) {
+            flush();
+        }
+    }
+
+    /**
+     * Sends all encoded outputs in a frame. Must be called from the task thread.
+     *
+     * @throws IOException if the frame cannot be sent
+     */
+    public void flush() throws IOException {
+        flushRequested = false;
+        if (oos == null) {
+            return;
+        }
+        oos.flush();
+        if (chunk.size() == 0) {
+            return;
+        }
+        byte[] buf = chunk.array();
+        int length = chunk.size();
+        writeInt(buf, 0, OUTPUTS);
+        writeInt(buf, 4, length);
+        writeInt(buf, 8, firstIndex);
+        writeInt(buf, 12, count);
+        send(buf, HEADER_SIZE + length);
+        chunk.clear();
+        count = 0;
+    }
+
+    /**
+     * Asks the task thread to send its encoded outputs after the next one,
+     * even if the frame isn't full. Can be called from any thread.
+     */
+    public void requestFlush() {
+        flushRequested = true;
+    }
+
+    /**
+     * Sends a heartbeat. Can be called from any thread.
+     *
+     * @param seq the sequence number of the range being run, or -1 if none has started
+     * @param index the index of the task being run
+     * @throws IOException if the frame cannot be sent
+     */
+    public void writeProgress(int seq, int index) throws IOException {
+        writeControl(PROGRESS, seq, index);
+    }
+
+    /**
+     * Sends any encoded outputs, then reports that a range is finished.
+     * Must be called from the task thread.
+     *
+     * @param seq the sequence number of the range
+     * @param count the number of tasks in the range
+     * @throws IOException if the frames cannot be sent
+     */
+    public void writeDone(int seq, int count) throws IOException {
+        flush();
+        writeControl(DONE, seq, count);
+    }
+
+    /**
+     * Sends any encoded outputs, then reports that a task threw an exception.
+     * Must be called from the task thread.
+     *
+     * @param index the index of the task
+     * @param e the exception it threw
+     * @throws IOException if the frames cannot be sent
+     */
+    public void writeFailure(int index, Exception e) throws IOException {
+        flush();
+        String message = e.getMessage();
+        if (message != null && message.length() > MAX_MESSAGE_LENGTH) {
+            message = message.substring(0, MAX_MESSAGE_LENGTH);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(0);
+        data.writeInt(0);
+        data.writeInt(0);
+        data.writeInt(0);
+        data.writeUTF(e.getClass().getName());
+        data.writeBoolean(message != null);
+        if (message != null) {
+            data.writeUTF(message);
+        }
+        byte[] buf = bytes.toByteArray();
+        writeInt(buf, 0, FAILURE);
+        writeInt(buf, 4, buf.length - HEADER_SIZE);
+        writeInt(buf, 8, index);
+        writeInt(buf, 12, 0);
+        send(buf, buf.length);
+    }
+
+    /**
+     * Sends any encoded outputs, then the worker's measurements.
+     * Must be called from the task thread.
+     *
+     * @param values the measurements
+     * @throws IOException if the frames cannot be sent
+     */
+    public void writeStats(long[] values) throws IOException {
+        flush();
+        writeLongs(STATS, values);
+    }
+
+    /**
+     * Sends any encoded outputs, then the spans of the worker's timeline
+     * collected since the last time. Must be called from the task thread.
+     *
+     * @param timeline the timeline to send
+     * @throws IOException if the frames cannot be sent
+     */
+    public void writeTimeline(Timeline timeline) throws IOException {
+        flush();
+        writeLongs(TIMELINE, timeline.drain());
+    }
+
+    private void writeLongs(int type, long[] values) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE + 8 * values.length);
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(type);
+        data.writeInt(8 * values.length);
+        data.writeInt(values.length);
+        data.writeInt(0);
+        for (long value : values) {
+            data.writeLong(value);
+        }
+        byte[] buf = bytes.toByteArray();
+        send(buf, buf.length);
+    }
+
+    /**
+     * @return the time the task thread has spent encoding outputs, in nanoseconds
+     */
+    public long getEncodeNanos() {
+        return encodeNanos;
+    }
+
+    /**
+     * @return the time the task thread has spent writing frames to the socket, in nanoseconds
+     */
+    public long getSendNanos() {
+        return sendNanos;
+    }
+
+    /**
+     * Writes a frame from the task thread, adding the time to sendNanos.
+     */
+    private void send(byte[] buf, int length) throws IOException {
+        long start = System.nanoTime();
+        synchronized (out) {
+            out.write(buf, 0, length);
+            out.flush();
+        }
+        long end = System.nanoTime();
+        sendNanos += end - start;
+        if (timeline != null) {
+            timeline.stall(Timeline.OUTPUT_STALL, start, end);
+        }
+    }
+
+    private void writeControl(int type, int a, int b) throws IOException {
+        byte[] buf = new byte[HEADER_SIZE];
+        writeInt(buf, 0, type);
+        writeInt(buf, 4, 0);
+        writeInt(buf, 8, a);
+        writeInt(buf, 12, b);
+        synchronized (out) {
+            out.write(buf);
+            out.flush();
+        }
+    }
+
+    private static void writeInt(byte[] buf, int off, int v) {
+        buf[off] = (byte) (v >>> 24);
+        buf[off + 1] = (byte) (v >>> 16);
+        buf[off + 2] = (byte) (v >>> 8);
+        buf[off + 3] = (byte) v;
+    }
+}
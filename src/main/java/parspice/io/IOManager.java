@@ -1,81 +1,586 @@
 package parspice.io;
 
-import java.util.ArrayList;
+import parspice.Metrics;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * Manages a pair of threads, one sending inputs, one receiving outputs.
+ * Serves the connections of every worker in a job from a single thread.
+ *
+ * The thread can be one of its own, or borrowed from a caller-supplied Executor.
+ *
+ * All workers connect to the same listening port. The first thing a worker sends
+ * is its ID, which is used to match the connection up with the IServer (sending
+ * setup inputs, commands and task inputs) and OServer (receiving outputs and
+ * heartbeats) registered for it. After that, the connection is driven by a
+ * non-blocking selector: inputs are encoded and written as the socket accepts
+ * them, and frames are decoded as they arrive.
+ *
+ * Commands can be sent to a worker from any thread while the job runs. A worker's
+ * connection is finished once it has been sent STOP and has closed its end, or
+ * once it is abandoned (because the worker was killed or failed). Replacement
+ * workers can be registered while the job runs, so the loop keeps going until
+ * it has been sealed and every registered connection is finished.
+ *
+ * The worker IDs used here identify connections: a replacement worker gets a
+ * new one, even though it takes over the work of the worker it replaces.
  *
- * This class can handle any combination of IO: input only, output only,
- * both, or neither.
+ * For each connection, the IOManager counts the bytes sent and received, and
+ * the time the worker's socket was too full to take more inputs. It also
+ * adds up the time its thread spends idle, waiting for any socket to be ready.
  *
+ * @param <S> the setup input type, or Void if none
  * @param <I> the input type argument for the task, or Void if none
  * @param <O> the output type returned by the task, or Void if none
  */
-public class IOManager<S, I, O> {
+public class IOManager<S, I, O> implements Runnable {
+
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final List<Connection> connections;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+    /**
+     * Workers with newly queued commands, or to be abandoned (as ~workerID),
+     * waiting for the IO thread to act on them.
+     */
+    private final Queue<Integer> requests = new ConcurrentLinkedQueue<>();
+
+    private volatile int numRegistered = 0;
+    private int numFinished = 0;
+    private volatile boolean sealed = false;
+
+    private volatile boolean started = false;
+    private final AtomicBoolean entered = new AtomicBoolean(false);
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile boolean closed = false;
+    private volatile IOException exception;
+
+    private volatile long idleNanos = 0;
+
+    /**
+     * Per-worker connection state.
+     */
+    private class Connection {
+        final IServer<S, I> iServer;
+        final OServer<O> oServer;
+
+        SocketChannel channel;
+        SelectionKey key;
+        ByteBuffer pending;
+
+        volatile boolean connected = false;
+        volatile boolean finished = false;
+        volatile IOException exception;
+
+        /**
+         * When the worker identified itself, from System.nanoTime.
+         */
+        volatile long connectTime = 0;
+        volatile long bytesSent = 0;
+        volatile long bytesReceived = 0;
+
+        /**
+         * Total time the socket was full with inputs still to send, and when
+         * it last filled up (or 0 if it isn't full).
+         */
+        volatile long stallNanos = 0;
+        long stalledSince = 0;
 
-    private final IServer<S, I> iServer;
-    private final OServer<O> oServer;
+        Connection(IServer<S, I> iServer, OServer<O> oServer) {
+            this.iServer = iServer;
+            this.oServer = oServer;
+        }
+    }
 
-    private Thread iThread;
-    private Thread oThread;
+    /**
+     * A connection that hasn't sent its worker ID yet.
+     */
+    private static class Handshake {
+        final ByteBuffer id = ByteBuffer.allocate(4);
+    }
 
-    private final int workerIndex;
+    /**
+     * Create an instance of IOManager listening on a bound server channel.
+     *
+     * @param serverChannel channel the workers will connect to
+     * @param numWorkers the number of workers that will be registered at first;
+     *                   replacements can be registered beyond this
+     * @throws IOException if the selector cannot be opened
+     */
+    public IOManager(ServerSocketChannel serverChannel, int numWorkers) throws IOException {
+        this.serverChannel = serverChannel;
+        this.selector = Selector.open();
+        this.connections = new CopyOnWriteArrayList<>(Collections.nCopies(numWorkers, (Connection) null));
+    }
 
     /**
-     * Create an instance of IOManager
+     * Registers the servers for a worker. Must be called before the worker is started,
+     * and before the IOManager is sealed. Must not be called from more than one thread.
      *
-     * @param iServer an input port for sending inputs, or null if none
-     * @param oServer an output port for receiving outputs, or null if none
-     * @param workerIndex the index of the worker, for error reporting
+     * @param workerID the ID of the worker
+     * @param iServer an input server for sending setup inputs, commands and inputs
+     * @param oServer an output server for receiving frames
+     */
+    public void register(int workerID, IServer<S, I> iServer, OServer<O> oServer) {
+        if (sealed) {
+            throw new IllegalStateException("Workers must be registered before the IOManager is sealed");
+        }
+        while (connections.size() <= workerID) {
+            connections.add(null);
+        }
+        connections.set(workerID, new Connection(iServer, oServer));
+        numRegistered++;
+    }
+
+    /**
+     * @return the port workers should connect to
      */
-    public IOManager(IServer<S, I> iServer, OServer<O> oServer, int workerIndex) {
-        this.iServer = iServer;
-        this.oServer = oServer;
-        this.workerIndex = workerIndex;
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
     }
 
     /**
-     * Starts the iServer and oServer threads, if they exist.
+     * Starts the IO loop on a new thread.
      */
     public void start() {
-        if (iServer != null && iThread == null) {
-            iThread = new Thread(iServer, "input runnable " + workerIndex);
-            iThread.start();
+        start(null);
+    }
+
+    /**
+     * Starts the IO loop on the given executor, or a new thread if null.
+     *
+     * @param executor executor to run the loop on, or null
+     */
+    public void start(Executor executor) {
+        if (started) {
+            return;
         }
+        started = true;
+        if (executor != null) {
+            executor.execute(this);
+        } else {
+            Thread thread = new Thread(this, "parspice io " + getPort());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Runs the selector loop until every registered worker has finished,
+     * or the manager is closed.
+     */
+    @Override
+    public void run() {
+        if (!entered.compareAndSet(false, true)) {
+            // Closed before an executor got around to running the loop.
+            return;
+        }
+        try {
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            while (!closed && !(sealed && numFinished == numRegistered)) {
+                long start = System.nanoTime();
+                selector.select();
+                idleNanos += System.nanoTime() - start;
+                handleRequests();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.attachment() instanceof Handshake) {
+                        handshake(key);
+                    } else {
+                        Connection connection = connections.get((Integer) key.attachment());
+                        try {
+                            if (key.isReadable()) {
+                                read(key, connection);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                write(key, connection);
+                            }
+                        } catch (IOException e) {
+                            fail(key, connection, e);
+                        }
+                    }
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            // closed from another thread
+        } catch (IOException e) {
+            if (!closed) {
+                exception = e;
+            }
+        } finally {
+            shutdown();
+            done.countDown();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.register(selector, SelectionKey.OP_READ, new Handshake());
+        }
+    }
+
+    private void handshake(SelectionKey key) {
+        Handshake handshake = (Handshake) key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
+        try {
+            if (channel.read(handshake.id) == -1) {
+                throw new EOFException();
+            }
+            if (handshake.id.hasRemaining()) {
+                return;
+            }
+            int workerID = handshake.id.getInt(0);
+            Connection connection = workerID >= 0 && workerID < connections.size() ? connections.get(workerID) : null;
+            if (connection == null || connection.connected) {
+                // Not one of our workers, or a duplicate.
+                channel.close();
+                return;
+            }
+            connection.channel = channel;
+            connection.key = key;
+            connection.connectTime = System.nanoTime();
+            connection.connected = true;
+            // Keys hold the worker ID, since the generic Connection can't be cast back to safely.
+            key.attach(workerID);
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        } catch (IOException e) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {}
+        }
+    }
 
-        if (oServer != null && oThread == null) {
-            oThread = new Thread(oServer, "output runnable " + workerIndex);
-            oThread.start();
+    private void read(SelectionKey key, Connection connection) throws IOException {
+        readBuffer.clear();
+        int n = connection.channel.read(readBuffer);
+        if (n == -1) {
+            // The worker closed its end: it has finished, or died.
+            if (!connection.iServer.isStopped()) {
+                throw new EOFException("Worker " + connection.iServer.getWorkerID()
+                        + " closed its connection before it was stopped");
+            }
+            finish(key, connection);
+            return;
+        }
+        connection.bytesReceived += n;
+        Metrics.get().bytesReceived(n);
+        readBuffer.flip();
+        connection.oServer.receive(readBuffer);
+    }
+
+    private void write(SelectionKey key, Connection connection) throws IOException {
+        if (connection.stalledSince != 0) {
+            connection.stallNanos += System.nanoTime() - connection.stalledSince;
+            connection.stalledSince = 0;
+        }
+        while (true) {
+            if (connection.pending == null || !connection.pending.hasRemaining()) {
+                connection.pending = connection.iServer.nextChunk();
+                if (connection.pending == null) {
+                    // Nothing more to send until another command is queued.
+                    key.interestOps(SelectionKey.OP_READ);
+                    return;
+                }
+            }
+            int n = connection.channel.write(connection.pending);
+            connection.bytesSent += n;
+            Metrics.get().bytesSent(n);
+            if (connection.pending.hasRemaining()) {
+                // The socket is full; wait until it is writable again.
+                connection.stalledSince = System.nanoTime();
+                return;
+            }
         }
     }
 
     /**
-     * Waits for both threads to finish.
-     *
-     * @throws Exception
+     * Acts on commands queued and workers abandoned since the last select.
      */
-    public void join() throws Exception {
-        if (iThread != null) {
-            iThread.join();
+    private void handleRequests() {
+        Integer request;
+        while ((request = requests.poll()) != null) {
+            if (request < 0) {
+                Connection connection = connections.get(~request);
+                if (!connection.finished) {
+                    // Marking it connected turns away a late connection from the killed worker.
+                    connection.connected = true;
+                    finish(connection.key, connection);
+                }
+            } else {
+                Connection connection = connections.get(request);
+                if (connection.key != null && connection.key.isValid()) {
+                    connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+            }
         }
-        if (oThread != null) {
-            oThread.join();
+    }
+
+    private void finish(SelectionKey key, Connection connection) {
+        if (key != null) {
+            key.cancel();
+        }
+        if (connection.channel != null) {
+            try {
+                connection.channel.close();
+            } catch (IOException ignored) {}
+        }
+        connection.finished = true;
+        numFinished++;
+    }
+
+    private void fail(SelectionKey key, Connection connection, IOException e) {
+        connection.exception = e;
+        finish(key, connection);
+    }
+
+    private void shutdown() {
+        try {
+            selector.close();
+        } catch (IOException ignored) {}
+        try {
+            serverChannel.close();
+        } catch (IOException ignored) {}
+        for (Connection connection : connections) {
+            if (connection != null && connection.channel != null) {
+                try {
+                    connection.channel.close();
+                } catch (IOException ignored) {}
+            }
         }
     }
 
     /**
-     * Gets the outputs from the oServer.
+     * Queues a command for a worker to run a range of tasks. Can be called from any thread.
      *
-     * This will throw a NullPointerException if called for a task that
-     * doesn't give outputs. Don't do that.
+     * @param workerID the ID of the worker
+     * @param seq sequence number of the range, echoed back by the worker
+     * @param start index of the first task
+     * @param count number of tasks
+     */
+    public void sendRange(int workerID, int seq, int start, int count) {
+        connections.get(workerID).iServer.sendRange(seq, start, count);
+        requests.add(workerID);
+        selector.wakeup();
+    }
+
+    /**
+     * Queues the command for a worker to finish up and exit. Can be called from any thread.
      *
-     * @return the outputs from the worker.
+     * @param workerID the ID of the worker
      */
-    public ArrayList<O> getOutputs() {
-        if (oServer != null) {
-            return oServer.getOutputs();
-        } else {
-            return null;
+    public void sendStop(int workerID) {
+        connections.get(workerID).iServer.sendStop();
+        requests.add(workerID);
+        selector.wakeup();
+    }
+
+    /**
+     * Stops all IO with a worker that has been killed, and counts its connection
+     * as finished. Can be called from any thread.
+     *
+     * @param workerID the ID of the worker
+     */
+    public void abandon(int workerID) {
+        requests.add(~workerID);
+        selector.wakeup();
+    }
+
+    /**
+     * Tells the IO loop that no more workers will be registered, so it can
+     * finish once every registered connection has finished.
+     */
+    public void seal() {
+        sealed = true;
+        selector.wakeup();
+    }
+
+    /**
+     * Waits for the IO loop to finish. The loop only finishes on its own
+     * once it has been sealed.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void join() throws InterruptedException {
+        if (started) {
+            done.await();
+        }
+    }
+
+    /**
+     * Whether the given worker has connected.
+     *
+     * @param workerID the ID of the worker
+     * @return true once the worker's connection has been accepted and identified
+     */
+    public boolean isConnected(int workerID) {
+        return connections.get(workerID).connected;
+    }
+
+    /**
+     * When the given worker connected.
+     *
+     * @param workerID the ID of the worker
+     * @return the time the worker identified itself, from System.nanoTime,
+     *         or 0 if it hasn't connected
+     */
+    public long getConnectTime(int workerID) {
+        // Abandoned connections count as connected, but have no connect time.
+        return connections.get(workerID).connectTime;
+    }
+
+    /**
+     * @param workerID the ID of the worker
+     * @return the number of bytes sent to the worker so far
+     */
+    public long getBytesSent(int workerID) {
+        return connections.get(workerID).bytesSent;
+    }
+
+    /**
+     * @param workerID the ID of the worker
+     * @return the number of bytes received from the worker so far
+     */
+    public long getBytesReceived(int workerID) {
+        return connections.get(workerID).bytesReceived;
+    }
+
+    /**
+     * How long the worker kept the main process waiting to send it inputs,
+     * because its socket was full.
+     *
+     * @param workerID the ID of the worker
+     * @return the total time, in nanoseconds
+     */
+    public long getStallNanos(int workerID) {
+        return connections.get(workerID).stallNanos;
+    }
+
+    /**
+     * @param workerID the ID of the worker
+     * @return the time spent encoding the worker's setup input, commands and inputs, in nanoseconds
+     */
+    public long getEncodeNanos(int workerID) {
+        return connections.get(workerID).iServer.getEncodeNanos();
+    }
+
+    /**
+     * @param workerID the ID of the worker
+     * @return the time spent decoding the worker's outputs, in nanoseconds
+     */
+    public long getDecodeNanos(int workerID) {
+        return connections.get(workerID).oServer.getDecodeNanos();
+    }
+
+    /**
+     * @param workerID the ID of the worker
+     * @return the number of bytes of the worker's encoded setup input
+     */
+    public long getSetupBytes(int workerID) {
+        return connections.get(workerID).iServer.getSetupBytes();
+    }
+
+    /**
+     * @param workerID the ID of the worker
+     * @return the number of bytes of task inputs encoded for the worker so far
+     */
+    public long getInputBytes(int workerID) {
+        return connections.get(workerID).iServer.getInputBytes();
+    }
+
+    /**
+     * @param workerID the ID of the worker
+     * @return the number of bytes of outputs received from the worker so far
+     */
+    public long getOutputBytes(int workerID) {
+        return connections.get(workerID).oServer.getOutputBytes();
+    }
+
+    /**
+     * @param workerID the ID of the worker
+     * @return the spans of the worker's Timeline received so far, on this process's clock
+     */
+    public long[] getTimeline(int workerID) {
+        return connections.get(workerID).oServer.getTimeline();
+    }
+
+    /**
+     * @return the time the IO loop has spent waiting for sockets to be ready, in nanoseconds
+     */
+    public long getIdleNanos() {
+        return idleNanos;
+    }
+
+    /**
+     * Whether all IO with the given worker is complete.
+     *
+     * @param workerID the ID of the worker
+     * @return true if the connection has finished, successfully or not
+     */
+    public boolean isFinished(int workerID) {
+        return connections.get(workerID).finished;
+    }
+
+    /**
+     * Whether the IO loop is still running.
+     *
+     * @return true if the loop has been started and has not finished
+     */
+    public boolean isAlive() {
+        return started && done.getCount() > 0;
+    }
+
+    /**
+     * Gets the exception that stopped IO with a worker, if any.
+     *
+     * @param workerID the ID of the worker
+     * @return the worker's exception, or the IO thread's if it failed, or null
+     */
+    public IOException getException(int workerID) {
+        IOException e = connections.get(workerID).exception;
+        return e != null ? e : exception;
+    }
+
+    /**
+     * Closes the server channel and all connections, stopping the IO loop
+     * and unblocking join.
+     */
+    public void close() {
+        closed = true;
+        selector.wakeup();
+        if (entered.compareAndSet(false, true)) {
+            // The loop never ran, so it won't clean up after itself.
+            shutdown();
+            done.countDown();
         }
     }
 }
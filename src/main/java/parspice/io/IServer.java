@@ -4,27 +4,77 @@ import parspice.sender.Sender;
 
 import java.io.IOException;
 import java.io.ObjectOutputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
- * Server for sending inputs to a worker.
+ * Encodes the setup input and the commands sent to a worker.
  *
+ * The setup input (if any) is sent first. After that the worker is sent
+ * commands: RANGE tells it to run a range of tasks, and is followed by the
+ * task inputs for that range (if any); STOP tells it to shut down. Commands
+ * can be queued from any thread while the job runs.
+ *
+ * Inputs are encoded a chunk at a time, only when the IOManager is ready to
+ * write more to the worker's connection, so the whole input list is never
+ * held in memory in encoded form.
+ *
+ * The bytes of the setup input and of the task inputs are counted as they
+ * are encoded. The stream is flushed where one gives way to a command, so
+ * the counts are exact: they include Java serialization's block headers, but
+ * not the commands.
+ *
+ * @param <S> The type of the setup input sent to the worker
  * @param <I> The type of the arguments sent to the worker
  */
-public class IServer<S, I> implements Runnable {
+public class IServer<S, I> {
+
+    /**
+     * Command to run a range of tasks. Followed by the range's sequence number,
+     * first task index, and number of tasks, then the task inputs.
+     */
+    public static final int RANGE = 0;
+
+    /**
+     * Command to finish up and exit.
+     */
+    public static final int STOP = 1;
+
+    /**
+     * Inputs are encoded until a chunk reaches this many bytes.
+     */
+    private static final int CHUNK_SIZE = 1 << 16;
 
-    private final ServerSocket serverSocket;
     private final Sender<I> inputSender;
     private final Sender<S> setupSender;
     private final List<I> inputs;
     private final S setupInput;
     private final int workerID;
 
-    public IServer(Sender<I> inputSender, Sender<S> setupSender, List<I> inputs, S setupInput, int port, int workerID) throws IOException {
-        this.serverSocket = new ServerSocket(port);
+    private final Queue<int[]> commands = new ConcurrentLinkedQueue<>();
+
+    private ChunkOutputStream chunk;
+    private ObjectOutputStream oos;
+    private int nextInput = 0;
+    private int endInput = 0;
+    private volatile boolean stopped = false;
 
+    private volatile long encodeNanos = 0;
+    private volatile long setupBytes = 0;
+    private volatile long inputBytes = 0;
+
+    /**
+     * Creates a new IServer.
+     *
+     * @param inputSender sender for task inputs, or null if none
+     * @param setupSender sender for the setup input, or null if none
+     * @param inputs all the task inputs of the job, or null if none
+     * @param setupInput setup input to send, or null if none
+     * @param workerID ID of the worker, for error reporting
+     */
+    public IServer(Sender<I> inputSender, Sender<S> setupSender, List<I> inputs, S setupInput, int workerID) {
         this.inputSender = inputSender;
         this.setupSender = setupSender;
         this.inputs = inputs;
@@ -33,33 +83,119 @@ public class IServer<S, I> implements Runnable {
     }
 
     /**
-     * Gets a connection to the worker and writes all the inputs
+     * Queues a command to run a range of tasks. Can be called from any thread.
+     *
+     * @param seq sequence number of the range, echoed back by the worker
+     * @param start index of the first task
+     * @param count number of tasks
+     */
+    void sendRange(int seq, int start, int count) {
+        commands.add(new int[]{RANGE, seq, start, count});
+    }
+
+    /**
+     * Queues the command to stop. Can be called from any thread.
      */
-    @Override
-    public void run() {
-        try {
-            Socket socket = serverSocket.accept();
-            ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
+    void sendStop() {
+        commands.add(new int[]{STOP});
+    }
+
+    /**
+     * Encodes the next chunk of data to send to the worker. The setup input
+     * (if any) is at the start of the first chunk.
+     *
+     * @return the encoded chunk, or null if there is nothing to send right now
+     * @throws IOException if the Sender fails
+     */
+    ByteBuffer nextChunk() throws IOException {
+        if (stopped) {
+            return null;
+        }
+        long start = System.nanoTime();
+        Object event = FlightEvents.ENCODE.begin();
+        if (oos == null) {
+            chunk = new ChunkOutputStream(0, CHUNK_SIZE + 1024);
+            oos = new ObjectOutputStream(chunk);
             if (setupInput != null) {
+                int mark = chunk.size();
                 setupSender.write(setupInput, oos);
+                oos.flush();
+                setupBytes = chunk.size() - mark;
             }
+        }
+        while (chunk.size() < CHUNK_SIZE) {
+            if (inputs != null && nextInput < endInput) {
+                int mark = chunk.size();
+                do {
+                    inputSender.write(inputs.get(nextInput++), oos);
+                } while (nextInput < endInput && chunk.size() < CHUNK_SIZE);
+                oos.flush();
+                inputBytes += chunk.size() - mark;
+                continue;
+            }
+            int[] command = commands.poll();
+            if (command == null) {
+                break;
+            }
+            oos.writeInt(command[0]);
+            if (command[0] == STOP) {
+                stopped = true;
+                break;
+            }
+            oos.writeInt(command[1]);
+            oos.writeInt(command[2]);
+            oos.writeInt(command[3]);
+            nextInput = command[2];
+            endInput = command[2] + command[3];
             if (inputs != null) {
-                for (I input : inputs) {
-                    inputSender.write(input, oos);
-                }
+                // Keep the command out of the input byte count.
+                oos.flush();
             }
-            oos.flush();
-            oos.close();
-            socket.close();
-            serverSocket.close();
-        } catch (IOException e) {
-            System.err.println(
-                    "IServer thread " + workerID + " failed. Check log file 'ParSPICE_worker_log_"
-                            + workerID
-                            + ".txt for details. If it does not exist, the worker wasn't able to run."
-            );
-            System.err.println(e.toString());
-            e.printStackTrace();
         }
+        oos.flush();
+        encodeNanos += System.nanoTime() - start;
+        if (chunk.size() == 0) {
+            return null;
+        }
+        if (event != null) {
+            FlightEvents.ENCODE.commit(event, workerID, (long) chunk.size());
+        }
+        return chunk.take();
+    }
+
+    /**
+     * @return true once the STOP command has been encoded
+     */
+    boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * @return the time spent encoding the setup input, commands and inputs, in nanoseconds
+     */
+    public long getEncodeNanos() {
+        return encodeNanos;
+    }
+
+    /**
+     * @return the number of bytes of the encoded setup input, or 0 if there is none
+     */
+    public long getSetupBytes() {
+        return setupBytes;
+    }
+
+    /**
+     * @return the number of bytes of task inputs encoded so far, counting
+     *         inputs sent again (for a range run speculatively) each time
+     */
+    public long getInputBytes() {
+        return inputBytes;
+    }
+
+    /**
+     * @return the ID of the worker these inputs are for
+     */
+    public int getWorkerID() {
+        return workerID;
     }
 }
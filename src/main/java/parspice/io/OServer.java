@@ -2,66 +2,218 @@ package parspice.io;
 
 import parspice.sender.Sender;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
- * A server for receiving outputs from a worker.
+ * Receives and decodes the frames sent by a worker: outputs, heartbeats,
+ * reports of finished ranges, captured task failures, the worker's
+ * measurements, and the spans of its Timeline, which are kept here.
+ *
+ * Bytes are fed in by the IOManager as they arrive. They are collected until
+ * a whole frame (see FrameWriter) is available, and only then decoded, so
+ * decoding never waits on the network. Decoded frames are passed on to a
+ * WorkerListener.
  *
  * @param <O> the type of outputs from the worker.
  */
-public class OServer<O> implements Runnable {
+public class OServer<O> {
 
-    private final ServerSocket serverSocket;
     private final Sender<O> outputSender;
     private final int workerID;
-    private final int taskSubset;
+    private final WorkerListener<O> listener;
+
+    private final ByteBuffer header = ByteBuffer.allocate(FrameWriter.HEADER_SIZE);
+    private byte[] payload = new byte[0];
+    private int frameType;
+    private int payloadLength = -1;
+    private int payloadRead = 0;
+    private int fieldA;
+    private int fieldB;
+
+    private final FrameInputStream frameStream = new FrameInputStream();
+    private ObjectInputStream ois;
 
-    private final ArrayList<O> outputs;
+    private volatile long decodeNanos = 0;
+    private volatile long outputBytes = 0;
 
-    public OServer(Sender<O> outputSender, int taskSubset, int port, int workerID) throws IOException {
-        this.serverSocket = new ServerSocket(port);
+    /**
+     * The worker's timeline spans, on the worker's clock.
+     */
+    private long[] timeline = new long[0];
+    private int timelineSize = 0;
 
+    /**
+     * The difference between the main process's clock and the worker's.
+     * Each timeline frame gives an upper bound, since it took some time to
+     * arrive; the smallest one is kept.
+     */
+    private long clockOffset = Long.MAX_VALUE;
+
+    /**
+     * Creates a new OServer.
+     *
+     * @param outputSender sender for task outputs, or null if the worker has no outputs
+     * @param workerID ID of the worker, for error reporting
+     * @param listener receives the decoded frames
+     */
+    public OServer(Sender<O> outputSender, int workerID, WorkerListener<O> listener) {
         this.outputSender = outputSender;
-        this.outputs = new ArrayList<>(taskSubset);
         this.workerID = workerID;
-        this.taskSubset = taskSubset;
+        this.listener = listener;
     }
 
     /**
-     * Gets a connection to the worker, and reads all outputs into the outputs list.
+     * Consumes bytes received from the worker, decoding every frame that is completed.
+     *
+     * @param data received bytes; all remaining bytes are consumed
+     * @throws IOException if a frame is malformed, or the Sender fails
      */
-    @Override
-    public void run() {
-        try {
-            Socket socket = serverSocket.accept();
-            ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
-            for (int i = 0; i < taskSubset; i++) {
-                outputs.add(outputSender.read(ois));
+    void receive(ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            if (payloadLength == -1) {
+                while (header.hasRemaining() && data.hasRemaining()) {
+                    header.put(data.get());
+                }
+                if (header.hasRemaining()) {
+                    return;
+                }
+                header.flip();
+                frameType = header.getInt();
+                payloadLength = header.getInt();
+                fieldA = header.getInt();
+                fieldB = header.getInt();
+                header.clear();
+                if (payloadLength < 0 || (payloadLength > 0 && frameType != FrameWriter.OUTPUTS
+                        && frameType != FrameWriter.FAILURE && frameType != FrameWriter.STATS
+                        && frameType != FrameWriter.TIMELINE)) {
+                    throw new IOException("Malformed frame from worker " + workerID);
+                }
+                if (payload.length < payloadLength) {
+                    payload = new byte[payloadLength];
+                }
+                payloadRead = 0;
+            }
+            int n = Math.min(data.remaining(), payloadLength - payloadRead);
+            data.get(payload, payloadRead, n);
+            payloadRead += n;
+            if (payloadRead == payloadLength) {
+                decodeFrame();
+                payloadLength = -1;
             }
-            ois.close();
-            socket.close();
-            serverSocket.close();
-        } catch (IOException e) {
-            System.err.println(
-                    "OServer thread " + workerID + " failed. Check log file 'ParSPICE_worker_log_"
-                    + workerID
-                    + ".txt for details. If it does not exist, the worker wasn't able to run."
-            );
-            System.err.println(e.toString());
-            e.printStackTrace();
+        }
+    }
+
+    private void decodeFrame() throws IOException {
+        switch (frameType) {
+            case FrameWriter.OUTPUTS:
+                if (outputSender == null || fieldB < 0) {
+                    throw new IOException("Malformed frame from worker " + workerID);
+                }
+                long start = System.nanoTime();
+                Object event = FlightEvents.DECODE.begin();
+                frameStream.reset(payload, payloadLength);
+                if (ois == null) {
+                    ois = new ObjectInputStream(frameStream);
+                }
+                ArrayList<O> outputs = new ArrayList<>(fieldB);
+                for (int i = 0; i < fieldB; i++) {
+                    outputs.add(outputSender.read(ois));
+                }
+                decodeNanos += System.nanoTime() - start;
+                outputBytes += payloadLength;
+                if (event != null) {
+                    FlightEvents.DECODE.commit(event, workerID, fieldA, fieldB, (long) payloadLength);
+                }
+                if (!outputs.isEmpty()) {
+                    listener.outputs(workerID, fieldA, outputs);
+                }
+                break;
+            case FrameWriter.PROGRESS:
+                listener.progress(workerID, fieldA, fieldB);
+                break;
+            case FrameWriter.DONE:
+                listener.done(workerID, fieldA);
+                break;
+            case FrameWriter.FAILURE:
+                DataInputStream data = new DataInputStream(new ByteArrayInputStream(payload, 0, payloadLength));
+                String exceptionClass = data.readUTF();
+                String message = data.readBoolean() ? data.readUTF() : null;
+                listener.failure(workerID, fieldA, exceptionClass, message);
+                break;
+            case FrameWriter.STATS:
+                if (fieldA < 0 || payloadLength != 8 * fieldA) {
+                    throw new IOException("Malformed frame from worker " + workerID);
+                }
+                ByteBuffer values = ByteBuffer.wrap(payload, 0, payloadLength);
+                long[] stats = new long[fieldA];
+                for (int i = 0; i < stats.length; i++) {
+                    stats[i] = values.getLong();
+                }
+                listener.stats(workerID, stats);
+                break;
+            case FrameWriter.TIMELINE:
+                if (fieldA < 1 || payloadLength != 8 * fieldA || (fieldA - 1) % Timeline.SPAN_SIZE != 0) {
+                    throw new IOException("Malformed frame from worker " + workerID);
+                }
+                receiveTimeline(ByteBuffer.wrap(payload, 0, payloadLength), fieldA - 1);
+                break;
+            default:
+                throw new IOException("Unknown frame type " + frameType + " from worker " + workerID);
+        }
+    }
+
+    private synchronized void receiveTimeline(ByteBuffer values, int count) {
+        long now = System.nanoTime();
+        clockOffset = Math.min(clockOffset, now - values.getLong());
+        if (timelineSize + count > timeline.length) {
+            timeline = Arrays.copyOf(timeline, Math.max(timelineSize + count, 2 * timeline.length));
+        }
+        for (int i = 0; i < count; i++) {
+            timeline[timelineSize++] = values.getLong();
         }
     }
 
     /**
-     * Return the received outputs. Should only be called after run has completed.
+     * The spans of the worker's Timeline received so far, moved onto the main
+     * process's clock. Can be called from any thread.
      *
-     * @return the outputs from the worker
+     * @return the spans, laid out as in Timeline, with times from the main
+     *         process's System.nanoTime
+     */
+    public synchronized long[] getTimeline() {
+        long[] spans = Arrays.copyOf(timeline, timelineSize);
+        for (int i = 0; i < spans.length; i += Timeline.SPAN_SIZE) {
+            spans[i + 1] += clockOffset;
+            spans[i + 2] += clockOffset;
+        }
+        return spans;
+    }
+
+    /**
+     * @return the time spent decoding outputs from this worker, in nanoseconds
+     */
+    public long getDecodeNanos() {
+        return decodeNanos;
+    }
+
+    /**
+     * @return the number of bytes of encoded outputs received from this
+     *         worker, not counting the frame headers
+     */
+    public long getOutputBytes() {
+        return outputBytes;
+    }
+
+    /**
+     * @return the ID of the worker these frames are from
      */
-    public ArrayList<O> getOutputs() {
-        return outputs;
+    public int getWorkerID() {
+        return workerID;
     }
 }
@@ -0,0 +1,69 @@
+package parspice.io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * [worker process] Wraps the socket stream, adding up the time spent waiting
+ * in it for data from the main process. Long waits are also added to the
+ * worker's Timeline, if it has one.
+ *
+ * Only the thread reading the stream should call getWaitNanos.
+ */
+public class TimedInputStream extends FilterInputStream {
+
+    private final Timeline timeline;
+    private long waitNanos = 0;
+
+    /**
+     * @param in the stream to read from
+     */
+    public TimedInputStream(InputStream in) {
+        this(in, null);
+    }
+
+    /**
+     * @param in the stream to read from
+     * @param timeline the timeline to add long waits to, or null
+     */
+    public TimedInputStream(InputStream in, Timeline timeline) {
+        super(in);
+        this.timeline = timeline;
+    }
+
+    @Override
+    public int read() throws IOException {
+        long start = System.nanoTime();
+        try {
+            return super.read();
+        } finally {
+            waited(start);
+        }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return super.read(b, off, len);
+        } finally {
+            waited(start);
+        }
+    }
+
+    private void waited(long start) {
+        long end = System.nanoTime();
+        waitNanos += end - start;
+        if (timeline != null) {
+            timeline.stall(Timeline.INPUT_STALL, start, end);
+        }
+    }
+
+    /**
+     * @return the total time spent in read, in nanoseconds
+     */
+    public long getWaitNanos() {
+        return waitNanos;
+    }
+}
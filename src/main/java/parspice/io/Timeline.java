@@ -0,0 +1,123 @@
+package parspice.io;
+
+import java.util.Arrays;
+
+/**
+ * Spans of a worker's time, for the timeline of a job (see JobStats.writeTrace).
+ *
+ * Each span is SPAN_SIZE longs: its kind, its start and end from
+ * System.nanoTime, and two values that depend on the kind. An instant has
+ * the same start and end.
+ *
+ * The worker collects its spans in a Timeline until it sends them to the
+ * main process, which moves them onto its own clock (see OServer.getTimeline),
+ * and adds the spans only it can see. Waits on the socket are only kept if
+ * they last at least STALL_THRESHOLD, so a busy worker doesn't flood the
+ * timeline with them.
+ *
+ * Only the worker's task thread should use a Timeline.
+ */
+public class Timeline {
+
+    /**
+     * [worker process] Reading the setup input and running setup.
+     */
+    public static final int SETUP = 0;
+
+    /**
+     * [worker process] Running a range of tasks. Values: index of the first task, number of tasks.
+     */
+    public static final int BATCH = 1;
+
+    /**
+     * [worker process] Waiting for data from the main process, for inputs or for more work.
+     */
+    public static final int INPUT_STALL = 2;
+
+    /**
+     * [worker process] Waiting to write frames to the socket.
+     */
+    public static final int OUTPUT_STALL = 3;
+
+    /**
+     * [worker process] An instant: the main process told the worker to stop.
+     */
+    public static final int STOP = 4;
+
+    /**
+     * [main process] From starting the worker's process until it connected, or
+     * was killed or the run ended if it never did. Values: 1 if it connected, otherwise 0.
+     */
+    public static final int SPAWN = 5;
+
+    /**
+     * [main process] An instant: the worker was killed.
+     */
+    public static final int KILL = 6;
+
+    /**
+     * Number of longs in a span.
+     */
+    public static final int SPAN_SIZE = 5;
+
+    /**
+     * The shortest wait on the socket that is kept, in nanoseconds.
+     */
+    static final long STALL_THRESHOLD = 1_000_000;
+
+    private long[] spans = new long[SPAN_SIZE * 16];
+    private int size = 0;
+
+    /**
+     * Adds a span.
+     *
+     * @param kind the kind of span
+     * @param start when it started, from System.nanoTime
+     * @param end when it ended, from System.nanoTime
+     * @param a the first value, or 0 if the kind has none
+     * @param b the second value, or 0 if the kind has none
+     */
+    public void add(int kind, long start, long end, long a, long b) {
+        if (size + SPAN_SIZE > spans.length) {
+            spans = Arrays.copyOf(spans, spans.length * 2);
+        }
+        spans[size++] = kind;
+        spans[size++] = start;
+        spans[size++] = end;
+        spans[size++] = a;
+        spans[size++] = b;
+    }
+
+    /**
+     * Adds a wait on the socket, if it lasted at least STALL_THRESHOLD.
+     *
+     * @param kind INPUT_STALL or OUTPUT_STALL
+     * @param start when the wait started
+     * @param end when it ended
+     */
+    void stall(int kind, long start, long end) {
+        if (end - start >= STALL_THRESHOLD) {
+            add(kind, start, end, 0, 0);
+        }
+    }
+
+    /**
+     * @return a copy of the spans collected so far
+     */
+    public long[] getSpans() {
+        return Arrays.copyOf(spans, size);
+    }
+
+    /**
+     * Takes the spans collected so far, to send them to the main process.
+     *
+     * @return the current time, from System.nanoTime, followed by the spans
+     */
+    long[] drain() {
+        long[] values = new long[1 + size];
+        values[0] = System.nanoTime();
+        System.arraycopy(spans, 0, values, 1, size);
+        size = 0;
+        return values;
+    }
+}
@@ -0,0 +1,61 @@
+package parspice.io;
+
+import java.util.List;
+
+/**
+ * Receives what the workers report back to the main process.
+ *
+ * All methods are called from the IOManager's thread, in the order the
+ * worker sent them, so they should return quickly.
+ *
+ * @param <O> the output type returned by the task, or Void if none
+ */
+public interface WorkerListener<O> {
+
+    /**
+     * Called when a frame of outputs has been decoded.
+     *
+     * @param workerID the ID of the worker
+     * @param firstIndex the task index of the first output
+     * @param outputs the outputs, for consecutive task indices
+     */
+    void outputs(int workerID, int firstIndex, List<O> outputs);
+
+    /**
+     * Called when a heartbeat is received.
+     *
+     * @param workerID the ID of the worker
+     * @param seq the sequence number of the range being run, or -1 if none has started
+     * @param index the index of the task being run
+     */
+    void progress(int workerID, int seq, int index);
+
+    /**
+     * Called when a worker has finished a range of tasks. All the outputs
+     * from the range have been passed to outputs already.
+     *
+     * @param workerID the ID of the worker
+     * @param seq the sequence number of the range
+     */
+    void done(int workerID, int seq);
+
+    /**
+     * Called when a task threw an exception that the worker captured
+     * instead of exiting.
+     *
+     * @param workerID the ID of the worker
+     * @param index the index of the task
+     * @param exceptionClass the full class name of the exception
+     * @param message the message of the exception, or null if it had none
+     */
+    void failure(int workerID, int index, String exceptionClass, String message);
+
+    /**
+     * Called when a worker sends its measurements so far. Each report
+     * replaces the one before.
+     *
+     * @param workerID the ID of the worker
+     * @param values the measurements, as laid out by the worker
+     */
+    void stats(int workerID, long[] values);
+}
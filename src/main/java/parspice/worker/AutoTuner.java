@@ -0,0 +1,151 @@
+package parspice.worker;
+
+import parspice.Calibration;
+import parspice.ExecutionMode;
+import parspice.ParSPICE;
+
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Picks the number of workers for jobs run with Job.AUTO.
+ *
+ * The choice is made with the runtime model in the ParSPICE object's
+ * Calibration, from how long a task of the worker class takes, how many bytes
+ * it sends, and how long a worker takes to start. Those are measured by a
+ * pilot: a run of the job's first few tasks on a single worker, whose outputs
+ * are thrown away. Each worker class is measured once per JVM.
+ *
+ * When running the tasks directly in one thread is predicted to be fastest,
+ * the job is run in the main process (see parspice.ExecutionMode). Jobs too
+ * small to spare tasks for a pilot get a task thread per core, or per task if
+ * there are fewer tasks than cores. Jobs of a ParSPICE object that runs everything
+ * in process get a single worker, without a pilot.
+ */
+final class AutoTuner {
+
+    /**
+     * The most tasks run by a pilot.
+     */
+    private static final int PILOT_TASKS = 16;
+
+    /**
+     * A pilot runs no more than one task in this many of the job's.
+     */
+    private static final int PILOT_FRACTION = 20;
+
+    /**
+     * What the pilots measured, by worker class.
+     */
+    private static final Map<Class<?>, Sample> SAMPLES = new ConcurrentHashMap<>();
+
+    /**
+     * The costs of one worker class, measured by a pilot.
+     */
+    private static final class Sample {
+        final double taskNanos;
+        final double bytesPerTask;
+        final double startNanos;
+
+        Sample(double taskNanos, double bytesPerTask, double startNanos) {
+            this.taskNanos = taskNanos;
+            this.bytesPerTask = bytesPerTask;
+            this.startNanos = startNanos;
+        }
+    }
+
+    private AutoTuner() {}
+
+    /**
+     * Picks the number of workers for a job, running a pilot first if its
+     * worker class hasn't been measured yet.
+     *
+     * @param job a job with AUTO workers
+     * @param par instance of ParSPICE to use
+     * @return a copy of the job with the number of workers chosen, and where to run it
+     * @throws CancellationException if the pilot was cancelled
+     */
+    static <S, I, O> Job<S, I, O> tune(Job<S, I, O> job, ParSPICE par) {
+        if (par.getExecutionMode() == ExecutionMode.IN_PROCESS) {
+            return job.copy(1, job.numTasks);
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        int threads = job.getWorker().getThreadsPerWorker();
+        int numThreads = Math.min(cores, job.numTasks);
+        Sample sample = measure(job, par);
+        if (sample != null) {
+            Calibration calibration = par.getCalibration();
+            // The model's workers are task threads, which are worker processes
+            // unless the worker is thread-safe.
+            int best = calibration.bestWorkers(job.numTasks, sample.taskNanos, sample.bytesPerTask,
+                    sample.startNanos, cores);
+            if (best == 0) {
+                Job<S, I, O> tuned = job.copy(1, job.numTasks);
+                tuned.mode = ExecutionMode.IN_PROCESS;
+                return tuned;
+            }
+            numThreads = best;
+        }
+        // Thread-safe workers need fewer processes for the same number of task threads.
+        return job.copy((numThreads + threads - 1) / threads, job.numTasks);
+    }
+
+    /**
+     * Gets the costs of the job's worker class, running a pilot if need be.
+     *
+     * @param job the job
+     * @param par instance of ParSPICE to use
+     * @return the costs, or null if the job is too small for a pilot or the pilot failed
+     */
+    private static <S, I, O> Sample measure(Job<S, I, O> job, ParSPICE par) {
+        Class<?> workerClass = job.getWorker().getClass();
+        Sample sample = SAMPLES.get(workerClass);
+        if (sample != null) {
+            return sample;
+        }
+        int pilotTasks = Math.min(PILOT_TASKS, job.numTasks / PILOT_FRACTION);
+        if (pilotTasks == 0) {
+            return null;
+        }
+        Job<S, I, O> pilot = job.copy(1, pilotTasks);
+        pilot.checkpointDirectory = null;
+        pilot.cache = null;
+        pilot.deduplicate = false;
+        pilot.progressListener = null;
+        pilot.traceFile = null;
+        // Measuring the cost of starting a worker takes a worker process.
+        pilot.mode = ExecutionMode.PROCESSES;
+        JobStats stats;
+        try {
+            stats = pilot.runCommonForStats(par);
+        } catch (CancellationException e) {
+            throw e;
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            // The job itself will most likely fail the same way, and report it properly.
+            System.err.println("ParSPICE: the pilot run of " + workerClass.getName() + " failed (" + e
+                    + "), so its number of workers is a guess");
+            return null;
+        }
+        long computeNanos = 0;
+        long tasksRun = 0;
+        long startNanos = 0;
+        for (WorkerStats worker : stats.getWorkers()) {
+            computeNanos += worker.getComputeNanos();
+            tasksRun += worker.getTasksRun();
+            startNanos = Math.max(startNanos, worker.getConnectNanos());
+        }
+        if (tasksRun == 0) {
+            return null;
+        }
+        // The pilot's tasks ran side by side if the worker is thread-safe.
+        int parallel = Math.min(job.getWorker().getThreadsPerWorker(), Runtime.getRuntime().availableProcessors());
+        sample = new Sample((double) computeNanos * parallel / tasksRun,
+                (double) (stats.getInputBytes() + stats.getOutputBytes()) / pilotTasks, startNanos);
+        SAMPLES.put(workerClass, sample);
+        return sample;
+    }
+}
@@ -9,7 +9,7 @@ public abstract class AutoWorker extends Worker {
     /**
      * [main process] Initialize the job with the inputs it needs to run.
      *
-     * @param numWorkers number of workers to use.
+     * @param numWorkers number of workers to use, or Job.AUTO to have ParSPICE pick it.
      * @param numTasks number of tasks to run.
      * @return an initialized Job, ready to run
      */
@@ -37,28 +37,74 @@ public abstract class AutoWorker extends Worker {
     }
 
     /**
-     * [worker process] Repeatedly calls task.
+     * [worker process] Calls task.
      *
      * The user cannot call or override this function.
+     *
+     * @param i the index of the task
+     * @throws Exception any exception the user code needs to throw
      */
     @Override
-    final void taskWrapper() throws Exception {
-        for (int i = getStartIndex(); i < getStartIndex() + getTaskSubset(); i++) {
+    final void taskWrapper(int i) throws Exception {
+        try {
             task(i);
+        } catch (Exception e) {
+            taskFailed(i, e);
         }
     }
 
+
     /**
-     * [worker] Does nothing (AutoWorkers have no connections to start).
+     * [in-process] Calls setup.
+     *
+     * The user cannot call or override this function.
+     *
+     * @param setupInput the setup input (always null)
+     * @throws Exception any exception the user code needs to throw
      */
     @Override
-    final void startConnections() {}
+    final void setupDirect(Object setupInput) throws Exception {
+        setup();
+    }
 
     /**
-     * [worker] Does nothing (AutoWorkers have no connections to end).
+     * [in-process] Calls task.
+     *
+     * The user cannot call or override this function.
+     *
+     * @param i the index of the task
+     * @param input the task's input (always null)
+     * @return null
+     * @throws Exception any exception the user code needs to throw
+     */
+    @Override
+    final Object taskDirect(int i, Object input) throws Exception {
+        task(i);
+        return null;
+    }
+
+    /**
+     * [worker process] Does nothing, since this worker's tasks take no inputs.
+     *
+     * The user cannot call or override this function.
+     *
+     * @return null
+     */
+    @Override
+    final Object readInput() {
+        return null;
+    }
+
+    /**
+     * [worker process] Does nothing, since this worker's tasks return no outputs.
+     *
+     * The user cannot call or override this function.
+     *
+     * @param i the index of the task
+     * @param out null
      */
     @Override
-    final void endConnections() {}
+    final void writeOutput(int i, Object out) {}
 
     /**
      * [worker] Called once on each worker when the job starts running.
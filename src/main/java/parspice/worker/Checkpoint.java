@@ -0,0 +1,157 @@
+package parspice.worker;
+
+import parspice.sender.Sender;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Saves the outputs of a job to a directory as it runs, so that a later run
+ * of the same job can pick up where it left off.
+ *
+ * The checkpoint file holds a fingerprint of the job (the worker class, the
+ * number of tasks, and the encoded setup inputs and inputs), the set of tasks
+ * that have completed, and their outputs encoded with the job's output Sender.
+ * Each save replaces the whole file; it is written to a temporary file first
+ * and then moved into place, so a crash partway through a save leaves the
+ * previous checkpoint intact.
+ *
+ * Tasks that failed are not saved, so they are run again on resume.
+ *
+ * @param <O> Type for task outputs
+ */
+class Checkpoint<O> {
+
+    private static final String FILE_NAME = "parspice_checkpoint.bin";
+    private static final int MAGIC = 0x50534350;
+    private static final int VERSION = 1;
+
+    private final File file;
+    private final File tempFile;
+    private final Sender<O> outputSender;
+    private final byte[] fingerprint;
+    private final int numTasks;
+
+    /**
+     * The number of tasks complete at the last save.
+     */
+    private int numSaved = -1;
+
+    /**
+     * @param directory the directory to keep the checkpoint in; created if it doesn't exist
+     * @param job the job being checkpointed
+     * @throws IOException if the directory can't be created, or the job's inputs can't be encoded
+     */
+    Checkpoint(File directory, Job<?, ?, O> job) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create checkpoint directory " + directory);
+        }
+        this.file = new File(directory, FILE_NAME);
+        this.tempFile = new File(directory, FILE_NAME + ".tmp");
+        this.outputSender = job.outputSender;
+        this.fingerprint = fingerprint(job);
+        this.numTasks = job.numTasks;
+    }
+
+    /**
+     * Reads the checkpoint, if there is one, and marks its tasks as complete.
+     *
+     * @param scheduler the scheduler of the run being resumed
+     * @throws IOException if the checkpoint can't be read
+     * @throws IllegalStateException if the checkpoint is from a different job
+     */
+    void load(Scheduler<O> scheduler) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (ois.readInt() != MAGIC || ois.readInt() != VERSION) {
+                throw new IOException(file + " is not a ParSPICE checkpoint, or is from another version");
+            }
+            byte[] saved = new byte[ois.readInt()];
+            ois.readFully(saved);
+            if (!Arrays.equals(saved, fingerprint)) {
+                throw new IllegalStateException("The checkpoint in " + file.getParent()
+                        + " is from a different job; delete it to start this job over");
+            }
+            long[] words = new long[ois.readInt()];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = ois.readLong();
+            }
+            BitSet done = BitSet.valueOf(words);
+            List<O> outputs = new ArrayList<>(Collections.nCopies(numTasks, (O) null));
+            for (int i = done.nextSetBit(0); i >= 0; i = done.nextSetBit(i + 1)) {
+                outputs.set(i, outputSender.read(ois));
+            }
+            scheduler.preload(done, outputs);
+            numSaved = done.cardinality();
+        }
+    }
+
+    /**
+     * Saves the outputs the scheduler has received, if any more tasks have
+     * completed since the last save. Can be called from any thread.
+     *
+     * @param scheduler the scheduler of the run
+     * @throws IOException if the checkpoint can't be written
+     */
+    synchronized void save(Scheduler<O> scheduler) throws IOException {
+        if (scheduler.getNumCompleted() == numSaved) {
+            return;
+        }
+        int numCompleted = scheduler.getNumCompleted();
+        BitSet done = scheduler.getSucceeded();
+        List<O> outputs = scheduler.copyResults();
+        try (ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            oos.writeInt(MAGIC);
+            oos.writeInt(VERSION);
+            oos.writeInt(fingerprint.length);
+            oos.write(fingerprint);
+            long[] words = done.toLongArray();
+            oos.writeInt(words.length);
+            for (long word : words) {
+                oos.writeLong(word);
+            }
+            for (int i = done.nextSetBit(0); i >= 0; i = done.nextSetBit(i + 1)) {
+                outputSender.write(outputs.get(i), oos);
+            }
+        }
+        Files.move(tempFile.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        numSaved = numCompleted;
+    }
+
+    /**
+     * Hashes everything that determines a job's outputs, other than the code.
+     * If the workers all have the same setup input, the number of workers is
+     * left out, so the job can be resumed with a different number. Otherwise
+     * it must be resumed with the same setup input for each worker.
+     */
+    private static <I> byte[] fingerprint(Job<?, I, ?> job) throws IOException {
+        MessageDigest digest = Digests.sha256();
+        Digests.updateWorker(digest, job);
+        Digests.updateInt(digest, job.numTasks);
+        if (job.inputs != null) {
+            ObjectOutputStream oos = new ObjectOutputStream(new Digests.DigestStream(digest));
+            for (I input : job.inputs) {
+                job.inputSender.write(input, oos);
+            }
+            oos.flush();
+        }
+        return digest.digest();
+    }
+}
@@ -0,0 +1,124 @@
+package parspice.worker;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collapses the duplicate inputs of a job, so each distinct input is only run
+ * once, and copies the outputs back out to every task with that input.
+ *
+ * Inputs are equal if the job's input Sender encodes them to the same bytes.
+ * The job that is actually run has one task for each distinct input, in order
+ * of first appearance, and is otherwise a copy of the original job (see Job.copy).
+ * Since its tasks are split between the workers differently, every worker
+ * must have the same setup input.
+ *
+ * @param <S> Type for setup inputs (Void if none)
+ * @param <I> Type for task inputs
+ * @param <O> Type for task outputs
+ */
+class Deduplication<S, I, O> {
+
+    private final Job<S, I, O> uniqueJob;
+
+    /**
+     * For each task of the original job, the index of the task in uniqueJob with the same input.
+     */
+    private final int[] uniqueIndex;
+
+    /**
+     * For each task of uniqueJob, the indices of the tasks in the original job with its input.
+     */
+    private final List<List<Integer>> originalIndices;
+
+    private final DeduplicationStats stats;
+
+    /**
+     * @param job the job to deduplicate, which must have inputs, and the same
+     *            setup input (if any) for every worker
+     * @throws IOException if the inputs can't be encoded
+     */
+    Deduplication(Job<S, I, O> job) throws IOException {
+        Map<ByteBuffer, Integer> seen = new HashMap<>();
+        List<I> unique = new ArrayList<>();
+        uniqueIndex = new int[job.numTasks];
+        originalIndices = new ArrayList<>();
+        Digests.Encoder<I> encoder = new Digests.Encoder<>(job.inputSender);
+        for (int i = 0; i < job.numTasks; i++) {
+            I input = job.inputs.get(i);
+            ByteBuffer key = ByteBuffer.wrap(encoder.encode(input));
+            Integer index = seen.get(key);
+            if (index == null) {
+                index = unique.size();
+                seen.put(key, index);
+                unique.add(input);
+                originalIndices.add(new ArrayList<>(1));
+            }
+            uniqueIndex[i] = index;
+            originalIndices.get(index).add(i);
+        }
+        stats = new DeduplicationStats(job.numTasks, unique.size());
+
+        // No point starting more workers than there are tasks.
+        uniqueJob = job.copy(Math.min(job.numWorkers, unique.size()), unique.size());
+        uniqueJob.inputs = unique;
+        uniqueJob.deduplicate = false;
+    }
+
+    /**
+     * @return the job with one task for each distinct input
+     */
+    Job<S, I, O> getJob() {
+        return uniqueJob;
+    }
+
+    /**
+     * Copies the results of uniqueJob out to the tasks of the original job.
+     *
+     * @param results the results of uniqueJob
+     * @return the results of the original job, with the stats attached
+     */
+    Results<O> expand(Results<O> results) {
+        Results<O> expanded = new Results<>(uniqueIndex.length);
+        for (int index : uniqueIndex) {
+            expanded.add(results.get(index));
+        }
+        List<TaskFailure> failures = new ArrayList<>();
+        for (TaskFailure failure : results.getFailures()) {
+            for (int i : originalIndices.get(failure.getIndex())) {
+                failures.add(new TaskFailure(i, failure.getExceptionClass(), failure.getMessage()));
+            }
+        }
+        failures.sort((a, b) -> Integer.compare(a.getIndex(), b.getIndex()));
+        expanded.setFailures(failures);
+        expanded.setDeduplicationStats(stats);
+        return expanded;
+    }
+
+    /**
+     * Translates a TaskTimeoutException from uniqueJob into one for the original job.
+     *
+     * @param e the exception thrown by uniqueJob
+     * @param timeout the task timeout in ms
+     * @return an exception with the indices and outputs of the original job
+     */
+    @SuppressWarnings("unchecked")
+    TaskTimeoutException expand(TaskTimeoutException e, long timeout) {
+        List<Integer> indices = new ArrayList<>();
+        for (int index : e.getIndices()) {
+            indices.addAll(originalIndices.get(index));
+        }
+        Collections.sort(indices);
+        TaskTimeoutException expanded = new TaskTimeoutException(indices, timeout,
+                expand((Results<O>) e.getOutputs()));
+        for (Throwable suppressed : e.getSuppressed()) {
+            expanded.addSuppressed(suppressed);
+        }
+        return expanded;
+    }
+}
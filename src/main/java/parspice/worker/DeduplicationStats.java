@@ -0,0 +1,55 @@
+package parspice.worker;
+
+/**
+ * How much work was saved by deduplicating a job's inputs (see OJob.deduplicate).
+ */
+public class DeduplicationStats {
+
+    private final int numInputs;
+    private final int numUnique;
+
+    /**
+     * Creates a new DeduplicationStats.
+     *
+     * @param numInputs the number of inputs the job was initialized with
+     * @param numUnique the number of distinct inputs, which were run as tasks
+     */
+    DeduplicationStats(int numInputs, int numUnique) {
+        this.numInputs = numInputs;
+        this.numUnique = numUnique;
+    }
+
+    /**
+     * @return the number of inputs the job was initialized with
+     */
+    public int getNumInputs() {
+        return numInputs;
+    }
+
+    /**
+     * @return the number of distinct inputs, which were sent to the workers
+     */
+    public int getNumUnique() {
+        return numUnique;
+    }
+
+    /**
+     * @return the number of inputs that weren't run, because an equal input was
+     */
+    public int getNumDuplicates() {
+        return numInputs - numUnique;
+    }
+
+    /**
+     * @return the fraction of tasks that didn't have to be run
+     */
+    public double getSavedFraction() {
+        return getNumDuplicates() / (double) numInputs;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d of %d inputs were duplicates (%.1f%% of tasks saved)",
+                getNumDuplicates(), numInputs, 100 * getSavedFraction());
+    }
+}
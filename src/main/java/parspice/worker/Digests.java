@@ -0,0 +1,154 @@
+package parspice.worker;
+
+import parspice.sender.Sender;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+
+/**
+ * Hashing helpers shared by Checkpoint and ResultCache, which both need to
+ * tell whether two jobs (or two tasks) would produce the same outputs.
+ *
+ * Values are hashed in the form their Sender encodes them to, so two inputs
+ * are the same if they are sent to the workers as the same bytes.
+ */
+final class Digests {
+
+    private Digests() {}
+
+    /**
+     * @return a new SHA-256 digest
+     */
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Hashes the worker class and the setup inputs of a job.
+     *
+     * If every worker has the same setup input, it is hashed once, so the
+     * hash doesn't depend on the number of workers. Otherwise each worker's
+     * setup input is hashed in order, since it decides which tasks are run
+     * after which setup (see Job.taskSubset).
+     */
+    static void updateWorker(MessageDigest digest, Job<?, ?, ?> job) throws IOException {
+        updateString(digest, job.getWorker().getClass().getName());
+        if (job.setupInputs != null) {
+            updateSetupInputs(digest, job);
+        }
+    }
+
+    private static <S> void updateSetupInputs(MessageDigest digest, Job<S, ?, ?> job) throws IOException {
+        Collection<ByteBuffer> setups = job.setupGroups() == null ? new LinkedHashSet<>() : new ArrayList<>();
+        for (S setupInput : job.setupInputs) {
+            setups.add(ByteBuffer.wrap(encode(job.setupSender, setupInput)));
+        }
+        updateInt(digest, setups.size());
+        for (ByteBuffer setup : setups) {
+            updateInt(digest, setup.remaining());
+            digest.update(setup);
+        }
+    }
+
+    static void updateString(MessageDigest digest, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        updateInt(digest, bytes.length);
+        digest.update(bytes);
+    }
+
+    static void updateInt(MessageDigest digest, int value) {
+        digest.update(ByteBuffer.allocate(4).putInt(value).array());
+    }
+
+    /**
+     * Encodes a single value with a Sender, on its own stream.
+     */
+    static <T> byte[] encode(Sender<T> sender, T value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bytes);
+        sender.write(value, oos);
+        oos.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Encodes values with a Sender one at a time, reusing the same stream.
+     */
+    static class Encoder<T> {
+        private final Sender<T> sender;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final ObjectOutputStream oos;
+
+        Encoder(Sender<T> sender) throws IOException {
+            this.sender = sender;
+            this.oos = new ObjectOutputStream(bytes);
+            oos.flush();
+            // Leave out the stream header, which only comes before the first value.
+            bytes.reset();
+        }
+
+        /**
+         * Encodes a value. Equal values encode the same way, wherever they
+         * come in the sequence of values encoded.
+         *
+         * @param value the value to encode
+         * @return the value's bytes
+         * @throws IOException if the Sender fails
+         */
+        byte[] encode(T value) throws IOException {
+            // Without resetting, objects written before could be written as back-references.
+            oos.reset();
+            sender.write(value, oos);
+            oos.flush();
+            byte[] encoded = bytes.toByteArray();
+            bytes.reset();
+            return encoded;
+        }
+    }
+
+    /**
+     * @return the bytes as lowercase hexadecimal
+     */
+    static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Feeds everything written to it into a MessageDigest.
+     */
+    static class DigestStream extends OutputStream {
+        private final MessageDigest digest;
+
+        DigestStream(MessageDigest digest) {
+            this.digest = digest;
+        }
+
+        @Override
+        public void write(int b) {
+            digest.update((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            digest.update(b, off, len);
+        }
+    }
+}
@@ -1,9 +1,11 @@
 package parspice.worker;
 
+import parspice.io.FrameWriter;
 import parspice.sender.Sender;
 
-import java.io.*;
-import java.net.Socket;
+import java.io.IOException;
+import java.io.OutputStream;
+
 import java.util.List;
 
 /**
@@ -18,10 +20,7 @@ public abstract class IOWorker<I,O> extends Worker {
     private final Sender<I> inputSender;
     private final Sender<O> outputSender;
 
-    private Socket inputSocket;
-    private Socket outputSocket;
-    private ObjectInputStream ois;
-    private ObjectOutputStream oos;
+    private FrameWriter<O> output;
 
     public IOWorker(Sender<I> inputSender, Sender<O> outputSender) {
         this.inputSender = inputSender;
@@ -31,7 +30,7 @@ public abstract class IOWorker<I,O> extends Worker {
     /**
      * [main process] Initialize the job with the inputs it needs to run.
      *
-     * @param numWorkers number of workers to use.
+     * @param numWorkers number of workers to use, or Job.AUTO to have ParSPICE pick it.
      * @param inputs inputs to split among the workers
      * @return an initialized Job, ready to run
      */
@@ -62,43 +61,94 @@ public abstract class IOWorker<I,O> extends Worker {
     }
 
     /**
-     * [worker process] Repeatedly reads an input, calls task, and writes the output
+     * [worker process] Reads an input, calls task, and writes the output.
      *
      * The user cannot call or override this function.
      *
+     * @param i the index of the task
      * @throws Exception any exception the user code needs to throw
      */
     @Override
-    final void taskWrapper() throws Exception {
-        for (int i = getStartIndex(); i < getStartIndex() + getTaskSubset(); i++) {
-            outputSender.write(task(inputSender.read(ois)), oos);
+    final void taskWrapper(int i) throws Exception {
+        I input = read(inputSender);
+        O out;
+        try {
+            out = task(input);
+        } catch (Exception e) {
+            taskFailed(i, e);
+            return;
         }
+        output.write(i, out);
+    }
+
+
+    /**
+     * [in-process] Calls setup.
+     *
+     * The user cannot call or override this function.
+     *
+     * @param setupInput the setup input (always null)
+     * @throws Exception any exception the user code needs to throw
+     */
+    @Override
+    final void setupDirect(Object setupInput) throws Exception {
+        setup();
     }
 
     /**
-     * [worker process] Starts the input and output socket connections with the main process.
+     * [in-process] Calls task with the input.
+     *
+     * The user cannot call or override this function.
+     *
+     * @param i the index of the task
+     * @param input the task's input
+     * @return the output
+     * @throws Exception any exception the user code needs to throw
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    final Object taskDirect(int i, Object input) throws Exception {
+        return task((I) input);
+    }
+
+    /**
+     * [worker process] Reads the input of the next task.
+     *
+     * The user cannot call or override this function.
+     *
+     * @return the input
+     * @throws IOException if the input cannot be read
+     */
+    @Override
+    final Object readInput() throws IOException {
+        return read(inputSender);
+    }
+
+    /**
+     * [worker process] Writes the output of a task.
+     *
+     * The user cannot call or override this function.
      *
-     * @throws IOException if the connections cannot be made
+     * @param i the index of the task
+     * @param out the output
+     * @throws IOException if the output cannot be written
      */
     @Override
-    final void startConnections() throws IOException {
-        inputSocket = new Socket("localhost", getInputPort());
-        outputSocket = new Socket("localhost", getOutputPort());
-        ois = new ObjectInputStream(inputSocket.getInputStream());
-        oos = new ObjectOutputStream(outputSocket.getOutputStream());
+    @SuppressWarnings("unchecked")
+    final void writeOutput(int i, Object out) throws IOException {
+        output.write(i, (O) out);
     }
 
     /**
-     * [worker process] Ends the input and output connections with the main process.
+     * [worker process] Creates the FrameWriter that sends outputs to the main process.
      *
-     * @throws IOException if the connections cannot be ended.
+     * @param out the socket stream
+     * @return a new FrameWriter for this worker's outputs
      */
     @Override
-    final void endConnections() throws IOException {
-        oos.close();
-        outputSocket.close();
-        ois.close();
-        inputSocket.close();
+    final FrameWriter<?> newFrameWriter(OutputStream out) {
+        output = new FrameWriter<>(outputSender, out);
+        return output;
     }
 
     /**
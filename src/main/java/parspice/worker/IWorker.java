@@ -2,8 +2,7 @@ package parspice.worker;
 
 import parspice.sender.Sender;
 
-import java.io.*;
-import java.net.Socket;
+import java.io.IOException;
 import java.util.List;
 
 /**
@@ -16,9 +15,6 @@ public abstract class IWorker<I> extends Worker {
 
     private final Sender<I> inputSender;
 
-    private Socket inputSocket;
-    private ObjectInputStream ois;
-
     public IWorker(Sender<I> inputSender) {
         this.inputSender = inputSender;
     }
@@ -26,7 +22,7 @@ public abstract class IWorker<I> extends Worker {
     /**
      * [main process] Initialize the job with the inputs it needs to run.
      *
-     * @param numWorkers number of workers to use.
+     * @param numWorkers number of workers to use, or Job.AUTO to have ParSPICE pick it.
      * @param inputs inputs to split among the worker
      * @return an initialized Job, ready to run
      */
@@ -56,41 +52,78 @@ public abstract class IWorker<I> extends Worker {
     }
 
     /**
-     * [worker process] Repeatedly reads an input from the stream and calls task.
+     * [worker process] Reads an input from the stream and calls task.
      *
      * The user cannot call or override this function.
      *
+     * @param i the index of the task
      * @throws Exception any exception the user code needs to throw
      */
     @Override
-    final void taskWrapper() throws Exception {
-        for (int i = getStartIndex(); i < getStartIndex() + getTaskSubset(); i++) {
-            task(inputSender.read(ois));
+    final void taskWrapper(int i) throws Exception {
+        I input = read(inputSender);
+        try {
+            task(input);
+        } catch (Exception e) {
+            taskFailed(i, e);
         }
     }
 
+
+    /**
+     * [in-process] Calls setup.
+     *
+     * The user cannot call or override this function.
+     *
+     * @param setupInput the setup input (always null)
+     * @throws Exception any exception the user code needs to throw
+     */
+    @Override
+    final void setupDirect(Object setupInput) throws Exception {
+        setup();
+    }
+
     /**
-     * [worker process] Starts the input socket connection with the main process.
+     * [in-process] Calls task with the input.
      *
-     * @throws IOException if connection cannot be made
+     * The user cannot call or override this function.
+     *
+     * @param i the index of the task
+     * @param input the task's input
+     * @return null
+     * @throws Exception any exception the user code needs to throw
      */
     @Override
-    final void startConnections() throws IOException {
-        inputSocket = new Socket("localhost", getInputPort());
-        ois = new ObjectInputStream(inputSocket.getInputStream());
+    @SuppressWarnings("unchecked")
+    final Object taskDirect(int i, Object input) throws Exception {
+        task((I) input);
+        return null;
     }
 
     /**
-     * [worker process] Ends the input socket connection with the main process.
+     * [worker process] Reads the input of the next task.
      *
-     * @throws IOException if the connection cannot be ended.
+     * The user cannot call or override this function.
+     *
+     * @return the input
+     * @throws IOException if the input cannot be read
      */
     @Override
-    final void endConnections() throws IOException {
-        ois.close();
-        inputSocket.close();
+    final Object readInput() throws IOException {
+        return read(inputSender);
     }
 
+    /**
+     * [worker process] Does nothing, since this worker's tasks return no outputs.
+     *
+     * The user cannot call or override this function.
+     *
+     * @param i the index of the task
+     * @param out null
+     */
+    @Override
+    final void writeOutput(int i, Object out) {}
+
     /**
      * [worker] Called once on each worker when the job starts running.
      *
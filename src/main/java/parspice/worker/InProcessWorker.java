@@ -0,0 +1,258 @@
+package parspice.worker;
+
+import parspice.io.FlightEvents;
+import parspice.io.Timeline;
+import parspice.io.WorkerListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A worker that runs on a thread in the main process, for jobs run in process
+ * (see parspice.ExecutionMode).
+ *
+ * It takes commands from the Scheduler like a worker process does, and reports
+ * back to it with the same calls the OServer makes, under connection ID 0.
+ * The inputs and outputs are passed directly, without their Senders, and
+ * outputs are handed over in batches, at most every FLUSH_INTERVAL ms, rather
+ * than one by one, so the Scheduler's lock isn't taken for every task.
+ *
+ * The tasks are run by a new instance of the job's Worker, created with its
+ * no-argument constructor as on a worker process, so the instance the job was
+ * initialized with is left as it was.
+ *
+ * @param <S> Type for setup inputs (Void if none)
+ * @param <I> Type for task inputs (Void if none)
+ * @param <O> Type for task outputs (Void if none)
+ */
+class InProcessWorker<S, I, O> implements Scheduler.Commands {
+
+    /**
+     * How often outputs and progress are handed to the Scheduler while a range runs, in ms.
+     */
+    private static final long FLUSH_INTERVAL = 100;
+
+    private static final int[] STOP = new int[0];
+
+    private final Job<S, I, O> job;
+    private final WorkerListener<O> listener;
+    private final boolean captureErrors;
+    private final Thread thread;
+    private final BlockingQueue<int[]> commands = new LinkedBlockingQueue<>();
+
+    private long setupNanos = 0;
+    private long computeNanos = 0;
+    private long tasksRun = 0;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    /**
+     * Only used by the worker's thread; copied to spans as it goes.
+     */
+    private final Timeline timeline = new Timeline();
+
+    /**
+     * The worker's timeline, as of the end of its last range.
+     */
+    private volatile long[] spans = new long[0];
+
+    /**
+     * What the worker threw, if it failed.
+     */
+    private volatile Exception error;
+
+    private volatile boolean killed = false;
+
+    /**
+     * @param job the job to run, with a single worker
+     * @param listener where to report the worker's outputs, progress and measurements
+     * @param captureErrors whether exceptions thrown by tasks are reported as failures,
+     *                      rather than failing the worker
+     * @param runID the ID of the job run, used to name the thread
+     */
+    InProcessWorker(Job<S, I, O> job, WorkerListener<O> listener, boolean captureErrors, String runID) {
+        this.job = job;
+        this.listener = listener;
+        this.captureErrors = captureErrors;
+        this.thread = new Thread(this::run, "parspice in-process " + runID);
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Starts the worker's thread.
+     */
+    void start() {
+        thread.start();
+    }
+
+    @Override
+    public void sendRange(int workerID, int seq, int start, int count) {
+        commands.add(new int[]{seq, start, count});
+    }
+
+    @Override
+    public void sendStop(int workerID) {
+        commands.add(STOP);
+    }
+
+    /**
+     * Stops the worker as soon as it can. The task it is running is interrupted,
+     * but a task that ignores interrupts runs to the end.
+     */
+    void kill() {
+        killed = true;
+        thread.interrupt();
+    }
+
+    /**
+     * @return true if the worker's thread has ended, one way or another
+     */
+    boolean isFinished() {
+        return !thread.isAlive();
+    }
+
+    /**
+     * Waits for the worker's thread to end.
+     *
+     * @param millis the longest time to wait, in ms
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void join(long millis) throws InterruptedException {
+        thread.join(millis);
+    }
+
+    /**
+     * @return the exception the worker failed with, or null if it didn't fail
+     */
+    Exception getError() {
+        return error;
+    }
+
+    /**
+     * @return the worker's timeline as of the end of its last range, on this process's clock
+     */
+    long[] getSpans() {
+        return spans;
+    }
+
+    /**
+     * The worker's thread: runs setup, then ranges of tasks as the Scheduler sends
+     * them, until it is told to stop or is killed. The time spent in a range
+     * counts as compute time, and each task is timed into a LatencyHistogram,
+     * as on a worker process.
+     */
+    private void run() {
+        try {
+            Worker worker = job.getWorker().getClass().getConstructor().newInstance();
+            worker.configure(job.numTasks);
+            Object setupEvent = FlightEvents.SETUP.begin();
+            long setupStart = System.nanoTime();
+            worker.setupDirect(job.setupInputs == null ? null : job.setupInputs.get(0));
+            long setupEnd = System.nanoTime();
+            setupNanos = setupEnd - setupStart;
+            timeline.add(Timeline.SETUP, setupStart, setupEnd, 0, 0);
+            FlightEvents.SETUP.commit(setupEvent, 0);
+            listener.progress(0, -1, 0);
+            while (!killed) {
+                int[] command = commands.take();
+                if (command == STOP) {
+                    long stop = System.nanoTime();
+                    timeline.add(Timeline.STOP, stop, stop, 0, 0);
+                    spans = timeline.getSpans();
+                    listener.stats(0, stats());
+                    return;
+                }
+                runRange(worker, command[0], command[1], command[2]);
+            }
+        } catch (Exception e) {
+            // Anything thrown once the worker is killed is a side effect of the kill.
+            if (!killed) {
+                error = e;
+            }
+        }
+    }
+
+    /**
+     * Runs a range of tasks, and reports it done.
+     *
+     * @param worker the worker to run the tasks on
+     * @param seq the sequence number of the range
+     * @param startIndex the index of the first task
+     * @param taskSubset the number of tasks
+     * @throws Exception anything a task threw, if errors aren't captured
+     */
+    private void runRange(Worker worker, int seq, int startIndex, int taskSubset) throws Exception {
+        worker.setRange(startIndex, taskSubset);
+        boolean hasOutputs = job.outputSender != null;
+        List<O> outputs = new ArrayList<>();
+        int firstIndex = startIndex;
+        Object batchEvent = FlightEvents.TASK_BATCH.begin();
+        long start = System.nanoTime();
+        long lastFlush = start;
+        long taskStart = start;
+        int end = startIndex + taskSubset;
+        for (int i = startIndex; i < end && !killed; i++) {
+            Object input = job.inputs == null ? null : job.inputs.get(i);
+            try {
+                @SuppressWarnings("unchecked")
+                O output = (O) worker.taskDirect(i, input);
+                if (hasOutputs) {
+                    outputs.add(output);
+                }
+            } catch (Exception e) {
+                if (!captureErrors) {
+                    throw e;
+                }
+                if (!outputs.isEmpty()) {
+                    listener.outputs(0, firstIndex, outputs);
+                    outputs = new ArrayList<>();
+                }
+                firstIndex = i + 1;
+                listener.failure(0, i, e.getClass().getName(), e.getMessage());
+            }
+            long taskEnd = System.nanoTime();
+            latencies.record(taskEnd - taskStart);
+            taskStart = taskEnd;
+            if (taskEnd - lastFlush >= FLUSH_INTERVAL * 1_000_000) {
+                lastFlush = taskEnd;
+                if (!outputs.isEmpty()) {
+                    listener.outputs(0, firstIndex, outputs);
+                    outputs = new ArrayList<>();
+                    firstIndex = i + 1;
+                }
+                listener.progress(0, seq, i + 1);
+            }
+        }
+        if (killed) {
+            return;
+        }
+        if (!outputs.isEmpty()) {
+            listener.outputs(0, firstIndex, outputs);
+        }
+        computeNanos += taskStart - start;
+        tasksRun += taskSubset;
+        if (batchEvent != null) {
+            FlightEvents.TASK_BATCH.commit(batchEvent, 0, startIndex, taskSubset, 0, 0);
+        }
+        timeline.add(Timeline.BATCH, start, taskStart, startIndex, taskSubset);
+        spans = timeline.getSpans();
+        listener.progress(0, seq, end);
+        listener.stats(0, stats());
+        listener.done(0, seq);
+    }
+
+    /**
+     * @return the worker's measurements, laid out as WorkerStats expects,
+     *         followed by the task latencies
+     */
+    private long[] stats() {
+        long[] histogram = latencies.toLongs();
+        long[] stats = new long[WorkerStats.NUM_VALUES + histogram.length];
+        System.arraycopy(histogram, 0, stats, WorkerStats.NUM_VALUES, histogram.length);
+        stats[WorkerStats.SETUP] = setupNanos;
+        stats[WorkerStats.COMPUTE] = computeNanos;
+        stats[WorkerStats.TASKS_RUN] = tasksRun;
+        return stats;
+    }
+}
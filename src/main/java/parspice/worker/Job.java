@@ -1,19 +1,23 @@
 package parspice.worker;
 
+import parspice.ExecutionMode;
 import parspice.ParSPICE;
-import parspice.io.IOManager;
-import parspice.io.IServer;
-import parspice.io.OServer;
 import parspice.sender.Sender;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
 
 /**
  * A Job is the actual computations the user needs to perform,
  * i.e. the Worker, combined with all of its inputs and configuration.
  * The user gets an instance of a Job by calling init on a Worker instance,
- * and then runs it with .run(par) (defined in subclasses of Job).
+ * and then runs it with .run(par), .runAsync(par), or .start(par) (defined in subclasses of Job).
  *
  * The user can't create instances of jobs directly, as the constructors
  * are all package-private. Instead, the user can only get an instance
@@ -24,6 +28,24 @@ import java.util.List;
  * @param <O> Type for task outputs (Void if none)
  */
 public abstract class Job<S,I,O> {
+
+    /**
+     * Number of workers to give init to have ParSPICE pick it for each run,
+     * from the measured cost of the tasks and the machine's calibration (see
+     * parspice.Calibration), up to the number of cores.
+     *
+     * Before the first run of a worker class, the first few tasks are run on
+     * a single worker as a pilot, to measure how long they take and how many
+     * bytes they send. The pilot's outputs are thrown away, so those tasks run
+     * twice. The measurements are kept for later runs of the same worker class.
+     * If running the tasks in one thread is predicted to be fastest, the job
+     * runs in the main process instead (see parspice.ExecutionMode).
+     *
+     * It is negative, and not -1 (an unset number of workers), so a number of
+     * workers that works out to 0 is still rejected rather than auto-tuned.
+     */
+    public static final int AUTO = -2;
+
     int numWorkers;
     int numTasks;
 
@@ -40,84 +62,269 @@ public abstract class Job<S,I,O> {
     Sender<I> inputSender;
     Sender<O> outputSender;
 
-    private final Worker worker;
+    /**
+     * Directory to save checkpoints in, or null if the job isn't checkpointed.
+     */
+    File checkpointDirectory;
+
+    /**
+     * How often checkpoints are saved while the job runs, in ms.
+     */
+    long checkpointInterval;
+
+    /**
+     * Cache to look up and store task outputs in, or null if the job isn't cached.
+     */
+    ResultCache cache;
+
+    /**
+     * Whether only the distinct inputs are run.
+     */
+    boolean deduplicate;
+
+    /**
+     * Receives progress reports while the job runs, or null if none.
+     */
+    ProgressListener progressListener;
+
+    /**
+     * How often progress is reported, in ms.
+     */
+    long progressInterval;
 
     /**
-     * List io managers used in runCommon. It is stored
-     * as a member field so that OJob can access it later.
+     * How often progress is reported by default, in ms.
      */
-    protected ArrayList<IOManager<S, I, O>> ioManagers;
+    static final long DEFAULT_PROGRESS_INTERVAL = 1000;
+
+    /**
+     * File to write the timeline of each run to, or null if none.
+     */
+    String traceFile;
+
+    /**
+     * Whether exceptions thrown by tasks are collected, instead of
+     * stopping the job.
+     */
+    boolean captureErrors;
+
+    /**
+     * How many failed workers the job replaces before giving up; none by default.
+     */
+    int maxRetries;
+
+    /**
+     * How long a single task can run before its worker is restarted,
+     * in ms, or 0 for no limit.
+     */
+    int taskTimeout;
+
+    /**
+     * Whether tasks that crash their workers are tracked down and quarantined,
+     * instead of using up retries.
+     */
+    boolean isolateCrashes;
+
+    /**
+     * Where the job runs, or null to use the ParSPICE object's execution mode.
+     * Only set on jobs that AutoTuner makes.
+     */
+    ExecutionMode mode;
+
+    private final Worker worker;
 
     Job(Worker worker) {
         this.worker = worker;
     }
 
     /**
-     * Common logic for running all jobs. Creates the IOManagers and worker processes,
+     * @return the Worker this job runs
+     */
+    Worker getWorker() {
+        return worker;
+    }
+
+    /**
+     * Common logic for running all jobs. Creates the IOManager and worker processes,
      * runs them, and waits for them to finish.
      *
+     * If speculation is on, workers that fall behind may have their remaining
+     * tasks re-run on other workers with the same setup input; see
+     * ParSPICE.setSpeculative.
+     *
+     * If any worker fails, the remaining workers are killed and a
+     * WorkerFailedException is thrown. If the calling thread is interrupted,
+     * the workers are killed too.
+     *
+     * All state for the run is local, so the same Job can be run by several
+     * threads at once.
+     *
      * @param par Instance of ParSPICE to use
+     * @return the outputs of all tasks in order, or null if the job has no outputs.
      * @throws Exception
      */
-    protected final void runCommon(ParSPICE par) throws Exception {
-        boolean hasIO = setupSender != null || inputSender != null || outputSender != null;
+    protected final Results<O> runCommon(ParSPICE par) throws Exception {
+        return new JobRun<>(resolve(par), par, null).execute();
+    }
 
-        String workerClass = worker.getClass().getName();
-        par.checkClass(workerClass);
+    /**
+     * Runs the job like runCommon, but returns the stats of the run rather
+     * than its outputs. Used by jobs without outputs.
+     *
+     * @param par Instance of ParSPICE to use
+     * @return where the time went in the run
+     * @throws Exception
+     */
+    final JobStats runCommonForStats(ParSPICE par) throws Exception {
+        JobRun<S, I, O> run = new JobRun<>(resolve(par), par, null);
+        run.execute();
+        return run.getStats();
+    }
 
-        String workerJar = par.getWorkerJar();
+    /**
+     * Common logic for running jobs in the background. Starts a new thread to run
+     * the job on, and returns immediately.
+     *
+     * Cancelling the returned handle (or its future) kills the job's workers.
+     * If the job fails, the handle's future completes exceptionally with the
+     * same exception that runCommon would have thrown.
+     *
+     * If the job has AUTO workers and its worker class needs a pilot, the
+     * pilot is run before this returns.
+     *
+     * @param par Instance of ParSPICE to use
+     * @param ioExecutor executor to run the IO loop on, or null to start a new thread for it
+     * @param collect turns the outputs (null if the job has no outputs) into the result
+     * @param <T> the result type
+     * @return a handle on the running job
+     */
+    protected final <T> JobHandle<T> startCommon(ParSPICE par, Executor ioExecutor,
+                                                 Function<Results<O>, T> collect) {
+        JobRun<S, I, O> run = new JobRun<>(resolve(par), par, ioExecutor);
+        CompletableFuture<T> future = new CompletableFuture<T>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                boolean cancelled = super.cancel(mayInterruptIfRunning);
+                if (cancelled) {
+                    run.cancel();
+                }
+                return cancelled;
+            }
+        };
+        Thread thread = new Thread(() -> {
+            try {
+                future.complete(collect.apply(run.execute()));
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }, "parspice job " + run.getRunID());
+        thread.start();
+        return new JobHandle<>(run, future);
+    }
 
-        Process[] processes = new Process[numWorkers];
-        if (hasIO)
-            ioManagers = new ArrayList<>(numWorkers);
+    /**
+     * @param par Instance of ParSPICE to use
+     * @return this job, or a copy with the number of workers chosen if it has AUTO workers
+     */
+    private Job<S,I,O> resolve(ParSPICE par) {
+        return numWorkers == AUTO ? AutoTuner.tune(this, par) : this;
+    }
 
-        int task = 0;
-        int minPort = par.getMinPort();
+    /**
+     * Copies the job with a different number of workers, and only its first
+     * numTasks tasks. The copy is of the same class as this job, and has all
+     * of its configuration, so every field added to Job must be copied here.
+     *
+     * If the workers all have the same setup input, so does every worker of
+     * the copy. Otherwise the number of workers can't change, since each
+     * setup input belongs to one worker.
+     *
+     * @param numWorkers the number of workers of the copy
+     * @param numTasks the number of tasks of the copy
+     * @return the copy, with the same configuration as this job
+     * @throws IllegalStateException if the workers have different setup inputs, and
+     *                               numWorkers is not their number
+     */
+    Job<S,I,O> copy(int numWorkers, int numTasks) {
+        Job<S,I,O> copy = newJob();
+        copy.numWorkers = numWorkers;
+        copy.numTasks = numTasks;
+        copy.inputs = inputs == null ? null : inputs.subList(0, numTasks);
+        if (setupInputs == null || setupGroups() == null) {
+            copy.setupInputs = setupInputs == null ? null : Collections.nCopies(numWorkers, setupInputs.get(0));
+        } else if (numWorkers == this.numWorkers) {
+            copy.setupInputs = setupInputs;
+        } else {
+            throw new IllegalStateException("The number of workers of a job whose workers have different setup inputs"
+                    + " can't be changed, from " + this.numWorkers + " to " + numWorkers);
+        }
+        copy.setupSender = setupSender;
+        copy.inputSender = inputSender;
+        copy.outputSender = outputSender;
+        copy.checkpointDirectory = checkpointDirectory;
+        copy.checkpointInterval = checkpointInterval;
+        copy.cache = cache;
+        copy.deduplicate = deduplicate;
+        copy.progressListener = progressListener;
+        copy.progressInterval = progressInterval;
+        copy.traceFile = traceFile;
+        copy.captureErrors = captureErrors;
+        copy.maxRetries = maxRetries;
+        copy.taskTimeout = taskTimeout;
+        copy.isolateCrashes = isolateCrashes;
+        copy.mode = mode;
+        return copy;
+    }
 
-        for (int i = 0; i < numWorkers; i++) {
-            int taskSubset = taskSubset(numTasks, numWorkers, i);
+    /**
+     * @return a new job of the same class as this one, for the same Worker, with nothing else set
+     */
+    abstract Job<S,I,O> newJob();
 
-            if (hasIO) {
-                IServer<S,I> iServer = null;
-                OServer<O> oServer = null;
-                if (setupSender != null && inputSender != null) {
-                    List<I> inputsSublist = inputs.subList(task, task + taskSubset);
-                    iServer = new IServer<>(inputSender, setupSender, inputsSublist, setupInputs.get(i), minPort + 2 * i, i);
-                } else if (setupSender != null) {
-                    iServer = new IServer<>(null, setupSender, null, setupInputs.get(i), minPort + 2 * i, i);
-                } else if (inputSender != null) {
-                    List<I> inputsSublist = inputs.subList(task, task + taskSubset);
-                    iServer = new IServer<>(inputSender, null, inputsSublist, null, minPort + 2 * i, i);
-                }
-                if (outputSender != null) {
-                    oServer = new OServer<>(outputSender, taskSubset, minPort + 2 * i + 1, i);
+    /**
+     * Groups the workers by setup input, compared with equals. Tasks can only
+     * be moved between workers in the same group, since a task run after
+     * another setup may give a different output.
+     *
+     * @return the group of each worker, which is the ID of the first worker with
+     *         an equal setup input, or null if the workers all have the same
+     *         setup input (or none)
+     */
+    int[] setupGroups() {
+        if (setupInputs == null) {
+            return null;
+        }
+        int[] groups = new int[setupInputs.size()];
+        boolean uniform = true;
+        for (int i = 0; i < groups.length; i++) {
+            groups[i] = i;
+            for (int j = 0; j < i; j++) {
+                if (Objects.equals(setupInputs.get(i), setupInputs.get(j))) {
+                    groups[i] = groups[j];
+                    break;
                 }
-                IOManager<S,I,O> ioManager = new IOManager<>(iServer, oServer, i);
-                ioManagers.add(ioManager);
-                ioManager.start();
             }
-
-            String args = "-Dname=parspice_worker_" + i +
-                    " -cp " + workerJar +
-                    " parspice.worker.Worker" +
-                    " " + workerClass +
-                    " " + (minPort + 2 * i) +
-                    " " + task +
-                    " " + taskSubset +
-                    " " + i +
-                    " " + numWorkers +
-                    " " + numTasks;
-            processes[i] = Runtime.getRuntime().exec("java " + args);
-            task += taskSubset;
-        }
-        for (int i = 0; i < numWorkers; i++) {
-            processes[i].waitFor();
+            uniform &= groups[i] == 0;
         }
-        if (hasIO) {
-            for (IOManager<S, I, O> manager : ioManagers) {
-                manager.join();
-            }
+        return uniform ? null : groups;
+    }
+
+    /**
+     * Copies a single setup input for each worker. A job with AUTO workers
+     * gets just the one, which is copied once the number of workers is chosen.
+     *
+     * @param setupInput the setup input
+     * @param numWorkers the number of workers, or AUTO
+     * @param <S> the type of the setup input
+     * @return the setup inputs of the job
+     */
+    static <S> List<S> copies(S setupInput, int numWorkers) {
+        int count = numWorkers == AUTO ? 1 : numWorkers;
+        List<S> setupInputs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            setupInputs.add(setupInput);
         }
+        return setupInputs;
     }
 
     /**
@@ -147,10 +354,14 @@ public abstract class Job<S,I,O> {
     protected void validate() throws IllegalStateException {
         if (numWorkers == -1) {
             throw new IllegalStateException("Number of workers must be specified");
-        } else if (numWorkers < 1) {
+        } else if (numWorkers < 1 && numWorkers != AUTO) {
             throw new IllegalStateException("Number of workers cannot be less than 1, was " + numWorkers);
         }
 
+        if (worker.getThreadsPerWorker() < 1) {
+            throw new IllegalStateException("Threads per worker cannot be less than 1, was " + worker.getThreadsPerWorker());
+        }
+
         if (numTasks == -1) {
             throw new IllegalStateException("Number of tasks must be specified");
         } else if (numTasks < 1) {
@@ -167,7 +378,7 @@ public abstract class Job<S,I,O> {
         if (inputs != null && inputs.size() != numTasks) {
             throw new IllegalStateException("Inputs size should match numTasks. This is an internal error, not user error.");
         }
-        if (setupInputs != null && setupInputs.size() != numWorkers) {
+        if (setupInputs != null && setupInputs.size() != (numWorkers == AUTO ? 1 : numWorkers)) {
             throw new IllegalStateException("Setup inputs size should match numWorkers. This is an internal error, not user error.");
         }
     }
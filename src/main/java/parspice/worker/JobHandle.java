@@ -0,0 +1,110 @@
+package parspice.worker;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A handle on a job that is running in the background, returned by
+ * Job.start(par).
+ *
+ * Cancelling the handle destroys the job's worker processes, closes its
+ * server socket, and stops its IO loop. Jobs that are still running when
+ * the main JVM exits are cancelled automatically.
+ *
+ * @param <T> the result type of the job (Void if it has no outputs)
+ */
+public class JobHandle<T> {
+
+    private final JobRun<?, ?, ?> run;
+    private final CompletableFuture<T> future;
+
+    JobHandle(JobRun<?, ?, ?> run, CompletableFuture<T> future) {
+        this.run = run;
+        this.future = future;
+    }
+
+    /**
+     * Cancels the job, killing its workers. Does nothing if the job has already finished.
+     *
+     * @return true if the job was cancelled by this call
+     */
+    public boolean cancel() {
+        return future.cancel(true);
+    }
+
+    /**
+     * @return true if the job was cancelled before it finished
+     */
+    public boolean isCancelled() {
+        return future.isCancelled();
+    }
+
+    /**
+     * @return true if the job has finished, successfully or not
+     */
+    public boolean isDone() {
+        return future.isDone();
+    }
+
+    /**
+     * Waits for the job to finish and returns its result.
+     *
+     * If the calling thread is interrupted while waiting, the job keeps running.
+     *
+     * @return the result of the job
+     * @throws CancellationException if the job was cancelled
+     * @throws InterruptedException if interrupted while waiting
+     * @throws Exception the exception that made the job fail, such as WorkerFailedException
+     */
+    public T join() throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Gets a snapshot of the job's progress so far. This works whether
+     * or not the job has a ProgressListener.
+     *
+     * @return the job's progress
+     */
+    public JobProgress getProgress() {
+        return run.getProgress();
+    }
+
+    /**
+     * Gets the breakdown of where the time went in the job, once it has
+     * finished. Stats are collected however the job ends.
+     *
+     * @return the job's stats, or null if it hasn't finished
+     */
+    public JobStats getStats() {
+        return run.getStats();
+    }
+
+    /**
+     * @return the ID of the job's run, as used in its workers' log file names
+     */
+    public String getRunID() {
+        return run.getRunID();
+    }
+
+    /**
+     * Gets a future for the result of the job. Cancelling the future
+     * is the same as cancelling the handle.
+     *
+     * @return the future
+     */
+    public CompletableFuture<T> getFuture() {
+        return future;
+    }
+}
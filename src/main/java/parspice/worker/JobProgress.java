@@ -0,0 +1,106 @@
+package parspice.worker;
+
+import java.util.List;
+
+/**
+ * A snapshot of a running job's progress, given to a ProgressListener
+ * or returned by JobHandle.getProgress.
+ *
+ * Progress is reported by every type of worker through its heartbeats, so it
+ * is up to date to within about a tenth of a second. Throughput is averaged
+ * over the whole run, including the time taken to start the workers, so it
+ * is low (and the estimated time remaining is high) early in a run.
+ *
+ * Tasks loaded from a checkpoint or a ResultCache count as complete, but not
+ * towards throughput. For a deduplicated job (see OJob.deduplicate), the
+ * counts are of distinct inputs.
+ */
+public class JobProgress {
+
+    private final int numTasks;
+    private final int numCompleted;
+    private final int numPreloaded;
+    private final long elapsed;
+    private final List<WorkerProgress> workers;
+
+    /**
+     * Creates a new JobProgress.
+     *
+     * @param numTasks the number of tasks in the job
+     * @param numCompleted the number of tasks complete
+     * @param numPreloaded the number of those that were complete before the run started
+     * @param elapsed time since the run started, in ms
+     * @param workers the progress of each worker, by worker ID
+     */
+    JobProgress(int numTasks, int numCompleted, int numPreloaded, long elapsed, List<WorkerProgress> workers) {
+        this.numTasks = numTasks;
+        this.numCompleted = numCompleted;
+        this.numPreloaded = numPreloaded;
+        this.elapsed = elapsed;
+        this.workers = workers;
+    }
+
+    /**
+     * @return the number of tasks in the job
+     */
+    public int getNumTasks() {
+        return numTasks;
+    }
+
+    /**
+     * @return the number of tasks complete, including any that failed
+     */
+    public int getNumCompleted() {
+        return numCompleted;
+    }
+
+    /**
+     * @return the fraction of the job's tasks that are complete, from 0 to 1
+     */
+    public double getFractionComplete() {
+        return numCompleted / (double) numTasks;
+    }
+
+    /**
+     * @return the time since the run started, in ms
+     */
+    public long getElapsedMillis() {
+        return elapsed;
+    }
+
+    /**
+     * @return tasks completed per second by all workers, averaged since the run started
+     */
+    public double getThroughput() {
+        return elapsed == 0 ? 0 : (numCompleted - numPreloaded) * 1000.0 / elapsed;
+    }
+
+    /**
+     * Estimates how long the rest of the job will take, at the current throughput.
+     *
+     * @return the estimated time remaining in ms, 0 if the job is complete,
+     *         or -1 if no tasks have completed yet
+     */
+    public long getEtaMillis() {
+        if (numCompleted == numTasks) {
+            return 0;
+        }
+        double throughput = getThroughput();
+        return throughput == 0 ? -1 : (long) ((numTasks - numCompleted) * 1000.0 / throughput);
+    }
+
+    /**
+     * @return the progress of each worker, by worker ID
+     */
+    public List<WorkerProgress> getWorkers() {
+        return workers;
+    }
+
+    @Override
+    public String toString() {
+        long eta = getEtaMillis();
+        return String.format("%d of %d tasks (%.1f%%), %.1f tasks/s, %s remaining",
+                numCompleted, numTasks, 100 * getFractionComplete(), getThroughput(),
+                eta < 0 ? "unknown time" : String.format("%.1f s", eta / 1000.0));
+    }
+}
@@ -0,0 +1,1030 @@
+package parspice.worker;
+
+import parspice.ExecutionMode;
+import parspice.Metrics;
+import parspice.ParSPICE;
+import parspice.io.FlightEvents;
+import parspice.io.IOManager;
+import parspice.io.Timeline;
+import parspice.io.IServer;
+import parspice.io.OServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A single run of a Job: the worker processes, the IOManager serving them,
+ * and the logic to start them, watch them, and tear them down. Jobs run in
+ * the main process (see parspice.ExecutionMode) have an InProcessWorker instead.
+ *
+ * Keeping this state out of Job means the same Job can be run several
+ * times, even at the same time. A run can be cancelled from any thread,
+ * and runs still executing when the JVM exits are cancelled by a shutdown hook.
+ *
+ * @param <S> Type for setup inputs (Void if none)
+ * @param <I> Type for task inputs (Void if none)
+ * @param <O> Type for task outputs (Void if none)
+ */
+class JobRun<S, I, O> {
+
+    /**
+     * How often the worker processes are polled while waiting for them to finish, in ms.
+     */
+    private static final long POLL_INTERVAL = 20;
+
+    /**
+     * How long to wait for a worker to exit after its connection breaks, in ms,
+     * so its exit status can be reported.
+     */
+    private static final long EXIT_GRACE = 1000;
+
+    /**
+     * How long to wait for a worker that makes a flight recording to exit once
+     * the run is over, in ms, since it writes the recording as it exits.
+     */
+    private static final long RECORDING_GRACE = 10000;
+
+    /**
+     * Every run that is currently executing, so they can be cancelled if the JVM exits.
+     */
+    private static final Set<JobRun<?, ?, ?>> ACTIVE = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (JobRun<?, ?, ?> run : ACTIVE) {
+                run.cancel();
+                run.saveProgress();
+            }
+        }, "parspice shutdown"));
+    }
+
+    private final Job<S, I, O> job;
+    private final ParSPICE par;
+    private final Executor ioExecutor;
+    private final String runID;
+    private final int maxRetries;
+    private final int taskTimeout;
+    private final boolean captureErrors;
+
+    /**
+     * Saves the job's outputs as it runs, or null if the job isn't checkpointed.
+     */
+    private volatile Checkpoint<O> checkpoint;
+    private long lastCheckpoint;
+
+    /**
+     * The cache key of each task, or null if the job isn't cached (or its
+     * tasks haven't been looked up yet).
+     */
+    private volatile String[] cacheKeys;
+
+    /**
+     * When the run was created, from System.nanoTime.
+     */
+    private final long startTime = System.nanoTime();
+    private long lastProgress;
+
+    /**
+     * The tasks whose outputs came from the cache.
+     */
+    private BitSet cacheHits;
+
+    /**
+     * Where the time went, or null until the run has ended.
+     */
+    private volatile JobStats stats;
+
+    /**
+     * A started worker process.
+     */
+    private static class Launch {
+        final Process process;
+
+        /**
+         * The ID of the worker, shared by a replacement with the worker it replaces.
+         */
+        final int workerID;
+
+        /**
+         * 0 for an original worker, or how many times it has been replaced.
+         */
+        final int attempt;
+
+        final long startTime;
+
+        /**
+         * When the process was about to be started, from System.nanoTime.
+         */
+        final long spawnTime;
+
+        /**
+         * The file the worker writes its flight recording to, or null if it doesn't make one.
+         */
+        final File recording;
+
+        /**
+         * The FlightEvents.CONNECT event for the worker, until it connects.
+         */
+        volatile Object connectEvent;
+
+        /**
+         * When the process was killed, from System.nanoTime, or 0 if it wasn't.
+         */
+        volatile long killTime = 0;
+
+        /**
+         * Whether the worker has been seen to connect.
+         */
+        volatile boolean connected = false;
+
+        /**
+         * Whether the worker has been counted out of the active workers in Metrics.
+         */
+        final AtomicBoolean ended = new AtomicBoolean();
+
+        Launch(Process process, int workerID, int attempt, long startTime, long spawnTime,
+               File recording, Object connectEvent) {
+            this.process = process;
+            this.workerID = workerID;
+            this.attempt = attempt;
+            this.startTime = startTime;
+            this.spawnTime = spawnTime;
+            this.recording = recording;
+            this.connectEvent = connectEvent;
+        }
+    }
+
+    /**
+     * The worker processes, indexed by connection ID. The original workers use
+     * connection IDs 0 to numWorkers - 1, and replacements are numbered after them.
+     */
+    private final List<Launch> launches = new CopyOnWriteArrayList<>();
+
+    /**
+     * Failures that were recovered from by starting a replacement worker.
+     */
+    private final List<WorkerFailedException> retried = new ArrayList<>();
+
+    /**
+     * Maps the job's duplicate inputs onto the job that is run, or null if the
+     * inputs aren't deduplicated. If not null, job is the deduplicated job.
+     */
+    private final Deduplication<S, I, O> deduplication;
+
+    private final Scheduler<O> scheduler;
+    private IOManager<S, I, O> ioManager;
+
+    /**
+     * The number of workers registered with the IOManager, which is the
+     * connection ID of the next.
+     */
+    private int numRegistered = 0;
+
+    /**
+     * Whether the job runs on a thread in the main process, rather than on worker processes.
+     */
+    private final boolean inProcess;
+
+    /**
+     * The worker running the job in the main process, or null if the job runs
+     * on worker processes (or hasn't started).
+     */
+    private volatile InProcessWorker<S, I, O> inProcessWorker;
+    private boolean cancelled = false;
+    private boolean stopped = false;
+
+    /**
+     * @param job the job to run
+     * @param par instance of ParSPICE to use
+     * @param ioExecutor executor to run the IO loop on, or null to start a new thread
+     * @throws UncheckedIOException if the job is deduplicated and its inputs can't be encoded
+     */
+    JobRun(Job<S, I, O> job, ParSPICE par, Executor ioExecutor) {
+        if (job.deduplicate) {
+            try {
+                deduplication = new Deduplication<>(job);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not encode the inputs to deduplicate them", e);
+            }
+            job = deduplication.getJob();
+        } else {
+            deduplication = null;
+        }
+        ExecutionMode mode = job.mode != null ? job.mode : par.getExecutionMode();
+        // A single worker can't run tasks that need different setup inputs.
+        this.inProcess = job.setupGroups() == null && (mode == ExecutionMode.IN_PROCESS
+                || (mode == ExecutionMode.SINGLE_WORKER_IN_PROCESS && job.numWorkers == 1));
+        if (inProcess && job.numWorkers != 1) {
+            job = job.copy(1, job.numTasks);
+        }
+        this.job = job;
+        this.par = par;
+        this.ioExecutor = ioExecutor;
+        this.runID = par.newRunID();
+        this.maxRetries = job.maxRetries;
+        this.taskTimeout = job.taskTimeout;
+        this.captureErrors = job.captureErrors;
+        // A thread can't be killed safely, and a crash takes the main process with it.
+        this.scheduler = new Scheduler<>(job.numTasks, job.numWorkers, job.setupGroups(),
+                job.outputSender != null, par.isSpeculative() && !inProcess, inProcess ? 0 : taskTimeout,
+                captureErrors, job.isolateCrashes && !inProcess);
+    }
+
+    /**
+     * @return the ID of this run, unique among all runs in the working directory
+     */
+    String getRunID() {
+        return runID;
+    }
+
+    /**
+     * Creates the IOManager and worker processes, runs them, and waits for them to finish.
+     *
+     * If a worker fails, the tasks it had not completed are re-run on a replacement
+     * worker, up to the retry limit set with maxRetries on the job. After that,
+     * the remaining workers are killed and a WorkerFailedException is thrown.
+     * Workers killed by the Scheduler, because another worker finished their tasks
+     * first, are not failures.
+     *
+     * Workers stuck on a task for longer than the task timeout are replaced without
+     * using up a retry. The job still runs all the other tasks, and then throws a
+     * TaskTimeoutException.
+     *
+     * If errors are captured (see captureErrors on the job), tasks that throw or time
+     * out are returned as failures with the outputs instead. So are tasks found to
+     * crash their workers, if crashes are isolated (see isolateCrashes on the job).
+     * Jobs without outputs throw a TaskFailedException at the end instead.
+     *
+     * If the job is checkpointed, tasks completed by an earlier run are loaded from
+     * the checkpoint and not run again, and the outputs are saved to the checkpoint
+     * periodically, and once more when the run ends, however it ends.
+     *
+     * If the job is cached, tasks whose outputs are in the cache aren't run either,
+     * and the outputs of the tasks that were run are stored in it when the run ends.
+     *
+     * If the job is deduplicated, only its distinct inputs are run, and the
+     * outputs (or failures) are copied to the rest.
+     *
+     * If the job has a ProgressListener, it is given a report at the job's progress
+     * interval while the workers are watched, and once more when every task is complete.
+     *
+     * However the run ends, its JobStats are collected from the workers and the
+     * IOManager, and attached to the results.
+     *
+     * @return the outputs of all tasks in order, or null if the job has no outputs.
+     * @throws TaskTimeoutException if any tasks timed out, and errors are not captured
+     * @throws TaskFailedException if any tasks failed in a job with no outputs, and errors are captured
+     * @throws CancellationException if the run was cancelled
+     * @throws Exception
+     */
+    Results<O> execute() throws Exception {
+        Results<O> results;
+        if (deduplication == null) {
+            results = executeJob();
+        } else {
+            try {
+                results = deduplication.expand(executeJob());
+            } catch (TaskTimeoutException e) {
+                throw deduplication.expand(e, taskTimeout);
+            }
+        }
+        if (results != null) {
+            results.setJobStats(stats);
+        }
+        return results;
+    }
+
+    /**
+     * @return where the time went in the run, or null if it hasn't ended
+     */
+    JobStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Runs job, which is deduplicated already if need be.
+     */
+    private Results<O> executeJob() throws Exception {
+        if (!inProcess) {
+            par.checkClass(job.getWorker().getClass().getName());
+        }
+
+        ACTIVE.add(this);
+        Metrics.get().jobStarted();
+        boolean succeeded = false;
+        try {
+            if (job.checkpointDirectory != null) {
+                Checkpoint<O> checkpoint = new Checkpoint<>(job.checkpointDirectory, job);
+                checkpoint.load(scheduler);
+                this.checkpoint = checkpoint;
+                lastCheckpoint = System.currentTimeMillis();
+            }
+            if (job.cache != null) {
+                lookUpCache();
+            }
+            // Everything may have come from the checkpoint or cache.
+            if (!scheduler.isComplete() && inProcess) {
+                runInProcess();
+            } else if (!scheduler.isComplete()) {
+                IOManager<S, I, O> ioManager = startIO();
+                for (int i = 0; i < job.numWorkers; i++) {
+                    register(i);
+                }
+                scheduler.start(commands(ioManager), this::kill);
+                for (int i = 0; i < job.numWorkers; i++) {
+                    spawn(i, i, 0);
+                }
+                monitor(ioManager, par.getConnectTimeout());
+                ioManager.seal();
+                ioManager.join();
+                checkCancelled();
+                if (!scheduler.isComplete()) {
+                    throw new IllegalStateException("Workers exited before all tasks were complete");
+                }
+            }
+            if (job.progressListener != null) {
+                reportProgress();
+            }
+            if (checkpoint != null) {
+                checkpoint.save(scheduler);
+            }
+            if (cacheKeys != null) {
+                storeInCache();
+            }
+            Results<O> results = collectResults();
+            succeeded = true;
+            return results;
+        } catch (Exception e) {
+            boolean wasCancelled = isCancelled();
+            stop();
+            saveProgress();
+            if (wasCancelled && !(e instanceof CancellationException)) {
+                // Failures caused by the cancellation itself aren't interesting.
+                throw new CancellationException("Job run " + runID + " was cancelled");
+            }
+            throw e;
+        } finally {
+            stats = collectStats();
+            if (job.traceFile != null) {
+                writeTrace();
+            }
+            for (Launch launch : launches) {
+                ended(launch);
+            }
+            Metrics.get().jobEnded(succeeded);
+            ACTIVE.remove(this);
+        }
+    }
+
+    /**
+     * Puts together the measurements of every worker process, from the workers
+     * themselves (if they sent them) and from the IOManager.
+     *
+     * @return the stats of the run
+     */
+    private JobStats collectStats() {
+        IOManager<S, I, O> manager = ioManager;
+        InProcessWorker<S, I, O> worker = inProcessWorker;
+        if (worker != null) {
+            return new JobStats(job.numTasks, System.nanoTime() - startTime, 0,
+                    Collections.singletonList(new WorkerStats(0, 0, 0, scheduler.getWorkerStats(0),
+                            0, 0, 0, 0, 0, 0, 0, 0, null, relative(worker.getSpans()))));
+        }
+        List<WorkerStats> workers = new ArrayList<>(launches.size());
+        for (int i = 0; i < launches.size(); i++) {
+            Launch launch = launches.get(i);
+            long connectTime = manager.getConnectTime(i);
+            File recording = launch.recording == null ? null : awaitRecording(launch);
+            workers.add(new WorkerStats(launch.workerID, launch.attempt,
+                    connectTime == 0 ? -1 : connectTime - launch.spawnTime, scheduler.getWorkerStats(i),
+                    manager.getBytesSent(i), manager.getBytesReceived(i),
+                    manager.getSetupBytes(i), manager.getInputBytes(i), manager.getOutputBytes(i),
+                    manager.getEncodeNanos(i), manager.getDecodeNanos(i), manager.getStallNanos(i), recording,
+                    timeline(launch, connectTime, manager.getTimeline(i))));
+        }
+        return new JobStats(job.numTasks, System.nanoTime() - startTime,
+                manager == null ? 0 : manager.getIdleNanos(), Collections.unmodifiableList(workers));
+    }
+
+    /**
+     * Puts together a worker's timeline: the spans it sent, and the ones only
+     * the main process sees, with times measured from the start of the run.
+     *
+     * @param launch the worker
+     * @param connectTime when it connected, from System.nanoTime, or 0 if it never did
+     * @param received the spans the worker sent, on this process's clock
+     * @return the worker's spans, laid out as in Timeline
+     */
+    private long[] timeline(Launch launch, long connectTime, long[] received) {
+        Timeline timeline = new Timeline();
+        long now = System.nanoTime();
+        long connected = connectTime != 0 ? connectTime : launch.killTime != 0 ? launch.killTime : now;
+        timeline.add(Timeline.SPAWN, launch.spawnTime, connected, connectTime != 0 ? 1 : 0, 0);
+        for (int i = 0; i < received.length; i += Timeline.SPAN_SIZE) {
+            timeline.add((int) received[i], received[i + 1], received[i + 2], received[i + 3], received[i + 4]);
+        }
+        if (launch.killTime != 0) {
+            timeline.add(Timeline.KILL, launch.killTime, launch.killTime, 0, 0);
+        }
+        return relative(timeline.getSpans());
+    }
+
+    /**
+     * Measures the times of spans from the start of the run, in place.
+     *
+     * @param spans spans on this process's clock, laid out as in Timeline
+     * @return spans
+     */
+    private long[] relative(long[] spans) {
+        for (int i = 0; i < spans.length; i += Timeline.SPAN_SIZE) {
+            spans[i + 1] -= startTime;
+            spans[i + 2] -= startTime;
+        }
+        return spans;
+    }
+
+    /**
+     * Writes the timeline of the run to the job's trace file. Errors are
+     * printed rather than thrown, so they don't hide how the run went.
+     */
+    private void writeTrace() {
+        try {
+            stats.writeTrace(job.traceFile);
+        } catch (IOException e) {
+            System.err.println("ParSPICE: could not write the trace of job run " + runID + ": " + e);
+        }
+    }
+
+    /**
+     * Waits for a worker to finish writing its flight recording, which it does
+     * when it exits. Killed workers don't write one.
+     *
+     * @param launch the worker, which makes a recording
+     * @return the recording, or null if the worker didn't write it in time
+     */
+    private static File awaitRecording(Launch launch) {
+        try {
+            if (!launch.process.waitFor(RECORDING_GRACE, TimeUnit.MILLISECONDS)) {
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        return launch.recording.length() > 0 ? launch.recording : null;
+    }
+
+    /**
+     * Gets the results of a complete run from the Scheduler, throwing if any
+     * tasks timed out or failed without a way to return them.
+     *
+     * @return the outputs of all tasks in order, or null if the job has no outputs.
+     * @throws TaskTimeoutException if any tasks timed out, and errors are not captured
+     * @throws TaskFailedException if any tasks failed in a job with no outputs
+     */
+    private Results<O> collectResults() throws TaskTimeoutException, TaskFailedException {
+        List<Integer> timedOut = scheduler.getTimedOut();
+        if (!timedOut.isEmpty()) {
+            throw new TaskTimeoutException(timedOut, taskTimeout, scheduler.getResults());
+        }
+        Results<O> results = scheduler.getResults();
+        if (results == null) {
+            List<TaskFailure> failures = scheduler.getFailures();
+            if (!failures.isEmpty()) {
+                throw new TaskFailedException(failures);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Saves the outputs received so far to the checkpoint and the cache, if the
+     * job has them, when the run is ending badly. Errors are printed rather than
+     * thrown, so they don't hide the reason the run is ending.
+     */
+    private void saveProgress() {
+        Checkpoint<O> checkpoint = this.checkpoint;
+        if (checkpoint != null) {
+            try {
+                checkpoint.save(scheduler);
+            } catch (IOException e) {
+                System.err.println("ParSPICE: could not save the checkpoint of job run " + runID + ": " + e);
+            }
+        }
+        if (cacheKeys != null) {
+            try {
+                storeInCache();
+            } catch (IOException e) {
+                System.err.println("ParSPICE: could not store the outputs of job run " + runID + " in the cache: " + e);
+            }
+        }
+    }
+
+    /**
+     * Looks up every task not already complete in the job's cache, and marks
+     * the ones found as complete, so they aren't sent to the workers.
+     *
+     * @throws IOException if the worker jar can't be read, or the inputs can't be encoded
+     */
+    private void lookUpCache() throws IOException {
+        String[] keys = job.cache.keys(job, par.getWorkerJar());
+        BitSet done = scheduler.getSucceeded();
+        BitSet hits = new BitSet(job.numTasks);
+        List<O> outputs = new ArrayList<>(Collections.nCopies(job.numTasks, (O) null));
+        for (int i = done.nextClearBit(0); i < job.numTasks; i = done.nextClearBit(i + 1)) {
+            O output = job.cache.get(keys[i], job.outputSender);
+            if (output != null) {
+                outputs.set(i, output);
+                hits.set(i);
+            }
+        }
+        scheduler.preload(hits, outputs);
+        cacheHits = hits;
+        cacheKeys = keys;
+    }
+
+    /**
+     * Stores the outputs of the tasks that succeeded in the job's cache,
+     * other than those that came from it.
+     *
+     * @throws IOException if an output can't be written
+     */
+    private void storeInCache() throws IOException {
+        BitSet succeeded = scheduler.getSucceeded();
+        succeeded.andNot(cacheHits);
+        List<O> outputs = scheduler.copyResults();
+        for (int i = succeeded.nextSetBit(0); i >= 0; i = succeeded.nextSetBit(i + 1)) {
+            job.cache.put(cacheKeys[i], outputs.get(i), job.outputSender);
+        }
+    }
+
+    /**
+     * Gets a snapshot of the run's progress from the Scheduler. Can be called from any thread.
+     *
+     * @return the progress of the run
+     */
+    JobProgress getProgress() {
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        int[] completedBy = scheduler.getTasksCompleted();
+        int[] completed = new int[job.numWorkers];
+        int[] restarts = new int[job.numWorkers];
+        if (inProcessWorker != null && completedBy.length > 0) {
+            completed[0] = completedBy[0];
+        }
+        for (int i = 0; i < launches.size(); i++) {
+            Launch launch = launches.get(i);
+            if (i < completedBy.length) {
+                completed[launch.workerID] += completedBy[i];
+            }
+            restarts[launch.workerID] = Math.max(restarts[launch.workerID], launch.attempt);
+        }
+        List<WorkerProgress> workers = new ArrayList<>(job.numWorkers);
+        for (int i = 0; i < job.numWorkers; i++) {
+            double throughput = elapsed == 0 ? 0 : completed[i] * 1000.0 / elapsed;
+            workers.add(new WorkerProgress(i, completed[i], throughput, restarts[i]));
+        }
+        return new JobProgress(job.numTasks, scheduler.getNumCompleted(), scheduler.getNumPreloaded(),
+                elapsed, Collections.unmodifiableList(workers));
+    }
+
+    /**
+     * Gives the job's ProgressListener a snapshot of the run's progress.
+     * Exceptions it throws are printed, so a broken listener can't stop the job.
+     */
+    private void reportProgress() {
+        lastProgress = System.currentTimeMillis();
+        try {
+            job.progressListener.progress(getProgress());
+        } catch (RuntimeException e) {
+            System.err.println("ParSPICE: the progress listener of job run " + runID + " threw " + e);
+        }
+    }
+
+    /**
+     * Registers a new worker with the IOManager, so commands can be queued for
+     * it before its process is started with spawn.
+     *
+     * @param workerID the ID of the worker
+     * @return the connection ID of the new worker
+     */
+    private int register(int workerID) {
+        int connectionID = numRegistered++;
+        S setupInput = job.setupSender == null ? null : job.setupInputs.get(workerID);
+        IServer<S,I> iServer = new IServer<>(job.inputSender, job.setupSender, job.inputs, setupInput, connectionID);
+        OServer<O> oServer = new OServer<>(job.outputSender, connectionID, scheduler);
+        ioManager.register(connectionID, iServer, oServer);
+        return connectionID;
+    }
+
+    /**
+     * Starts a replacement for a failed or hung worker, which the Scheduler
+     * gives work once it is idle.
+     *
+     * @param launch the worker to replace
+     * @throws IOException if the process cannot be started
+     */
+    private void replace(Launch launch) throws IOException {
+        int connectionID = register(launch.workerID);
+        scheduler.addWorker(connectionID, launch.workerID);
+        spawn(connectionID, launch.workerID, launch.attempt + 1);
+    }
+
+    /**
+     * Starts the process of a registered worker. Workers are spawned in the
+     * order they were registered.
+     *
+     * @param connectionID the connection ID of the worker
+     * @param workerID the ID of the worker
+     * @param attempt 0 for an original worker, or how many times it has been replaced
+     * @throws IOException if the process cannot be started
+     */
+    private void spawn(int connectionID, int workerID, int attempt) throws IOException {
+        List<String> command = new ArrayList<>(
+                par.getAffinity().launchPrefix(workerID, job.getWorker().getThreadsPerWorker()));
+        command.add("java");
+        command.add("-Dname=parspice_worker_" + workerID);
+        File recording = null;
+        File recordingDirectory = par.getFlightRecordingDirectory();
+        if (recordingDirectory != null) {
+            if (!recordingDirectory.isDirectory() && !recordingDirectory.mkdirs()) {
+                throw new IOException("Could not create flight recording directory " + recordingDirectory);
+            }
+            recording = new File(recordingDirectory, Worker.recordingFileName(runID, workerID, attempt));
+            command.add("-XX:StartFlightRecording=dumponexit=true,filename=" + recording.getPath());
+        }
+        command.addAll(Arrays.asList(
+                "-cp", par.getWorkerJar(),
+                "parspice.worker.Worker",
+                job.getWorker().getClass().getName(),
+                String.valueOf(ioManager.getPort()),
+                String.valueOf(connectionID),
+                String.valueOf(workerID),
+                String.valueOf(job.numWorkers),
+                String.valueOf(job.numTasks),
+                Worker.logFileName(runID, workerID, attempt),
+                String.valueOf(captureErrors)
+        ));
+        ProcessBuilder builder = new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                .redirectError(ProcessBuilder.Redirect.INHERIT);
+        synchronized (this) {
+            if (stopped) {
+                throw new CancellationException("Job run " + runID + " was cancelled");
+            }
+            long spawnTime = System.nanoTime();
+            Object connectEvent = FlightEvents.CONNECT.begin();
+            Object spawnEvent = FlightEvents.SPAWN.begin();
+            Process process = builder.start();
+            FlightEvents.SPAWN.commit(spawnEvent, workerID, attempt);
+            Metrics.get().workerSpawned(attempt > 0);
+            launches.add(new Launch(process, workerID, attempt, System.currentTimeMillis(), spawnTime,
+                    recording, connectEvent));
+        }
+    }
+
+    /**
+     * Cancels the run: kills every worker process (or the worker in the main
+     * process) and closes the IOManager.
+     * Does nothing if the run has already finished.
+     */
+    void cancel() {
+        synchronized (this) {
+            cancelled = true;
+        }
+        stop();
+    }
+
+    /**
+     * @return true if cancel has been called
+     */
+    synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Kills every worker process and closes the IOManager, if not done already.
+     */
+    private void stop() {
+        IOManager<S, I, O> manager;
+        InProcessWorker<S, I, O> worker;
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+            manager = ioManager;
+            worker = inProcessWorker;
+        }
+        if (worker != null) {
+            worker.kill();
+        }
+        for (Launch launch : launches) {
+            destroy(launch);
+        }
+        if (manager != null) {
+            manager.close();
+        }
+    }
+
+    /**
+     * Kills a worker's process, noting when for the timeline if it was still running.
+     *
+     * @param launch the worker
+     */
+    private static void destroy(Launch launch) {
+        if (launch.process.isAlive() && launch.killTime == 0) {
+            launch.killTime = System.nanoTime();
+        }
+        launch.process.destroyForcibly();
+        ended(launch);
+    }
+
+    /**
+     * Counts a worker out of the active workers in Metrics, if it hasn't been already.
+     *
+     * @param launch the worker
+     */
+    private static void ended(Launch launch) {
+        if (launch.ended.compareAndSet(false, true)) {
+            Metrics.get().workerEnded();
+        }
+    }
+
+    /**
+     * Kills a worker that lost a speculative race or is stuck on a task, and stops IO with it.
+     *
+     * @param connectionID the connection ID of the worker
+     */
+    private void kill(int connectionID) {
+        destroy(launches.get(connectionID));
+        ioManager.abandon(connectionID);
+    }
+
+    /**
+     * Handles a failed worker: kills what is left of it, and either starts a
+     * replacement to take over its unfinished tasks, or throws if the retry
+     * limit has been reached.
+     *
+     * If crashes are isolated and the Scheduler blames the failure on the worker's
+     * tasks, a replacement is started without using up a retry, since the crash
+     * is the Scheduler's to track down.
+     *
+     * @param connectionID the connection ID of the failed worker
+     * @param reason how the failure was detected
+     * @param cause the exception on the main process, if any
+     * @throws WorkerFailedException if no retries are left
+     * @throws IOException if the replacement cannot be started
+     */
+    private void retry(int connectionID, String reason, Throwable cause) throws Exception {
+        WorkerFailedException failure = failure(connectionID, reason, cause);
+        Launch launch = launches.get(connectionID);
+        destroy(launch);
+        // If all the tasks were done anyway, there's nothing to retry. This is checked
+        // before the Scheduler hands the worker's tasks to the others, which could
+        // otherwise finish them before the retry limit is enforced.
+        boolean complete = scheduler.isComplete();
+        boolean blamed = scheduler.fail(connectionID, reason);
+        if (!complete) {
+            if (blamed) {
+                System.err.println("ParSPICE: worker " + failure.getWorkerID() + " failed (" + failure.getReason()
+                        + "), isolating the task that crashed it");
+            } else if (retried.size() >= maxRetries) {
+                for (WorkerFailedException e : retried) {
+                    failure.addSuppressed(e);
+                }
+                throw failure;
+            } else {
+                retried.add(failure);
+                System.err.println("ParSPICE: worker " + failure.getWorkerID() + " failed (" + failure.getReason()
+                        + "), retrying its unfinished tasks (" + retried.size() + " of " + maxRetries + " retries used)");
+            }
+            if (!scheduler.isComplete()) {
+                replace(launch);
+            }
+        }
+        ioManager.abandon(connectionID);
+    }
+
+    /**
+     * Starts a replacement for a worker the Scheduler killed because it was stuck
+     * on a task. The Scheduler has already queued up the worker's other tasks.
+     *
+     * @param connectionID the connection ID of the hung worker
+     * @param index the index of the task it was stuck on
+     * @throws IOException if the replacement cannot be started
+     */
+    private void replaceHung(int connectionID, int index) throws IOException {
+        Launch launch = launches.get(connectionID);
+        System.err.println("ParSPICE: task " + index + " timed out after " + taskTimeout
+                + " ms on worker " + launch.workerID + ", restarting the worker");
+        if (!scheduler.isComplete()) {
+            replace(launch);
+        }
+    }
+
+    /**
+     * Runs the job on a thread in the main process, and waits for it to finish.
+     * The worker isn't retried if it fails, since it would fail the same way again.
+     *
+     * @throws WorkerFailedException if setup or a task throws, and errors aren't captured
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private void runInProcess() throws Exception {
+        InProcessWorker<S, I, O> worker = new InProcessWorker<>(job, scheduler, captureErrors, runID);
+        synchronized (this) {
+            if (stopped) {
+                throw new CancellationException("Job run " + runID + " was cancelled");
+            }
+            inProcessWorker = worker;
+        }
+        scheduler.start(worker, id -> worker.kill());
+        worker.start();
+        while (!worker.isFinished()) {
+            checkCancelled();
+            scheduler.update();
+            if (job.progressListener != null && System.currentTimeMillis() - lastProgress >= job.progressInterval) {
+                reportProgress();
+            }
+            if (checkpoint != null && System.currentTimeMillis() - lastCheckpoint >= job.checkpointInterval) {
+                checkpoint.save(scheduler);
+                lastCheckpoint = System.currentTimeMillis();
+            }
+            worker.join(POLL_INTERVAL);
+        }
+        checkCancelled();
+        Exception error = worker.getError();
+        if (error != null) {
+            throw new WorkerFailedException(0, "threw " + error, null, null, error);
+        }
+        if (!scheduler.isComplete()) {
+            throw new IllegalStateException("Worker stopped before all tasks were complete");
+        }
+    }
+
+    /**
+     * @param manager the IOManager of the job
+     * @return the Scheduler's commands, sent through the IOManager
+     */
+    private static Scheduler.Commands commands(IOManager<?, ?, ?> manager) {
+        return new Scheduler.Commands() {
+            @Override
+            public void sendRange(int workerID, int seq, int start, int count) {
+                manager.sendRange(workerID, seq, start, count);
+            }
+
+            @Override
+            public void sendStop(int workerID) {
+                manager.sendStop(workerID);
+            }
+        };
+    }
+
+    /**
+     * Creates the IOManager and starts the IO loop. Workers are registered
+     * with it as they are started.
+     *
+     * @return the started IOManager
+     * @throws IOException if the server channel cannot be opened
+     */
+    private IOManager<S, I, O> startIO() throws IOException {
+        ServerSocketChannel serverChannel = par.openServer();
+        IOManager<S, I, O> manager;
+        try {
+            manager = new IOManager<>(serverChannel, job.numWorkers);
+        } catch (IOException e) {
+            serverChannel.close();
+            throw e;
+        }
+        synchronized (this) {
+            ioManager = manager;
+            if (stopped) {
+                manager.close();
+                throw new CancellationException("Job run " + runID + " was cancelled");
+            }
+        }
+        manager.start(ioExecutor);
+        return manager;
+    }
+
+    /**
+     * Waits for all the worker processes to exit, and for their IO to finish.
+     *
+     * A worker has failed if it exits with a nonzero status, fails to connect within
+     * the timeout, or breaks its connection. Failures are handled by retry as soon
+     * as they are seen, rather than after waiting on the other workers. Workers
+     * the Scheduler kills for a hung task are replaced here too.
+     *
+     * @param ioManager the job's IOManager
+     * @param connectTimeout how long each worker has to connect, in ms
+     * @throws WorkerFailedException if a worker fails and no retries are left
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private void monitor(IOManager<S, I, O> ioManager, long connectTimeout) throws Exception {
+        boolean running = true;
+        while (running) {
+            checkCancelled();
+            scheduler.update();
+            if (job.progressListener != null && System.currentTimeMillis() - lastProgress >= job.progressInterval) {
+                reportProgress();
+            }
+            if (checkpoint != null && System.currentTimeMillis() - lastCheckpoint >= job.checkpointInterval) {
+                checkpoint.save(scheduler);
+                lastCheckpoint = System.currentTimeMillis();
+            }
+            for (int[] hung = scheduler.pollHung(); hung != null; hung = scheduler.pollHung()) {
+                replaceHung(hung[0], hung[1]);
+            }
+            running = false;
+            for (int i = 0; i < launches.size(); i++) {
+                if (!scheduler.isActive(i)) {
+                    continue;
+                }
+                Launch launch = launches.get(i);
+                if (!launch.connected && ioManager.isConnected(i)) {
+                    launch.connected = true;
+                    FlightEvents.CONNECT.commit(launch.connectEvent, launch.workerID, launch.attempt);
+                    launch.connectEvent = null;
+                    long connectTime = ioManager.getConnectTime(i);
+                    if (connectTime != 0) {
+                        Metrics.get().workerConnected(connectTime - launch.spawnTime);
+                    }
+                }
+                if (ioManager.getException(i) != null) {
+                    // A worker that fails closes its connection just before it exits.
+                    launch.process.waitFor(EXIT_GRACE, TimeUnit.MILLISECONDS);
+                }
+                String reason = null;
+                if (!launch.process.isAlive() && launch.process.exitValue() != 0) {
+                    reason = "exited with status " + launch.process.exitValue();
+                } else if (ioManager.getException(i) != null) {
+                    reason = "lost connection to the main process";
+                } else if (launch.process.isAlive()) {
+                    running = true;
+                    if (!ioManager.isConnected(i) && System.currentTimeMillis() - launch.startTime > connectTimeout) {
+                        reason = "did not connect within " + connectTimeout + " ms";
+                    }
+                } else if (!ioManager.isFinished(i)) {
+                    if (!ioManager.isConnected(i)) {
+                        reason = "exited without connecting to the main process";
+                    } else {
+                        // The worker is done; its remaining frames are still being read.
+                        running = true;
+                    }
+                } else if (ioManager.getException(i) != null) {
+                    // The connection broke after the first check.
+                    reason = "lost connection to the main process";
+                }
+                if (reason != null) {
+                    retry(i, reason, ioManager.getException(i));
+                    running = true;
+                }
+            }
+            if (running) {
+                Thread.sleep(POLL_INTERVAL);
+            }
+        }
+    }
+
+    private synchronized void checkCancelled() {
+        if (cancelled) {
+            throw new CancellationException("Job run " + runID + " was cancelled");
+        }
+    }
+
+    /**
+     * Creates the exception for a failed worker, including its log file if it wrote one.
+     *
+     * @param connectionID the connection ID of the failed worker
+     * @param reason how the failure was detected
+     * @param cause the exception on the main process, if any
+     * @return the exception to throw
+     */
+    private WorkerFailedException failure(int connectionID, String reason, Throwable cause) {
+        Launch launch = launches.get(connectionID);
+        int workerID = launch.workerID;
+        String logFile = Worker.logFileName(runID, workerID, launch.attempt);
+        String log = null;
+        try {
+            byte[] bytes = Files.readAllBytes(Paths.get(logFile));
+            log = new String(bytes, StandardCharsets.UTF_8);
+        } catch (IOException ignored) {}
+        return new WorkerFailedException(workerID, reason, logFile, log, cause);
+    }
+}
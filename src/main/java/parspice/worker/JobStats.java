@@ -0,0 +1,268 @@
+package parspice.worker;
+
+import parspice.io.Timeline;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Where the time went in a job run: a breakdown for every worker process
+ * (see WorkerStats), and totals for the job.
+ *
+ * Stats are collected for every run, however it ends. They are attached to
+ * the Results of a job with outputs, returned by VoidJob.run, and available
+ * from JobHandle.getStats once a started job has finished.
+ *
+ * For a deduplicated job (see OJob.deduplicate), the counts are of distinct inputs.
+ * Tasks loaded from a checkpoint or a ResultCache aren't run, so they don't
+ * add to any of the times.
+ *
+ * The stats also hold a timeline of the run, which writeTrace saves for
+ * viewing in a trace viewer.
+ */
+public class JobStats {
+
+    private final int numTasks;
+    private final long elapsedNanos;
+    private final long mainIdleNanos;
+    private final List<WorkerStats> workers;
+
+    /**
+     * Creates a new JobStats.
+     *
+     * @param numTasks the number of tasks in the job
+     * @param elapsedNanos time from the start of the run to its end
+     * @param mainIdleNanos time the main process's IO loop spent waiting on the workers
+     * @param workers the stats of each worker process, in the order they were started
+     */
+    JobStats(int numTasks, long elapsedNanos, long mainIdleNanos, List<WorkerStats> workers) {
+        this.numTasks = numTasks;
+        this.elapsedNanos = elapsedNanos;
+        this.mainIdleNanos = mainIdleNanos;
+        this.workers = workers;
+    }
+
+    /**
+     * @return the number of tasks in the job
+     */
+    public int getNumTasks() {
+        return numTasks;
+    }
+
+    /**
+     * @return time from the start of the run to its end, in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * The time the main process's IO loop spent waiting for any worker's
+     * socket to be ready. Close to the elapsed time if the main process
+     * easily keeps up with the workers.
+     *
+     * @return the idle time, in nanoseconds
+     */
+    public long getMainIdleNanos() {
+        return mainIdleNanos;
+    }
+
+    /**
+     * @return the stats of each worker process, in the order they were started;
+     *         replacements come after the original workers
+     */
+    public List<WorkerStats> getWorkers() {
+        return workers;
+    }
+
+    /**
+     * @return total time spent in task functions across all workers, in nanoseconds
+     */
+    public long getComputeNanos() {
+        long total = 0;
+        for (WorkerStats worker : workers) {
+            total += worker.getComputeNanos();
+        }
+        return total;
+    }
+
+    /**
+     * The latencies of every task run, merged from all the workers. A task
+     * re-run speculatively is counted for each worker that ran it.
+     *
+     * @return a new histogram of the latencies
+     */
+    public LatencyHistogram getTaskLatency() {
+        LatencyHistogram total = new LatencyHistogram();
+        for (WorkerStats worker : workers) {
+            total.add(worker.getTaskLatency());
+        }
+        return total;
+    }
+
+    /**
+     * @return total bytes sent to the workers
+     */
+    public long getBytesIn() {
+        long total = 0;
+        for (WorkerStats worker : workers) {
+            total += worker.getBytesIn();
+        }
+        return total;
+    }
+
+    /**
+     * @return total bytes received from the workers
+     */
+    public long getBytesOut() {
+        long total = 0;
+        for (WorkerStats worker : workers) {
+            total += worker.getBytesOut();
+        }
+        return total;
+    }
+
+    /**
+     * @return total bytes of setup inputs sent, one for each worker process
+     */
+    public long getSetupBytes() {
+        long total = 0;
+        for (WorkerStats worker : workers) {
+            total += worker.getSetupBytes();
+        }
+        return total;
+    }
+
+    /**
+     * @return total bytes of task inputs sent, counting inputs sent to more
+     *         than one worker (when a range is rerun) each time
+     */
+    public long getInputBytes() {
+        long total = 0;
+        for (WorkerStats worker : workers) {
+            total += worker.getInputBytes();
+        }
+        return total;
+    }
+
+    /**
+     * @return total bytes of outputs received, counting outputs received from
+     *         more than one worker (when a range is rerun) each time
+     */
+    public long getOutputBytes() {
+        long total = 0;
+        for (WorkerStats worker : workers) {
+            total += worker.getOutputBytes();
+        }
+        return total;
+    }
+
+    /**
+     * Writes the timeline of the run as a Chrome trace (the Trace Event
+     * Format), which can be opened in Perfetto (ui.perfetto.dev) or
+     * chrome://tracing.
+     *
+     * The main process and each worker process get a row. A worker's row
+     * shows starting its process until it connected, setup, each range of
+     * tasks it ran, the times it waited at least a millisecond for the main
+     * process to send data or to accept its outputs, and when it was told to
+     * stop or was killed. Times are measured from the start of the run; the
+     * workers' times are moved onto the main process's clock, to within the
+     * time it takes to send a frame from the worker.
+     *
+     * @param file the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void writeTrace(String file) throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+            out.write("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":1,\"args\":{\"name\":\"ParSPICE job\"}}");
+            threadName(out, 0, "main process");
+            out.write(String.format(Locale.ROOT,
+                    ",\n{\"name\":\"job\",\"cat\":\"job\",\"ph\":\"X\",\"ts\":0,\"dur\":%.3f,\"pid\":1,\"tid\":0,"
+                            + "\"args\":{\"tasks\":%d}}", elapsedNanos / 1e3, numTasks));
+            for (int w = 0; w < workers.size(); w++) {
+                WorkerStats worker = workers.get(w);
+                int tid = w + 1;
+                threadName(out, tid, "worker " + worker.getWorkerID()
+                        + (worker.getAttempt() == 0 ? "" : " (retry " + worker.getAttempt() + ")"));
+                long[] spans = worker.getTimeline();
+                for (int i = 0; i < spans.length; i += Timeline.SPAN_SIZE) {
+                    long start = spans[i + 1];
+                    long end = spans[i + 2];
+                    switch ((int) spans[i]) {
+                        case Timeline.SPAWN:
+                            span(out, tid, "spawn", "startup", start, end, "");
+                            if (spans[i + 3] != 0) {
+                                instant(out, tid, "connect", "startup", end);
+                            }
+                            break;
+                        case Timeline.SETUP:
+                            span(out, tid, "setup", "startup", start, end, "");
+                            break;
+                        case Timeline.BATCH:
+                            span(out, tid, "batch", "compute", start, end,
+                                    ",\"args\":{\"firstTask\":" + spans[i + 3] + ",\"tasks\":" + spans[i + 4] + "}");
+                            break;
+                        case Timeline.INPUT_STALL:
+                            span(out, tid, "input stall", "io", start, end, "");
+                            break;
+                        case Timeline.OUTPUT_STALL:
+                            span(out, tid, "output stall", "io", start, end, "");
+                            break;
+                        case Timeline.STOP:
+                            instant(out, tid, "exit", "exit", start);
+                            break;
+                        case Timeline.KILL:
+                            instant(out, tid, "killed", "exit", start);
+                            break;
+                    }
+                }
+            }
+            out.write("\n]}\n");
+        }
+    }
+
+    private static void threadName(Writer out, int tid, String name) throws IOException {
+        out.write(",\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + tid
+                + ",\"args\":{\"name\":\"" + name + "\"}}");
+        out.write(",\n{\"name\":\"thread_sort_index\",\"ph\":\"M\",\"pid\":1,\"tid\":" + tid
+                + ",\"args\":{\"sort_index\":" + tid + "}}");
+    }
+
+    private static void span(Writer out, int tid, String name, String category, long start, long end,
+                             String args) throws IOException {
+        out.write(String.format(Locale.ROOT,
+                ",\n{\"name\":\"%s\",\"cat\":\"%s\",\"ph\":\"X\",\"ts\":%.3f,\"dur\":%.3f,\"pid\":1,\"tid\":%d%s}",
+                name, category, start / 1e3, (end - start) / 1e3, tid, args));
+    }
+
+    private static void instant(Writer out, int tid, String name, String category, long time) throws IOException {
+        out.write(String.format(Locale.ROOT,
+                ",\n{\"name\":\"%s\",\"cat\":\"%s\",\"ph\":\"i\",\"s\":\"t\",\"ts\":%.3f,\"pid\":1,\"tid\":%d}",
+                name, category, time / 1e3, tid));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(String.format(
+                "%d tasks in %.1f ms, %.1f ms of compute, %d bytes in, %d bytes out, main idle %.1f ms",
+                numTasks, elapsedNanos / 1e6, getComputeNanos() / 1e6, getBytesIn(), getBytesOut(),
+                mainIdleNanos / 1e6));
+        LatencyHistogram latency = getTaskLatency();
+        if (latency.getCount() > 0) {
+            builder.append("\n  task latency: ").append(latency);
+        }
+        for (WorkerStats worker : workers) {
+            builder.append("\n  ").append(worker);
+        }
+        return builder.toString();
+    }
+}
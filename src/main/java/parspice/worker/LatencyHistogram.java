@@ -0,0 +1,215 @@
+package parspice.worker;
+
+/**
+ * A histogram of task latencies, as part of WorkerStats and JobStats.
+ *
+ * Latencies are counted in log-linear buckets: every power of two is split into
+ * 16 equal buckets, so any latency is known to within about 6%, from single
+ * nanoseconds up to centuries, in a fixed 960 buckets. Recording a latency
+ * is a few shifts and an array increment, so workers can time every task.
+ * The smallest and largest latencies are kept exactly.
+ *
+ * A task's latency is the time its worker spent on it: reading its input,
+ * running it, and encoding its output.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Each power of two is split into 2^SUB_BITS buckets.
+     */
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /**
+     * Enough buckets for any non-negative long.
+     */
+    static final int NUM_BUCKETS = (63 - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private final long[] counts = new long[NUM_BUCKETS];
+    private long count = 0;
+    private long sum = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+
+    /**
+     * Creates an empty histogram.
+     */
+    LatencyHistogram() {}
+
+    /**
+     * Counts a latency.
+     *
+     * @param nanos the latency, in nanoseconds; negative values count as 0
+     */
+    void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts[bucket(nanos)]++;
+        count++;
+        sum += nanos;
+        if (nanos < min) {
+            min = nanos;
+        }
+        if (nanos > max) {
+            max = nanos;
+        }
+    }
+
+    /**
+     * Adds the counts of another histogram to this one.
+     *
+     * @param other the histogram to add
+     */
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * @return the number of latencies counted
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the smallest latency, in nanoseconds, or 0 if there are none
+     */
+    public long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    /**
+     * @return the largest latency, in nanoseconds, or 0 if there are none
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * @return the mean latency, in nanoseconds, or 0 if there are none
+     */
+    public double getMean() {
+        return count == 0 ? 0 : sum / (double) count;
+    }
+
+    /**
+     * Estimates a percentile of the latencies, to within the width of its bucket.
+     *
+     * @param percentile the percentile, from 0 to 100
+     * @return the latency that the given percent of latencies are at or below,
+     *         in nanoseconds, or 0 if there are none
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100, was " + percentile);
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.max(min, Math.min(max, highestValue(i)));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Writes the histogram as longs: the number of latencies, their sum, min
+     * and max, then an (index, count) pair for each bucket that isn't empty.
+     *
+     * @return the encoded histogram
+     */
+    long[] toLongs() {
+        int used = 0;
+        for (long c : counts) {
+            if (c != 0) {
+                used++;
+            }
+        }
+        long[] values = new long[4 + 2 * used];
+        values[0] = count;
+        values[1] = sum;
+        values[2] = min;
+        values[3] = max;
+        int j = 4;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            if (counts[i] != 0) {
+                values[j++] = i;
+                values[j++] = counts[i];
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Reads a histogram written by toLongs.
+     *
+     * @param values array holding the encoded histogram
+     * @param offset index of the histogram in values
+     * @return the histogram, or an empty one if it is malformed
+     */
+    static LatencyHistogram fromLongs(long[] values, int offset) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        if (values.length - offset < 4 || (values.length - offset) % 2 != 0) {
+            return histogram;
+        }
+        for (int j = offset + 4; j < values.length; j += 2) {
+            if (values[j] < 0 || values[j] >= NUM_BUCKETS) {
+                return new LatencyHistogram();
+            }
+            histogram.counts[(int) values[j]] += values[j + 1];
+        }
+        histogram.count = values[offset];
+        histogram.sum = values[offset + 1];
+        histogram.min = values[offset + 2];
+        histogram.max = values[offset + 3];
+        return histogram;
+    }
+
+    /**
+     * Values below SUB_BUCKETS get a bucket each. Above that, the bucket is
+     * given by the position of the highest set bit and the SUB_BITS bits after it.
+     */
+    private static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return the highest value that falls in a bucket
+     */
+    private static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        long lowest = (long) (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+        return lowest + (1L << (exponent - SUB_BITS)) - 1;
+    }
+
+    @Override
+    public String toString() {
+        if (count == 0) {
+            return "no tasks";
+        }
+        return String.format("%d tasks, mean %.3f ms, p50 %.3f ms, p90 %.3f ms, p99 %.3f ms, max %.3f ms",
+                count, getMean() / 1e6, getPercentile(50) / 1e6, getPercentile(90) / 1e6,
+                getPercentile(99) / 1e6, max / 1e6);
+    }
+}
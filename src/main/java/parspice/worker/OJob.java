@@ -1,9 +1,10 @@
 package parspice.worker;
 
 import parspice.ParSPICE;
-import parspice.io.IOManager;
 
-import java.util.ArrayList;
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * Jobs that produce output. The user can only get an instance of OJob
@@ -14,29 +15,295 @@ import java.util.ArrayList;
  * @param <O> Type for task outputs (Void if none)
  */
 public class OJob<S,I,O> extends Job<S,I,O> {
+
+    /**
+     * How often checkpoints are saved by default, in ms.
+     */
+    private static final long DEFAULT_CHECKPOINT_INTERVAL = 60000;
+
     OJob(Worker worker) {
         super(worker);
     }
 
+    @Override
+    OJob<S,I,O> newJob() {
+        return new OJob<>(getWorker());
+    }
+
     /**
-     * Calls Job.runCommon(par), then collects and returns the outputs
-     * stored in the IOManagers.
+     * Saves the job's outputs to a checkpoint directory once a minute while it runs,
+     * and whenever a run ends. If the directory already holds a checkpoint of this
+     * job, from a run that was interrupted, the tasks it has outputs for are not
+     * run again. See checkpoint(String, long).
      *
-     * @param par instance of ParSPICE to use.
-     * @return The outputs generated by the workers.
-     * @throws Exception
+     * @param directory the directory to save checkpoints in; created if it doesn't exist
+     * @return this job
+     */
+    public OJob<S,I,O> checkpoint(String directory) {
+        return checkpoint(directory, DEFAULT_CHECKPOINT_INTERVAL);
+    }
+
+    /**
+     * Saves the job's outputs to a checkpoint directory periodically while it runs,
+     * and whenever a run ends (including when the main JVM shuts down). If the
+     * directory already holds a checkpoint of this job, from a run that was
+     * interrupted, the tasks it has outputs for are not run again.
+     *
+     * A checkpoint belongs to one job: the same worker class, number of tasks,
+     * setup inputs and inputs. Running a different job with the same directory
+     * throws an IllegalStateException. The number of workers can change between
+     * runs. A finished job's checkpoint is kept, so running it again returns the
+     * same outputs straight away; delete the directory to start over.
+     *
+     * Outputs are encoded with the job's output Sender, and the whole checkpoint
+     * is rewritten on each save, so the interval should be long enough that saving
+     * takes a small fraction of it.
+     *
+     * @param directory the directory to save checkpoints in; created if it doesn't exist
+     * @param interval how often to save the checkpoint while the job runs, in ms
+     * @return this job
+     */
+    public OJob<S,I,O> checkpoint(String directory, long interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Checkpoint interval must be positive, was " + interval);
+        }
+        checkpointDirectory = new File(directory);
+        checkpointInterval = interval;
+        return this;
+    }
+
+    /**
+     * Looks up each task's output in a cache before the job runs, and only runs
+     * the tasks that aren't found. The outputs of the tasks that are run are added
+     * to the cache when the job ends. See ResultCache for how tasks are matched.
+     *
+     * The same cache can be used by any number of jobs, including jobs of
+     * different workers and jobs running at the same time.
+     *
+     * @param cache the cache to use
+     * @return this job
+     */
+    public OJob<S,I,O> cache(ResultCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    /**
+     * Runs each distinct input only once. Inputs are compared by the bytes
+     * the input Sender encodes them to, on the main process; only the first of
+     * each set of equal inputs is sent to the workers, and its output is copied
+     * to the rest. Failures are copied the same way. The Results report how
+     * many tasks were saved, through getDeduplicationStats.
+     *
+     * The workers see a job with one task per distinct input, so getNumTasks
+     * on a worker returns the number of distinct inputs. Only tasks whose output
+     * depends on nothing but their input should be deduplicated. The workers
+     * must all have the same setup input (or none), since the distinct inputs
+     * are split between them differently.
+     *
+     * @return this job
+     * @throws IllegalStateException if the job has no inputs, or its workers have different setup inputs
+     */
+    public OJob<S,I,O> deduplicate() {
+        if (inputs == null) {
+            throw new IllegalStateException("Only jobs with inputs can be deduplicated");
+        }
+        if (setupGroups() != null) {
+            throw new IllegalStateException("Only jobs whose workers have the same setup input can be deduplicated");
+        }
+        deduplicate = true;
+        return this;
+    }
+
+    /**
+     * Reports the job's progress to a listener once a second while it runs,
+     * and once more when all its tasks are complete.
+     *
+     * @param listener the listener to report to
+     * @return this job
+     */
+    public OJob<S,I,O> onProgress(ProgressListener listener) {
+        return onProgress(listener, DEFAULT_PROGRESS_INTERVAL);
+    }
+
+    /**
+     * Reports the job's progress to a listener periodically while it runs,
+     * and once more when all its tasks are complete. Each report gives the
+     * number of tasks completed by each worker, the throughput, and an
+     * estimate of the time remaining; see JobProgress.
+     *
+     * @param listener the listener to report to
+     * @param interval how often to report, in ms
+     * @return this job
+     */
+    public OJob<S,I,O> onProgress(ProgressListener listener, long interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Progress interval must be positive, was " + interval);
+        }
+        progressListener = listener;
+        progressInterval = interval;
+        return this;
+    }
+
+    /**
+     * Writes the timeline of the run to a file when it ends, however it ends,
+     * as a Chrome trace; see JobStats.writeTrace. If the file can't be
+     * written, the error is printed, and the run goes on as usual.
+     *
+     * @param file the file to write
+     * @return this job
+     */
+    public OJob<S,I,O> trace(String file) {
+        traceFile = file;
+        return this;
+    }
+
+    /**
+     * Captures exceptions thrown by tasks, instead of stopping the job.
+     *
+     * A task that throws (or times out, see taskTimeout) is recorded as a
+     * TaskFailure, holding the exception's class name and message, and its
+     * worker carries on with the next task. The failures are returned
+     * alongside the outputs, in the Results.
+     *
+     * Exceptions thrown by setup, or by a Sender, still stop the worker.
+     *
+     * @return this job
      */
-    public ArrayList<O> run(ParSPICE par) throws Exception {
-        runCommon(par);
+    public OJob<S,I,O> captureErrors() {
+        captureErrors = true;
+        return this;
+    }
 
-        ArrayList<O> results = ioManagers.get(0).getOutputs();
-        if (results == null) {
-            return null;
+    /**
+     * Sets how many worker failures the job recovers from before giving up.
+     * By default jobs don't retry, and the first failure stops the job.
+     *
+     * When a worker fails, a replacement worker is started, and the tasks the
+     * failed worker had not completed are run again. Outputs that were already
+     * received are kept. Once the job has used up its retries, the next failure
+     * stops it with a WorkerFailedException.
+     *
+     * Retries are meant for workers that crash or lose their connection. A task
+     * that throws the same exception every time fails each replacement too, so
+     * use captureErrors for those instead.
+     *
+     * @param maxRetries the number of retries; 0 to fail on the first error
+     * @return this job
+     */
+    public OJob<S,I,O> maxRetries(int maxRetries) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("Max retries cannot be negative, was " + maxRetries);
         }
-        results.ensureCapacity(numTasks);
-        for (IOManager<S, I, O> ioManager : ioManagers.subList(1, ioManagers.size())) {
-            results.addAll(ioManager.getOutputs());
+        this.maxRetries = maxRetries;
+        return this;
+    }
+
+    /**
+     * Sets how long a single task can run before it is given up on.
+     *
+     * A task that runs longer than this is recorded as timed out, its worker
+     * is killed and replaced, and the rest of the worker's tasks are run as
+     * normal. Restarts for timeouts don't count against the retry limit. Once
+     * all the other tasks are done, the job throws a TaskTimeoutException
+     * holding their outputs.
+     *
+     * The timeout is checked against the heartbeats sent by the workers,
+     * so it is only accurate to about a tenth of a second. Jobs run in the
+     * main process (see parspice.ExecutionMode) have no timeout.
+     *
+     * @param taskTimeout the timeout in ms; 0 for no limit (the default)
+     * @return this job
+     */
+    public OJob<S,I,O> taskTimeout(int taskTimeout) {
+        if (taskTimeout < 0) {
+            throw new IllegalArgumentException("Task timeout cannot be negative, was " + taskTimeout);
         }
-        return results;
+        this.taskTimeout = taskTimeout;
+        return this;
+    }
+
+    /**
+     * Tracks down and quarantines tasks that crash their workers.
+     *
+     * Some failures, like a crash in native code, kill the worker's JVM outright,
+     * so the task can't be caught or even logged. With isolation on, when a worker
+     * dies partway through its tasks, the tasks it hadn't finished are re-run on
+     * replacement workers in smaller and smaller pieces, until the task that
+     * crashes is found. It is then recorded as a TaskFailure (as if errors were
+     * captured, see captureErrors), and the rest of the job carries on.
+     *
+     * Replacements started to isolate a crash don't count against the retry limit.
+     * Workers that fail before they finish setup are retried as usual.
+     *
+     * @return this job
+     */
+    public OJob<S,I,O> isolateCrashes() {
+        isolateCrashes = true;
+        return this;
+    }
+
+    /**
+     * Calls Job.runCommon(par), and returns the outputs.
+     *
+     * @param par instance of ParSPICE to use.
+     * @return The outputs generated by the workers, and any failures if
+     *         errors are captured (see captureErrors).
+     * @throws Exception
+     */
+    public Results<O> run(ParSPICE par) throws Exception {
+        return runCommon(par);
+    }
+
+    /**
+     * Starts the job on a new thread, returning a handle that can be used
+     * to wait for it or cancel it.
+     *
+     * @param par instance of ParSPICE to use.
+     * @return a handle on the running job, whose result is a Results.
+     */
+    public JobHandle<Results<O>> start(ParSPICE par) {
+        return start(par, null);
+    }
+
+    /**
+     * Starts the job on a new thread, returning a handle that can be used
+     * to wait for it or cancel it. The job's IO loop is run on the given
+     * executor instead of a thread of its own.
+     *
+     * @param par instance of ParSPICE to use.
+     * @param ioExecutor executor to run the job's IO loop on. It occupies
+     *                   one of the executor's threads until the job finishes.
+     * @return a handle on the running job, whose result is a Results.
+     */
+    public JobHandle<Results<O>> start(ParSPICE par, Executor ioExecutor) {
+        return startCommon(par, ioExecutor, outputs -> outputs);
+    }
+
+    /**
+     * Runs the job on a new thread, returning immediately.
+     *
+     * Cancelling the returned future kills the job's workers.
+     *
+     * @param par instance of ParSPICE to use.
+     * @return a future for the outputs generated by the workers, as a Results.
+     */
+    public CompletableFuture<Results<O>> runAsync(ParSPICE par) {
+        return start(par).getFuture();
+    }
+
+    /**
+     * Runs the job on a new thread, returning immediately. The job's IO loop
+     * is run on the given executor instead of a thread of its own.
+     *
+     * Cancelling the returned future kills the job's workers.
+     *
+     * @param par instance of ParSPICE to use.
+     * @param ioExecutor executor to run the job's IO loop on. It occupies
+     *                   one of the executor's threads until the job finishes.
+     * @return a future for the outputs generated by the workers, as a Results.
+     */
+    public CompletableFuture<Results<O>> runAsync(ParSPICE par, Executor ioExecutor) {
+        return start(par, ioExecutor).getFuture();
     }
 }
@@ -1,9 +1,10 @@
 package parspice.worker;
 
+import parspice.io.FrameWriter;
 import parspice.sender.Sender;
+
 import java.io.IOException;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
+import java.io.OutputStream;
 
 /**
  * Superclass of all Worker tasks that don't take input arguments sent from
@@ -42,8 +43,7 @@ public abstract class OWorker<O> extends Worker {
 
     private final Sender<O> outputSender;
 
-    private Socket outputSocket;
-    private ObjectOutputStream oos;
+    private FrameWriter<O> output;
 
     /**
      * Creates a new OWorker instance
@@ -58,7 +58,7 @@ public abstract class OWorker<O> extends Worker {
     /**
      * [main process] Initialize the job with the inputs it needs to run.
      *
-     * @param numWorkers number of workers to use.
+     * @param numWorkers number of workers to use, or Job.AUTO to have ParSPICE pick it.
      * @param numTasks number of tasks to run.
      * @return an initialized Job, ready to run
      */
@@ -87,39 +87,91 @@ public abstract class OWorker<O> extends Worker {
     }
 
     /**
-     * [worker process] Repeatedly calls task and writes the output to stream
+     * [worker process] Calls task and writes the output to stream.
      *
      * The user cannot call or override this function.
      *
+     * @param i the index of the task
      * @throws Exception any exception the user code needs to throw
      */
     @Override
-    final void taskWrapper() throws Exception {
-        for (int i = getStartIndex(); i < getStartIndex() + getTaskSubset(); i++) {
-            outputSender.write(task(i), oos);
+    final void taskWrapper(int i) throws Exception {
+        O out;
+        try {
+            out = task(i);
+        } catch (Exception e) {
+            taskFailed(i, e);
+            return;
         }
+        output.write(i, out);
+    }
+
+
+    /**
+     * [in-process] Calls setup.
+     *
+     * The user cannot call or override this function.
+     *
+     * @param setupInput the setup input (always null)
+     * @throws Exception any exception the user code needs to throw
+     */
+    @Override
+    final void setupDirect(Object setupInput) throws Exception {
+        setup();
     }
 
     /**
-     * [worker process] Starts the output socket connection with the main process.
+     * [in-process] Calls task.
+     *
+     * The user cannot call or override this function.
+     *
+     * @param i the index of the task
+     * @param input the task's input (always null)
+     * @return the output
+     * @throws Exception any exception the user code needs to throw
+     */
+    @Override
+    final Object taskDirect(int i, Object input) throws Exception {
+        return task(i);
+    }
+
+    /**
+     * [worker process] Does nothing, since this worker's tasks take no inputs.
+     *
+     * The user cannot call or override this function.
+     *
+     * @return null
+     */
+    @Override
+    final Object readInput() {
+        return null;
+    }
+
+    /**
+     * [worker process] Writes the output of a task.
+     *
+     * The user cannot call or override this function.
      *
-     * @throws IOException if the connection cannot be made
+     * @param i the index of the task
+     * @param out the output
+     * @throws IOException if the output cannot be written
      */
     @Override
-    final void startConnections() throws IOException {
-        outputSocket = new Socket("localhost", getOutputPort());
-        oos = new ObjectOutputStream(outputSocket.getOutputStream());
+    @SuppressWarnings("unchecked")
+    final void writeOutput(int i, Object out) throws IOException {
+        output.write(i, (O) out);
     }
 
     /**
-     * [worker process] Ends the output connection with the main process.
+     * [worker process] Creates the FrameWriter that sends outputs to the main process.
      *
-     * @throws IOException if the connection cannot be ended.
+     * @param out the socket stream
+     * @return a new FrameWriter for this worker's outputs
      */
     @Override
-    final void endConnections() throws IOException {
-        oos.close();
-        outputSocket.close();
+    final FrameWriter<?> newFrameWriter(OutputStream out) {
+        output = new FrameWriter<>(outputSender, out);
+        return output;
     }
 
     /**
@@ -0,0 +1,379 @@
+package parspice.worker;
+
+import parspice.io.FrameWriter;
+import parspice.sender.Sender;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Superclass of Workers whose tasks are split into three stages, so that only
+ * the part that calls SPICE has to run one task at a time.
+ *
+ * Each task's input goes through prepare, then spice, then finish, whose
+ * output is sent back to the main process. On a worker process, prepare and
+ * finish run on a pool of getStageThreads threads, several tasks at a time,
+ * while spice always runs on the worker's task thread (the one that ran setup),
+ * one task at a time. The stages are connected by queues of at most two tasks
+ * per stage thread, and the outputs are sent in the order of their tasks.
+ *
+ * So prepare and finish must be thread-safe, and must not call SPICE; spice
+ * can do anything a task of the other Worker types can. A task that throws in
+ * any stage fails as a whole, and its later stages are skipped.
+ *
+ * Jobs run in the main process (see parspice.ExecutionMode) run the three
+ * stages one after another, on a single thread.
+ *
+ * @param <I> The type given by the main process as argument.
+ * @param <P> The type prepare passes to spice.
+ * @param <R> The type spice passes to finish.
+ * @param <O> The type returned by the job to the main process.
+ */
+public abstract class PipelineWorker<I,P,R,O> extends Worker {
+
+    private final Sender<I> inputSender;
+    private final Sender<O> outputSender;
+
+    private FrameWriter<O> output;
+
+    /**
+     * Runs the prepare and finish stages, created with the first range.
+     */
+    private ExecutorService stagePool;
+
+    public PipelineWorker(Sender<I> inputSender, Sender<O> outputSender) {
+        this.inputSender = inputSender;
+        this.outputSender = outputSender;
+    }
+
+    /**
+     * [main process] Initialize the job with the inputs it needs to run.
+     *
+     * @param numWorkers number of workers to use, or Job.AUTO to have ParSPICE pick it.
+     * @param inputs inputs to split among the workers
+     * @return an initialized Job, ready to run
+     */
+    public final OJob<Void,I,O> init(int numWorkers, List<I> inputs) {
+        if (getStageThreads() < 1) {
+            throw new IllegalStateException("Stage threads cannot be less than 1, was " + getStageThreads());
+        }
+        OJob<Void, I, O> job = new OJob<>(this);
+
+        job.numWorkers = numWorkers;
+        job.inputs = inputs;
+        job.numTasks = inputs.size();
+        job.inputSender = inputSender;
+        job.outputSender = outputSender;
+
+        job.validate();
+
+        return job;
+    }
+
+    /**
+     * [worker process] Calls setup.
+     *
+     * The user cannot call or override this function.
+     *
+     * @throws Exception any exception the user code needs to throw
+     */
+    @Override
+    final void setupWrapper() throws Exception {
+        setup();
+    }
+
+    /**
+     * [worker process] Reads an input, runs the three stages, and writes the output.
+     *
+     * The user cannot call or override this function.
+     *
+     * @param i the index of the task
+     * @throws Exception any exception the user code needs to throw
+     */
+    @Override
+    final void taskWrapper(int i) throws Exception {
+        I input = read(inputSender);
+        O out;
+        try {
+            out = finish(spice(prepare(input)));
+        } catch (Exception e) {
+            taskFailed(i, e);
+            return;
+        }
+        output.write(i, out);
+    }
+
+    /**
+     * [worker process] Runs the current range of tasks through the pipeline.
+     *
+     * The task thread reads the inputs ahead and hands them to prepare on the
+     * stage pool, runs spice on each prepared task in order, hands the result to
+     * finish on the stage pool, and writes the finished outputs (or failures)
+     * in order. It only waits on finish when its queue is full, or at the end
+     * of the range. Each task's latency is the time from reading its input to
+     * writing its output.
+     *
+     * The user cannot call or override this function.
+     *
+     * @param high the sequence number of the range, in the high 32 bits
+     * @throws Exception anything a stage threw, if errors aren't captured
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    final void runRange(long high) throws Exception {
+        int threads = getStageThreads();
+        if (stagePool == null) {
+            stagePool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                private int count = 0;
+
+                @Override
+                public synchronized Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "parspice stage " + count++);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        int window = 2 * threads;
+        ArrayDeque<Future<Stage>> preparing = new ArrayDeque<>(window);
+        ArrayDeque<Future<Stage>> finishing = new ArrayDeque<>(window);
+        int end = getStartIndex() + getTaskSubset();
+        int next = getStartIndex();
+        int written = getStartIndex();
+        for (int i = getStartIndex(); i < end; i++) {
+            while (next < end && preparing.size() < window) {
+                I input = read(inputSender);
+                Stage task = new Stage(System.nanoTime());
+                preparing.add(stagePool.submit(() -> {
+                    try {
+                        task.value = prepare(input);
+                    } catch (Exception e) {
+                        task.error = e;
+                    }
+                    return task;
+                }));
+                next++;
+            }
+            running(high, written);
+            Stage task = await(preparing.poll());
+            if (task.error == null) {
+                try {
+                    task.value = spice((P) task.value);
+                } catch (Exception e) {
+                    task.error = e;
+                }
+            }
+            if (task.error == null) {
+                finishing.add(stagePool.submit(() -> {
+                    try {
+                        task.value = finish((R) task.value);
+                    } catch (Exception e) {
+                        task.error = e;
+                    }
+                    return task;
+                }));
+            } else {
+                finishing.add(CompletableFuture.completedFuture(task));
+            }
+            while (!finishing.isEmpty() && (finishing.size() >= window || finishing.peek().isDone())) {
+                running(high, written);
+                write(written++, await(finishing.poll()));
+            }
+        }
+        while (!finishing.isEmpty()) {
+            running(high, written);
+            write(written++, await(finishing.poll()));
+        }
+    }
+
+    /**
+     * A task on its way through the pipeline.
+     */
+    private static class Stage {
+        /**
+         * When its input was read, from System.nanoTime.
+         */
+        final long started;
+
+        /**
+         * The output of the last stage it went through.
+         */
+        Object value;
+
+        /**
+         * What a stage threw, if one did.
+         */
+        Exception error;
+
+        Stage(long started) {
+            this.started = started;
+        }
+    }
+
+    /**
+     * Waits for a task to get through a stage on the stage pool.
+     */
+    private static Stage await(Future<Stage> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            // Only Errors get past the stage's own catch.
+            throw (Error) e.getCause();
+        }
+    }
+
+    /**
+     * Writes a task's output, or its failure.
+     */
+    @SuppressWarnings("unchecked")
+    private void write(int i, Stage task) throws Exception {
+        recordLatency(System.nanoTime() - task.started);
+        if (task.error != null) {
+            taskFailed(i, task.error);
+        } else {
+            output.write(i, (O) task.value);
+        }
+    }
+
+
+    /**
+     * [in-process] Calls setup.
+     *
+     * The user cannot call or override this function.
+     *
+     * @param setupInput the setup input (always null)
+     * @throws Exception any exception the user code needs to throw
+     */
+    @Override
+    final void setupDirect(Object setupInput) throws Exception {
+        setup();
+    }
+
+    /**
+     * [in-process] Runs the three stages on the input, one after another.
+     *
+     * The user cannot call or override this function.
+     *
+     * @param i the index of the task
+     * @param input the task's input
+     * @return the output
+     * @throws Exception any exception the user code needs to throw
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    final Object taskDirect(int i, Object input) throws Exception {
+        return finish(spice(prepare((I) input)));
+    }
+
+    /**
+     * [worker process] Reads the input of the next task.
+     *
+     * The user cannot call or override this function.
+     *
+     * @return the input
+     * @throws IOException if the input cannot be read
+     */
+    @Override
+    final Object readInput() throws IOException {
+        return read(inputSender);
+    }
+
+    /**
+     * [worker process] Writes the output of a task.
+     *
+     * The user cannot call or override this function.
+     *
+     * @param i the index of the task
+     * @param out the output
+     * @throws IOException if the output cannot be written
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    final void writeOutput(int i, Object out) throws IOException {
+        output.write(i, (O) out);
+    }
+
+    /**
+     * [worker process] Creates the FrameWriter that sends outputs to the main process.
+     *
+     * @param out the socket stream
+     * @return a new FrameWriter for this worker's outputs
+     */
+    @Override
+    final FrameWriter<?> newFrameWriter(OutputStream out) {
+        output = new FrameWriter<>(outputSender, out);
+        return output;
+    }
+
+    /**
+     * Pipeline workers always have one task thread, which runs the spice stage;
+     * see getStageThreads for the threads that run the other stages.
+     *
+     * @return 1
+     */
+    @Override
+    public final int getThreadsPerWorker() {
+        return 1;
+    }
+
+    /**
+     * [worker] The number of threads each worker process runs the prepare and
+     * finish stages on. The user can override this; the spice stage always has
+     * a thread of its own.
+     *
+     * @return the number of stage threads per worker process; 2 by default
+     */
+    public int getStageThreads() {
+        return 2;
+    }
+
+    /**
+     * [worker] Called once on each worker when the job starts running, on the
+     * thread that runs the spice stage.
+     *
+     * The user can optionally override this function; by default it does nothing.
+     *
+     * @throws Exception any exception the user code needs to throw
+     */
+    public void setup() throws Exception {}
+
+    /**
+     * [worker] The first stage of a task: turns the input from the main process
+     * into what spice needs. Runs on a stage thread, alongside other tasks, so it
+     * must be thread-safe and must not call SPICE.
+     *
+     * @param input The input given by the main process to the worker.
+     * @return The value passed to spice.
+     * @throws Exception any exception the user code needs to throw
+     */
+    public abstract P prepare(I input) throws Exception;
+
+    /**
+     * [worker] The second stage of a task: the SPICE calls. Runs on the worker's
+     * task thread, one task at a time, in the order of the tasks.
+     *
+     * @param prepared The value returned by prepare.
+     * @return The value passed to finish.
+     * @throws Exception any exception the user code needs to throw
+     */
+    public abstract R spice(P prepared) throws Exception;
+
+    /**
+     * [worker] The last stage of a task: turns what spice returned into the
+     * output. Runs on a stage thread, alongside other tasks, so it must be
+     * thread-safe and must not call SPICE.
+     *
+     * @param result The value returned by spice.
+     * @return The value to be sent back to the main process.
+     * @throws Exception any exception the user code needs to throw
+     */
+    public abstract O finish(R result) throws Exception;
+}
@@ -0,0 +1,19 @@
+package parspice.worker;
+
+/**
+ * Receives progress reports while a job runs (see OJob.onProgress and VoidJob.onProgress).
+ *
+ * Reports are made on the thread running the job, so the listener should
+ * return quickly; the job's workers are not watched while it runs. Exceptions
+ * thrown by the listener are printed to stderr and otherwise ignored.
+ */
+@FunctionalInterface
+public interface ProgressListener {
+
+    /**
+     * Called periodically while the job runs, and once more when all its tasks are complete.
+     *
+     * @param progress a snapshot of the job's progress
+     */
+    void progress(JobProgress progress);
+}
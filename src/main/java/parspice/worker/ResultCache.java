@@ -0,0 +1,353 @@
+package parspice.worker;
+
+import parspice.sender.Sender;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An on-disk cache of task outputs, shared by any number of jobs, so that
+ * tasks that have been run before don't need to be run again.
+ *
+ * A task's output is stored under a hash of everything that determines it:
+ * the worker class, the contents of the worker jar, the setup input of the
+ * worker the task is given to (see Job.taskSubset), and either the task's
+ * input (encoded with the job's input Sender) or, for jobs without inputs,
+ * the task's index. When a job with a cache is run,
+ * each task is looked up first; hits are filled in on the main process, and
+ * only the misses are sent to the workers. The outputs of the misses are
+ * stored once the job ends.
+ *
+ * This assumes that a task's output depends only on those things, and not on
+ * the number of tasks or workers, or on anything outside the job (like files
+ * the task reads). Rebuilding the worker jar invalidates everything cached
+ * for it.
+ *
+ * Each output is kept in a file of its own, encoded with the job's output
+ * Sender. When the files add up to more than the size limit, the least recently
+ * used are deleted. Files are touched when they are hit, so the order of use
+ * carries over to the next instance opened on the same directory. A directory
+ * should only be used by one ResultCache at a time.
+ *
+ * All methods are synchronized, so a cache can be used by jobs running
+ * on several threads at once.
+ */
+public class ResultCache {
+
+    private static final String SUFFIX = ".out";
+
+    private final File directory;
+    private final long maxBytes;
+
+    /**
+     * Size of each entry in bytes, by file name, in order of least to most recently used.
+     */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes = 0;
+
+    /**
+     * Hashes of worker jars, so each jar is only read once. Keyed by the jar's
+     * path, size and modification time, so a rebuilt jar is hashed again.
+     */
+    private final Map<String, byte[]> jarHashes = new HashMap<>();
+
+    private long hits = 0;
+    private long misses = 0;
+    private long stores = 0;
+    private long evictions = 0;
+
+    /**
+     * Opens a cache directory, creating it if it doesn't exist. Outputs already
+     * in the directory are kept, and evicted first if it is over the size limit.
+     *
+     * @param directory the directory to keep the outputs in
+     * @param maxBytes the most bytes of outputs to keep on disk
+     * @throws IOException if the directory can't be created
+     */
+    public ResultCache(String directory, long maxBytes) throws IOException {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("Cache size must be positive, was " + maxBytes);
+        }
+        this.directory = new File(directory);
+        this.maxBytes = maxBytes;
+        if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+            throw new IOException("Could not create cache directory " + directory);
+        }
+        File[] files = this.directory.listFiles();
+        if (files == null) {
+            throw new IOException("Could not list cache directory " + directory);
+        }
+        // Left over from a store that was interrupted.
+        for (File file : files) {
+            if (file.getName().endsWith(".tmp")) {
+                file.delete();
+            }
+        }
+        List<File> outputs = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().endsWith(SUFFIX)) {
+                outputs.add(file);
+            }
+        }
+        outputs.sort(Comparator.comparingLong(File::lastModified));
+        for (File file : outputs) {
+            entries.put(file.getName(), file.length());
+            totalBytes += file.length();
+        }
+        evict();
+    }
+
+    /**
+     * @return the number of tasks whose outputs were found in the cache
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of tasks looked up and not found, which were run instead
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the fraction of lookups that were hits, or 0 if there have been none
+     */
+    public synchronized double getHitRate() {
+        return hits + misses == 0 ? 0 : hits / (double) (hits + misses);
+    }
+
+    /**
+     * @return the number of outputs added to the cache
+     */
+    public synchronized long getStores() {
+        return stores;
+    }
+
+    /**
+     * @return the number of outputs deleted to keep the cache under its size limit
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the number of outputs in the cache
+     */
+    public synchronized int getNumEntries() {
+        return entries.size();
+    }
+
+    /**
+     * @return the total size of the outputs in the cache, in bytes
+     */
+    public synchronized long getSizeBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * @return the most bytes of outputs the cache keeps
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Resets the hit, miss, store and eviction counts to zero.
+     */
+    public synchronized void resetStats() {
+        hits = 0;
+        misses = 0;
+        stores = 0;
+        evictions = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("ResultCache[%s: %d entries, %d of %d bytes, %d hits, %d misses (%.1f%% hit rate), %d evictions]",
+                directory, entries.size(), totalBytes, maxBytes, hits, misses, 100 * getHitRate(), evictions);
+    }
+
+    /**
+     * Computes the cache key of every task in a job.
+     *
+     * @param job the job
+     * @param workerJar path to the worker jar the job is run with
+     * @return the key of each task, by task index
+     * @throws IOException if the jar can't be read, or the job's inputs can't be encoded
+     */
+    <I> String[] keys(Job<?, I, ?> job, String workerJar) throws IOException {
+        MessageDigest prefix = Digests.sha256();
+        Digests.updateString(prefix, job.getWorker().getClass().getName());
+        prefix.update(jarHash(new File(workerJar)));
+        prefix.update((byte) (job.setupInputs == null ? 0 : 1));
+        prefix.update((byte) (job.inputs == null ? 0 : 1));
+        byte[][] setups = taskSetups(job);
+        Digests.Encoder<I> encoder = job.inputs == null ? null : new Digests.Encoder<>(job.inputSender);
+        String[] keys = new String[job.numTasks];
+        for (int i = 0; i < job.numTasks; i++) {
+            MessageDigest digest = clone(prefix);
+            if (setups != null) {
+                Digests.updateInt(digest, setups[i].length);
+                digest.update(setups[i]);
+            }
+            if (encoder == null) {
+                Digests.updateInt(digest, i);
+            } else {
+                digest.update(encoder.encode(job.inputs.get(i)));
+            }
+            keys[i] = Digests.hex(digest.digest()) + SUFFIX;
+        }
+        return keys;
+    }
+
+    /**
+     * Encodes the setup input each task is run after, which is that of the
+     * worker whose share of the tasks it is in, as split by Job.taskSubset.
+     * Each distinct setup input is only encoded once.
+     *
+     * @param job the job
+     * @return the encoded setup input of each task, by task index, or null if the job has no setup inputs
+     * @throws IOException if the job's setup inputs can't be encoded
+     */
+    private static <S> byte[][] taskSetups(Job<S, ?, ?> job) throws IOException {
+        if (job.setupInputs == null) {
+            return null;
+        }
+        byte[][] setups = new byte[job.numTasks][];
+        int[] groups = job.setupGroups();
+        if (groups == null) {
+            Arrays.fill(setups, Digests.encode(job.setupSender, job.setupInputs.get(0)));
+            return setups;
+        }
+        byte[][] workerSetups = new byte[job.numWorkers][];
+        int start = 0;
+        for (int i = 0; i < job.numWorkers; i++) {
+            workerSetups[i] = groups[i] == i
+                    ? Digests.encode(job.setupSender, job.setupInputs.get(i))
+                    : workerSetups[groups[i]];
+            int end = start + Job.taskSubset(job.numTasks, job.numWorkers, i);
+            Arrays.fill(setups, start, end, workerSetups[i]);
+            start = end;
+        }
+        return setups;
+    }
+
+    /**
+     * Looks up a task's output.
+     *
+     * @param key the task's key, from keys
+     * @param sender the job's output Sender
+     * @return the output, or null on a miss
+     */
+    synchronized <O> O get(String key, Sender<O> sender) {
+        O output = null;
+        if (entries.get(key) != null) {
+            File file = new File(directory, key);
+            try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                output = sender.read(ois);
+                file.setLastModified(System.currentTimeMillis());
+            } catch (IOException e) {
+                // Deleted or damaged since the cache was opened; it will be stored again.
+                remove(key);
+            }
+        }
+        if (output == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return output;
+    }
+
+    /**
+     * Stores a task's output, then evicts the least recently used outputs if the
+     * cache is over its size limit. Null outputs aren't stored.
+     *
+     * @param key the task's key, from keys
+     * @param output the output to store
+     * @param sender the job's output Sender
+     * @throws IOException if the output can't be written
+     */
+    synchronized <O> void put(String key, O output, Sender<O> sender) throws IOException {
+        if (output == null || entries.containsKey(key)) {
+            return;
+        }
+        File file = new File(directory, key);
+        File tempFile = new File(directory, key + ".tmp");
+        try (ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            sender.write(output, oos);
+        }
+        Files.move(tempFile.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        long size = file.length();
+        entries.put(key, size);
+        totalBytes += size;
+        stores++;
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            new File(directory, entry.getKey()).delete();
+            totalBytes -= entry.getValue();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    private void remove(String key) {
+        Long size = entries.remove(key);
+        if (size != null) {
+            totalBytes -= size;
+        }
+        new File(directory, key).delete();
+    }
+
+    private synchronized byte[] jarHash(File jar) throws IOException {
+        String id = jar.getAbsolutePath() + "|" + jar.length() + "|" + jar.lastModified();
+        byte[] hash = jarHashes.get(id);
+        if (hash == null) {
+            MessageDigest digest = Digests.sha256();
+            try (InputStream in = new FileInputStream(jar)) {
+                byte[] buffer = new byte[1 << 16];
+                for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+                    digest.update(buffer, 0, n);
+                }
+            }
+            hash = digest.digest();
+            jarHashes.put(id, hash);
+        }
+        return hash;
+    }
+
+    private static MessageDigest clone(MessageDigest digest) {
+        try {
+            return (MessageDigest) digest.clone();
+        } catch (CloneNotSupportedException e) {
+            // The JDK's SHA-256 supports cloning.
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package parspice.worker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outputs of a job, in task order, along with the tasks that failed.
+ *
+ * Tasks only fail without stopping the job when errors are captured
+ * (see OJob.captureErrors). The output of a failed task is null;
+ * getFailures says why it failed. Without error capture, the list of
+ * failures is always empty.
+ *
+ * @param <O> Type for task outputs
+ */
+public class Results<O> extends ArrayList<O> {
+
+    private static final long serialVersionUID = 1L;
+
+    private List<TaskFailure> failures = Collections.emptyList();
+    private DeduplicationStats deduplicationStats;
+    private JobStats jobStats;
+
+    /**
+     * Creates an empty Results.
+     *
+     * @param numTasks number of outputs to make room for
+     */
+    Results(int numTasks) {
+        super(numTasks);
+    }
+
+    /**
+     * The tasks that threw an exception (or timed out) instead of returning an output.
+     *
+     * @return the failures, ordered by task index
+     */
+    public List<TaskFailure> getFailures() {
+        return failures;
+    }
+
+    void setFailures(List<TaskFailure> failures) {
+        this.failures = Collections.unmodifiableList(failures);
+    }
+
+    /**
+     * How many duplicate inputs were skipped, if the job's inputs were
+     * deduplicated (see OJob.deduplicate).
+     *
+     * @return the stats, or null if the inputs weren't deduplicated
+     */
+    public DeduplicationStats getDeduplicationStats() {
+        return deduplicationStats;
+    }
+
+    void setDeduplicationStats(DeduplicationStats deduplicationStats) {
+        this.deduplicationStats = deduplicationStats;
+    }
+
+    /**
+     * Where the time went while the job ran.
+     *
+     * @return the stats of the run that produced these results
+     */
+    public JobStats getJobStats() {
+        return jobStats;
+    }
+
+    void setJobStats(JobStats jobStats) {
+        this.jobStats = jobStats;
+    }
+}
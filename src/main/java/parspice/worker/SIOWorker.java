@@ -1,11 +1,10 @@
 package parspice.worker;
 
+import parspice.io.FrameWriter;
 import parspice.sender.Sender;
+
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
-import java.util.ArrayList;
+import java.io.OutputStream;
 import java.util.List;
 
 /**
@@ -22,10 +21,7 @@ public abstract class SIOWorker<S,I,O> extends Worker {
     private final Sender<I> inputSender;
     private final Sender<O> outputSender;
 
-    private Socket inputSocket;
-    private Socket outputSocket;
-    private ObjectInputStream ois;
-    private ObjectOutputStream oos;
+    private FrameWriter<O> output;
 
     public SIOWorker(Sender<S> setupSender, Sender<I> inputSender, Sender<O> outputSender) {
         this.setupSender = setupSender;
@@ -37,7 +33,7 @@ public abstract class SIOWorker<S,I,O> extends Worker {
      * [main process] Initialize the job with the inputs it needs to run, including a
      * single input to be copied to the argument of each worker's setup function.
      *
-     * @param numWorkers number of workers to use.
+     * @param numWorkers number of workers to use, or Job.AUTO to have ParSPICE pick it.
      * @param setupInput setup input to give to each job's setup function.
      * @param inputs inputs to split among the workers
      * @return an initialized Job, ready to run
@@ -46,10 +42,7 @@ public abstract class SIOWorker<S,I,O> extends Worker {
         OJob<S,I,O> job = new OJob<>(this);
 
         job.numWorkers = numWorkers;
-        job.setupInputs = new ArrayList<S>(numWorkers);
-        for (int i = 0; i < numWorkers; i++) {
-            job.setupInputs.add(setupInput);
-        }
+        job.setupInputs = Job.copies(setupInput, numWorkers);
         job.inputs = inputs;
         job.numTasks = inputs.size();
         job.setupSender = setupSender;
@@ -94,47 +87,99 @@ public abstract class SIOWorker<S,I,O> extends Worker {
      */
     @Override
     final void setupWrapper() throws Exception {
-        setup(setupSender.read(ois));
+        setup(read(setupSender));
     }
 
     /**
-     * [worker process] Repeatedly reads an input from the stream and calls task.
+     * [worker process] Reads an input, calls task, and writes the output.
      *
      * The user cannot call or override this function.
      *
+     * @param i the index of the task
      * @throws Exception any exception the user code needs to throw
      */
     @Override
-    final void taskWrapper() throws Exception {
-        for (int i = getStartIndex(); i < getStartIndex() + getTaskSubset(); i++) {
-            outputSender.write(task(inputSender.read(ois)), oos);
+    final void taskWrapper(int i) throws Exception {
+        I input = read(inputSender);
+        O out;
+        try {
+            out = task(input);
+        } catch (Exception e) {
+            taskFailed(i, e);
+            return;
         }
+        output.write(i, out);
+    }
+
+
+    /**
+     * [in-process] Calls setup with the setup input.
+     *
+     * The user cannot call or override this function.
+     *
+     * @param setupInput the setup input
+     * @throws Exception any exception the user code needs to throw
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    final void setupDirect(Object setupInput) throws Exception {
+        setup((S) setupInput);
     }
 
     /**
-     * [worker process] Starts the input and output socket connections with the main process.
+     * [in-process] Calls task with the input.
+     *
+     * The user cannot call or override this function.
+     *
+     * @param i the index of the task
+     * @param input the task's input
+     * @return the output
+     * @throws Exception any exception the user code needs to throw
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    final Object taskDirect(int i, Object input) throws Exception {
+        return task((I) input);
+    }
+
+    /**
+     * [worker process] Reads the input of the next task.
+     *
+     * The user cannot call or override this function.
+     *
+     * @return the input
+     * @throws IOException if the input cannot be read
+     */
+    @Override
+    final Object readInput() throws IOException {
+        return read(inputSender);
+    }
+
+    /**
+     * [worker process] Writes the output of a task.
+     *
+     * The user cannot call or override this function.
      *
-     * @throws IOException if the connections cannot be made
+     * @param i the index of the task
+     * @param out the output
+     * @throws IOException if the output cannot be written
      */
     @Override
-    final void startConnections() throws IOException {
-        inputSocket = new Socket("localhost", getInputPort());
-        outputSocket = new Socket("localhost", getOutputPort());
-        ois = new ObjectInputStream(inputSocket.getInputStream());
-        oos = new ObjectOutputStream(outputSocket.getOutputStream());
+    @SuppressWarnings("unchecked")
+    final void writeOutput(int i, Object out) throws IOException {
+        output.write(i, (O) out);
     }
 
     /**
-     * [worker process] Ends the input and output connections with the main process.
+     * [worker process] Creates the FrameWriter that sends outputs to the main process.
      *
-     * @throws IOException if the connections cannot be ended.
+     * @param out the socket stream
+     * @return a new FrameWriter for this worker's outputs
      */
     @Override
-    final void endConnections() throws IOException {
-        oos.close();
-        outputSocket.close();
-        ois.close();
-        inputSocket.close();
+    final FrameWriter<?> newFrameWriter(OutputStream out) {
+        output = new FrameWriter<>(outputSender, out);
+        return output;
     }
 
     /**
@@ -2,9 +2,6 @@ package parspice.worker;
 
 import parspice.sender.Sender;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.net.Socket;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -19,9 +16,6 @@ public abstract class SIWorker<S,I> extends Worker {
     private final Sender<S> setupSender;
     private final Sender<I> inputSender;
 
-    private Socket inputSocket;
-    private ObjectInputStream ois;
-
     public SIWorker(Sender<S> setupSender, Sender<I> inputSender) {
         this.setupSender = setupSender;
         this.inputSender = inputSender;
@@ -31,7 +25,7 @@ public abstract class SIWorker<S,I> extends Worker {
      * [main process] Initialize the job with the inputs it needs to run, including a
      * single input to be copied to the argument of each job's setup function.
      *
-     * @param numWorkers number of workers to use.
+     * @param numWorkers number of workers to use, or Job.AUTO to have ParSPICE pick it.
      * @param setupInput setup input to give to each job's setup function.
      * @param inputs inputs to split among the workers
      * @return an initialized Job, ready to run
@@ -40,10 +34,7 @@ public abstract class SIWorker<S,I> extends Worker {
         VoidJob<S,I> job = new VoidJob<>(this);
 
         job.numWorkers = numWorkers;
-        job.setupInputs = new ArrayList<S>(numWorkers);
-        for (int i = 0; i < numWorkers; i++) {
-            job.setupInputs.add(setupInput);
-        }
+        job.setupInputs = Job.copies(setupInput, numWorkers);
         job.inputs = inputs;
         job.numTasks = inputs.size();
         job.setupSender = setupSender;
@@ -86,45 +77,83 @@ public abstract class SIWorker<S,I> extends Worker {
      */
     @Override
     final void setupWrapper() throws Exception {
-        setup(setupSender.read(ois));
+        setup(read(setupSender));
     }
 
     /**
-     * [worker process] Repeatedly reads an input from the stream and calls task.
+     * [worker process] Reads an input from the stream and calls task.
      *
      * The user cannot call or override this function.
      *
+     * @param i the index of the task
      * @throws Exception any exception the user code needs to throw
      */
     @Override
-    final void taskWrapper() throws Exception {
-        for (int i = getStartIndex(); i < getStartIndex() + getTaskSubset(); i++) {
-            task(inputSender.read(ois));
+    final void taskWrapper(int i) throws Exception {
+        I input = read(inputSender);
+        try {
+            task(input);
+        } catch (Exception e) {
+            taskFailed(i, e);
         }
     }
 
+
+    /**
+     * [in-process] Calls setup with the setup input.
+     *
+     * The user cannot call or override this function.
+     *
+     * @param setupInput the setup input
+     * @throws Exception any exception the user code needs to throw
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    final void setupDirect(Object setupInput) throws Exception {
+        setup((S) setupInput);
+    }
+
     /**
-     * [worker process] Starts the input socket connection with the main process.
+     * [in-process] Calls task with the input.
      *
-     * @throws IOException if connection cannot be made
+     * The user cannot call or override this function.
+     *
+     * @param i the index of the task
+     * @param input the task's input
+     * @return null
+     * @throws Exception any exception the user code needs to throw
      */
     @Override
-    final void startConnections() throws IOException {
-        inputSocket = new Socket("localhost", getInputPort());
-        ois = new ObjectInputStream(inputSocket.getInputStream());
+    @SuppressWarnings("unchecked")
+    final Object taskDirect(int i, Object input) throws Exception {
+        task((I) input);
+        return null;
     }
 
     /**
-     * [worker process] Ends the input socket connection with the main process.
+     * [worker process] Reads the input of the next task.
      *
-     * @throws IOException if the connection cannot be ended.
+     * The user cannot call or override this function.
+     *
+     * @return the input
+     * @throws IOException if the input cannot be read
      */
     @Override
-    final void endConnections() throws IOException {
-        ois.close();
-        inputSocket.close();
+    final Object readInput() throws IOException {
+        return read(inputSender);
     }
 
+    /**
+     * [worker process] Does nothing, since this worker's tasks return no outputs.
+     *
+     * The user cannot call or override this function.
+     *
+     * @param i the index of the task
+     * @param out null
+     */
+    @Override
+    final void writeOutput(int i, Object out) {}
+
     /**
      * [worker] Called once on each worker when the job starts running.
      *
@@ -1,12 +1,11 @@
 package parspice.worker;
 
+import parspice.io.FrameWriter;
 import parspice.sender.Sender;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
-import java.util.ArrayList;
+import java.io.OutputStream;
+
 import java.util.List;
 
 /**
@@ -21,10 +20,7 @@ public abstract class SOWorker<S,O> extends Worker {
     private final Sender<S> setupSender;
     private final Sender<O> outputSender;
 
-    private Socket inputSocket;
-    private Socket outputSocket;
-    private ObjectInputStream ois;
-    private ObjectOutputStream oos;
+    private FrameWriter<O> output;
 
     public SOWorker(Sender<S> setupSender, Sender<O> outputSender) {
         this.setupSender = setupSender;
@@ -35,7 +31,7 @@ public abstract class SOWorker<S,O> extends Worker {
      * [main process] Initialize the job with the inputs it needs to run, including a
      * single input to be copied to the argument of each job's setup function.
      *
-     * @param numWorkers number of workers to use.
+     * @param numWorkers number of workers to use, or Job.AUTO to have ParSPICE pick it.
      * @param numTasks number of tasks to run.
      * @param setupInput setup input to give to each job's setup function.
      * @return an initialized Job, ready to run
@@ -45,10 +41,7 @@ public abstract class SOWorker<S,O> extends Worker {
 
         job.numWorkers = numWorkers;
         job.numTasks = numTasks;
-        job.setupInputs = new ArrayList<S>(numWorkers);
-        for (int i = 0; i < numWorkers; i++) {
-            job.setupInputs.add(setupInput);
-        }
+        job.setupInputs = Job.copies(setupInput, numWorkers);
         job.setupSender = setupSender;
         job.outputSender = outputSender;
 
@@ -88,47 +81,96 @@ public abstract class SOWorker<S,O> extends Worker {
      */
     @Override
     final void setupWrapper() throws Exception {
-        setup(setupSender.read(ois));
+        setup(read(setupSender));
     }
 
     /**
-     * [worker process] Repeatedly calls task and writes the output to stream
+     * [worker process] Calls task and writes the output to stream.
      *
      * The user cannot call or override this function.
      *
+     * @param i the index of the task
      * @throws Exception any exception the user code needs to throw
      */
     @Override
-    final void taskWrapper() throws Exception {
-        for (int i = getStartIndex(); i < getStartIndex() + getTaskSubset(); i++) {
-            outputSender.write(task(i), oos);
+    final void taskWrapper(int i) throws Exception {
+        O out;
+        try {
+            out = task(i);
+        } catch (Exception e) {
+            taskFailed(i, e);
+            return;
         }
+        output.write(i, out);
+    }
+
+
+    /**
+     * [in-process] Calls setup with the setup input.
+     *
+     * The user cannot call or override this function.
+     *
+     * @param setupInput the setup input
+     * @throws Exception any exception the user code needs to throw
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    final void setupDirect(Object setupInput) throws Exception {
+        setup((S) setupInput);
     }
 
     /**
-     * [worker process] Starts the input and output socket connections with the main process.
+     * [in-process] Calls task.
+     *
+     * The user cannot call or override this function.
+     *
+     * @param i the index of the task
+     * @param input the task's input (always null)
+     * @return the output
+     * @throws Exception any exception the user code needs to throw
+     */
+    @Override
+    final Object taskDirect(int i, Object input) throws Exception {
+        return task(i);
+    }
+
+    /**
+     * [worker process] Does nothing, since this worker's tasks take no inputs.
+     *
+     * The user cannot call or override this function.
+     *
+     * @return null
+     */
+    @Override
+    final Object readInput() {
+        return null;
+    }
+
+    /**
+     * [worker process] Writes the output of a task.
+     *
+     * The user cannot call or override this function.
      *
-     * @throws IOException if the connections cannot be made
+     * @param i the index of the task
+     * @param out the output
+     * @throws IOException if the output cannot be written
      */
     @Override
-    final void startConnections() throws IOException {
-        inputSocket = new Socket("localhost", getInputPort());
-        outputSocket = new Socket("localhost", getOutputPort());
-        ois = new ObjectInputStream(inputSocket.getInputStream());
-        oos = new ObjectOutputStream(outputSocket.getOutputStream());
+    @SuppressWarnings("unchecked")
+    final void writeOutput(int i, Object out) throws IOException {
+        output.write(i, (O) out);
     }
 
     /**
-     * [worker process] Ends the input and output connections with the main process.
+     * [worker process] Creates the FrameWriter that sends outputs to the main process.
      *
-     * @throws IOException if the connections cannot be ended.
+     * @param out the socket stream
+     * @return a new FrameWriter for this worker's outputs
      */
     @Override
-    final void endConnections() throws IOException {
-        oos.close();
-        outputSocket.close();
-        ois.close();
-        inputSocket.close();
+    final FrameWriter<?> newFrameWriter(OutputStream out) {
+        output = new FrameWriter<>(outputSender, out);
+        return output;
     }
 
     /**
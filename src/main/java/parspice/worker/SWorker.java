@@ -2,10 +2,6 @@ package parspice.worker;
 
 import parspice.sender.Sender;
 
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.net.Socket;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -18,9 +14,6 @@ public abstract class SWorker<S> extends Worker {
 
     private final Sender<S> setupSender;
 
-    private Socket inputSocket;
-    private ObjectInputStream ois;
-
     public SWorker(Sender<S> setupSender) {
         this.setupSender = setupSender;
     }
@@ -29,7 +22,7 @@ public abstract class SWorker<S> extends Worker {
      * [main process] Initialize the job with the inputs it needs to run, including a
      * single input to be copied to the argument of each job's setup function.
      *
-     * @param numWorkers number of workers to use.
+     * @param numWorkers number of workers to use, or Job.AUTO to have ParSPICE pick it.
      * @param numTasks number of tasks to run.
      * @param setupInput setup input to give to each job's setup function.
      * @return an initialized Job, ready to run
@@ -39,10 +32,7 @@ public abstract class SWorker<S> extends Worker {
 
         job.numWorkers = numWorkers;
         job.numTasks = numTasks;
-        job.setupInputs = new ArrayList<S>(numWorkers);
-        for (int i = 0; i < numWorkers; i++) {
-            job.setupInputs.add(setupInput);
-        }
+        job.setupInputs = Job.copies(setupInput, numWorkers);
         job.setupSender = setupSender;
 
         job.validate();
@@ -80,45 +70,80 @@ public abstract class SWorker<S> extends Worker {
      */
     @Override
     final void setupWrapper() throws Exception {
-        setup(setupSender.read(ois));
+        setup(read(setupSender));
     }
 
     /**
-     * [worker process] Repeatedly reads an input from the stream and calls task.
+     * [worker process] Calls task.
      *
      * The user cannot call or override this function.
      *
+     * @param i the index of the task
      * @throws Exception any exception the user code needs to throw
      */
     @Override
-    final void taskWrapper() throws Exception {
-        for (int i = getStartIndex(); i < getStartIndex() + getTaskSubset(); i++) {
+    final void taskWrapper(int i) throws Exception {
+        try {
             task(i);
+        } catch (Exception e) {
+            taskFailed(i, e);
         }
     }
 
+
+    /**
+     * [in-process] Calls setup with the setup input.
+     *
+     * The user cannot call or override this function.
+     *
+     * @param setupInput the setup input
+     * @throws Exception any exception the user code needs to throw
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    final void setupDirect(Object setupInput) throws Exception {
+        setup((S) setupInput);
+    }
+
     /**
-     * [worker process] Starts the input socket connection with the main process.
+     * [in-process] Calls task.
      *
-     * @throws IOException if connection cannot be made
+     * The user cannot call or override this function.
+     *
+     * @param i the index of the task
+     * @param input the task's input (always null)
+     * @return null
+     * @throws Exception any exception the user code needs to throw
      */
     @Override
-    final void startConnections() throws IOException {
-        inputSocket = new Socket("localhost", getInputPort());
-        ois = new ObjectInputStream(inputSocket.getInputStream());
+    final Object taskDirect(int i, Object input) throws Exception {
+        task(i);
+        return null;
     }
 
     /**
-     * [worker process] Ends the input socket connection with the main process.
+     * [worker process] Does nothing, since this worker's tasks take no inputs.
      *
-     * @throws IOException if the connection cannot be ended.
+     * The user cannot call or override this function.
+     *
+     * @return null
      */
     @Override
-    final void endConnections() throws IOException {
-        ois.close();
-        inputSocket.close();
+    final Object readInput() {
+        return null;
     }
 
+    /**
+     * [worker process] Does nothing, since this worker's tasks return no outputs.
+     *
+     * The user cannot call or override this function.
+     *
+     * @param i the index of the task
+     * @param out null
+     */
+    @Override
+    final void writeOutput(int i, Object out) {}
+
     /**
      * [worker] Called once on each worker when the job starts running.
      *
@@ -0,0 +1,900 @@
+package parspice.worker;
+
+import parspice.Metrics;
+import parspice.io.WorkerListener;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+/**
+ * Decides which worker runs which tasks during a job run, and keeps track of
+ * which tasks are complete.
+ *
+ * Each worker starts with an almost-equal range of tasks, as given by
+ * Job.taskSubset. Workers report their progress with heartbeats while they run.
+ * If speculation is on, when a worker runs out of work while another is falling
+ * behind, the straggler's unfinished tasks are speculatively re-run on the idle
+ * worker. The first output received for each task is the one kept, and once a
+ * range is complete, whichever worker is still running it is killed.
+ *
+ * If a worker fails, the tasks it had not completed are queued up again, and
+ * given to the next worker that is idle; usually the replacement worker started
+ * by JobRun, but any healthy worker that finishes its own tasks first will do.
+ *
+ * Tasks only ever move between workers with the same setup input, since a task
+ * run after another setup may give a different output. Workers are grouped by
+ * setup input (see Job.setupGroups); speculative copies and unfinished tasks
+ * only go to workers of the same group, and a replacement worker is in the
+ * group of the worker it replaces. If the workers don't all have the same
+ * setup input, each also starts with exactly its share of the tasks, even if
+ * some of them were preloaded.
+ *
+ * If a task runs longer than the task timeout, it is recorded as timed out
+ * (with a null output), and its worker is killed and treated like a failed
+ * one. JobRun collects these with pollHung to start replacements.
+ *
+ * When errors are captured, a task that throws is complete, with a null output
+ * and a TaskFailure. Like outputs, the first result received for a task wins,
+ * so a failure is ignored if a speculative copy of the task has already succeeded.
+ *
+ * When crashes are isolated, a worker that dies partway through a range
+ * (after it has finished setup, as shown by its heartbeats) is assumed to have
+ * been killed by one of the range's tasks, from the last one it reported
+ * running onwards. Those tasks are split in half, and each half is queued up
+ * again as a suspect range; suspect ranges that crash are split again, until a
+ * single task is left, which is quarantined as a TaskFailure. Suspect ranges
+ * are never speculated, since a copy would only crash another worker.
+ *
+ * Workers are identified by their connection ID, so a replacement worker is
+ * tracked separately from the worker it replaces.
+ *
+ * All methods are synchronized; they are called from the IOManager's thread
+ * (or the thread running the worker in the main process) and from the thread
+ * monitoring the job.
+ *
+ * @param <O> Type for task outputs (Void if none)
+ */
+class Scheduler<O> implements WorkerListener<O> {
+
+    /**
+     * A straggler's tasks are re-run on an idle worker if the straggler is
+     * expected to take this many times longer to finish them.
+     */
+    private static final double SPECULATION_RATIO = 2.0;
+
+    /**
+     * How long a worker must have been running a range before it can be
+     * judged a straggler, in nanoseconds. Covers a few heartbeats.
+     */
+    private static final long MIN_SPECULATION_AGE = 500_000_000L;
+
+    /**
+     * Where the Scheduler sends its commands: the IOManager, or the worker
+     * running in the main process (see InProcessWorker).
+     */
+    interface Commands {
+
+        /**
+         * Tells a worker to run a range of tasks.
+         *
+         * @param workerID the connection ID of the worker
+         * @param seq the sequence number of the range
+         * @param start the index of the first task
+         * @param count the number of tasks
+         */
+        void sendRange(int workerID, int seq, int start, int count);
+
+        /**
+         * Tells a worker to stop once it has finished its ranges.
+         *
+         * @param workerID the connection ID of the worker
+         */
+        void sendStop(int workerID);
+    }
+
+    /**
+     * A range of tasks sent to a worker.
+     */
+    private static class Range {
+        final int seq;
+        final int start;
+        final int end;
+
+        /**
+         * The index of the task the worker is running, as of its last heartbeat.
+         */
+        int next;
+
+        /**
+         * The tasks in [start, delivered) have had their outputs (or failures) sent by
+         * this worker, rather than a speculative copy.
+         */
+        int delivered;
+
+        /**
+         * When the worker started on the range, or 0 if it is still queued behind another.
+         */
+        long started = 0;
+
+        /**
+         * When the heartbeats first reported the task at next, or 0 if none has been
+         * received for this range yet.
+         */
+        long taskStarted = 0;
+
+        /**
+         * Whether the range is a speculative copy, or has one running.
+         * Ranges are only copied once.
+         */
+        boolean speculated;
+
+        /**
+         * Whether the range may hold a task that crashes workers.
+         */
+        final boolean suspect;
+
+        Range(int seq, int start, int end, boolean speculated, boolean suspect) {
+            this.seq = seq;
+            this.start = start;
+            this.end = end;
+            this.next = start;
+            this.delivered = start;
+            this.speculated = speculated;
+            this.suspect = suspect;
+        }
+    }
+
+    private static class WorkerState {
+        final ArrayDeque<Range> ranges = new ArrayDeque<>();
+
+        /**
+         * The group of workers with the same setup input that this worker is in.
+         */
+        final int group;
+
+        int nextSeq = 0;
+        boolean killed = false;
+        boolean failed = false;
+        boolean stopped = false;
+
+        /**
+         * Whether the worker has sent a heartbeat, which it only does once setup is done.
+         */
+        boolean reported = false;
+
+        /**
+         * Time spent on finished ranges, in nanoseconds, and the number of tasks in them.
+         */
+        long busyTime = 0;
+        long tasksRun = 0;
+
+        /**
+         * Tasks this worker was first to complete.
+         */
+        int tasksCompleted = 0;
+
+        /**
+         * The latest measurements the worker sent, or null.
+         */
+        long[] stats;
+
+        WorkerState(int group) {
+            this.group = group;
+        }
+
+        boolean isActive() {
+            return !killed && !failed;
+        }
+
+        boolean isIdle() {
+            return isActive() && !stopped && ranges.isEmpty();
+        }
+    }
+
+    private final int numTasks;
+    private final boolean hasOutputs;
+    private final boolean speculative;
+    private final boolean captureErrors;
+    private final boolean isolateCrashes;
+    private final int numWorkers;
+
+    /**
+     * The group of each original worker, or null if they all have the same setup input.
+     */
+    private final int[] groups;
+
+    /**
+     * The task timeout in nanoseconds, or 0 for none.
+     */
+    private final long taskTimeout;
+
+    /**
+     * State of each worker, indexed by connection ID. The original workers are
+     * tracked from the start, and replacements from when they are added, before
+     * their processes start, so every frame a worker sends finds its state.
+     */
+    private final ArrayList<WorkerState> workers = new ArrayList<>();
+
+    /**
+     * Ranges of tasks left unfinished by failed workers, as {start, end, suspect, group},
+     * where suspect is 1 if the range may hold a task that crashes workers, and group
+     * is the group of the workers that can run it.
+     */
+    private final ArrayDeque<int[]> pending = new ArrayDeque<>();
+
+    /**
+     * Workers killed because a task timed out, as {connection ID, task index},
+     * waiting to be replaced.
+     */
+    private final ArrayDeque<int[]> hung = new ArrayDeque<>();
+
+    private final BitSet timedOut = new BitSet();
+
+    private final List<TaskFailure> failures = new ArrayList<>();
+
+    private final Results<O> results;
+    private final BitSet completed;
+    private int numCompleted = 0;
+
+    /**
+     * Tasks marked complete by preload, before the job started.
+     */
+    private int numPreloaded = 0;
+    private boolean finished = false;
+
+    private Commands commands;
+    private IntConsumer killer;
+
+    /**
+     * @param numTasks number of tasks in the job
+     * @param numWorkers number of workers in the job
+     * @param groups the group of each worker, as given by Job.setupGroups, or null if
+     *               they all have the same setup input
+     * @param hasOutputs whether the tasks return outputs
+     * @param speculative whether to re-run the tasks of stragglers on idle workers
+     * @param taskTimeout how long a task can run before it is timed out, in ms, or 0 for no limit
+     * @param captureErrors whether tasks that throw or time out are recorded as failures,
+     *                      rather than stopping the job
+     * @param isolateCrashes whether to track down and quarantine the tasks that crash workers
+     */
+    Scheduler(int numTasks, int numWorkers, int[] groups, boolean hasOutputs, boolean speculative, long taskTimeout,
+              boolean captureErrors, boolean isolateCrashes) {
+        this.numTasks = numTasks;
+        this.numWorkers = numWorkers;
+        this.groups = groups;
+        this.hasOutputs = hasOutputs;
+        this.speculative = speculative;
+        this.taskTimeout = TimeUnit.MILLISECONDS.toNanos(taskTimeout);
+        this.captureErrors = captureErrors;
+        this.isolateCrashes = isolateCrashes;
+        if (hasOutputs) {
+            results = new Results<>(numTasks);
+            results.addAll(Collections.nCopies(numTasks, (O) null));
+        } else {
+            results = null;
+        }
+        this.completed = new BitSet(numTasks);
+        for (int i = 0; i < numWorkers; i++) {
+            workers.add(new WorkerState(group(i)));
+        }
+    }
+
+    /**
+     * Marks tasks as complete before the job starts, with outputs from a checkpoint
+     * or a ResultCache. Tasks that are already complete are left as they are.
+     *
+     * @param done the tasks to mark as complete
+     * @param outputs the outputs of all tasks, only read for the tasks in done
+     */
+    synchronized void preload(BitSet done, List<O> outputs) {
+        for (int i = done.nextSetBit(0); i >= 0; i = done.nextSetBit(i + 1)) {
+            if (completed.get(i)) {
+                continue;
+            }
+            results.set(i, outputs.get(i));
+            completed.set(i);
+            numCompleted++;
+            numPreloaded++;
+        }
+    }
+
+    /**
+     * Sends each of the original workers its initial share of the tasks. The tasks
+     * not yet complete are split evenly, as given by Job.taskSubset; if some were
+     * preloaded, a worker's share may be split into several ranges. If the workers
+     * have different setup inputs, each is given the tasks not yet complete in the
+     * share Job.taskSubset gives it of all the tasks instead, as in a run with
+     * nothing preloaded.
+     *
+     * The ranges are queued up to be sent once each worker connects, so this
+     * should be called before the worker processes are started.
+     *
+     * @param commands where to send commands to the workers
+     * @param killer called with a worker ID to kill a worker that lost a speculative race
+     */
+    synchronized void start(Commands commands, IntConsumer killer) {
+        this.commands = commands;
+        this.killer = killer;
+        if (groups != null) {
+            int start = 0;
+            for (int i = 0; i < numWorkers; i++) {
+                int end = start + Job.taskSubset(numTasks, numWorkers, i);
+                for (int first = completed.nextClearBit(start); first < end; ) {
+                    int last = completed.nextSetBit(first);
+                    if (last == -1 || last > end) {
+                        last = end;
+                    }
+                    assign(i, first, last - first, false, false);
+                    first = completed.nextClearBit(last);
+                }
+                start = end;
+            }
+            return;
+        }
+        int task = completed.nextClearBit(0);
+        for (int i = 0; i < numWorkers; i++) {
+            int taskSubset = Job.taskSubset(numTasks - numCompleted, numWorkers, i);
+            while (taskSubset > 0) {
+                int end = completed.nextSetBit(task);
+                int count = Math.min(taskSubset, (end == -1 ? numTasks : end) - task);
+                assign(i, task, count, false, false);
+                taskSubset -= count;
+                task = completed.nextClearBit(task + count);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void outputs(int workerID, int firstIndex, List<O> outputs) {
+        WorkerState worker = workers.get(workerID);
+        deliver(worker, firstIndex, firstIndex + outputs.size());
+        int count = 0;
+        for (int i = 0; i < outputs.size(); i++) {
+            int index = firstIndex + i;
+            if (!completed.get(index)) {
+                results.set(index, outputs.get(i));
+                completed.set(index);
+                numCompleted++;
+                count++;
+            }
+        }
+        credit(worker, count);
+    }
+
+    @Override
+    public synchronized void progress(int workerID, int seq, int index) {
+        WorkerState worker = workers.get(workerID);
+        worker.reported = true;
+        Range range = worker.ranges.peek();
+        if (range == null || range.seq != seq || index < range.next) {
+            return;
+        }
+        if (index > range.next || range.taskStarted == 0) {
+            range.taskStarted = System.nanoTime();
+        }
+        range.next = index;
+        if (!hasOutputs) {
+            // Without outputs, a heartbeat is the only sign a task has finished.
+            deliver(worker, range.start, index);
+            credit(worker, complete(range.start, index));
+        }
+    }
+
+    @Override
+    public synchronized void done(int workerID, int seq) {
+        WorkerState worker = workers.get(workerID);
+        Range range = worker.ranges.peek();
+        if (range == null || range.seq != seq) {
+            return;
+        }
+        worker.ranges.poll();
+        long now = System.nanoTime();
+        worker.busyTime += now - range.started;
+        worker.tasksRun += range.end - range.start;
+        if (!hasOutputs) {
+            credit(worker, complete(range.start, range.end));
+        }
+        Range next = worker.ranges.peek();
+        if (next != null) {
+            next.started = now;
+        }
+        if (finished) {
+            finish(workerID);
+            return;
+        }
+        update();
+    }
+
+    @Override
+    public synchronized void failure(int workerID, int index, String exceptionClass, String message) {
+        deliver(workers.get(workerID), index, index + 1);
+        if (!completed.get(index)) {
+            failures.add(new TaskFailure(index, exceptionClass, message));
+            credit(workers.get(workerID), complete(index, index + 1));
+        }
+    }
+
+    @Override
+    public synchronized void stats(int workerID, long[] values) {
+        workers.get(workerID).stats = values;
+    }
+
+    /**
+     * Starts tracking a worker that replaces a failed one. It is given
+     * work once it is idle. Like start, this should be called before the
+     * worker's process is started.
+     *
+     * @param workerID the connection ID of the new worker
+     * @param replaced the ID of the original worker it replaces, which decides its group
+     */
+    synchronized void addWorker(int workerID, int replaced) {
+        while (workers.size() <= workerID) {
+            workers.add(null);
+        }
+        WorkerState worker = new WorkerState(group(replaced));
+        workers.set(workerID, worker);
+        if (finished) {
+            // The job finished while the worker was starting.
+            worker.stopped = true;
+            commands.sendStop(workerID);
+        }
+        update();
+    }
+
+    /**
+     * Stops giving work to a failed worker, and queues up the tasks it
+     * had not completed to be run by another.
+     *
+     * If crashes are isolated and the worker was running a range, the failure
+     * is blamed on the range's tasks, which are split up to find the one
+     * responsible (see the class description).
+     *
+     * @param workerID the connection ID of the failed worker
+     * @param reason how the failure was detected, recorded if a task is quarantined
+     * @return true if the failure was blamed on the worker's tasks
+     */
+    synchronized boolean fail(int workerID, String reason) {
+        WorkerState worker = workers.get(workerID);
+        worker.failed = true;
+        Range range = worker.ranges.peek();
+        boolean blamed = isolateCrashes && worker.reported && range != null;
+        if (blamed) {
+            worker.ranges.poll();
+            // Every task before the one last reported running finished without crashing.
+            int suspectStart = range.taskStarted == 0 ? range.start : Math.max(range.next, range.start);
+            requeue(range.start, suspectStart, false, worker.group);
+            isolate(suspectStart, range.end, reason, worker.group);
+        }
+        requeue(worker);
+        update();
+        return blamed;
+    }
+
+    /**
+     * Stops or kills workers that have nothing left to do, times out hung tasks,
+     * hands out the tasks of failed workers, and starts speculative copies of
+     * straggling ranges on idle workers. Called after every finished range,
+     * and periodically while the job runs.
+     */
+    synchronized void update() {
+        if (finished) {
+            return;
+        }
+        if (taskTimeout > 0) {
+            timeOutHungTasks(System.nanoTime());
+        }
+        if (numCompleted == numTasks) {
+            finished = true;
+            for (int i = 0; i < workers.size(); i++) {
+                finish(i);
+            }
+            pending.clear();
+            return;
+        }
+        for (int i = 0; i < workers.size(); i++) {
+            WorkerState worker = workers.get(i);
+            if (worker != null && worker.isActive() && !worker.ranges.isEmpty() && !hasIncomplete(worker)
+                    && worker.ranges.peek().delivered < worker.ranges.peek().end) {
+                // Another worker finished all of this one's tasks first. A worker that sent
+                // every output itself is left alone; its DONE is on the way.
+                kill(i);
+            }
+        }
+        for (int i = 0; i < workers.size() && !pending.isEmpty(); i++) {
+            WorkerState worker = workers.get(i);
+            if (worker == null || !worker.isIdle()) {
+                continue;
+            }
+            for (Iterator<int[]> it = pending.iterator(); it.hasNext(); ) {
+                int[] range = it.next();
+                if (range[3] != worker.group) {
+                    continue;
+                }
+                it.remove();
+                int start = completed.nextClearBit(range[0]);
+                if (start < range[1]) {
+                    assign(i, start, range[1] - start, false, range[2] == 1);
+                    break;
+                }
+            }
+        }
+        if (speculative) {
+            long now = System.nanoTime();
+            for (int i = 0; i < workers.size(); i++) {
+                if (workers.get(i) != null && workers.get(i).isIdle()) {
+                    speculate(i, now);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true once every task has completed
+     */
+    synchronized boolean isComplete() {
+        return numCompleted == numTasks;
+    }
+
+    /**
+     * @return the outputs of all tasks in order, along with the failures, or null if the tasks have no outputs
+     */
+    synchronized Results<O> getResults() {
+        if (results != null) {
+            results.setFailures(getFailures());
+        }
+        return results;
+    }
+
+    /**
+     * @return the number of tasks that have completed, including any that failed
+     */
+    synchronized int getNumCompleted() {
+        return numCompleted;
+    }
+
+    /**
+     * @return the number of tasks marked complete by preload, rather than run by this job
+     */
+    synchronized int getNumPreloaded() {
+        return numPreloaded;
+    }
+
+    /**
+     * The number of tasks each worker was first to complete, including tasks
+     * that failed while errors were captured.
+     *
+     * @return the counts, indexed by connection ID
+     */
+    synchronized int[] getTasksCompleted() {
+        int[] counts = new int[workers.size()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = workers.get(i) == null ? 0 : workers.get(i).tasksCompleted;
+        }
+        return counts;
+    }
+
+    /**
+     * @param workerID the connection ID of the worker
+     * @return the latest measurements the worker sent, or null if it
+     *         hasn't sent any (see WorkerStats)
+     */
+    synchronized long[] getWorkerStats(int workerID) {
+        return workerID < workers.size() && workers.get(workerID) != null ? workers.get(workerID).stats : null;
+    }
+
+    /**
+     * The tasks that have completed with an output. Their outputs are all
+     * in getResults by the time this returns.
+     *
+     * @return a copy of the set of task indices
+     */
+    synchronized BitSet getSucceeded() {
+        BitSet succeeded = (BitSet) completed.clone();
+        succeeded.andNot(timedOut);
+        for (TaskFailure failure : failures) {
+            succeeded.clear(failure.getIndex());
+        }
+        return succeeded;
+    }
+
+    /**
+     * @return a copy of the outputs received so far, with null for tasks not yet complete
+     */
+    synchronized List<O> copyResults() {
+        return new ArrayList<>(results);
+    }
+
+    /**
+     * @return the tasks that failed while errors were captured, ordered by task index
+     */
+    synchronized List<TaskFailure> getFailures() {
+        List<TaskFailure> sorted = new ArrayList<>(failures);
+        sorted.sort(Comparator.comparingInt(TaskFailure::getIndex));
+        return sorted;
+    }
+
+    /**
+     * Takes the next worker that was killed because a task timed out.
+     *
+     * @return {connection ID, task index} of the hung worker, or null if there are none
+     */
+    synchronized int[] pollHung() {
+        return hung.poll();
+    }
+
+    /**
+     * @return the indices of the tasks that timed out, in order
+     */
+    synchronized List<Integer> getTimedOut() {
+        List<Integer> indices = new ArrayList<>(timedOut.cardinality());
+        for (int i = timedOut.nextSetBit(0); i >= 0; i = timedOut.nextSetBit(i + 1)) {
+            indices.add(i);
+        }
+        return indices;
+    }
+
+    /**
+     * Whether a worker has been started, and has not been killed (because another
+     * worker finished its tasks first) or failed.
+     *
+     * @param workerID the connection ID of the worker
+     * @return true if the worker should still be running
+     */
+    synchronized boolean isActive(int workerID) {
+        return workerID < workers.size() && workers.get(workerID) != null && workers.get(workerID).isActive();
+    }
+
+    /**
+     * Kills every worker that has been running the same task for longer than the
+     * task timeout. The task is recorded as timed out, and the worker's other
+     * unfinished tasks are queued up again, as if it had failed.
+     */
+    private void timeOutHungTasks(long now) {
+        for (int i = 0; i < workers.size(); i++) {
+            WorkerState worker = workers.get(i);
+            if (worker == null || !worker.isActive()) {
+                continue;
+            }
+            Range range = worker.ranges.peek();
+            if (range == null || range.taskStarted == 0 || range.next >= range.end
+                    || now - range.taskStarted < taskTimeout) {
+                continue;
+            }
+            // If a speculative copy already got past this task, only the worker is stuck.
+            if (!completed.get(range.next)) {
+                if (captureErrors) {
+                    failures.add(new TaskFailure(range.next, TaskTimeoutException.class.getName(),
+                            "ran longer than the task timeout of "
+                                    + TimeUnit.NANOSECONDS.toMillis(taskTimeout) + " ms"));
+                } else {
+                    timedOut.set(range.next);
+                }
+                complete(range.next, range.next + 1);
+            }
+            hung.add(new int[]{i, range.next});
+            worker.failed = true;
+            requeue(worker);
+            killer.accept(i);
+        }
+    }
+
+    /**
+     * Queues up the tasks a worker had not completed, to be run by another,
+     * and takes its ranges away.
+     */
+    private void requeue(WorkerState worker) {
+        for (Range range : worker.ranges) {
+            requeue(range.start, range.end, range.suspect, worker.group);
+        }
+        worker.ranges.clear();
+    }
+
+    /**
+     * Queues up the tasks in [start, end) that have not completed, for the workers of a group.
+     */
+    private void requeue(int start, int end, boolean suspect, int group) {
+        int first = completed.nextClearBit(start);
+        while (first < end) {
+            int last = completed.nextSetBit(first);
+            if (last == -1 || last > end) {
+                last = end;
+            }
+            pending.add(new int[]{first, last, suspect ? 1 : 0, group});
+            first = completed.nextClearBit(last);
+        }
+    }
+
+    /**
+     * Handles tasks that are suspected of crashing a worker: a single task
+     * is quarantined, and more are split in half to be run separately.
+     */
+    private void isolate(int start, int end, String reason, int group) {
+        int first = completed.nextClearBit(start);
+        if (first >= end) {
+            return;
+        }
+        int last = completed.previousClearBit(end - 1);
+        if (first == last) {
+            failures.add(new TaskFailure(first, WorkerFailedException.class.getName(),
+                    "crashed its worker (" + reason + ")"));
+            complete(first, first + 1);
+            return;
+        }
+        int mid = first + (last + 1 - first) / 2;
+        requeue(first, mid, true, group);
+        requeue(mid, last + 1, true, group);
+    }
+
+    /**
+     * Looks for the straggling range of a worker in the same group that would gain
+     * the most from being re-run on an idle worker, and if there is one, sends it
+     * the range's unfinished tasks.
+     */
+    private void speculate(int idleID, long now) {
+        WorkerState idle = workers.get(idleID);
+        double taskTime = meanTaskTime(idle);
+        if (taskTime <= 0) {
+            return;
+        }
+        Range best = null;
+        int bestFirst = 0;
+        double bestTime = 0;
+        for (WorkerState worker : workers) {
+            if (worker == null || worker.group != idle.group) {
+                continue;
+            }
+            Range range = worker.ranges.peek();
+            if (!worker.isActive() || range == null || range.speculated || range.started == 0) {
+                continue;
+            }
+            long age = now - range.started;
+            if (age < MIN_SPECULATION_AGE) {
+                continue;
+            }
+            int first = completed.nextClearBit(range.start);
+            if (first >= range.end) {
+                continue;
+            }
+            int remaining = range.end - first - completed.get(first, range.end).cardinality();
+            // The straggler has been on its current task for part of its age, so this
+            // keeps growing even if it stops making progress altogether.
+            double stragglerTime = remaining * (double) age / Math.max(range.next - range.start, 1);
+            double backupTime = remaining * taskTime;
+            if (stragglerTime > SPECULATION_RATIO * backupTime && stragglerTime > bestTime) {
+                best = range;
+                bestFirst = first;
+                bestTime = stragglerTime;
+            }
+        }
+        if (best != null) {
+            best.speculated = true;
+            assign(idleID, bestFirst, best.end - bestFirst, true, false);
+        }
+    }
+
+    /**
+     * The mean time a worker took per task, falling back to the mean over all workers
+     * if it hasn't finished any tasks itself.
+     *
+     * @return the mean time per task in nanoseconds, or 0 if unknown
+     */
+    private double meanTaskTime(WorkerState worker) {
+        if (worker.tasksRun > 0) {
+            return worker.busyTime / (double) worker.tasksRun;
+        }
+        long busyTime = 0;
+        long tasksRun = 0;
+        for (WorkerState other : workers) {
+            if (other == null) {
+                continue;
+            }
+            busyTime += other.busyTime;
+            tasksRun += other.tasksRun;
+        }
+        return tasksRun > 0 ? busyTime / (double) tasksRun : 0;
+    }
+
+    /**
+     * @param workerID the ID of an original worker
+     * @return the group of the worker
+     */
+    private int group(int workerID) {
+        return groups == null ? 0 : groups[workerID];
+    }
+
+    private void assign(int workerID, int start, int count, boolean speculated, boolean suspect) {
+        WorkerState worker = workers.get(workerID);
+        Range range = new Range(worker.nextSeq++, start, start + count, speculated || suspect, suspect);
+        if (worker.ranges.isEmpty()) {
+            range.started = System.nanoTime();
+        }
+        worker.ranges.add(range);
+        commands.sendRange(workerID, range.seq, start, count);
+    }
+
+    /**
+     * Records that a worker has sent the results of the tasks in [start, end),
+     * if they continue on from what it has sent for its current range.
+     */
+    private void deliver(WorkerState worker, int start, int end) {
+        Range range = worker.ranges.peek();
+        if (range != null && start <= range.delivered && end > range.delivered) {
+            range.delivered = Math.min(end, range.end);
+        }
+    }
+
+    /**
+     * Once every task is complete, stops a worker that is idle, and kills one
+     * that is running tasks another worker finished. A worker that delivered
+     * every task it was given itself is left to be stopped when its DONE
+     * arrives, so its last report isn't lost.
+     */
+    private void finish(int workerID) {
+        WorkerState worker = workers.get(workerID);
+        if (worker == null || !worker.isActive() || worker.stopped) {
+            return;
+        }
+        if (worker.isIdle()) {
+            worker.stopped = true;
+            commands.sendStop(workerID);
+        } else if (!isDelivered(worker)) {
+            kill(workerID);
+        }
+    }
+
+    private boolean isDelivered(WorkerState worker) {
+        for (Range range : worker.ranges) {
+            if (range.delivered < range.end) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean hasIncomplete(WorkerState worker) {
+        for (Range range : worker.ranges) {
+            if (completed.nextClearBit(range.start) < range.end) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Marks the tasks in [start, end) as complete.
+     *
+     * @return the number of tasks that weren't complete already
+     */
+    private int complete(int start, int end) {
+        int count = 0;
+        for (int i = completed.nextClearBit(start); i < end; i = completed.nextClearBit(i + 1)) {
+            completed.set(i);
+            count++;
+        }
+        numCompleted += count;
+        return count;
+    }
+
+    /**
+     * Credits a worker with completing tasks first.
+     */
+    private static void credit(WorkerState worker, int count) {
+        if (count > 0) {
+            worker.tasksCompleted += count;
+            Metrics.get().tasksCompleted(count);
+        }
+    }
+
+    private void kill(int workerID) {
+        workers.get(workerID).killed = true;
+        workers.get(workerID).ranges.clear();
+        killer.accept(workerID);
+    }
+}
@@ -0,0 +1,53 @@
+package parspice.worker;
+
+import java.util.List;
+
+/**
+ * Thrown on the main process at the end of a job with no outputs, if any
+ * tasks failed while errors were captured (see VoidJob.captureErrors).
+ *
+ * Every other task has been run by the time this is thrown. Jobs with
+ * outputs return their failures with the outputs instead; see Results.
+ */
+public class TaskFailedException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The most failures listed in the exception message.
+     */
+    private static final int MAX_LISTED = 10;
+
+    private final List<TaskFailure> failures;
+
+    /**
+     * Creates a new TaskFailedException.
+     *
+     * @param failures the tasks that failed, ordered by task index
+     */
+    TaskFailedException(List<TaskFailure> failures) {
+        super(message(failures));
+        this.failures = failures;
+    }
+
+    /**
+     * The tasks that threw an exception (or timed out).
+     *
+     * @return the failures, ordered by task index
+     */
+    public List<TaskFailure> getFailures() {
+        return failures;
+    }
+
+    private static String message(List<TaskFailure> failures) {
+        StringBuilder message = new StringBuilder();
+        message.append(failures.size()).append(failures.size() == 1 ? " task" : " tasks").append(" failed:");
+        for (TaskFailure failure : failures.subList(0, Math.min(failures.size(), MAX_LISTED))) {
+            message.append("\n  ").append(failure);
+        }
+        if (failures.size() > MAX_LISTED) {
+            message.append("\n  ... and ").append(failures.size() - MAX_LISTED).append(" more");
+        }
+        return message.toString();
+    }
+}
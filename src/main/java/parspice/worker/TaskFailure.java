@@ -0,0 +1,54 @@
+package parspice.worker;
+
+/**
+ * The record of a task that threw an exception, when errors are captured
+ * instead of stopping the job (see OJob.captureErrors).
+ *
+ * Only the class name and message of the exception are sent back from the
+ * worker, since the exception itself may not be serializable.
+ */
+public class TaskFailure {
+
+    private final int index;
+    private final String exceptionClass;
+    private final String message;
+
+    /**
+     * Creates a new TaskFailure.
+     *
+     * @param index the index of the task
+     * @param exceptionClass the full class name of the exception the task threw
+     * @param message the message of the exception, or null if it had none
+     */
+    TaskFailure(int index, String exceptionClass, String message) {
+        this.index = index;
+        this.exceptionClass = exceptionClass;
+        this.message = message;
+    }
+
+    /**
+     * @return the index of the task that failed
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the full class name of the exception the task threw
+     */
+    public String getExceptionClass() {
+        return exceptionClass;
+    }
+
+    /**
+     * @return the message of the exception, or null if it had none
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return "task " + index + ": " + exceptionClass + (message == null ? "" : ": " + message);
+    }
+}
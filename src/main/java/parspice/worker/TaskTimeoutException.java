@@ -0,0 +1,52 @@
+package parspice.worker;
+
+import java.util.List;
+
+/**
+ * Thrown on the main process when one or more tasks ran longer than the
+ * task timeout (see OJob.taskTimeout).
+ *
+ * The job still runs every other task before this is thrown, so the outputs
+ * of the rest of the job are not lost; they are carried in this exception,
+ * with null in place of each timed out task's output.
+ */
+public class TaskTimeoutException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<Integer> indices;
+    private final List<?> outputs;
+
+    /**
+     * Creates a new TaskTimeoutException.
+     *
+     * @param indices the indices of the tasks that timed out, in order
+     * @param timeout the task timeout in ms
+     * @param outputs the outputs of all tasks, or null if the job has no outputs
+     */
+    TaskTimeoutException(List<Integer> indices, long timeout, List<?> outputs) {
+        super(indices.size() + (indices.size() == 1 ? " task" : " tasks")
+                + " ran longer than the task timeout of " + timeout + " ms: " + indices);
+        this.indices = indices;
+        this.outputs = outputs;
+    }
+
+    /**
+     * The indices of the tasks that timed out.
+     *
+     * @return the task indices, in order
+     */
+    public List<Integer> getIndices() {
+        return indices;
+    }
+
+    /**
+     * The outputs of all the tasks in the job, in order, with null for the
+     * tasks that timed out.
+     *
+     * @return the outputs, or null if the job has no outputs
+     */
+    public List<?> getOutputs() {
+        return outputs;
+    }
+}
@@ -2,6 +2,9 @@ package parspice.worker;
 
 import parspice.ParSPICE;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
 /**
  * Jobs that do not produce output. The user can only get an instance of VoidJob
  * by calling init on a Worker that doesn't produce output.
@@ -14,6 +17,139 @@ public class VoidJob<S,I> extends Job<S,I,Void> {
         super(worker);
     }
 
+    @Override
+    VoidJob<S,I> newJob() {
+        return new VoidJob<>(getWorker());
+    }
+
+    /**
+     * Reports the job's progress to a listener once a second while it runs,
+     * and once more when all its tasks are complete.
+     *
+     * @param listener the listener to report to
+     * @return this job
+     */
+    public VoidJob<S,I> onProgress(ProgressListener listener) {
+        return onProgress(listener, DEFAULT_PROGRESS_INTERVAL);
+    }
+
+    /**
+     * Reports the job's progress to a listener periodically while it runs,
+     * and once more when all its tasks are complete. Each report gives the
+     * number of tasks completed by each worker, the throughput, and an
+     * estimate of the time remaining; see JobProgress.
+     *
+     * @param listener the listener to report to
+     * @param interval how often to report, in ms
+     * @return this job
+     */
+    public VoidJob<S,I> onProgress(ProgressListener listener, long interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Progress interval must be positive, was " + interval);
+        }
+        progressListener = listener;
+        progressInterval = interval;
+        return this;
+    }
+
+    /**
+     * Writes the timeline of the run to a file when it ends, however it ends,
+     * as a Chrome trace; see JobStats.writeTrace. If the file can't be
+     * written, the error is printed, and the run goes on as usual.
+     *
+     * @param file the file to write
+     * @return this job
+     */
+    public VoidJob<S,I> trace(String file) {
+        traceFile = file;
+        return this;
+    }
+
+    /**
+     * Captures exceptions thrown by tasks, instead of stopping the job.
+     *
+     * A task that throws (or times out, see taskTimeout) is recorded as a
+     * TaskFailure, holding the exception's class name and message, and its
+     * worker carries on with the next task. Once every task has run, the
+     * job throws a TaskFailedException holding the failures.
+     *
+     * Exceptions thrown by setup, or by a Sender, still stop the worker.
+     *
+     * @return this job
+     */
+    public VoidJob<S,I> captureErrors() {
+        captureErrors = true;
+        return this;
+    }
+
+    /**
+     * Sets how many worker failures the job recovers from before giving up.
+     * By default jobs don't retry, and the first failure stops the job.
+     *
+     * When a worker fails, a replacement worker is started, and the tasks the
+     * failed worker had not completed are run again. Outputs that were already
+     * received are kept. Once the job has used up its retries, the next failure
+     * stops it with a WorkerFailedException.
+     *
+     * Retries are meant for workers that crash or lose their connection. A task
+     * that throws the same exception every time fails each replacement too, so
+     * use captureErrors for those instead.
+     *
+     * @param maxRetries the number of retries; 0 to fail on the first error
+     * @return this job
+     */
+    public VoidJob<S,I> maxRetries(int maxRetries) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("Max retries cannot be negative, was " + maxRetries);
+        }
+        this.maxRetries = maxRetries;
+        return this;
+    }
+
+    /**
+     * Sets how long a single task can run before it is given up on.
+     *
+     * A task that runs longer than this is recorded as timed out, its worker
+     * is killed and replaced, and the rest of the worker's tasks are run as
+     * normal. Restarts for timeouts don't count against the retry limit. Once
+     * all the other tasks are done, the job throws a TaskTimeoutException
+     * holding their outputs.
+     *
+     * The timeout is checked against the heartbeats sent by the workers,
+     * so it is only accurate to about a tenth of a second. Jobs run in the
+     * main process (see parspice.ExecutionMode) have no timeout.
+     *
+     * @param taskTimeout the timeout in ms; 0 for no limit (the default)
+     * @return this job
+     */
+    public VoidJob<S,I> taskTimeout(int taskTimeout) {
+        if (taskTimeout < 0) {
+            throw new IllegalArgumentException("Task timeout cannot be negative, was " + taskTimeout);
+        }
+        this.taskTimeout = taskTimeout;
+        return this;
+    }
+
+    /**
+     * Tracks down and quarantines tasks that crash their workers.
+     *
+     * Some failures, like a crash in native code, kill the worker's JVM outright,
+     * so the task can't be caught or even logged. With isolation on, when a worker
+     * dies partway through its tasks, the tasks it hadn't finished are re-run on
+     * replacement workers in smaller and smaller pieces, until the task that
+     * crashes is found. It is then recorded as a TaskFailure (as if errors were
+     * captured, see captureErrors), and the rest of the job carries on.
+     *
+     * Replacements started to isolate a crash don't count against the retry limit.
+     * Workers that fail before they finish setup are retried as usual.
+     *
+     * @return this job
+     */
+    public VoidJob<S,I> isolateCrashes() {
+        isolateCrashes = true;
+        return this;
+    }
+
     /**
      * Just calls Job.runCommon(par).
      *
@@ -23,4 +159,68 @@ public class VoidJob<S,I> extends Job<S,I,Void> {
     public void run(ParSPICE par) throws Exception {
         runCommon(par);
     }
+
+    /**
+     * Runs the job like run, and returns where the time went. Jobs with
+     * outputs attach their stats to the outputs instead (see Results.getJobStats).
+     *
+     * @param par instance of ParSPICE to use.
+     * @return the stats of the run.
+     * @throws Exception
+     */
+    public JobStats runForStats(ParSPICE par) throws Exception {
+        return runCommonForStats(par);
+    }
+
+    /**
+     * Starts the job on a new thread, returning a handle that can be used
+     * to wait for it or cancel it.
+     *
+     * @param par instance of ParSPICE to use.
+     * @return a handle on the running job.
+     */
+    public JobHandle<Void> start(ParSPICE par) {
+        return start(par, null);
+    }
+
+    /**
+     * Starts the job on a new thread, returning a handle that can be used
+     * to wait for it or cancel it. The job's IO loop is run on the given
+     * executor instead of a thread of its own.
+     *
+     * @param par instance of ParSPICE to use.
+     * @param ioExecutor executor to run the job's IO loop on. It occupies
+     *                   one of the executor's threads until the job finishes.
+     * @return a handle on the running job.
+     */
+    public JobHandle<Void> start(ParSPICE par, Executor ioExecutor) {
+        return startCommon(par, ioExecutor, outputs -> null);
+    }
+
+    /**
+     * Runs the job on a new thread, returning immediately.
+     *
+     * Cancelling the returned future kills the job's workers.
+     *
+     * @param par instance of ParSPICE to use.
+     * @return a future that completes when the job has finished.
+     */
+    public CompletableFuture<Void> runAsync(ParSPICE par) {
+        return start(par).getFuture();
+    }
+
+    /**
+     * Runs the job on a new thread, returning immediately. The job's IO loop
+     * is run on the given executor instead of a thread of its own.
+     *
+     * Cancelling the returned future kills the job's workers.
+     *
+     * @param par instance of ParSPICE to use.
+     * @param ioExecutor executor to run the job's IO loop on. It occupies
+     *                   one of the executor's threads until the job finishes.
+     * @return a future that completes when the job has finished.
+     */
+    public CompletableFuture<Void> runAsync(ParSPICE par, Executor ioExecutor) {
+        return start(par, ioExecutor).getFuture();
+    }
 }
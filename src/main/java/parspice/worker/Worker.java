@@ -1,8 +1,25 @@
 package parspice.worker;
 
+import parspice.io.FlightEvents;
+import parspice.io.FrameWriter;
+import parspice.io.IServer;
+import parspice.io.TimedInputStream;
+import parspice.io.Timeline;
+import parspice.sender.Sender;
+
 import java.io.FileWriter;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The superclass of all Workers.
@@ -12,6 +29,11 @@ import java.io.IOException;
  */
 public abstract class Worker {
 
+    /**
+     * How often the worker reports its progress to the main process, in ms.
+     */
+    private static final long HEARTBEAT_INTERVAL = 100;
+
     /**
      * Unique ID for the worker, in the range [0, numWorkers)
      */
@@ -28,49 +50,126 @@ public abstract class Worker {
     private int numTasks = 1;
 
     /**
-     * Port used to receive inputs.
+     * Port used to connect to the main process, for both inputs and outputs.
      */
-    private int inputPort = 0;
+    private int port = 0;
 
     /**
-     * Port used to send outputs.
+     * Identifies this worker's connection to the main process. The same as workerID,
+     * except for workers started to replace ones that failed.
      */
-    private int outputPort = 1;
+    private int connectionID = 0;
 
     /**
-     * Iteration index that this worker starts at.
+     * Whether exceptions thrown by tasks are sent to the main process,
+     * instead of stopping the worker.
+     */
+    private boolean captureErrors = false;
+
+    /**
+     * Iteration index that the current range of tasks starts at.
      */
     private int startIndex = 0;
 
     /**
-     * How many tasks this worker needs to run.
+     * How many tasks are in the current range.
+     */
+    private int taskSubset = 0;
+
+    private Socket socket;
+    private TimedInputStream in;
+    private ObjectInputStream ois;
+    private FrameWriter<?> frames;
+
+    /**
+     * Measurements sent to the main process when the worker stops, in nanoseconds
+     * (see WorkerStats). Only touched by the task thread.
      */
-    private int taskSubset = 1;
+    private long setupNanos = 0;
+    private long computeNanos = 0;
+    private long decodeNanos = 0;
+    private long tasksRun = 0;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    /**
+     * Spans of the worker's time, sent to the main process along with the
+     * measurements. Only touched by the task thread.
+     */
+    private final Timeline timeline = new Timeline();
+
+    /**
+     * The sequence number of the current range (high 32 bits) and the index of
+     * the task being run (low 32 bits), read by the heartbeat thread.
+     */
+    private final AtomicLong progress = new AtomicLong(-1L << 32);
+
+    /**
+     * Runs tasks alongside the task thread, for workers with more than one
+     * thread (see getThreadsPerWorker), or null if tasks run on the task thread.
+     */
+    private ExecutorService taskPool;
 
     public int getWorkerID() {
         return workerID;
     }
 
+    /**
+     * [worker] The number of tasks each worker process runs at the same time,
+     * each on a thread of its own. The user can override this to mark a worker
+     * as thread-safe: its task function must then be safe to call from several
+     * threads at once, on the same Worker instance. Setup still runs once per
+     * process.
+     *
+     * Since a thread costs much less than a JVM, a thread-safe worker can be run
+     * with fewer worker processes, each running more threads. Outputs are still
+     * sent in the order of their tasks.
+     *
+     * Workers that call SPICE must not override this, since SPICE isn't thread-safe.
+     *
+     * @return the number of task threads per worker process; 1 by default
+     */
+    public int getThreadsPerWorker() {
+        return 1;
+    }
+
     public int getNumWorkers() {
         return numWorkers;
     }
 
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @deprecated inputs and outputs now share one connection; use {@link #getPort()}.
+     */
+    @Deprecated
     public int getInputPort() {
-        return inputPort;
+        return port;
     }
 
     public int getNumTasks() {
         return numTasks;
     }
 
+    /**
+     * @deprecated inputs and outputs now share one connection; use {@link #getPort()}.
+     */
+    @Deprecated
     public int getOutputPort() {
-        return outputPort;
+        return port;
     }
 
+    /**
+     * @return the index of the first task in the range this worker is running
+     */
     public int getStartIndex() {
         return startIndex;
     }
 
+    /**
+     * @return the number of tasks in the range this worker is running
+     */
     public int getTaskSubset() {
         return taskSubset;
     }
@@ -78,60 +177,441 @@ public abstract class Worker {
     /**
      * Gets an instance of the user's Worker and runs it.
      *
+     * The worker runs whatever ranges of tasks the main process sends it,
+     * until it is told to stop.
+     *
      * @param args Command line args:
      *             0. Full classname of user's Worker (including package)
-     *             1. Input port to use
-     *             2. Task index to start at
-     *             3. Number of tasks to run
-     *             4. Unique ID for this worker
-     *             5. Total number of workers
-     *             6. Total number of tasks
+     *             1. Port to connect to
+     *             2. ID of the connection to the main process
+     *             3. ID of this worker (shared with the worker it replaces, if any)
+     *             4. Total number of workers
+     *             5. Total number of tasks
+     *             6. Name of the log file to write if the worker fails
+     *             7. Whether to capture exceptions thrown by tasks (true or false)
      * @throws Exception
      */
     public static void main(String[] args) throws Exception {
         Worker worker = null;
+        boolean failed = false;
         try {
             worker = (Worker) Class.forName(args[0]).getConstructor().newInstance();
 
-            worker.inputPort = Integer.parseInt(args[1]);
-            worker.outputPort = worker.inputPort + 1;
-            worker.startIndex = Integer.parseInt(args[2]);
-            worker.taskSubset = Integer.parseInt(args[3]);
-            worker.workerID = Integer.parseInt(args[4]);
-            worker.numWorkers = Integer.parseInt(args[5]);
-            worker.numTasks = Integer.parseInt(args[6]);
+            worker.port = Integer.parseInt(args[1]);
+            worker.connectionID = Integer.parseInt(args[2]);
+            worker.workerID = Integer.parseInt(args[3]);
+            worker.numWorkers = Integer.parseInt(args[4]);
+            worker.numTasks = Integer.parseInt(args[5]);
+            worker.captureErrors = Boolean.parseBoolean(args[7]);
+
+            int threads = worker.getThreadsPerWorker();
+            if (threads > 1) {
+                worker.taskPool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                    private int count = 0;
+
+                    @Override
+                    public synchronized Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "parspice task " + count++);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
 
             worker.startConnections();
+            Object setupEvent = FlightEvents.SETUP.begin();
+            long setupStart = System.nanoTime();
             worker.setupWrapper();
-            worker.taskWrapper();
+            long setupEnd = System.nanoTime();
+            worker.setupNanos = setupEnd - setupStart;
+            worker.timeline.add(Timeline.SETUP, setupStart, setupEnd, 0, 0);
+            FlightEvents.SETUP.commit(setupEvent, worker.workerID);
+            worker.serve();
         } catch (Exception e) {
+            failed = true;
             System.err.println(e.toString());
             e.printStackTrace();
 
-            FileWriter writer = new FileWriter("ParSPICE_worker_log_" + args[4] + ".txt");
+            FileWriter writer = new FileWriter(args[6]);
 
             writer.write("workerName\t" + args[0]);
-            writer.write("\ninputPort\t" + args[1]);
-            writer.write("\noutputPort\t" + (Integer.parseInt(args[1]) + 1));
-            writer.write("\nstartIndex\t" + args[2]);
-            writer.write("\ntaskSubset\t" + args[3]);
-            writer.write("\nworkerID\t" + args[4]);
-            writer.write("\nnumWorkers\t" + args[5]);
-            writer.write("\nnumTasks\t" + args[6] + "\n\n");
+            writer.write("\nport\t" + args[1]);
+            writer.write("\nconnectionID\t" + args[2]);
+            writer.write("\nworkerID\t" + args[3]);
+            writer.write("\nnumWorkers\t" + args[4]);
+            writer.write("\nnumTasks\t" + args[5]);
+            writer.write("\ncaptureErrors\t" + args[7]);
+            if (worker != null) {
+                writer.write("\nstartIndex\t" + worker.startIndex);
+                writer.write("\ntaskSubset\t" + worker.taskSubset);
+                writer.write("\ntaskIndex\t" + (int) worker.progress.get());
+            }
+            writer.write("\n\n");
 
             writer.write(e.toString());
             writer.write("\n\n");
             PrintWriter printer = new PrintWriter(writer);
             e.printStackTrace(printer);
-            printer.close();
-            writer.flush();
+            printer.flush();
             writer.close();
         } finally {
-            if (worker != null)
-                worker.endConnections();
+            if (worker != null) {
+                try {
+                    worker.endConnections();
+                } catch (Exception e) {
+                    // If the connections never started, this would hide the original error.
+                    if (!failed) throw e;
+                }
+            }
+        }
+        if (failed) {
+            // Nonzero status tells the main process to stop waiting on the other workers.
+            System.exit(1);
+        }
+    }
+
+    /**
+     * The name of the log file a worker writes if it fails.
+     *
+     * The run ID keeps the logs of jobs running at the same time
+     * in the same directory apart.
+     *
+     * @param runID the ID of the job run the worker belongs to
+     * @param workerID the ID of the worker
+     * @param attempt 0 for the original worker, or how many times it has been replaced
+     * @return the log file name, relative to the working directory
+     */
+    static String logFileName(String runID, int workerID, int attempt) {
+        String suffix = attempt == 0 ? "" : "_retry" + attempt;
+        return "ParSPICE_worker_log_" + runID + "_" + workerID + suffix + ".txt";
+    }
+
+    /**
+     * The name of the flight recording a worker writes, if recordings are on
+     * (see ParSPICE.setFlightRecordingDirectory).
+     *
+     * @param runID the ID of the job run the worker belongs to
+     * @param workerID the ID of the worker
+     * @param attempt 0 for the original worker, or how many times it has been replaced
+     * @return the recording file name, relative to the recording directory
+     */
+    static String recordingFileName(String runID, int workerID, int attempt) {
+        String suffix = attempt == 0 ? "" : "_retry" + attempt;
+        return "ParSPICE_worker_" + runID + "_" + workerID + suffix + ".jfr";
+    }
+
+    /**
+     * [worker process] Opens the connection to the main process, and identifies
+     * it by sending the connection ID.
+     *
+     * @return the connected socket
+     * @throws IOException if the connection cannot be made
+     */
+    private Socket connect() throws IOException {
+        Socket socket = new Socket("localhost", port);
+        socket.setTcpNoDelay(true);
+        socket.getOutputStream().write(new byte[]{
+                (byte) (connectionID >>> 24),
+                (byte) (connectionID >>> 16),
+                (byte) (connectionID >>> 8),
+                (byte) connectionID
+        });
+        return socket;
+    }
+
+    /**
+     * [worker process] Runs ranges of tasks as the main process sends them,
+     * until it sends STOP. A heartbeat thread reports progress while the
+     * tasks run, so the main process can tell a slow worker from a stuck one.
+     *
+     * The worker sends its measurements so far after each range, and once more
+     * when it is stopped. The time spent in a range counts as compute time,
+     * except for the time spent decoding inputs, encoding outputs, and waiting
+     * on the socket. Each task is timed, end to end, into a LatencyHistogram.
+     * Setup, each range, and sending the outputs left at the end of each
+     * range are also recorded as FlightEvents. Setup, each range, long waits
+     * on the socket, and the moment the worker is stopped are added to its
+     * Timeline, which is sent along with the measurements.
+     *
+     * @throws Exception any exception the user code needs to throw
+     */
+    private void serve() throws Exception {
+        // The first heartbeat tells the main process that setup is done.
+        frames.writeProgress(-1, 0);
+        frames.writeTimeline(timeline);
+        Thread heartbeat = new Thread(this::heartbeat, "parspice heartbeat");
+        heartbeat.setDaemon(true);
+        heartbeat.start();
+
+        while (ois.readInt() == IServer.RANGE) {
+            int seq = ois.readInt();
+            startIndex = ois.readInt();
+            taskSubset = ois.readInt();
+            long high = (long) seq << 32;
+            Object batchEvent = FlightEvents.TASK_BATCH.begin();
+            long start = System.nanoTime();
+            long io = ioNanos();
+            long decode = decodeNanos;
+            long encode = frames.getEncodeNanos();
+            runRange(high);
+            long end = System.nanoTime();
+            computeNanos += end - start - (ioNanos() - io);
+            tasksRun += taskSubset;
+            if (batchEvent != null) {
+                FlightEvents.TASK_BATCH.commit(batchEvent, workerID, startIndex, taskSubset,
+                        decodeNanos - decode, frames.getEncodeNanos() - encode);
+            }
+            progress.lazySet(high | (startIndex + taskSubset));
+            timeline.add(Timeline.BATCH, start, end, startIndex, taskSubset);
+            Object drainEvent = FlightEvents.DRAIN.begin();
+            frames.writeStats(stats());
+            frames.writeTimeline(timeline);
+            frames.writeDone(seq, taskSubset);
+            FlightEvents.DRAIN.commit(drainEvent, workerID);
+        }
+        long stop = System.nanoTime();
+        timeline.add(Timeline.STOP, stop, stop, 0, 0);
+        frames.writeStats(stats());
+        frames.writeTimeline(timeline);
+    }
+
+    /**
+     * [worker process] Runs the current range of tasks, one at a time, or on the
+     * task pool if the worker has one. Overridden by PipelineWorker.
+     *
+     * @param high the sequence number of the range, in the high 32 bits
+     * @throws Exception anything a task threw, if errors aren't captured
+     */
+    void runRange(long high) throws Exception {
+        if (taskPool != null) {
+            runConcurrently(high);
+            return;
+        }
+        long taskStart = System.nanoTime();
+        for (int i = startIndex; i < startIndex + taskSubset; i++) {
+            progress.lazySet(high | i);
+            taskWrapper(i);
+            long taskEnd = System.nanoTime();
+            latencies.record(taskEnd - taskStart);
+            taskStart = taskEnd;
+        }
+    }
+
+    /**
+     * [worker process] Runs the current range of tasks on the task pool. The
+     * task thread reads the inputs ahead, up to two per pool thread, and writes
+     * the outputs (or failures) in the order of their tasks, as each is done.
+     * Each task's latency is the time it ran on its pool thread.
+     *
+     * @param high the sequence number of the range, in the high 32 bits
+     * @throws Exception anything a task threw, if errors aren't captured
+     */
+    private void runConcurrently(long high) throws Exception {
+        int window = 2 * getThreadsPerWorker();
+        ArrayDeque<Future<TaskResult>> running = new ArrayDeque<>(window);
+        int end = startIndex + taskSubset;
+        int next = startIndex;
+        for (int i = startIndex; i < end; i++) {
+            while (next < end && running.size() < window) {
+                int index = next++;
+                Object input = readInput();
+                running.add(taskPool.submit(() -> {
+                    long start = System.nanoTime();
+                    TaskResult result = new TaskResult();
+                    try {
+                        result.output = taskDirect(index, input);
+                    } catch (Exception e) {
+                        result.error = e;
+                    }
+                    result.nanos = System.nanoTime() - start;
+                    return result;
+                }));
+            }
+            running(high, i);
+            TaskResult result;
+            try {
+                result = running.poll().get();
+            } catch (ExecutionException e) {
+                // Only Errors get past the task's own catch.
+                throw (Error) e.getCause();
+            }
+            recordLatency(result.nanos);
+            if (result.error != null) {
+                taskFailed(i, result.error);
+            } else {
+                writeOutput(i, result.output);
+            }
+        }
+    }
+
+    /**
+     * [worker process] Notes which task the worker is waiting on, for the heartbeats.
+     *
+     * @param high the sequence number of the range, in the high 32 bits
+     * @param i the index of the task
+     */
+    final void running(long high, int i) {
+        progress.lazySet(high | i);
+    }
+
+    /**
+     * [worker process] Records how long a task took. Only called from the task thread.
+     *
+     * @param nanos the time the task took, in nanoseconds
+     */
+    final void recordLatency(long nanos) {
+        latencies.record(nanos);
+    }
+
+    /**
+     * What a task run on the task pool did.
+     */
+    private static class TaskResult {
+        Object output;
+        Exception error;
+        long nanos;
+    }
+
+    /**
+     * @return the time the task thread has spent on IO so far, in nanoseconds
+     */
+    private long ioNanos() {
+        return decodeNanos + in.getWaitNanos() + frames.getEncodeNanos() + frames.getSendNanos();
+    }
+
+    /**
+     * @return the worker's measurements, laid out as WorkerStats expects,
+     *         followed by the task latencies
+     */
+    private long[] stats() {
+        long[] histogram = latencies.toLongs();
+        long[] stats = new long[WorkerStats.NUM_VALUES + histogram.length];
+        System.arraycopy(histogram, 0, stats, WorkerStats.NUM_VALUES, histogram.length);
+        stats[WorkerStats.SETUP] = setupNanos;
+        stats[WorkerStats.COMPUTE] = computeNanos;
+        stats[WorkerStats.DECODE] = decodeNanos;
+        stats[WorkerStats.ENCODE] = frames.getEncodeNanos();
+        stats[WorkerStats.INPUT_WAIT] = in.getWaitNanos();
+        stats[WorkerStats.OUTPUT_WAIT] = frames.getSendNanos();
+        stats[WorkerStats.TASKS_RUN] = tasksRun;
+        return stats;
+    }
+
+    /**
+     * [worker process] Sends a progress report every HEARTBEAT_INTERVAL ms,
+     * until the connection is closed.
+     */
+    private void heartbeat() {
+        try {
+            while (true) {
+                Thread.sleep(HEARTBEAT_INTERVAL);
+                long p = progress.get();
+                frames.writeProgress((int) (p >> 32), (int) p);
+                // Outputs still buffered would be lost if this worker were killed.
+                frames.requestFlush();
+            }
+        } catch (IOException | InterruptedException ignored) {}
+    }
+
+    /**
+     * [in-process] Gives the worker what a worker process is given on its
+     * command line, to run inside the main process (see InProcessWorker).
+     * It keeps worker ID 0 of 1.
+     *
+     * @param numTasks total number of tasks
+     */
+    final void configure(int numTasks) {
+        this.numTasks = numTasks;
+    }
+
+    /**
+     * [in-process] Sets the range of tasks the worker is running.
+     *
+     * @param startIndex the index of the first task
+     * @param taskSubset the number of tasks
+     */
+    final void setRange(int startIndex, int taskSubset) {
+        this.startIndex = startIndex;
+        this.taskSubset = taskSubset;
+    }
+
+    /**
+     * [worker process] Opens the connection to the main process, used for inputs,
+     * outputs and commands.
+     *
+     * @throws IOException if the connection cannot be made
+     */
+    final void startConnections() throws IOException {
+        socket = connect();
+        frames = newFrameWriter(socket.getOutputStream());
+        frames.setTimeline(timeline);
+        in = new TimedInputStream(socket.getInputStream(), timeline);
+        ois = new ObjectInputStream(in);
+    }
+
+    /**
+     * [worker process] Sends any remaining outputs and ends the connection with the main process.
+     *
+     * @throws IOException if the connection cannot be ended.
+     */
+    final void endConnections() throws IOException {
+        if (socket != null) {
+            frames.flush();
+            socket.close();
         }
     }
 
+    /**
+     * [worker process] Reads a setup input or task input, adding the time
+     * spent decoding it (but not waiting for it) to the worker's measurements.
+     *
+     * @param sender the Sender to read with
+     * @param <T> the type of the input
+     * @return the input
+     * @throws IOException if the input cannot be read
+     */
+    final <T> T read(Sender<T> sender) throws IOException {
+        long start = System.nanoTime();
+        long wait = in.getWaitNanos();
+        T value = sender.read(ois);
+        decodeNanos += System.nanoTime() - start - (in.getWaitNanos() - wait);
+        return value;
+    }
+
+    /**
+     * [worker process] Handles an exception thrown by the user's task function.
+     *
+     * If errors are captured, the exception is reported to the main process
+     * and the worker moves on to the next task; otherwise it is rethrown, and
+     * the worker fails. Only exceptions from the task itself should be passed
+     * here; exceptions from reading inputs leave the input stream in an
+     * unknown state.
+     *
+     * @param i the index of the task
+     * @param e the exception it threw
+     * @throws Exception e, if errors are not captured
+     */
+    final void taskFailed(int i, Exception e) throws Exception {
+        if (!captureErrors) {
+            throw e;
+        }
+        frames.writeFailure(i, e);
+    }
+
+    /**
+     * Creates the FrameWriter used to send outputs and progress reports.
+     *
+     * Workers with outputs override this to create a FrameWriter with their
+     * output Sender. This function is intentionally package-private, so that
+     * user extensions of Worker cannot call this function.
+     *
+     * @param out the socket stream
+     * @return a new FrameWriter
+     */
+    FrameWriter<?> newFrameWriter(OutputStream out) {
+        return new FrameWriter<Void>(null, out);
+    }
+
     /**
      * Contains the setup logic specific to each worker type.
      *
@@ -144,38 +624,64 @@ public abstract class Worker {
     abstract void setupWrapper() throws Exception;
 
     /**
-     * Contains the task-loop logic specific to each worker type.
+     * Runs a single task, with the IO specific to each worker type.
      *
      * This function is final in the Worker subclasses, so the user
      * cannot override it.
      * This function is intentionally package-private, so that user extensions of Worker
      * cannot call this function.
      *
+     * @param i the index of the task
      * @throws Exception any exception the user code needs to throw
      */
-    abstract void taskWrapper() throws Exception;
+    abstract void taskWrapper(int i) throws Exception;
 
     /**
-     * Start any input/output connections needed for the worker.
+     * [in-process] Calls setup with the setup input as it is, without its Sender.
      *
-     * This function is final in the Worker subclasses, so the user
-     * cannot override it.
-     * This function is intentionally package-private, so that user extensions of Worker
-     * cannot call this function.
+     * This function is final in the Worker subclasses, so the user cannot
+     * override it, and package-private, so the user cannot call it.
      *
-     * @throws IOException if the connections cannot be started
+     * @param setupInput the setup input, or null if the worker has none
+     * @throws Exception any exception the user code needs to throw
      */
-    abstract void startConnections() throws IOException;
+    abstract void setupDirect(Object setupInput) throws Exception;
 
     /**
-     * End any input/output connections needed by the worker.
+     * [in-process] Runs a single task on its input as it is, without the Senders.
+     * Exceptions thrown by the task are passed on, even if errors are captured.
      *
-     * This function is final in the Worker subclasses, so the user
-     * cannot override it.
-     * This function is intentionally package-private, so that user extensions of Worker
-     * cannot call this function.
+     * This function is final in the Worker subclasses, so the user cannot
+     * override it, and package-private, so the user cannot call it.
+     *
+     * @param i the index of the task
+     * @param input the task's input, or null if the worker has none
+     * @return the task's output, or null if the worker has none
+     * @throws Exception any exception the user code needs to throw
+     */
+    abstract Object taskDirect(int i, Object input) throws Exception;
+
+    /**
+     * [worker process] Reads the input of the next task, if the worker has inputs.
+     * Used with taskDirect and writeOutput to run tasks on the task pool.
+     *
+     * This function is final in the Worker subclasses, so the user cannot
+     * override it, and package-private, so the user cannot call it.
+     *
+     * @return the input, or null if the worker has none
+     * @throws IOException if the input cannot be read
+     */
+    abstract Object readInput() throws IOException;
+
+    /**
+     * [worker process] Writes the output of a task, if the worker has outputs.
+     *
+     * This function is final in the Worker subclasses, so the user cannot
+     * override it, and package-private, so the user cannot call it.
      *
-     * @throws IOException if the connections cannot be ended.
+     * @param i the index of the task
+     * @param output the output, or null if the worker has none
+     * @throws IOException if the output cannot be written
      */
-    abstract void endConnections() throws IOException;
+    abstract void writeOutput(int i, Object output) throws IOException;
 }
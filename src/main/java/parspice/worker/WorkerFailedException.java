@@ -0,0 +1,79 @@
+package parspice.worker;
+
+/**
+ * Thrown on the main process when a worker process fails, so the job
+ * cannot complete.
+ *
+ * A worker fails if it exits with a nonzero status, if it doesn't connect to
+ * the main process within the connect timeout, or if its connection breaks
+ * before all the inputs and outputs are sent. Failed workers are replaced
+ * until the job runs out of retries (see OJob.maxRetries); then the
+ * rest of the workers are killed and this is thrown. The contents of the
+ * failed worker's log file (if it wrote one) are carried in this exception,
+ * and earlier failures that were retried are attached as suppressed exceptions.
+ *
+ * A job run in the main process (see parspice.ExecutionMode) fails with this
+ * too, when setup or a task throws, with the exception as its cause.
+ */
+public class WorkerFailedException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int workerID;
+    private final String reason;
+    private final String log;
+
+    /**
+     * Creates a new WorkerFailedException.
+     *
+     * @param workerID the ID of the worker that failed
+     * @param reason a short description of how the failure was detected
+     * @param logFile the name of the worker's log file, or null if it had none (when run in the main process)
+     * @param log the contents of the worker's log file, or null if it didn't write one
+     * @param cause the exception that caused the failure on the main process, if any
+     */
+    WorkerFailedException(int workerID, String reason, String logFile, String log, Throwable cause) {
+        super(message(workerID, reason, logFile, log), cause);
+        this.workerID = workerID;
+        this.reason = reason;
+        this.log = log;
+    }
+
+    /**
+     * The ID of the worker that failed, in the range [0, numWorkers)
+     *
+     * @return the worker ID
+     */
+    public int getWorkerID() {
+        return workerID;
+    }
+
+    /**
+     * A short description of how the failure was detected, such as
+     * "exited with status 1".
+     *
+     * @return the reason
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    /**
+     * The contents of the worker's log file.
+     *
+     * @return the log contents, or null if the worker didn't write a log
+     */
+    public String getLog() {
+        return log;
+    }
+
+    private static String message(int workerID, String reason, String logFile, String log) {
+        String message = "Worker " + workerID + " failed: " + reason;
+        if (log != null) {
+            message += "\n\nContents of " + logFile + ":\n" + log;
+        } else if (logFile != null) {
+            message += "\n\nThe worker did not write a log file.";
+        }
+        return message;
+    }
+}
@@ -0,0 +1,67 @@
+package parspice.worker;
+
+/**
+ * The progress of a single worker in a JobProgress report.
+ *
+ * A worker and its replacements (if it fails or hangs) share a worker ID,
+ * and are counted together.
+ */
+public class WorkerProgress {
+
+    private final int workerID;
+    private final int numCompleted;
+    private final double throughput;
+    private final int restarts;
+
+    /**
+     * Creates a new WorkerProgress.
+     *
+     * @param workerID the ID of the worker
+     * @param numCompleted the number of tasks it completed
+     * @param throughput tasks completed per second since the job started
+     * @param restarts how many times the worker has been replaced
+     */
+    WorkerProgress(int workerID, int numCompleted, double throughput, int restarts) {
+        this.workerID = workerID;
+        this.numCompleted = numCompleted;
+        this.throughput = throughput;
+        this.restarts = restarts;
+    }
+
+    /**
+     * @return the ID of the worker, from 0 to one less than the number of workers
+     */
+    public int getWorkerID() {
+        return workerID;
+    }
+
+    /**
+     * The number of tasks the worker completed. A task re-run speculatively
+     * is only counted for whichever worker finished it first.
+     *
+     * @return the number of tasks
+     */
+    public int getNumCompleted() {
+        return numCompleted;
+    }
+
+    /**
+     * @return tasks completed per second, averaged since the job started
+     */
+    public double getThroughput() {
+        return throughput;
+    }
+
+    /**
+     * @return how many times the worker has been replaced after failing or hanging
+     */
+    public int getRestarts() {
+        return restarts;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("worker %d: %d tasks (%.1f/s)%s", workerID, numCompleted, throughput,
+                restarts == 0 ? "" : ", restarted " + restarts + (restarts == 1 ? " time" : " times"));
+    }
+}
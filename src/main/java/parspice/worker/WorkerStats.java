@@ -0,0 +1,282 @@
+package parspice.worker;
+
+import java.io.File;
+
+/**
+ * Where a single worker process spent its time during a job run, as part of JobStats.
+ *
+ * Each process is counted separately, so a worker that was replaced (after
+ * failing or hanging) has an entry for every attempt.
+ *
+ * Most times are measured by the worker, which sends them back after each
+ * range of tasks it finishes, and once more when it is stopped. For a worker
+ * that was killed or failed, they are as of the last range it finished; if
+ * it never finished one, only the times and byte counts measured by the main
+ * process are known (see hasWorkerTimes). All times are in nanoseconds.
+ *
+ * The worker's time adds up roughly as follows: setup, then compute, decode,
+ * encode and output wait while running tasks, and input wait both while
+ * reading inputs and while idle, waiting for the main process to send more
+ * work. Setup time includes reading the setup input, so its decoding and
+ * waiting are counted in both.
+ *
+ * Besides the total bytes each way, the bytes of the setup input, the task
+ * inputs and the outputs are counted exactly as the main process encodes and
+ * decodes them. The difference from the totals is the commands, heartbeats,
+ * reports and other messages between the processes.
+ */
+public class WorkerStats {
+
+    /*
+     * Layout of the measurements a worker sends back (see Worker.serve),
+     * which are followed by its LatencyHistogram.
+     */
+    static final int SETUP = 0;
+    static final int COMPUTE = 1;
+    static final int DECODE = 2;
+    static final int ENCODE = 3;
+    static final int INPUT_WAIT = 4;
+    static final int OUTPUT_WAIT = 5;
+    static final int TASKS_RUN = 6;
+    static final int NUM_VALUES = 7;
+
+    private final int workerID;
+    private final int attempt;
+    private final long connectNanos;
+    private final long[] values;
+    private final LatencyHistogram taskLatency;
+    private final long bytesIn;
+    private final long bytesOut;
+    private final long setupBytes;
+    private final long inputBytes;
+    private final long outputBytes;
+    private final long mainEncodeNanos;
+    private final long mainDecodeNanos;
+    private final long mainWaitNanos;
+    private final File flightRecording;
+    private final long[] timeline;
+
+    /**
+     * Creates a new WorkerStats.
+     *
+     * @param workerID the ID of the worker
+     * @param attempt 0 for an original worker, or how many times it had been replaced
+     * @param connectNanos time from starting the process to its connection, or -1 if it never connected
+     * @param values the measurements the worker sent, or null if it didn't send any
+     * @param bytesIn bytes sent to the worker
+     * @param bytesOut bytes received from the worker
+     * @param setupBytes bytes of the worker's encoded setup input
+     * @param inputBytes bytes of task inputs encoded for the worker
+     * @param outputBytes bytes of outputs received from the worker
+     * @param mainEncodeNanos time the main process spent encoding the worker's inputs
+     * @param mainDecodeNanos time the main process spent decoding the worker's outputs
+     * @param mainWaitNanos time the main process waited for room in the worker's socket
+     * @param flightRecording the worker's flight recording, or null if it didn't write one
+     * @param timeline the spans of the worker's time, laid out as in parspice.io.Timeline,
+     *                 with times measured from the start of the run
+     */
+    WorkerStats(int workerID, int attempt, long connectNanos, long[] values, long bytesIn, long bytesOut,
+                long setupBytes, long inputBytes, long outputBytes, long mainEncodeNanos, long mainDecodeNanos, long mainWaitNanos, File flightRecording,
+                long[] timeline) {
+        this.workerID = workerID;
+        this.attempt = attempt;
+        this.connectNanos = connectNanos;
+        this.values = values != null && values.length >= NUM_VALUES ? values : null;
+        this.taskLatency = this.values == null ? new LatencyHistogram() : LatencyHistogram.fromLongs(values, NUM_VALUES);
+        this.bytesIn = bytesIn;
+        this.bytesOut = bytesOut;
+        this.setupBytes = setupBytes;
+        this.inputBytes = inputBytes;
+        this.outputBytes = outputBytes;
+        this.mainEncodeNanos = mainEncodeNanos;
+        this.mainDecodeNanos = mainDecodeNanos;
+        this.mainWaitNanos = mainWaitNanos;
+        this.flightRecording = flightRecording;
+        this.timeline = timeline;
+    }
+
+    /**
+     * @return the ID of the worker, from 0 to one less than the number of workers
+     */
+    public int getWorkerID() {
+        return workerID;
+    }
+
+    /**
+     * @return 0 for an original worker, or how many times it had been replaced
+     */
+    public int getAttempt() {
+        return attempt;
+    }
+
+    /**
+     * @return true if the worker sent its own measurements, which it does once it
+     *         finishes a range of tasks; otherwise the worker-side times are 0
+     */
+    public boolean hasWorkerTimes() {
+        return values != null;
+    }
+
+    /**
+     * @return time from starting the worker's process until it connected to the
+     *         main process, which includes starting the JVM; -1 if it never connected
+     */
+    public long getConnectNanos() {
+        return connectNanos;
+    }
+
+    /**
+     * @return time spent in the worker's setup function, including reading its setup input
+     */
+    public long getSetupNanos() {
+        return value(SETUP);
+    }
+
+    /**
+     * @return time spent in the worker's task function
+     */
+    public long getComputeNanos() {
+        return value(COMPUTE);
+    }
+
+    /**
+     * @return time the worker spent decoding inputs with the input (and setup) Sender
+     */
+    public long getDecodeNanos() {
+        return value(DECODE);
+    }
+
+    /**
+     * @return time the worker spent encoding outputs with the output Sender
+     */
+    public long getEncodeNanos() {
+        return value(ENCODE);
+    }
+
+    /**
+     * @return time the worker spent waiting for data from the main process,
+     *         both for inputs and for more work
+     */
+    public long getInputWaitNanos() {
+        return value(INPUT_WAIT);
+    }
+
+    /**
+     * @return time the worker spent writing outputs to the socket, which
+     *         is longer when the main process falls behind reading them
+     */
+    public long getOutputWaitNanos() {
+        return value(OUTPUT_WAIT);
+    }
+
+    /**
+     * @return the number of tasks the worker ran, including any that
+     *         another worker finished first
+     */
+    public long getTasksRun() {
+        return value(TASKS_RUN);
+    }
+
+    /**
+     * @return the latencies of the tasks the worker ran
+     */
+    public LatencyHistogram getTaskLatency() {
+        return taskLatency;
+    }
+
+    /**
+     * @return bytes sent to the worker: its setup input, commands and inputs
+     */
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    /**
+     * @return bytes received from the worker: its outputs, heartbeats and reports
+     */
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    /**
+     * @return bytes of the worker's setup input, as encoded by the setup Sender
+     */
+    public long getSetupBytes() {
+        return setupBytes;
+    }
+
+    /**
+     * @return bytes of task inputs sent to the worker, as encoded by the input
+     *         Sender, counting inputs sent again each time
+     */
+    public long getInputBytes() {
+        return inputBytes;
+    }
+
+    /**
+     * @return bytes of outputs received from the worker, as encoded by the output Sender
+     */
+    public long getOutputBytes() {
+        return outputBytes;
+    }
+
+    /**
+     * @return time the main process spent encoding the worker's setup input, commands and inputs
+     */
+    public long getMainEncodeNanos() {
+        return mainEncodeNanos;
+    }
+
+    /**
+     * @return time the main process spent decoding the worker's outputs
+     */
+    public long getMainDecodeNanos() {
+        return mainDecodeNanos;
+    }
+
+    /**
+     * @return time the main process had inputs ready for the worker, but its
+     *         socket was full because the worker hadn't read the earlier ones yet
+     */
+    public long getMainWaitNanos() {
+        return mainWaitNanos;
+    }
+
+    /**
+     * The Java Flight Recording the worker's JVM wrote when it exited, if
+     * recordings are on (see ParSPICE.setFlightRecordingDirectory). The file
+     * is named after the job run, the worker ID, and the attempt.
+     *
+     * @return the recording, or null if there isn't one
+     */
+    public File getFlightRecording() {
+        return flightRecording;
+    }
+
+    /**
+     * @return the spans of the worker's time, for JobStats.writeTrace
+     */
+    long[] getTimeline() {
+        return timeline;
+    }
+
+    private long value(int index) {
+        return values == null ? 0 : values[index];
+    }
+
+    @Override
+    public String toString() {
+        String name = "worker " + workerID + (attempt == 0 ? "" : " (retry " + attempt + ")");
+        String connect = connectNanos < 0 ? "never connected" : String.format("connect %.1f ms", connectNanos / 1e6);
+        String times = !hasWorkerTimes() ? "no worker times" : String.format(
+                "setup %.1f ms, compute %.1f ms, decode %.1f ms, encode %.1f ms, input wait %.1f ms, output wait %.1f ms, %d tasks",
+                getSetupNanos() / 1e6, getComputeNanos() / 1e6, getDecodeNanos() / 1e6, getEncodeNanos() / 1e6,
+                getInputWaitNanos() / 1e6, getOutputWaitNanos() / 1e6, getTasksRun());
+        String latency = taskLatency.getCount() == 0 ? "" : String.format("; p50 %.3f ms, p99 %.3f ms, max %.3f ms",
+                taskLatency.getPercentile(50) / 1e6, taskLatency.getPercentile(99) / 1e6, taskLatency.getMax() / 1e6);
+        return String.format("%s: %s, %s%s; %d bytes in (%d setup, %d inputs), %d bytes out (%d outputs); "
+                        + "main encode %.1f ms, decode %.1f ms, wait %.1f ms",
+                name, connect, times, latency, bytesIn, setupBytes, inputBytes, bytesOut, outputBytes,
+                mainEncodeNanos / 1e6, mainDecodeNanos / 1e6, mainWaitNanos / 1e6);
+    }
+}
@@ -1,15 +1,32 @@
 package parspiceTest;
 
+import parspice.Affinity;
+import parspice.ExecutionMode;
 import parspice.ParSPICE;
 
 import java.io.IOException;
 
 public class ParSPICEInstance {
     public static ParSPICE par;
+    public static ParSPICE speculative;
+    public static ParSPICE inProcess;
+    public static ParSPICE singleWorkerInProcess;
+    public static ParSPICE coreAffinity;
+    public static ParSPICE flightRecording;
 
     static {
         try {
             par = new ParSPICE("build/libs/testing.jar", 50050);
+            speculative = new ParSPICE("build/libs/testing.jar", 50050);
+            speculative.setSpeculative(true);
+            inProcess = new ParSPICE("build/libs/testing.jar", 50050);
+            inProcess.setExecutionMode(ExecutionMode.IN_PROCESS);
+            singleWorkerInProcess = new ParSPICE("build/libs/testing.jar", 50050);
+            singleWorkerInProcess.setExecutionMode(ExecutionMode.SINGLE_WORKER_IN_PROCESS);
+            coreAffinity = new ParSPICE("build/libs/testing.jar", 50050);
+            coreAffinity.setAffinity(new Affinity(Affinity.Placement.CORE, 0));
+            flightRecording = new ParSPICE("build/libs/testing.jar", 50050);
+            flightRecording.setFlightRecordingDirectory("build/TestFlightRecording");
         } catch (IOException | ClassNotFoundException e) {
             e.printStackTrace();
         }
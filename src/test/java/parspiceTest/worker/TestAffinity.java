@@ -0,0 +1,76 @@
+package parspiceTest.worker;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import parspice.Affinity;
+import parspice.sender.IntSender;
+import parspice.worker.OWorker;
+import parspice.worker.Results;
+import parspiceTest.ParSPICEInstance;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestAffinity extends OWorker<Integer> {
+    int numTestTasks = 20;
+
+    List<List<Integer>> twoNodes = Arrays.asList(Arrays.asList(0, 1, 2, 3), Arrays.asList(4, 5, 6, 7));
+
+    public TestAffinity() {
+        super(new IntSender());
+    }
+
+    @Override
+    public Integer task(int i) throws Exception {
+        return i * 3;
+    }
+
+    @Test
+    public void testCorePlacement() {
+        Affinity affinity = new Affinity(Affinity.Placement.CORE, 1);
+        // Workers alternate between the nodes, and CPU 0 is left to the main process.
+        assertEquals(Collections.singletonList(1), affinity.place(0, 1, twoNodes));
+        assertEquals(Collections.singletonList(4), affinity.place(1, 1, twoNodes));
+        assertEquals(Collections.singletonList(2), affinity.place(2, 1, twoNodes));
+        assertEquals(Collections.singletonList(5), affinity.place(3, 1, twoNodes));
+        // A CPU per task thread, wrapping around when a node runs out.
+        assertEquals(Arrays.asList(1, 2), affinity.place(0, 2, twoNodes));
+        assertEquals(Arrays.asList(1, 3), affinity.place(2, 2, twoNodes));
+    }
+
+    @Test
+    public void testNodePlacement() {
+        Affinity affinity = new Affinity(Affinity.Placement.NODE, 1);
+        assertEquals(Arrays.asList(1, 2, 3), affinity.place(0, 1, twoNodes));
+        assertEquals(Arrays.asList(4, 5, 6, 7), affinity.place(1, 1, twoNodes));
+        // Reserving a whole node moves every worker to the other.
+        Affinity reserveNode = new Affinity(Affinity.Placement.NODE, 4);
+        assertEquals(Arrays.asList(4, 5, 6, 7), reserveNode.place(0, 1, twoNodes));
+        assertEquals(Arrays.asList(4, 5, 6, 7), reserveNode.place(1, 1, twoNodes));
+        // Reserving every CPU is ignored.
+        Affinity reserveAll = new Affinity(Affinity.Placement.NODE, 8);
+        assertEquals(Arrays.asList(0, 1, 2, 3), reserveAll.place(0, 1, twoNodes));
+
+        assertEquals(Collections.emptyList(), Affinity.NONE.place(0, 1, twoNodes));
+        assertEquals(Collections.emptyList(), Affinity.NONE.launchPrefix(0, 1));
+        assertFalse(Affinity.topology().isEmpty());
+    }
+
+    @Test
+    public void testRun() {
+        assertDoesNotThrow(() -> {
+            Results<Integer> results = (new TestAffinity())
+                    .init(2, numTestTasks)
+                    .run(ParSPICEInstance.coreAffinity);
+            for (int i = 0; i < numTestTasks; i++) {
+                assertEquals(i * 3, (int) results.get(i));
+            }
+        });
+    }
+}
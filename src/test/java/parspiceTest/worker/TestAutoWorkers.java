@@ -0,0 +1,89 @@
+package parspiceTest.worker;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import parspice.Calibration;
+import parspice.sender.IntSender;
+import parspice.worker.Job;
+import parspice.worker.JobStats;
+import parspice.worker.Results;
+import parspice.worker.SOWorker;
+import parspiceTest.ParSPICEInstance;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestAutoWorkers extends SOWorker<Integer, Integer> {
+    int numTestTasks = 200;
+
+    int offset = 0;
+
+    public TestAutoWorkers() {
+        super(new IntSender(), new IntSender());
+    }
+
+    @Override
+    public void setup(Integer input) throws Exception {
+        offset = input;
+    }
+
+    @Override
+    public Integer task(int i) throws Exception {
+        Thread.sleep(2);
+        return i + offset;
+    }
+
+    @Test
+    public void testRun() {
+        assertDoesNotThrow(() -> {
+            Results<Integer> results = (new TestAutoWorkers())
+                    .init(Job.AUTO, numTestTasks, 5)
+                    .run(ParSPICEInstance.par);
+            assertEquals(numTestTasks, results.size());
+            for (int i = 0; i < numTestTasks; i++) {
+                assertEquals(i + 5, (int) results.get(i));
+            }
+            JobStats stats = results.getJobStats();
+            int numWorkers = stats.getWorkers().size();
+            assertTrue(numWorkers >= 1);
+            assertTrue(numWorkers <= Runtime.getRuntime().availableProcessors());
+        });
+    }
+
+    @Test
+    public void testZeroWorkers() {
+        assertThrows(IllegalStateException.class, () -> (new TestAutoWorkers())
+                .init(0, numTestTasks, 5));
+    }
+
+    @Test
+    public void testBestWorkers() {
+        Calibration calibration = new Calibration(1.5, 0.0, 5.0);
+        // 1 ms tasks: a second of work, well worth a worker per core.
+        assertEquals(8, calibration.bestWorkers(1000, 1e6, 8, 300e6, 8));
+        // No more workers than tasks.
+        assertEquals(3, calibration.bestWorkers(3, 1e9, 8, 300e6, 8));
+        // 1 us tasks: a millisecond of work, not worth starting a worker for.
+        assertEquals(0, calibration.bestWorkers(1000, 1e3, 8, 300e6, 8));
+        // Tasks that send far more than they compute.
+        assertEquals(0, calibration.bestWorkers(1000, 1e4, 1e6, 0, 8));
+    }
+
+    @Test
+    public void testSaveLoad() {
+        assertDoesNotThrow(() -> {
+            File file = new File(Files.createTempDirectory("parspice_calibration").toFile(), "calibration.properties");
+            new Calibration(1.25, 0.125, 3.5).save(file);
+            Calibration loaded = Calibration.load(file);
+            assertEquals(1.25, loaded.getParallel());
+            assertEquals(0.125, loaded.getSerial());
+            assertEquals(3.5, loaded.getMillisPerMegabyte());
+        });
+    }
+}
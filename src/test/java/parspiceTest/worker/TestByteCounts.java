@@ -0,0 +1,66 @@
+package parspiceTest.worker;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import parspice.sender.DoubleSender;
+import parspice.sender.IntSender;
+import parspice.worker.JobStats;
+import parspice.worker.SIOWorker;
+import parspice.worker.WorkerStats;
+import parspiceTest.ParSPICEInstance;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestByteCounts extends SIOWorker<Double, Integer, Double> {
+    int numTestTasks = 500;
+
+    double offset = 0;
+
+    public TestByteCounts() {
+        super(new DoubleSender(), new IntSender(), new DoubleSender());
+    }
+
+    @Override
+    public void setup(Double d) throws Exception {
+        offset = d;
+    }
+
+    @Override
+    public Double task(Integer i) throws Exception {
+        return i + offset;
+    }
+
+    @Test
+    public void testByteCounts() {
+        assertDoesNotThrow(() -> {
+            List<Integer> inputs = new ArrayList<>(numTestTasks);
+            for (int i = 0; i < numTestTasks; i++) {
+                inputs.add(i);
+            }
+            JobStats stats = (new TestByteCounts())
+                    .init(2, 1.0, inputs)
+                    .run(ParSPICEInstance.par)
+                    .getJobStats();
+
+            for (WorkerStats worker : stats.getWorkers()) {
+                // A double, in one block of serialization data with a 2 byte header.
+                assertEquals(10, worker.getSetupBytes());
+                assertTrue(worker.getBytesIn() > worker.getSetupBytes() + worker.getInputBytes());
+                assertTrue(worker.getBytesOut() > worker.getOutputBytes());
+            }
+            assertEquals(10L * stats.getWorkers().size(), stats.getSetupBytes());
+
+            // An int per input and a double per output, plus a few bytes of block headers per range.
+            assertTrue(stats.getInputBytes() >= 4L * numTestTasks);
+            assertTrue(stats.getInputBytes() < 5L * numTestTasks);
+            assertTrue(stats.getOutputBytes() >= 8L * numTestTasks);
+            assertTrue(stats.getOutputBytes() < 9L * numTestTasks);
+        });
+    }
+}
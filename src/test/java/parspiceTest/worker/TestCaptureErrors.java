@@ -0,0 +1,73 @@
+package parspiceTest.worker;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import parspice.sender.IntSender;
+import parspice.worker.OWorker;
+import parspice.worker.Results;
+import parspice.worker.TaskFailure;
+import parspice.worker.WorkerFailedException;
+import parspiceTest.ParSPICEInstance;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestCaptureErrors extends OWorker<Integer> {
+    int numTestTasks = 30;
+
+    public TestCaptureErrors() {
+        super(new IntSender());
+    }
+
+    @Override
+    public Integer task(int i) throws Exception {
+        if (i % 7 == 3) {
+            throw new IllegalArgumentException("bad task " + i);
+        }
+        return i * 2;
+    }
+
+    @Test
+    public void testCaptureErrors() {
+        assertDoesNotThrow(() -> {
+            List<Integer> directResults = new ArrayList<>(numTestTasks);
+            List<Integer> failedIndices = new ArrayList<>();
+            for (int i = 0; i < numTestTasks; i++) {
+                if (i % 7 == 3) {
+                    directResults.add(null);
+                    failedIndices.add(i);
+                } else {
+                    directResults.add(i * 2);
+                }
+            }
+            Results<Integer> parResults = (new TestCaptureErrors())
+                    .init(3, numTestTasks)
+                    .captureErrors()
+                    .run(ParSPICEInstance.par);
+            assertArrayEquals(directResults.toArray(), parResults.toArray());
+            List<Integer> parFailedIndices = new ArrayList<>();
+            for (TaskFailure failure : parResults.getFailures()) {
+                parFailedIndices.add(failure.getIndex());
+                assertEquals(IllegalArgumentException.class.getName(), failure.getExceptionClass());
+                assertEquals("bad task " + failure.getIndex(), failure.getMessage());
+            }
+            assertEquals(failedIndices, parFailedIndices);
+        });
+    }
+
+    @Test
+    public void testNoCapture() {
+        assertDoesNotThrow(() -> {
+            assertThrows(WorkerFailedException.class, () -> (new TestCaptureErrors())
+                    .init(3, numTestTasks)
+                    .maxRetries(0)
+                    .run(ParSPICEInstance.par));
+        });
+    }
+}
@@ -0,0 +1,141 @@
+package parspiceTest.worker;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import parspice.sender.IntSender;
+import parspice.worker.OWorker;
+import parspice.worker.Results;
+import parspice.worker.WorkerFailedException;
+import parspiceTest.ParSPICEInstance;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestCheckpoint extends OWorker<Integer> {
+    int numTestTasks = 40;
+
+    static final File CHECKPOINT = new File("build/TestCheckpoint/checkpoint");
+
+    /**
+     * Each task leaves a file here, to show which tasks were run.
+     */
+    static final File RAN = new File("build/TestCheckpoint/ran");
+
+    /**
+     * Task 25 fails the first time it runs, and creates this file
+     * so that it succeeds when it is run again.
+     */
+    static final File MARKER = new File("build/TestCheckpoint/marker");
+
+    public TestCheckpoint() {
+        super(new IntSender());
+    }
+
+    @Override
+    public Integer task(int i) throws Exception {
+        new File(RAN, String.valueOf(i)).createNewFile();
+        if (i == 25 && MARKER.createNewFile()) {
+            throw new IllegalStateException("task 25 failed on purpose");
+        }
+        return i * 7;
+    }
+
+    @Test
+    public void testResume() {
+        assertDoesNotThrow(() -> {
+            delete(new File("build/TestCheckpoint"));
+            RAN.mkdirs();
+            List<Integer> directResults = new ArrayList<>(numTestTasks);
+            for (int i = 0; i < numTestTasks; i++) {
+                directResults.add(i * 7);
+            }
+
+            assertThrows(WorkerFailedException.class, () -> (new TestCheckpoint())
+                    .init(2, numTestTasks)
+                    .checkpoint(CHECKPOINT.getPath(), 10)
+                    .maxRetries(0)
+                    .run(ParSPICEInstance.par));
+
+            delete(RAN);
+            RAN.mkdirs();
+            ArrayList<Integer> parResults = (new TestCheckpoint())
+                    .init(3, numTestTasks)
+                    .checkpoint(CHECKPOINT.getPath(), 10)
+                    .maxRetries(0)
+                    .run(ParSPICEInstance.par);
+            assertArrayEquals(directResults.toArray(), parResults.toArray());
+            // At least tasks 20 to 24, finished before task 25 failed, were not run again.
+            int rerun = RAN.list().length;
+            assertTrue(rerun <= numTestTasks - 5, "re-ran " + rerun + " tasks");
+            for (int i = 20; i < 25; i++) {
+                assertTrue(!new File(RAN, String.valueOf(i)).exists(), "re-ran task " + i);
+            }
+
+            delete(RAN);
+            RAN.mkdirs();
+            parResults = (new TestCheckpoint())
+                    .init(2, numTestTasks)
+                    .checkpoint(CHECKPOINT.getPath())
+                    .maxRetries(0)
+                    .run(ParSPICEInstance.par);
+            assertArrayEquals(directResults.toArray(), parResults.toArray());
+            assertEquals(0, RAN.list().length);
+        });
+    }
+
+    @Test
+    public void testDifferentJob() {
+        assertDoesNotThrow(() -> {
+            delete(new File("build/TestCheckpoint"));
+            RAN.mkdirs();
+            MARKER.getParentFile().mkdirs();
+            MARKER.createNewFile();
+            (new TestCheckpoint())
+                    .init(2, numTestTasks)
+                    .checkpoint(CHECKPOINT.getPath())
+                    .run(ParSPICEInstance.par);
+            assertThrows(IllegalStateException.class, () -> (new TestCheckpoint())
+                    .init(2, numTestTasks + 1)
+                    .checkpoint(CHECKPOINT.getPath())
+                    .run(ParSPICEInstance.par));
+        });
+    }
+
+    @Test
+    public void testRemappedSetupInputs() {
+        assertDoesNotThrow(() -> {
+            delete(new File("build/TestCheckpoint"));
+            Results<Integer> results = (new TestSetupGroups())
+                    .init(6, Arrays.asList(1, 1, 2))
+                    .checkpoint(CHECKPOINT.getPath())
+                    .run(ParSPICEInstance.par);
+            for (int i = 0; i < 6; i++) {
+                assertEquals(i * 100 + (i < 4 ? 1 : 2), (int) results.get(i));
+            }
+            // The same distinct setup inputs, but tasks 2 and 3 now run after setup 2.
+            assertThrows(IllegalStateException.class, () -> (new TestSetupGroups())
+                    .init(6, Arrays.asList(1, 2, 2))
+                    .checkpoint(CHECKPOINT.getPath())
+                    .run(ParSPICEInstance.par));
+        });
+    }
+
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,67 @@
+package parspiceTest.worker;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import parspice.sender.IntSender;
+import parspice.worker.OWorker;
+import parspiceTest.ParSPICEInstance;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestConcurrentJobs extends OWorker<Integer> {
+    int numTestTasks = 10;
+    int numJobs = 3;
+    List<ArrayList<Integer>> parResults = new ArrayList<>(numJobs);
+
+    public TestConcurrentJobs() {
+        super(new IntSender());
+    }
+
+    @Override
+    public Integer task(int i) throws Exception {
+        return i * 3;
+    }
+
+    @Test
+    @BeforeAll
+    public void testRun() {
+        assertDoesNotThrow(() -> {
+            parResults.clear();
+            List<Thread> threads = new ArrayList<>();
+            for (int j = 0; j < numJobs; j++) {
+                parResults.add(null);
+                int job = j;
+                Thread thread = new Thread(() -> assertDoesNotThrow(() -> {
+                    ArrayList<Integer> results = (new TestConcurrentJobs())
+                            .init(2, numTestTasks)
+                            .run(ParSPICEInstance.par);
+                    synchronized (parResults) {
+                        parResults.set(job, results);
+                    }
+                }));
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        });
+    }
+
+    @Test
+    public void testCorrectness() {
+        List<Integer> directResults = new ArrayList<>(numTestTasks);
+        for (int i = 0; i < numTestTasks; i++) {
+            directResults.add(i * 3);
+        }
+        for (ArrayList<Integer> results : parResults) {
+            assertArrayEquals(directResults.toArray(), results.toArray());
+        }
+    }
+}
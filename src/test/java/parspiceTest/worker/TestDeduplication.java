@@ -0,0 +1,108 @@
+package parspiceTest.worker;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import parspice.sender.IntSender;
+import parspice.worker.IOWorker;
+import parspice.worker.Results;
+import parspice.worker.TaskFailure;
+import parspiceTest.ParSPICEInstance;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestDeduplication extends IOWorker<Integer, Integer> {
+    int numTestTasks = 50;
+
+    /**
+     * Each task leaves a file here named after its input, to show which inputs were run.
+     */
+    static final File RAN = new File("build/TestDeduplication");
+
+    public TestDeduplication() {
+        super(new IntSender(), new IntSender());
+    }
+
+    @Override
+    public Integer task(Integer input) throws Exception {
+        if (!new File(RAN, String.valueOf(input)).createNewFile()) {
+            throw new IllegalStateException("input " + input + " was run twice");
+        }
+        if (input == 3) {
+            throw new IllegalArgumentException("input 3 fails");
+        }
+        return input * 11;
+    }
+
+    @Test
+    public void testDeduplicate() {
+        assertDoesNotThrow(() -> {
+            TestCheckpoint.delete(RAN);
+            RAN.mkdirs();
+            List<Integer> inputs = new ArrayList<>(numTestTasks);
+            List<Integer> directResults = new ArrayList<>(numTestTasks);
+            List<Integer> failed = new ArrayList<>();
+            for (int i = 0; i < numTestTasks; i++) {
+                inputs.add(i % 7);
+                directResults.add(i % 7 == 3 ? null : (i % 7) * 11);
+                if (i % 7 == 3) {
+                    failed.add(i);
+                }
+            }
+            Results<Integer> parResults = (new TestDeduplication())
+                    .init(3, inputs)
+                    .deduplicate()
+                    .captureErrors()
+                    .run(ParSPICEInstance.par);
+            assertArrayEquals(directResults.toArray(), parResults.toArray());
+            assertEquals(7, RAN.list().length);
+
+            List<Integer> failedIndices = new ArrayList<>();
+            for (TaskFailure failure : parResults.getFailures()) {
+                assertEquals(IllegalArgumentException.class.getName(), failure.getExceptionClass());
+                failedIndices.add(failure.getIndex());
+            }
+            assertEquals(failed, failedIndices);
+
+            assertEquals(numTestTasks, parResults.getDeduplicationStats().getNumInputs());
+            assertEquals(7, parResults.getDeduplicationStats().getNumUnique());
+            assertEquals(numTestTasks - 7, parResults.getDeduplicationStats().getNumDuplicates());
+        });
+    }
+
+    @Test
+    public void testTrace() {
+        assertDoesNotThrow(() -> {
+            TestCheckpoint.delete(RAN);
+            RAN.mkdirs();
+            File file = new File("build/TestDeduplication.json");
+            file.delete();
+            List<Integer> inputs = new ArrayList<>(numTestTasks);
+            for (int i = 0; i < numTestTasks; i++) {
+                inputs.add(i % 5 + 10);
+            }
+            Results<Integer> parResults = (new TestDeduplication())
+                    .init(2, inputs)
+                    .deduplicate()
+                    .trace(file.getPath())
+                    .run(ParSPICEInstance.par);
+            assertEquals(numTestTasks, parResults.size());
+            assertEquals(5, RAN.list().length);
+
+            String trace = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            assertTrue(trace.startsWith("{\"displayTimeUnit\":\"ms\",\"traceEvents\":["));
+            assertTrue(trace.contains("\"name\":\"spawn\""));
+            assertTrue(trace.contains("\"name\":\"batch\""));
+            file.delete();
+        });
+    }
+}
@@ -0,0 +1,51 @@
+package parspiceTest.worker;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import parspice.io.FlightEvents;
+import parspice.worker.AutoWorker;
+import parspice.worker.JobStats;
+import parspice.worker.WorkerStats;
+import parspiceTest.ParSPICEInstance;
+
+import java.io.File;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestFlightRecording extends AutoWorker {
+    int numTestTasks = 20;
+
+    @Override
+    public void task(int i) throws Exception {
+        // Long enough that both workers start before the job is done.
+        Thread.sleep(25);
+    }
+
+    @Test
+    public void testFlightRecording() {
+        if (!FlightEvents.isSupported()) {
+            return;
+        }
+        assertDoesNotThrow(() -> {
+            File directory = new File("build/TestFlightRecording");
+            TestCheckpoint.delete(directory);
+            JobStats stats = (new TestFlightRecording())
+                    .init(2, numTestTasks)
+                    .runForStats(ParSPICEInstance.flightRecording);
+
+            assertEquals(2, stats.getWorkers().size());
+            for (WorkerStats worker : stats.getWorkers()) {
+                File recording = worker.getFlightRecording();
+                assertNotNull(recording);
+                assertEquals(directory.getAbsoluteFile(), recording.getParentFile());
+                assertTrue(recording.getName().endsWith("_" + worker.getWorkerID() + ".jfr"), recording.getName());
+                assertTrue(recording.length() > 0);
+            }
+            TestCheckpoint.delete(directory);
+        });
+    }
+}
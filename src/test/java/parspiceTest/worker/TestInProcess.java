@@ -0,0 +1,132 @@
+package parspiceTest.worker;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import parspice.sender.IntSender;
+import parspice.worker.JobStats;
+import parspice.worker.Results;
+import parspice.worker.SIOWorker;
+import parspice.worker.TaskFailure;
+import parspice.worker.WorkerFailedException;
+import parspice.worker.WorkerStats;
+import parspiceTest.ParSPICEInstance;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestInProcess extends SIOWorker<Integer, Integer, Integer> {
+    int numTestTasks = 100;
+
+    int offset = 0;
+
+    public TestInProcess() {
+        super(new IntSender(), new IntSender(), new IntSender());
+    }
+
+    @Override
+    public void setup(Integer input) throws Exception {
+        offset = input;
+    }
+
+    @Override
+    public Integer task(Integer input) throws Exception {
+        if (input < 0) {
+            throw new IllegalArgumentException("bad input " + input);
+        }
+        return input + offset;
+    }
+
+    private List<Integer> inputs(boolean withBad) {
+        List<Integer> inputs = new ArrayList<>(numTestTasks);
+        for (int i = 0; i < numTestTasks; i++) {
+            inputs.add(withBad && i % 9 == 4 ? -i : i);
+        }
+        return inputs;
+    }
+
+    @Test
+    public void testRun() {
+        assertDoesNotThrow(() -> {
+            Results<Integer> results = (new TestInProcess())
+                    .init(3, 10, inputs(false))
+                    .run(ParSPICEInstance.inProcess);
+            assertEquals(numTestTasks, results.size());
+            for (int i = 0; i < numTestTasks; i++) {
+                assertEquals(i + 10, (int) results.get(i));
+            }
+
+            JobStats stats = results.getJobStats();
+            assertEquals(1, stats.getWorkers().size());
+            WorkerStats worker = stats.getWorkers().get(0);
+            assertEquals(0, worker.getWorkerID());
+            assertEquals(numTestTasks, worker.getTasksRun());
+            assertEquals(numTestTasks, worker.getTaskLatency().getCount());
+            // Nothing is sent over a socket.
+            assertEquals(0, worker.getBytesIn());
+            assertEquals(0, worker.getBytesOut());
+            assertEquals(0, stats.getInputBytes());
+        });
+    }
+
+    @Test
+    public void testCaptureErrors() {
+        assertDoesNotThrow(() -> {
+            Results<Integer> results = (new TestInProcess())
+                    .init(1, 10, inputs(true))
+                    .captureErrors()
+                    .run(ParSPICEInstance.inProcess);
+            List<Integer> failed = new ArrayList<>();
+            for (TaskFailure failure : results.getFailures()) {
+                failed.add(failure.getIndex());
+                assertEquals(IllegalArgumentException.class.getName(), failure.getExceptionClass());
+                assertEquals("bad input " + -failure.getIndex(), failure.getMessage());
+            }
+            for (int i = 0; i < numTestTasks; i++) {
+                if (i % 9 == 4) {
+                    assertTrue(failed.contains(i));
+                    assertNull(results.get(i));
+                } else {
+                    assertEquals(i + 10, (int) results.get(i));
+                }
+            }
+            assertEquals(11, failed.size());
+        });
+    }
+
+    @Test
+    public void testFailure() {
+        assertDoesNotThrow(() -> {
+            WorkerFailedException e = assertThrows(WorkerFailedException.class, () -> (new TestInProcess())
+                    .init(2, 10, inputs(true))
+                    .run(ParSPICEInstance.inProcess));
+            assertEquals(0, e.getWorkerID());
+            assertNull(e.getLog());
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+            assertEquals("bad input -4", e.getCause().getMessage());
+        });
+    }
+
+    @Test
+    public void testSingleWorker() {
+        assertDoesNotThrow(() -> {
+            JobStats single = (new TestInProcess())
+                    .init(1, 10, inputs(false))
+                    .run(ParSPICEInstance.singleWorkerInProcess)
+                    .getJobStats();
+            assertEquals(0, single.getInputBytes());
+
+            JobStats multiple = (new TestInProcess())
+                    .init(2, 10, inputs(false))
+                    .run(ParSPICEInstance.singleWorkerInProcess)
+                    .getJobStats();
+            assertTrue(multiple.getInputBytes() > 0);
+        });
+    }
+}
@@ -0,0 +1,58 @@
+package parspiceTest.worker;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import parspice.sender.IntSender;
+import parspice.worker.OWorker;
+import parspice.worker.Results;
+import parspice.worker.TaskFailure;
+import parspice.worker.WorkerFailedException;
+import parspiceTest.ParSPICEInstance;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestIsolateCrashes extends OWorker<Integer> {
+    int numTestTasks = 40;
+
+    public TestIsolateCrashes() {
+        super(new IntSender());
+    }
+
+    @Override
+    public Integer task(int i) throws Exception {
+        if (i == 11 || i == 26) {
+            // Stands in for a crash in native code, which skips all exception handling.
+            Runtime.getRuntime().halt(134);
+        }
+        return i + 100;
+    }
+
+    @Test
+    public void testIsolateCrashes() {
+        assertDoesNotThrow(() -> {
+            List<Integer> directResults = new ArrayList<>(numTestTasks);
+            for (int i = 0; i < numTestTasks; i++) {
+                directResults.add(i == 11 || i == 26 ? null : i + 100);
+            }
+            Results<Integer> parResults = (new TestIsolateCrashes())
+                    .init(3, numTestTasks)
+                    .isolateCrashes()
+                    .maxRetries(0)
+                    .run(ParSPICEInstance.par);
+            assertArrayEquals(directResults.toArray(), parResults.toArray());
+            List<Integer> quarantined = new ArrayList<>();
+            for (TaskFailure failure : parResults.getFailures()) {
+                quarantined.add(failure.getIndex());
+                assertEquals(WorkerFailedException.class.getName(), failure.getExceptionClass());
+            }
+            assertEquals(Arrays.asList(11, 26), quarantined);
+        });
+    }
+}
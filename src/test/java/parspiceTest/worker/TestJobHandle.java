@@ -0,0 +1,73 @@
+package parspiceTest.worker;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import parspice.sender.IntSender;
+import parspice.worker.JobHandle;
+import parspice.worker.OWorker;
+import parspice.worker.Results;
+import parspiceTest.ParSPICEInstance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestJobHandle extends OWorker<Integer> {
+    int numTestTasks = 10;
+
+    public TestJobHandle() {
+        super(new IntSender());
+    }
+
+    @Override
+    public Integer task(int i) throws Exception {
+        if (i == 1000) {
+            // Only reached by the cancellation test.
+            Thread.sleep(60000);
+        }
+        return i + 5;
+    }
+
+    @Test
+    public void testJoin() {
+        assertDoesNotThrow(() -> {
+            List<Integer> directResults = new ArrayList<>(numTestTasks);
+            for (int i = 0; i < numTestTasks; i++) {
+                directResults.add(i + 5);
+            }
+            JobHandle<Results<Integer>> handle = (new TestJobHandle())
+                    .init(2, numTestTasks)
+                    .start(ParSPICEInstance.par);
+            assertArrayEquals(directResults.toArray(), handle.join().toArray());
+            assertTrue(handle.isDone());
+            assertFalse(handle.cancel());
+            assertFalse(handle.isCancelled());
+        });
+    }
+
+    @Test
+    public void testCancel() {
+        JobHandle<Results<Integer>> handle = (new TestJobHandle())
+                .init(2, 2000)
+                .start(ParSPICEInstance.par);
+        // Give the workers time to start, so they have something to kill.
+        assertDoesNotThrow(() -> Thread.sleep(1000));
+        assertFalse(handle.isDone());
+        assertTrue(handle.cancel());
+        assertTrue(handle.isCancelled());
+        assertThrows(CancellationException.class, handle::join);
+        // The run ends once its workers are killed. Had they been left running,
+        // it would only end after task 1000 had finished, with every task done.
+        while (handle.getStats() == null) {
+            assertDoesNotThrow(() -> Thread.sleep(10));
+        }
+        assertTrue(handle.getProgress().getNumCompleted() < 2000);
+    }
+}
@@ -0,0 +1,96 @@
+package parspiceTest.worker;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import parspice.sender.DoubleSender;
+import parspice.sender.IntSender;
+import parspice.worker.JobHandle;
+import parspice.worker.JobStats;
+import parspice.worker.Results;
+import parspice.worker.SIOWorker;
+import parspice.worker.WorkerStats;
+import parspiceTest.ParSPICEInstance;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestJobStats extends SIOWorker<Double, Integer, Double> {
+    int numTestTasks = 20;
+
+    double offset = 0;
+
+    public TestJobStats() {
+        super(new DoubleSender(), new IntSender(), new DoubleSender());
+    }
+
+    @Override
+    public void setup(Double d) throws Exception {
+        Thread.sleep(50);
+        offset = d;
+    }
+
+    @Override
+    public Double task(Integer i) throws Exception {
+        Thread.sleep(10);
+        return i + offset;
+    }
+
+    List<Integer> inputs() {
+        List<Integer> inputs = new ArrayList<>(numTestTasks);
+        for (int i = 0; i < numTestTasks; i++) {
+            inputs.add(i);
+        }
+        return inputs;
+    }
+
+    @Test
+    public void testBreakdown() {
+        assertDoesNotThrow(() -> {
+            Results<Double> results = (new TestJobStats())
+                    .init(2, 1.0, inputs())
+                    .run(ParSPICEInstance.par);
+            JobStats stats = results.getJobStats();
+            assertNotNull(stats);
+            assertEquals(numTestTasks, stats.getNumTasks());
+            assertEquals(2, stats.getWorkers().size());
+
+            long tasksRun = 0;
+            for (WorkerStats worker : stats.getWorkers()) {
+                assertTrue(worker.hasWorkerTimes());
+                assertTrue(worker.getConnectNanos() > 0);
+                assertTrue(worker.getSetupNanos() >= 50_000_000L);
+                assertTrue(worker.getComputeNanos() > 0);
+                assertTrue(worker.getDecodeNanos() > 0);
+                assertTrue(worker.getEncodeNanos() > 0);
+                assertTrue(worker.getBytesIn() > 0);
+                assertTrue(worker.getBytesOut() > 0);
+                tasksRun += worker.getTasksRun();
+            }
+            assertTrue(tasksRun >= numTestTasks);
+            // Every task sleeps for 10 ms.
+            assertTrue(stats.getComputeNanos() >= numTestTasks * 10_000_000L);
+            assertTrue(stats.getElapsedNanos() > stats.getComputeNanos() / 2);
+            assertEquals(stats.getWorkers().get(0).getBytesIn() + stats.getWorkers().get(1).getBytesIn(),
+                    stats.getBytesIn());
+        });
+    }
+
+    @Test
+    public void testHandle() {
+        assertDoesNotThrow(() -> {
+            JobHandle<Results<Double>> handle = (new TestJobStats())
+                    .init(2, 1.0, inputs())
+                    .start(ParSPICEInstance.par);
+            Results<Double> results = handle.join();
+            assertNotNull(results.getJobStats());
+            assertNotNull(handle.getStats());
+            assertEquals(2, handle.getStats().getWorkers().size());
+        });
+    }
+}
@@ -0,0 +1,97 @@
+package parspiceTest.worker;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import parspice.Metrics;
+import parspice.sender.IntSender;
+import parspice.worker.OWorker;
+import parspiceTest.ParSPICEInstance;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestMetrics extends OWorker<Integer> {
+    int numTestTasks = 30;
+
+    public TestMetrics() {
+        super(new IntSender());
+    }
+
+    @Override
+    public Integer task(int i) throws Exception {
+        return i * 2;
+    }
+
+    @Test
+    public void testCounts() {
+        assertDoesNotThrow(() -> {
+            Metrics metrics = Metrics.get();
+            long jobs = metrics.getJobsSucceeded();
+            long tasks = metrics.getTasksCompleted();
+            long spawned = metrics.getWorkersSpawned();
+            long received = metrics.getBytesReceived();
+
+            (new TestMetrics()).init(3, numTestTasks).run(ParSPICEInstance.par);
+
+            assertEquals(jobs + 1, metrics.getJobsSucceeded());
+            assertEquals(tasks + numTestTasks, metrics.getTasksCompleted());
+            assertEquals(spawned + 3, metrics.getWorkersSpawned());
+            assertTrue(metrics.getBytesReceived() > received);
+            assertTrue(metrics.getMaxSpawnLatencyMillis() > 0);
+            assertEquals(0, metrics.getActiveJobs());
+            assertEquals(0, metrics.getActiveWorkers());
+        });
+    }
+
+    @Test
+    public void testJmx() {
+        assertDoesNotThrow(() -> {
+            Metrics.get();
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(Metrics.OBJECT_NAME);
+            // The MBean is registered in the background.
+            for (int i = 0; i < 100 && !server.isRegistered(name); i++) {
+                Thread.sleep(50);
+            }
+            assertEquals(Metrics.get().getTasksCompleted(), server.getAttribute(name, "TasksCompleted"));
+            assertEquals(Metrics.get().getActiveJobs(), server.getAttribute(name, "ActiveJobs"));
+        });
+    }
+
+    @Test
+    public void testPrometheus() {
+        assertDoesNotThrow(() -> {
+            HttpServer server = Metrics.get().serve(0);
+            try {
+                URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/metrics");
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (InputStream in = url.openStream()) {
+                    byte[] buf = new byte[4096];
+                    for (int n = in.read(buf); n != -1; n = in.read(buf)) {
+                        bytes.write(buf, 0, n);
+                    }
+                }
+                String text = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+                assertTrue(text.contains("# TYPE parspice_tasks_completed_total counter\n"));
+                assertTrue(text.contains("\nparspice_active_jobs "));
+                assertTrue(text.contains("\nparspice_jobs_total{result=\"succeeded\"} "));
+                for (String line : text.split("\n")) {
+                    assertTrue(line.startsWith("#") || line.matches("parspice_[a-z_]+(\\{[^}]*})? [0-9.]+"), line);
+                }
+            } finally {
+                server.stop(0);
+            }
+        });
+    }
+}
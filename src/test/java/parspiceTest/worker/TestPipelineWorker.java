@@ -0,0 +1,131 @@
+package parspiceTest.worker;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import parspice.sender.IntSender;
+import parspice.sender.StringSender;
+import parspice.worker.PipelineWorker;
+import parspice.worker.Results;
+import parspice.worker.TaskFailure;
+import parspice.worker.WorkerStats;
+import parspiceTest.ParSPICEInstance;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestPipelineWorker extends PipelineWorker<Integer, Integer, Integer, String> {
+    int numTestTasks = 40;
+
+    Thread setupThread;
+
+    public TestPipelineWorker() {
+        super(new IntSender(), new StringSender());
+    }
+
+    @Override
+    public int getStageThreads() {
+        return 4;
+    }
+
+    @Override
+    public void setup() throws Exception {
+        setupThread = Thread.currentThread();
+    }
+
+    @Override
+    public Integer prepare(Integer input) throws Exception {
+        if (input < 0) {
+            throw new IllegalArgumentException("bad input " + input);
+        }
+        Thread.sleep(10);
+        return input * 2;
+    }
+
+    @Override
+    public Integer spice(Integer prepared) throws Exception {
+        if (Thread.currentThread() != setupThread) {
+            throw new IllegalStateException("spice ran on " + Thread.currentThread().getName());
+        }
+        if (prepared == 28) {
+            throw new IllegalArgumentException("bad prepared " + prepared);
+        }
+        return prepared + 1;
+    }
+
+    @Override
+    public String finish(Integer result) throws Exception {
+        // Later tasks finish first, to check the outputs are put back in order.
+        Thread.sleep(20 - result % 4 * 5);
+        return "r" + result;
+    }
+
+    private List<Integer> inputs(boolean withBad) {
+        List<Integer> inputs = new ArrayList<>(numTestTasks);
+        for (int i = 0; i < numTestTasks; i++) {
+            inputs.add(withBad && i % 9 == 4 ? -i : i);
+        }
+        return inputs;
+    }
+
+    @Test
+    public void testRun() {
+        assertDoesNotThrow(() -> {
+            List<Integer> inputs = inputs(false);
+            inputs.set(14, 15);
+            Results<String> results = (new TestPipelineWorker())
+                    .init(1, inputs)
+                    .run(ParSPICEInstance.par);
+            assertEquals(numTestTasks, results.size());
+            for (int i = 0; i < numTestTasks; i++) {
+                assertEquals("r" + (inputs.get(i) * 2 + 1), results.get(i));
+            }
+
+            WorkerStats worker = results.getJobStats().getWorkers().get(0);
+            assertEquals(numTestTasks, worker.getTasksRun());
+            assertEquals(numTestTasks, worker.getTaskLatency().getCount());
+            // The prepare and finish stages sleep for a second in all, spread over four threads.
+            assertTrue(worker.getComputeNanos() < 700_000_000L, "compute took " + worker.getComputeNanos() + " ns");
+        });
+    }
+
+    @Test
+    public void testCaptureErrors() {
+        assertDoesNotThrow(() -> {
+            Results<String> results = (new TestPipelineWorker())
+                    .init(2, inputs(true))
+                    .captureErrors()
+                    .run(ParSPICEInstance.par);
+            List<Integer> failed = new ArrayList<>();
+            for (TaskFailure failure : results.getFailures()) {
+                failed.add(failure.getIndex());
+            }
+            for (int i = 0; i < numTestTasks; i++) {
+                if (i % 9 == 4 || i == 14) {
+                    assertTrue(failed.contains(i));
+                    assertNull(results.get(i));
+                } else {
+                    assertEquals("r" + (i * 2 + 1), results.get(i));
+                }
+            }
+            assertEquals(5, failed.size());
+        });
+    }
+
+    @Test
+    public void testInProcess() {
+        assertDoesNotThrow(() -> {
+            Results<String> results = (new TestPipelineWorker())
+                    .init(1, inputs(false).subList(0, 10))
+                    .run(ParSPICEInstance.inProcess);
+            for (int i = 0; i < 10; i++) {
+                assertEquals("r" + (i * 2 + 1), results.get(i));
+            }
+        });
+    }
+}
@@ -0,0 +1,74 @@
+package parspiceTest.worker;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import parspice.worker.AutoWorker;
+import parspice.worker.JobHandle;
+import parspice.worker.JobProgress;
+import parspice.worker.WorkerProgress;
+import parspiceTest.ParSPICEInstance;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestProgress extends AutoWorker {
+    int numTestTasks = 40;
+
+    @Override
+    public void task(int i) throws Exception {
+        Thread.sleep(20);
+    }
+
+    @Test
+    public void testListener() {
+        assertDoesNotThrow(() -> {
+            List<JobProgress> reports = new CopyOnWriteArrayList<>();
+            (new TestProgress())
+                    .init(2, numTestTasks)
+                    .onProgress(reports::add, 50)
+                    .run(ParSPICEInstance.par);
+
+            assertTrue(reports.size() >= 2, "only " + reports.size() + " reports");
+            boolean partial = false;
+            for (int i = 1; i < reports.size(); i++) {
+                assertTrue(reports.get(i).getNumCompleted() >= reports.get(i - 1).getNumCompleted());
+                int completed = reports.get(i).getNumCompleted();
+                if (completed > 0 && completed < numTestTasks) {
+                    partial = true;
+                    assertTrue(reports.get(i).getEtaMillis() > 0);
+                }
+            }
+            assertTrue(partial, "no report while the job was running");
+
+            JobProgress last = reports.get(reports.size() - 1);
+            assertEquals(numTestTasks, last.getNumCompleted());
+            assertEquals(1.0, last.getFractionComplete());
+            assertEquals(0, last.getEtaMillis());
+            assertTrue(last.getThroughput() > 0);
+            assertEquals(2, last.getWorkers().size());
+            int sum = 0;
+            for (WorkerProgress worker : last.getWorkers()) {
+                assertTrue(worker.getNumCompleted() > 0);
+                sum += worker.getNumCompleted();
+            }
+            assertEquals(numTestTasks, sum);
+        });
+    }
+
+    @Test
+    public void testHandle() {
+        assertDoesNotThrow(() -> {
+            JobHandle<Void> handle = (new TestProgress())
+                    .init(2, numTestTasks)
+                    .start(ParSPICEInstance.par);
+            assertTrue(handle.getProgress().getNumCompleted() < numTestTasks);
+            handle.join();
+            assertEquals(numTestTasks, handle.getProgress().getNumCompleted());
+        });
+    }
+}
@@ -0,0 +1,147 @@
+package parspiceTest.worker;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import parspice.sender.IntSender;
+import parspice.worker.OWorker;
+import parspice.worker.ResultCache;
+import parspice.worker.Results;
+import parspiceTest.ParSPICEInstance;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestResultCache extends OWorker<Integer> {
+
+    static final File CACHE = new File("build/TestResultCache/cache");
+
+    /**
+     * Each task leaves a file here, to show which tasks were run.
+     */
+    static final File RAN = new File("build/TestResultCache/ran");
+
+    public TestResultCache() {
+        super(new IntSender());
+    }
+
+    @Override
+    public Integer task(int i) throws Exception {
+        new File(RAN, String.valueOf(i)).createNewFile();
+        return i * 5;
+    }
+
+    @Test
+    public void testOverlappingRuns() {
+        assertDoesNotThrow(() -> {
+            TestCheckpoint.delete(new File("build/TestResultCache"));
+            RAN.mkdirs();
+            ResultCache cache = new ResultCache(CACHE.getPath(), 1 << 20);
+
+            assertArrayEquals(expected(20), (new TestResultCache())
+                    .init(2, 20)
+                    .cache(cache)
+                    .run(ParSPICEInstance.par).toArray());
+            assertEquals(0, cache.getHits());
+            assertEquals(20, cache.getMisses());
+            assertEquals(20, cache.getNumEntries());
+            assertEquals(20, RAN.list().length);
+
+            TestCheckpoint.delete(RAN);
+            RAN.mkdirs();
+            cache.resetStats();
+            assertArrayEquals(expected(30), (new TestResultCache())
+                    .init(3, 30)
+                    .cache(cache)
+                    .run(ParSPICEInstance.par).toArray());
+            assertEquals(20, cache.getHits());
+            assertEquals(10, cache.getMisses());
+            assertEquals(30, cache.getNumEntries());
+            // Only the new tasks were run.
+            assertEquals(10, RAN.list().length);
+            for (int i = 20; i < 30; i++) {
+                assertTrue(new File(RAN, String.valueOf(i)).exists(), "didn't run task " + i);
+            }
+
+            // Everything is cached, so no workers are started.
+            TestCheckpoint.delete(RAN);
+            RAN.mkdirs();
+            cache.resetStats();
+            assertArrayEquals(expected(30), (new TestResultCache())
+                    .init(2, 30)
+                    .cache(cache)
+                    .run(ParSPICEInstance.par).toArray());
+            assertEquals(1.0, cache.getHitRate());
+            assertEquals(0, RAN.list().length);
+        });
+    }
+
+    @Test
+    public void testEviction() {
+        assertDoesNotThrow(() -> {
+            TestCheckpoint.delete(new File("build/TestResultCache"));
+            RAN.mkdirs();
+            ResultCache cache = new ResultCache(CACHE.getPath(), 1 << 20);
+            (new TestResultCache())
+                    .init(2, 20)
+                    .cache(cache)
+                    .run(ParSPICEInstance.par);
+            long entrySize = cache.getSizeBytes() / cache.getNumEntries();
+
+            // Reopening with a smaller limit evicts the least recently used outputs.
+            cache = new ResultCache(CACHE.getPath(), 10 * entrySize);
+            assertEquals(10, cache.getNumEntries());
+            assertEquals(10, cache.getEvictions());
+            assertEquals(10 * entrySize, cache.getSizeBytes());
+
+            assertArrayEquals(expected(20), (new TestResultCache())
+                    .init(2, 20)
+                    .cache(cache)
+                    .run(ParSPICEInstance.par).toArray());
+            assertEquals(10, cache.getHits());
+            assertEquals(10, cache.getMisses());
+            assertEquals(10, cache.getNumEntries());
+            assertTrue(cache.getSizeBytes() <= cache.getMaxBytes());
+            assertEquals(10, CACHE.list().length);
+        });
+    }
+
+    @Test
+    public void testRemappedSetupInputs() {
+        assertDoesNotThrow(() -> {
+            TestCheckpoint.delete(new File("build/TestResultCache"));
+            ResultCache cache = new ResultCache(CACHE.getPath(), 1 << 20);
+            (new TestSetupGroups())
+                    .init(6, Arrays.asList(1, 1, 2))
+                    .cache(cache)
+                    .run(ParSPICEInstance.par);
+
+            // The same distinct setup inputs, but tasks 2 and 3 now run after setup 2.
+            cache.resetStats();
+            Results<Integer> results = (new TestSetupGroups())
+                    .init(6, Arrays.asList(1, 2, 2))
+                    .cache(cache)
+                    .run(ParSPICEInstance.par);
+            for (int i = 0; i < 6; i++) {
+                assertEquals(i * 100 + (i < 2 ? 1 : 2), (int) results.get(i));
+            }
+            assertEquals(4, cache.getHits());
+            assertEquals(2, cache.getMisses());
+        });
+    }
+
+    private static Object[] expected(int numTasks) {
+        List<Integer> results = new ArrayList<>(numTasks);
+        for (int i = 0; i < numTasks; i++) {
+            results.add(i * 5);
+        }
+        return results.toArray();
+    }
+}
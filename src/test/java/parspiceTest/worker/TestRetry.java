@@ -0,0 +1,68 @@
+package parspiceTest.worker;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import parspice.sender.IntSender;
+import parspice.worker.OWorker;
+import parspice.worker.WorkerFailedException;
+import parspiceTest.ParSPICEInstance;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestRetry extends OWorker<Integer> {
+    int numTestTasks = 20;
+
+    /**
+     * Task 13 fails the first time it runs, and creates this file
+     * so that it succeeds when it is retried.
+     */
+    static final File MARKER = new File("build/TestRetry.marker");
+
+    public TestRetry() {
+        super(new IntSender());
+    }
+
+    @Override
+    public Integer task(int i) throws Exception {
+        if (i == 13 && MARKER.createNewFile()) {
+            throw new IllegalStateException("task 13 failed on purpose");
+        }
+        return i * 5;
+    }
+
+    @Test
+    public void testRetry() {
+        assertDoesNotThrow(() -> {
+            MARKER.delete();
+            List<Integer> directResults = new ArrayList<>(numTestTasks);
+            for (int i = 0; i < numTestTasks; i++) {
+                directResults.add(i * 5);
+            }
+            ArrayList<Integer> parResults = (new TestRetry())
+                    .init(2, numTestTasks)
+                    .maxRetries(1)
+                    .run(ParSPICEInstance.par);
+            assertArrayEquals(directResults.toArray(), parResults.toArray());
+        });
+    }
+
+    @Test
+    public void testNoRetries() {
+        assertDoesNotThrow(() -> {
+            MARKER.delete();
+            WorkerFailedException e = assertThrows(WorkerFailedException.class, () -> (new TestRetry())
+                    .init(2, numTestTasks)
+                    .maxRetries(0)
+                    .run(ParSPICEInstance.par));
+            assertEquals(1, e.getWorkerID());
+        });
+    }
+}
@@ -0,0 +1,72 @@
+package parspiceTest.worker;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import parspice.sender.IntSender;
+import parspice.worker.OWorker;
+import parspice.worker.Results;
+import parspiceTest.ParSPICEInstance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestRunAsync extends OWorker<Integer> {
+    int numTestTasks = 10;
+
+    public TestRunAsync() {
+        super(new IntSender());
+    }
+
+    @Override
+    public Integer task(int i) throws Exception {
+        if (i == 1000) {
+            // Only reached by the cancellation test.
+            Thread.sleep(60000);
+        }
+        return i * 2;
+    }
+
+    @Test
+    public void testRunAsync() {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Integer> directResults = new ArrayList<>(numTestTasks);
+            for (int i = 0; i < numTestTasks; i++) {
+                directResults.add(i * 2);
+            }
+            CompletableFuture<Results<Integer>> future1 = (new TestRunAsync())
+                    .init(2, numTestTasks)
+                    .runAsync(ParSPICEInstance.par);
+            CompletableFuture<Results<Integer>> future2 = (new TestRunAsync())
+                    .init(2, numTestTasks)
+                    .runAsync(ParSPICEInstance.par, executor);
+            assertDoesNotThrow(() -> {
+                assertArrayEquals(directResults.toArray(), future1.get().toArray());
+                assertArrayEquals(directResults.toArray(), future2.get().toArray());
+            });
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testCancel() {
+        CompletableFuture<Results<Integer>> future = (new TestRunAsync())
+                .init(2, 2000)
+                .runAsync(ParSPICEInstance.par);
+        // Give the workers time to start, so they have something to kill.
+        assertDoesNotThrow(() -> Thread.sleep(1000));
+        assertTrue(future.cancel(true));
+        assertThrows(CancellationException.class, future::get);
+    }
+}
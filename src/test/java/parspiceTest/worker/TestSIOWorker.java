@@ -5,14 +5,18 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
 import parspice.sender.DoubleSender;
 import parspice.sender.IntSender;
+import parspice.worker.Results;
 import parspice.worker.SIOWorker;
 import parspiceTest.ParSPICEInstance;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 public class TestSIOWorker extends SIOWorker<Double, Integer, Double> {
@@ -49,6 +53,26 @@ public class TestSIOWorker extends SIOWorker<Double, Integer, Double> {
         });
     }
 
+    @Test
+    public void testDeduplicate() {
+        assertDoesNotThrow(() -> {
+            List<Integer> inputs = new ArrayList<>(numTestTasks);
+            for (int i = 0; i < numTestTasks; i++) {
+                inputs.add(i % 3);
+            }
+            assertThrows(IllegalStateException.class,
+                    () -> (new TestSIOWorker()).init(Arrays.asList(3.0, 4.0), inputs).deduplicate());
+            Results<Double> results = (new TestSIOWorker())
+                    .init(Arrays.asList(3.0, 3.0), inputs)
+                    .deduplicate()
+                    .run(ParSPICEInstance.par);
+            for (int i = 0; i < numTestTasks; i++) {
+                assertEquals(i % 3 + 3.0, (double) results.get(i));
+            }
+            assertEquals(3, results.getDeduplicationStats().getNumUnique());
+        });
+    }
+
     @Test
     public void testCorrectness() {
         List<Double> directResults = new ArrayList<>(numTestTasks);
@@ -0,0 +1,70 @@
+package parspiceTest.worker;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import parspice.sender.IntSender;
+import parspice.worker.Results;
+import parspice.worker.SOWorker;
+import parspice.worker.WorkerStats;
+import parspiceTest.ParSPICEInstance;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestSetupGroups extends SOWorker<Integer, Integer> {
+    int numTestTasks = 12;
+
+    int offset;
+
+    public TestSetupGroups() {
+        super(new IntSender(), new IntSender());
+    }
+
+    @Override
+    public void setup(Integer offset) {
+        this.offset = offset;
+    }
+
+    @Override
+    public Integer task(int i) throws Exception {
+        // Worker 1 is a straggler.
+        Thread.sleep(getWorkerID() == 1 ? 400 : 10);
+        return i * 100 + offset;
+    }
+
+    @Test
+    public void testSpeculationKeepsSetupInputs() {
+        assertDoesNotThrow(() -> {
+            // Workers 1 and 2 have the same setup input, so only worker 2 can take over worker 1's tasks.
+            Results<Integer> results = (new TestSetupGroups())
+                    .init(numTestTasks, Arrays.asList(0, 1, 1))
+                    .run(ParSPICEInstance.speculative);
+            for (int i = 0; i < numTestTasks; i++) {
+                assertEquals(i * 100 + (i < 4 ? 0 : 1), (int) results.get(i));
+            }
+            long[] tasksRun = new long[3];
+            for (WorkerStats worker : results.getJobStats().getWorkers()) {
+                tasksRun[worker.getWorkerID()] += worker.getTasksRun();
+            }
+            assertEquals(4, tasksRun[0]);
+            assertTrue(tasksRun[2] > 4, "worker 2 ran " + tasksRun[2] + " tasks");
+        });
+    }
+
+    @Test
+    public void testNotRunInProcess() {
+        assertDoesNotThrow(() -> {
+            Results<Integer> results = (new TestSetupGroups())
+                    .init(6, Arrays.asList(0, 1))
+                    .run(ParSPICEInstance.inProcess);
+            for (int i = 0; i < 6; i++) {
+                assertEquals(i * 100 + (i < 3 ? 0 : 1), (int) results.get(i));
+            }
+            assertEquals(2, results.getJobStats().getWorkers().size());
+        });
+    }
+}
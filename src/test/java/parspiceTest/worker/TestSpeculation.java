@@ -0,0 +1,54 @@
+package parspiceTest.worker;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import parspice.sender.IntSender;
+import parspice.worker.OWorker;
+import parspice.worker.Results;
+import parspice.worker.WorkerStats;
+import parspiceTest.ParSPICEInstance;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestSpeculation extends OWorker<Integer> {
+    int numTestTasks = 20;
+
+    public TestSpeculation() {
+        super(new IntSender());
+    }
+
+    @Override
+    public Integer task(int i) throws Exception {
+        // Worker 1 is a straggler: on its own, it would take 5 seconds.
+        Thread.sleep(getWorkerID() == 1 ? 500 : 10);
+        return i * i;
+    }
+
+    @Test
+    public void testStragglerIsSpeculated() {
+        assertDoesNotThrow(() -> {
+            List<Integer> directResults = new ArrayList<>(numTestTasks);
+            for (int i = 0; i < numTestTasks; i++) {
+                directResults.add(i * i);
+            }
+            Results<Integer> parResults = (new TestSpeculation())
+                    .init(2, numTestTasks)
+                    .run(ParSPICEInstance.speculative);
+            assertArrayEquals(directResults.toArray(), parResults.toArray());
+            // Worker 0 ran some of worker 1's share, as well as its own.
+            long tasksRun = 0;
+            for (WorkerStats worker : parResults.getJobStats().getWorkers()) {
+                if (worker.getWorkerID() == 0) {
+                    tasksRun += worker.getTasksRun();
+                }
+            }
+            assertTrue(tasksRun > numTestTasks / 2, "worker 0 ran " + tasksRun + " tasks");
+        });
+    }
+}
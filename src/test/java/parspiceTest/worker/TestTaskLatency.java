@@ -0,0 +1,53 @@
+package parspiceTest.worker;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import parspice.worker.AutoWorker;
+import parspice.worker.JobStats;
+import parspice.worker.LatencyHistogram;
+import parspice.worker.WorkerStats;
+import parspiceTest.ParSPICEInstance;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestTaskLatency extends AutoWorker {
+    int numTestTasks = 100;
+
+    /**
+     * Most tasks take 1 ms, but every 20th takes 40 ms.
+     */
+    @Override
+    public void task(int i) throws Exception {
+        Thread.sleep(i % 20 == 19 ? 40 : 1);
+    }
+
+    @Test
+    public void testPercentiles() {
+        assertDoesNotThrow(() -> {
+            JobStats stats = (new TestTaskLatency())
+                    .init(2, numTestTasks)
+                    .runForStats(ParSPICEInstance.par);
+
+            LatencyHistogram latency = stats.getTaskLatency();
+            assertTrue(latency.getCount() >= numTestTasks);
+            assertTrue(latency.getMin() >= 1_000_000L);
+            assertTrue(latency.getPercentile(50) < 20_000_000L, latency.toString());
+            assertTrue(latency.getPercentile(99) >= 40_000_000L, latency.toString());
+            assertTrue(latency.getMax() >= 40_000_000L);
+            assertTrue(latency.getMean() > latency.getPercentile(50));
+            assertEquals(latency.getMax(), latency.getPercentile(100));
+
+            long count = 0;
+            for (WorkerStats worker : stats.getWorkers()) {
+                LatencyHistogram workerLatency = worker.getTaskLatency();
+                assertEquals(worker.getTasksRun(), workerLatency.getCount());
+                assertTrue(workerLatency.getMax() <= latency.getMax());
+                count += workerLatency.getCount();
+            }
+            assertEquals(latency.getCount(), count);
+        });
+    }
+}
@@ -0,0 +1,52 @@
+package parspiceTest.worker;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import parspice.sender.IntSender;
+import parspice.worker.OWorker;
+import parspice.worker.TaskTimeoutException;
+import parspiceTest.ParSPICEInstance;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestTaskTimeout extends OWorker<Integer> {
+    int numTestTasks = 20;
+
+    public TestTaskTimeout() {
+        super(new IntSender());
+    }
+
+    @Override
+    public Integer task(int i) throws Exception {
+        if (i == 3) {
+            // Stands in for a SPICE call that never returns.
+            Thread.sleep(Long.MAX_VALUE);
+        }
+        return i * 3;
+    }
+
+    @Test
+    public void testTaskTimeout() {
+        assertDoesNotThrow(() -> {
+            List<Integer> directResults = new ArrayList<>(numTestTasks);
+            for (int i = 0; i < numTestTasks; i++) {
+                directResults.add(i == 3 ? null : i * 3);
+            }
+            TaskTimeoutException e = assertThrows(TaskTimeoutException.class, () -> (new TestTaskTimeout())
+                    .init(2, numTestTasks)
+                    .taskTimeout(1000)
+                    .maxRetries(0)
+                    .run(ParSPICEInstance.par));
+            assertEquals(Collections.singletonList(3), e.getIndices());
+            assertArrayEquals(directResults.toArray(), e.getOutputs().toArray());
+        });
+    }
+}
@@ -0,0 +1,92 @@
+package parspiceTest.worker;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import parspice.sender.IntSender;
+import parspice.worker.IOWorker;
+import parspice.worker.Results;
+import parspice.worker.TaskFailure;
+import parspice.worker.WorkerStats;
+import parspiceTest.ParSPICEInstance;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestThreadsPerWorker extends IOWorker<Integer, Integer> {
+    int numTestTasks = 40;
+
+    public TestThreadsPerWorker() {
+        super(new IntSender(), new IntSender());
+    }
+
+    @Override
+    public int getThreadsPerWorker() {
+        return 4;
+    }
+
+    @Override
+    public Integer task(Integer input) throws Exception {
+        if (input < 0) {
+            throw new IllegalArgumentException("bad input " + input);
+        }
+        // Later tasks finish first, to check the outputs are put back in order.
+        Thread.sleep(40 - input % 4 * 10);
+        return input * 2;
+    }
+
+    private List<Integer> inputs(boolean withBad) {
+        List<Integer> inputs = new ArrayList<>(numTestTasks);
+        for (int i = 0; i < numTestTasks; i++) {
+            inputs.add(withBad && i % 7 == 3 ? -i : i);
+        }
+        return inputs;
+    }
+
+    @Test
+    public void testRun() {
+        assertDoesNotThrow(() -> {
+            Results<Integer> results = (new TestThreadsPerWorker())
+                    .init(1, inputs(false))
+                    .run(ParSPICEInstance.par);
+            assertEquals(numTestTasks, results.size());
+            for (int i = 0; i < numTestTasks; i++) {
+                assertEquals(i * 2, (int) results.get(i));
+            }
+
+            WorkerStats worker = results.getJobStats().getWorkers().get(0);
+            assertEquals(numTestTasks, worker.getTasksRun());
+            assertEquals(numTestTasks, worker.getTaskLatency().getCount());
+            // The tasks sleep for a second in all; four at a time, they take about a quarter of that.
+            assertTrue(worker.getComputeNanos() < 600_000_000L, "compute took " + worker.getComputeNanos() + " ns");
+        });
+    }
+
+    @Test
+    public void testCaptureErrors() {
+        assertDoesNotThrow(() -> {
+            Results<Integer> results = (new TestThreadsPerWorker())
+                    .init(2, inputs(true))
+                    .captureErrors()
+                    .run(ParSPICEInstance.par);
+            List<Integer> failed = new ArrayList<>();
+            for (TaskFailure failure : results.getFailures()) {
+                failed.add(failure.getIndex());
+                assertEquals("bad input " + -failure.getIndex(), failure.getMessage());
+            }
+            for (int i = 0; i < numTestTasks; i++) {
+                if (i % 7 == 3) {
+                    assertTrue(failed.contains(i));
+                    assertNull(results.get(i));
+                } else {
+                    assertEquals(i * 2, (int) results.get(i));
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,100 @@
+package parspiceTest.worker;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import parspice.sender.IntSender;
+import parspice.worker.OWorker;
+import parspice.worker.Results;
+import parspice.worker.WorkerStats;
+import parspiceTest.ParSPICEInstance;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestTrace extends OWorker<Integer> {
+    int numTestTasks = 40;
+
+    public TestTrace() {
+        super(new IntSender());
+    }
+
+    @Override
+    public void setup() throws Exception {
+        Thread.sleep(20);
+    }
+
+    @Override
+    public Integer task(int i) throws Exception {
+        Thread.sleep(2);
+        return i;
+    }
+
+    @Test
+    public void testTrace() {
+        assertDoesNotThrow(() -> {
+            File file = new File("build/TestTrace.json");
+            file.delete();
+            Results<Integer> results = (new TestTrace())
+                    .init(2, numTestTasks)
+                    .trace(file.getPath())
+                    .run(ParSPICEInstance.par);
+            assertEquals(numTestTasks, results.size());
+
+            String trace = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            assertTrue(trace.startsWith("{\"displayTimeUnit\":\"ms\",\"traceEvents\":["));
+            assertTrue(trace.trim().endsWith("]}"));
+            List<WorkerStats> workers = results.getJobStats().getWorkers();
+            for (int tid = 1; tid <= workers.size(); tid++) {
+                assertTrue(count(trace, "spawn", tid) > 0, "spawn missing for tid " + tid);
+                // A worker that starts slowly may find the others have done all the work.
+                if (workers.get(tid - 1).getTasksRun() > 0) {
+                    for (String name : new String[]{"connect", "setup", "batch"}) {
+                        assertTrue(count(trace, name, tid) > 0, name + " missing for tid " + tid);
+                    }
+                }
+            }
+
+            // Every task is in a batch, and every batch starts after its worker's setup.
+            Matcher batch = Pattern.compile(
+                    "\"name\":\"batch\",\"cat\":\"compute\",\"ph\":\"X\",\"ts\":([0-9.]+),\"dur\":[0-9.]+,"
+                            + "\"pid\":1,\"tid\":(\\d+),\"args\":\\{\"firstTask\":(\\d+),\"tasks\":(\\d+)}").matcher(trace);
+            boolean[] seen = new boolean[numTestTasks];
+            while (batch.find()) {
+                int first = Integer.parseInt(batch.group(3));
+                for (int i = first; i < first + Integer.parseInt(batch.group(4)); i++) {
+                    seen[i] = true;
+                }
+                assertTrue(Double.parseDouble(batch.group(1)) >= setupEnd(trace, Integer.parseInt(batch.group(2))));
+            }
+            for (boolean s : seen) {
+                assertTrue(s);
+            }
+            file.delete();
+        });
+    }
+
+    private static int count(String trace, String name, int tid) {
+        Matcher matcher = Pattern.compile("\"name\":\"" + name + "\"[^}]*\"tid\":" + tid + "[,}]").matcher(trace);
+        int count = 0;
+        while (matcher.find()) {
+            count++;
+        }
+        return count;
+    }
+
+    private static double setupEnd(String trace, int tid) {
+        Matcher setup = Pattern.compile("\"name\":\"setup\",\"cat\":\"startup\",\"ph\":\"X\",\"ts\":([0-9.]+),"
+                + "\"dur\":([0-9.]+),\"pid\":1,\"tid\":" + tid + "}").matcher(trace);
+        assertTrue(setup.find());
+        return Double.parseDouble(setup.group(1)) + Double.parseDouble(setup.group(2));
+    }
+}
@@ -0,0 +1,38 @@
+package parspiceTest.worker;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import parspice.sender.IntSender;
+import parspice.worker.OWorker;
+import parspice.worker.WorkerFailedException;
+import parspiceTest.ParSPICEInstance;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestWorkerFailure extends OWorker<Integer> {
+    int numTestTasks = 10;
+
+    public TestWorkerFailure() {
+        super(new IntSender());
+    }
+
+    @Override
+    public Integer task(int i) throws Exception {
+        if (i == 7) {
+            throw new IllegalStateException("task 7 failed on purpose");
+        }
+        return i;
+    }
+
+    @Test
+    public void testFailure() {
+        WorkerFailedException e = assertThrows(WorkerFailedException.class, () -> (new TestWorkerFailure())
+                .init(2, numTestTasks)
+                .run(ParSPICEInstance.par));
+        assertEquals(1, e.getWorkerID());
+        assertTrue(e.getLog().contains("task 7 failed on purpose"));
+    }
+}